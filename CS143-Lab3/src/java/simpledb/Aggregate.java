@@ -3,20 +3,20 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by zero or more columns.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private DbIterator dbIt;
-    private int aField;
-    private int gbField;
-    private Type gbFieldType;
-    private Aggregator.Op aOp;
-    private Aggregator aggItself;			// use to determine whether it's a stringAggregator or an IntegerAggregator
+    private int[] aFields;
+    private int[] gbFields;
+    private Type[] gbFieldTypes;
+    private Aggregator.Op[] aOps;
+    private Aggregator aggItself;
     private DbIterator resIt;
 
     /**
@@ -38,64 +38,119 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+    		this(child, new int[] {afield},
+    				gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] {gfield},
+    				new Aggregator.Op[] {aop});
+    }
+
+    /**
+     * Constructor for several aggregates sharing one grouping. The output
+     * tuples hold the group by columns, in order, followed by one column per
+     * aggregate.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+    		if(afields.length == 0 || afields.length != aops.length)
+    			throw new IllegalArgumentException("need one operator per aggregate field");
     		dbIt = child;
-    		aField = afield;
-    		gbField = gfield;
-    		aOp = aop;
-    		if(gbField == Aggregator.NO_GROUPING)
-    			gbFieldType = null;
-    		else
-    			gbFieldType = dbIt.getTupleDesc().getFieldType(gbField);
+    		aFields = afields.clone();
+    		gbFields = gfields.clone();
+    		aOps = aops.clone();
+    		gbFieldTypes = new Type[gbFields.length];
+    		for(int i = 0; i < gbFields.length; i++)
+    			gbFieldTypes[i] = dbIt.getTupleDesc().getFieldType(gbFields[i]);
     		
-    		if(dbIt.getTupleDesc().getFieldType(aField).equals(Type.INT_TYPE))				// initiate the aggregator to be a strAgg or an intAgg
-    			aggItself = new IntegerAggregator(gbField, gbFieldType, aField, aOp);
-    		else if(dbIt.getTupleDesc().getFieldType(aField).equals(Type.STRING_TYPE))
-    			aggItself = new StringAggregator(gbField, gbFieldType, aField, aOp);
-    		else
-    			throw new IllegalArgumentException("Not a string or int aggregator");
+    		aggItself = newAggregator();				// fails early if an aop is not supported over its afield
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * Creates the aggregator that open() feeds the child's tuples into. A
+     * {@link HashAggregator} handles both int and string aggregate fields and
+     * spills groups to disk when there are too many to hold in memory.
+     */
+    private Aggregator newAggregator() {
+    		Type[] aTypes = new Type[aFields.length];
+    		for(int i = 0; i < aFields.length; i++) {
+    			aTypes[i] = dbIt.getTupleDesc().getFieldType(aFields[i]);
+    			if(!aTypes[i].equals(Type.INT_TYPE) && !aTypes[i].equals(Type.STRING_TYPE))
+    				throw new IllegalArgumentException("Not a string or int aggregator");
+    		}
+    		return new HashAggregator(gbFields, gbFieldTypes, aFields, aTypes, aOps,
+    				HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-    	return gbField;
+    	return gbFields.length == 0 ? Aggregator.NO_GROUPING : gbFields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     * */
+    public int[] groupFields() {
+    	return gbFields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
-    	if(gbField == Aggregator.NO_GROUPING)
+    	if(gbFields.length == 0)
     		return null;
     	else
-    		return dbIt.getTupleDesc().getFieldName(gbField);
+    		return dbIt.getTupleDesc().getFieldName(gbFields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the first aggregate field
      * */
     public int aggregateField() {
-    	return aField;
+    	return aFields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     * @return the aggregate fields, in output order
+     * */
+    public int[] aggregateFields() {
+    	return aFields.clone();
+    }
+
+    /**
+     * @return return the name of the first aggregate field in the <b>OUTPUT</b>
      *         tuples
      * */
     public String aggregateFieldName() {
-    	return dbIt.getTupleDesc().getFieldName(aField);
+    	return dbIt.getTupleDesc().getFieldName(aFields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the first aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-    	return aOp;
+    	return aOps[0];
+    }
+
+    /**
+     * @return the operator of each aggregate, in output order
+     * */
+    public Aggregator.Op[] aggregateOps() {
+    	return aOps.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -106,6 +161,9 @@ public class Aggregate extends Operator {
     TransactionAbortedException {
 	super.open();
 	dbIt.open();
+	if (resIt != null)
+		closeAggregator();
+	aggItself = newAggregator();
 	while (dbIt.hasNext()) {
 		aggItself.mergeTupleIntoGroup(dbIt.next());
 	}
@@ -114,11 +172,9 @@ public class Aggregate extends Operator {
 }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group by fields, if any, come first,
+     * followed by the result of each aggregate. Should return null if there
+     * are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		if(resIt == null)
@@ -135,10 +191,9 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields come
+     * first, in the order given to the constructor, followed by one int
+     * field per aggregate.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -146,32 +201,44 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-    	TupleDesc td = null;
-    	Type[] types;
-    	String[] fields;
-    	String aggregateName = aOp.toString() 
+    	return outputTupleDesc(dbIt.getTupleDesc(), gbFields, aFields, aOps);
+    }
+
+    /**
+     * Builds the TupleDesc of an aggregate over tuples of childTd: the
+     * group by fields, in order, followed by an int field named
+     * "aop(afield)" for each aggregate.
+     */
+    static TupleDesc outputTupleDesc(TupleDesc childTd, int[] gbFields,
+    		int[] aFields, Aggregator.Op[] aOps) {
+    	Type[] types = new Type[gbFields.length + aFields.length];
+    	String[] fields = new String[types.length];
+    	for (int i = 0; i < gbFields.length; i++) {
+    		types[i] = childTd.getFieldType(gbFields[i]);
+    		fields[i] = childTd.getFieldName(gbFields[i]);
+    	}
+    	for (int i = 0; i < aFields.length; i++) {
+    		types[gbFields.length + i] = Type.INT_TYPE;		// every aggregate produces an int
+    		fields[gbFields.length + i] = aOps[i].toString()
     							+ "(" 
-    							+ dbIt.getTupleDesc().getFieldName(aggregateField()) 
+    							+ childTd.getFieldName(aFields[i]) 
     							+ ")";
-    	if (groupField() == Aggregator.NO_GROUPING) {
-    		//only one field = aggregate column
-    		types = new Type[] {dbIt.getTupleDesc().getFieldType(aggregateField())};
-    		fields = new String[] {aggregateName};
-    		td = new TupleDesc(types, fields);
-    	}
-    	else {
-    		types = new Type[] {dbIt.getTupleDesc().getFieldType(groupField()),
-    				dbIt.getTupleDesc().getFieldType(aggregateField())};
-    		fields = new String[] {groupFieldName(), aggregateName};
-    		td = new TupleDesc(types, fields);
     	}
-    	return td;
+    	return new TupleDesc(types, fields);
     }
 
     public void close() {
 	    super.close();
     	dbIt.close();
+    	if (resIt != null)
+    		closeAggregator();
+    }
+
+    private void closeAggregator() {
     	resIt.close();
+    	resIt = null;
+    	if (aggItself instanceof HashAggregator)
+    		((HashAggregator) aggItself).close();
     }
 
     @Override
@@ -0,0 +1,745 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores its tuples in a B+
+ * tree, sorted on one key field. It supports point lookups and range scans on
+ * the key through {@link #indexIterator}, in addition to the full scan in key
+ * order that every DbFile provides.
+ * <p>
+ * The file is a sequence of fixed size pages, like a {@link HeapFile}. Page 0
+ * is the {@link BTreeRootPtrPage}, which locates the root of the tree and the
+ * free page list. The other pages are {@link BTreeInternalPage}s, which hold
+ * separator keys and child pointers, {@link BTreeLeafPage}s, which hold the
+ * tuples, and {@link BTreeHeaderPage}s, which record pages freed by merges so
+ * they can be reused. All pages are read and modified through the
+ * {@link BufferPool}.
+ * <p>
+ * Inserting into a full leaf splits it, pushing a separator key into its
+ * parent and splitting the parent in turn if necessary; the tree grows a new
+ * root when the old root splits. Deleting from a leaf that becomes less than
+ * half full either takes tuples from a sibling or merges with it, deleting
+ * the separator from the parent and rebalancing the parent in turn; the tree
+ * loses its root when the root is left with a single child.
+ *
+ * @see BTreePageId
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. An empty file is
+     * an empty tree; its root pointer page is written on the first insert.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this tree
+     * @param key
+     *            the field the tuples are sorted on
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("invalid key field " + key);
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of the
+     * absolute file name, as for {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the field the tuples of this file are sorted on.
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and any free pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            if (id.pageNumber() >= numPages()) {
+                // the root pointer page of a tree that was never written
+                if (id.pgcateg() != BTreePageId.ROOT_PTR)
+                    throw new IllegalArgumentException("Read past end of table.");
+            } else {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek((long) id.pageNumber() * pageSize);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, data);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, data, keyField);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, data, keyField);
+            default:
+                return new BTreeHeaderPage(id, data);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+        page.markDirty(false, null);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Fetch a page through the BufferPool. Pages requested READ_WRITE are
+     * marked dirty straight away and remembered in dirtypages, so that the
+     * BufferPool cannot evict them while an insert or delete is still
+     * changing them, and so that the operation can report them.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId pid, Permissions perm) throws DbException,
+            TransactionAbortedException {
+        if (dirtypages != null && dirtypages.containsKey(pid))
+            return dirtypages.get(pid);
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private BTreeRootPtrPage getRootPtrPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), perm);
+    }
+
+    /**
+     * Find the leftmost leaf page that may contain the key f, descending from
+     * the page pid. The internal pages on the way are fetched READ_ONLY and
+     * the leaf with perm.
+     *
+     * @param f
+     *            the key to look for, or null to find the leftmost leaf
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Permissions perm, Field f) throws DbException,
+            TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages,
+                    pid, Permissions.READ_ONLY);
+            int i = 0;
+            if (f != null)
+                while (i < p.getNumKeys()
+                        && p.getKey(i).compare(Predicate.Op.LESS_THAN, f))
+                    i++;
+            pid = p.getChildId(i);
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreePageId rootId = getRootPtrPage(tid, dirtypages,
+                Permissions.READ_ONLY).getRootId();
+        if (rootId == null) {
+            rootId = getEmptyPage(tid, dirtypages, BTreePageId.LEAF).getId();
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(
+                    rootId);
+        }
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootId,
+                Permissions.READ_WRITE, key);
+        if (leaf.getNumEmptySlots() == 0)
+            leaf = splitLeafPage(tid, dirtypages, leaf, key);
+        leaf.insertTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Split a full leaf page in two, moving the upper half of its tuples to a
+     * new right sibling, and insert the first key of the new page into the
+     * parent.
+     *
+     * @return the half in which a tuple with key belongs
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Field key)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage sibling = (BTreeLeafPage) getEmptyPage(tid, dirtypages,
+                BTreePageId.LEAF);
+        List<Tuple> ts = page.getTuples();
+        int mid = ts.size() / 2;
+        page.setTuples(ts.subList(0, mid));
+        sibling.setTuples(ts.subList(mid, ts.size()));
+
+        BTreePageId rightId = page.getRightSiblingId();
+        if (rightId != null)
+            ((BTreeLeafPage) getPage(tid, dirtypages, rightId,
+                    Permissions.READ_WRITE)).setLeftSiblingId(sibling.getId());
+        sibling.setRightSiblingId(rightId);
+        sibling.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(sibling.getId());
+
+        Field separator = sibling.getKey(0);
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages,
+                page);
+        parent.insertEntry(separator, page.getId(), sibling.getId());
+        sibling.setParentId(parent.getId());
+        return key.compare(Predicate.Op.GREATER_THAN, separator) ? sibling
+                : page;
+    }
+
+    /**
+     * Split a full internal page in two, moving the upper half of its entries
+     * to a new right sibling and the middle key up into the parent.
+     */
+    private void splitInternalPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeInternalPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage sibling = (BTreeInternalPage) getEmptyPage(tid,
+                dirtypages, BTreePageId.INTERNAL);
+        sibling.setChildCategory(page.getChildCategory());
+        List<Field> keys = page.getKeys();
+        List<Integer> children = page.getChildren();
+        int mid = keys.size() / 2;
+        page.setEntries(keys.subList(0, mid), children.subList(0, mid + 1));
+        sibling.setEntries(keys.subList(mid + 1, keys.size()),
+                children.subList(mid + 1, children.size()));
+        setParents(tid, dirtypages, sibling,
+                children.subList(mid + 1, children.size()));
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages,
+                page);
+        parent.insertEntry(keys.get(mid), page.getId(), sibling.getId());
+        sibling.setParentId(parent.getId());
+    }
+
+    /**
+     * Return the parent of page, ready to take one more entry: a new root if
+     * page is the root, or its parent after splitting the parent if it was
+     * full.
+     */
+    private BTreeInternalPage getParentWithEmptySlots(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreePage page)
+            throws DbException, IOException, TransactionAbortedException {
+        if (page.isRoot()) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid,
+                    dirtypages, BTreePageId.INTERNAL);
+            root.setChildCategory(page.getId().pgcateg());
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(
+                    root.getId());
+            page.setParentId(root.getId());
+            return root;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid,
+                dirtypages, page.getParentId(), Permissions.READ_WRITE);
+        if (parent.getNumEmptySlots() == 0) {
+            splitInternalPage(tid, dirtypages, parent);
+            // the split may have moved page to the new sibling
+            parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                    page.getParentId(), Permissions.READ_WRITE);
+        }
+        return parent;
+    }
+
+    /** Point the given children of parent back at it */
+    private void setParents(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeInternalPage parent,
+            List<Integer> children) throws DbException,
+            TransactionAbortedException {
+        for (int c : children) {
+            BTreePage child = (BTreePage) getPage(tid, dirtypages,
+                    new BTreePageId(tableid, c, parent.getChildCategory()),
+                    Permissions.READ_WRITE);
+            child.setParentId(parent.getId());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid != null && rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of the file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+
+        // the RecordId is where the tuple was when it was read; if the tree
+        // has changed since, or the tuple was never read from the file, look
+        // the tuple up by its key instead
+        BTreeLeafPage leaf = null;
+        int slot = rid == null ? -1 : rid.tupleno();
+        PageId ridPid = rid == null ? null : rid.getPageId();
+        if (ridPid instanceof BTreePageId
+                && ((BTreePageId) ridPid).pgcateg() == BTreePageId.LEAF
+                && ridPid.pageNumber() < numPages()) {
+            BTreeLeafPage p = (BTreeLeafPage) getPage(tid, null,
+                    (BTreePageId) ridPid, Permissions.READ_ONLY);
+            if (slot < p.getNumTuples() && sameTuple(p.getTuple(slot), t))
+                leaf = p;
+        }
+        if (leaf == null) {
+            leaf = findTuple(tid, t);
+            if (leaf == null)
+                throw new DbException("tuple is not a member of the file");
+            for (slot = 0; !sameTuple(leaf.getTuple(slot), t); slot++)
+                ;
+        }
+        leaf = (BTreeLeafPage) getPage(tid, dirtypages, leaf.getId(),
+                Permissions.READ_WRITE);
+        leaf.deleteTuple(slot);
+        t.setRecordId(null);
+
+        if (!leaf.isRoot() && leaf.getNumTuples() < leaf.getMaxTuples() / 2)
+            handleMinOccupancyLeafPage(tid, dirtypages, leaf);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    private static boolean sameTuple(Tuple a, Tuple b) {
+        if (a == b)
+            return true;
+        for (int i = 0; i < a.getTupleDesc().numFields(); i++)
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        return true;
+    }
+
+    /** @return the leaf holding a tuple equal to t, or null if there is none */
+    private BTreeLeafPage findTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BTreePageId rootId = getRootPtrPage(tid, null, Permissions.READ_ONLY)
+                .getRootId();
+        if (rootId == null)
+            return null;
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeafPage(tid, null, rootId,
+                Permissions.READ_ONLY, key);
+        while (true) {
+            for (int i = 0; i < leaf.getNumTuples(); i++) {
+                if (leaf.getKey(i).compare(Predicate.Op.GREATER_THAN, key))
+                    return null;
+                if (sameTuple(leaf.getTuple(i), t))
+                    return leaf;
+            }
+            BTreePageId next = leaf.getRightSiblingId();
+            if (next == null)
+                return null;
+            leaf = (BTreeLeafPage) getPage(tid, null, next,
+                    Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Rebalance a leaf page that is less than half full with a sibling under
+     * the same parent: merge the two if their tuples fit on one page, and
+     * otherwise share the tuples evenly between them.
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeLeafPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid,
+                dirtypages, page.getParentId(), Permissions.READ_WRITE);
+        int i = parent.childIndex(page.getId().pageNumber());
+        int keyIdx = i > 0 ? i - 1 : 0;
+        BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirtypages,
+                parent.getChildId(keyIdx), Permissions.READ_WRITE);
+        BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages,
+                parent.getChildId(keyIdx + 1), Permissions.READ_WRITE);
+
+        List<Tuple> ts = left.getTuples();
+        ts.addAll(right.getTuples());
+        if (ts.size() <= left.getMaxTuples()) {
+            left.setTuples(ts);
+            BTreePageId rightId = right.getRightSiblingId();
+            left.setRightSiblingId(rightId);
+            if (rightId != null)
+                ((BTreeLeafPage) getPage(tid, dirtypages, rightId,
+                        Permissions.READ_WRITE)).setLeftSiblingId(left.getId());
+            parent.deleteKeyAndRightChild(keyIdx);
+            freePage(tid, dirtypages, right.getId().pageNumber());
+            handleParentAfterDelete(tid, dirtypages, parent);
+        } else {
+            int mid = ts.size() / 2;
+            left.setTuples(ts.subList(0, mid));
+            right.setTuples(ts.subList(mid, ts.size()));
+            parent.setKey(keyIdx, right.getKey(0));
+        }
+    }
+
+    /**
+     * Rebalance an internal page that is less than half full with a sibling,
+     * as {@link #handleMinOccupancyLeafPage} does for leaves. The separator
+     * key in the parent moves down into the combined entries, and when they
+     * are shared out again the middle key moves back up.
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeInternalPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid,
+                dirtypages, page.getParentId(), Permissions.READ_WRITE);
+        int i = parent.childIndex(page.getId().pageNumber());
+        int keyIdx = i > 0 ? i - 1 : 0;
+        BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirtypages,
+                parent.getChildId(keyIdx), Permissions.READ_WRITE);
+        BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirtypages,
+                parent.getChildId(keyIdx + 1), Permissions.READ_WRITE);
+
+        List<Field> keys = left.getKeys();
+        keys.add(parent.getKey(keyIdx));
+        keys.addAll(right.getKeys());
+        List<Integer> children = left.getChildren();
+        int leftCount = children.size();
+        children.addAll(right.getChildren());
+
+        if (keys.size() <= left.getMaxKeys()) {
+            left.setEntries(keys, children);
+            setParents(tid, dirtypages, left,
+                    children.subList(leftCount, children.size()));
+            parent.deleteKeyAndRightChild(keyIdx);
+            freePage(tid, dirtypages, right.getId().pageNumber());
+            handleParentAfterDelete(tid, dirtypages, parent);
+        } else {
+            int mid = keys.size() / 2;
+            left.setEntries(keys.subList(0, mid), children.subList(0, mid + 1));
+            right.setEntries(keys.subList(mid + 1, keys.size()),
+                    children.subList(mid + 1, children.size()));
+            parent.setKey(keyIdx, keys.get(mid));
+            if (mid + 1 > leftCount)
+                setParents(tid, dirtypages, left,
+                        children.subList(leftCount, mid + 1));
+            else
+                setParents(tid, dirtypages, right,
+                        children.subList(mid + 1, leftCount));
+        }
+    }
+
+    /**
+     * Restore the invariants of an internal page that has just lost an entry:
+     * collapse the root if it has a single child left, and rebalance any other
+     * page that is less than half full.
+     */
+    private void handleParentAfterDelete(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeInternalPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        if (page.isRoot()) {
+            if (page.getNumKeys() == 0) {
+                BTreePage child = (BTreePage) getPage(tid, dirtypages,
+                        page.getChildId(0), Permissions.READ_WRITE);
+                child.setParentId(rootPtrId());
+                getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE)
+                        .setRootId(child.getId());
+                freePage(tid, dirtypages, page.getId().pageNumber());
+            }
+        } else if (page.getNumKeys() < page.getMaxKeys() / 2) {
+            handleMinOccupancyInternalPage(tid, dirtypages, page);
+        }
+    }
+
+    /**
+     * Return a new empty page of the given category, reusing a free page if
+     * there is one and extending the file otherwise.
+     */
+    private BTreePage getEmptyPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, int pgcateg) throws DbException,
+            IOException, TransactionAbortedException {
+        int pgNo = getEmptyPageNo(tid, dirtypages);
+        discardCached(dirtypages, pgNo);
+        writePageData(pgNo, BTreePage.createEmptyPageData());
+        return (BTreePage) getPage(tid, dirtypages, new BTreePageId(tableid,
+                pgNo, pgcateg), Permissions.READ_WRITE);
+    }
+
+    private int getEmptyPageNo(TransactionId tid,
+            HashMap<PageId, Page> dirtypages) throws DbException,
+            IOException, TransactionAbortedException {
+        BTreePageId headerId = getRootPtrPage(tid, dirtypages,
+                Permissions.READ_ONLY).getHeaderId();
+        if (headerId != null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid,
+                    dirtypages, headerId, Permissions.READ_WRITE);
+            if (header.getNumFree() > 0)
+                return header.pop();
+            // an empty header page is itself free
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE)
+                    .setHeaderId(header.getNextId());
+            return headerId.pageNumber();
+        }
+        // page 0 belongs to the root pointer even before it is written
+        return Math.max(numPages(), 1);
+    }
+
+    /**
+     * Add page pgNo to the free page list. If the first header page is full,
+     * the freed page becomes a new header page at the front of the list.
+     */
+    private void freePage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgNo) throws DbException, IOException,
+            TransactionAbortedException {
+        discardCached(dirtypages, pgNo);
+        BTreePageId headerId = getRootPtrPage(tid, dirtypages,
+                Permissions.READ_ONLY).getHeaderId();
+        if (headerId != null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid,
+                    dirtypages, headerId, Permissions.READ_WRITE);
+            if (!header.isFull()) {
+                header.push(pgNo);
+                return;
+            }
+        }
+        writePageData(pgNo, BTreePage.createEmptyPageData());
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages,
+                new BTreePageId(tableid, pgNo, BTreePageId.HEADER),
+                Permissions.READ_WRITE);
+        header.setNextId(headerId);
+        getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setHeaderId(
+                header.getId());
+    }
+
+    /**
+     * Drop any cached copy of page pgNo, under whatever category it had, so
+     * that the page can be reused as a different kind of page.
+     */
+    private void discardCached(HashMap<PageId, Page> dirtypages, int pgNo) {
+        for (int c = BTreePageId.INTERNAL; c <= BTreePageId.HEADER; c++) {
+            BTreePageId id = new BTreePageId(tableid, pgNo, c);
+            dirtypages.remove(id);
+            Database.getBufferPool().discardPage(id);
+        }
+    }
+
+    /**
+     * Returns this file as an index over its own key field, so the planner
+     * can treat it like any other {@link DbIndex}. The index has no pages or
+     * entries of its own: it is the tree of tuples itself.
+     */
+    public DbIndex keyIndex() {
+        return new KeyIndex();
+    }
+
+    class KeyIndex implements DbIndex {
+
+        public int getTableId() {
+            return tableid;
+        }
+
+        public int getField() {
+            return keyField;
+        }
+
+        public boolean supports(Predicate.Op op) {
+            return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+        }
+
+        public boolean isOrdered() {
+            return true;
+        }
+
+        public boolean isClustered() {
+            return true;
+        }
+
+        public DbFile getFile() {
+            return null;
+        }
+
+        public int numPages() {
+            return 0;
+        }
+
+        public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+            return ipred == null ? BTreeFile.this.iterator(tid)
+                    : indexIterator(tid, ipred);
+        }
+
+        public ArrayList<Page> insertEntry(TransactionId tid, Tuple t) {
+            return new ArrayList<Page>();
+        }
+
+        public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t) {
+            return new ArrayList<Page>();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies ipred, in key
+     * order. Equality and range predicates only read the leaves that can hold
+     * matching keys; other predicates scan every leaf.
+     *
+     * @param ipred
+     *            the predicate on the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, ipred);
+    }
+
+    /**
+     * Helper class that iterates along the leaves of a BTreeFile, optionally
+     * restricted to the keys matching an IndexPredicate.
+     * <p>
+     * The iterator remembers the tuple it will return next rather than a page
+     * and slot. Leaf pages keep the RecordIds of their tuples current as
+     * tuples shift and move between pages, so the scan continues from the
+     * right place even if the tuples it has returned are deleted in between,
+     * as {@link Delete} does.
+     */
+    class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private Tuple upcoming;
+
+        public BTreeFileIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            upcoming = null;
+            BTreePageId rootId = getRootPtrPage(tid, null,
+                    Permissions.READ_ONLY).getRootId();
+            if (rootId == null)
+                return;
+            Field start = ipred == null || ipred.matchesBelow() ? null : ipred
+                    .getField();
+            upcoming = firstFrom(findLeafPage(tid, null, rootId,
+                    Permissions.READ_ONLY, start), 0);
+        }
+
+        /** @return the first tuple at or after slot of leaf, or null */
+        private Tuple firstFrom(BTreeLeafPage leaf, int slot)
+                throws DbException, TransactionAbortedException {
+            while (slot >= leaf.getNumTuples()) {
+                BTreePageId next = leaf.getRightSiblingId();
+                if (next == null)
+                    return null;
+                leaf = (BTreeLeafPage) getPage(tid, null, next,
+                        Permissions.READ_ONLY);
+                slot = 0;
+            }
+            return leaf.getTuple(slot);
+        }
+
+        @Override
+        protected Tuple readNext() throws TransactionAbortedException,
+                DbException {
+            while (upcoming != null) {
+                Tuple t = upcoming;
+                RecordId rid = t.getRecordId();
+                if (rid != null) {
+                    BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, null,
+                            (BTreePageId) rid.getPageId(),
+                            Permissions.READ_ONLY);
+                    upcoming = firstFrom(leaf, rid.tupleno() + 1);
+                } else {
+                    // deleted before it was returned; carry on after its key
+                    upcoming = firstAfter(t.getField(keyField));
+                    continue;
+                }
+                if (ipred == null)
+                    return t;
+                Field key = t.getField(keyField);
+                if (ipred.filter(key))
+                    return t;
+                if (!ipred.matchesAbove()
+                        && key.compare(Predicate.Op.GREATER_THAN,
+                                ipred.getField()))
+                    upcoming = null;
+            }
+            return null;
+        }
+
+        private Tuple firstAfter(Field key) throws DbException,
+                TransactionAbortedException {
+            BTreePageId rootId = getRootPtrPage(tid, null,
+                    Permissions.READ_ONLY).getRootId();
+            if (rootId == null)
+                return null;
+            BTreeLeafPage leaf = findLeafPage(tid, null, rootId,
+                    Permissions.READ_ONLY, key);
+            Tuple t = firstFrom(leaf, 0);
+            while (t != null
+                    && !t.getField(keyField).compare(
+                            Predicate.Op.GREATER_THAN, key)) {
+                RecordId rid = t.getRecordId();
+                t = firstFrom((BTreeLeafPage) getPage(tid, null,
+                        (BTreePageId) rid.getPageId(), Permissions.READ_ONLY),
+                        rid.tupleno() + 1);
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            upcoming = null;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage holds part of the free page list of a {@link BTreeFile}:
+ * the numbers of pages that were emptied by merges and can be reused before
+ * the file is extended. Header pages are chained through their next pointer,
+ * starting from the one named by the {@link BTreeRootPtrPage}.
+ * <p>
+ * The page is laid out as the page number of the next header page (an int, 0
+ * if this is the last), the number of free pages recorded here (an int) and
+ * then that many page numbers.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int next;
+    private int[] free;
+    private int numFree;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, null, -1);
+        free = new int[getMaxFree()];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        next = dis.readInt();
+        numFree = dis.readInt();
+        if (numFree < 0 || numFree > free.length)
+            throw new IOException("corrupt header page " + id);
+        for (int i = 0; i < numFree; i++)
+            free[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of free page numbers a header page can hold */
+    public static int getMaxFree() {
+        return (BufferPool.getPageSize() - 8) / 4;
+    }
+
+    /** @return the number of free page numbers on this page */
+    public int getNumFree() {
+        return numFree;
+    }
+
+    /** @return true if no more free page numbers fit on this page */
+    public boolean isFull() {
+        return numFree == free.length;
+    }
+
+    /** Record that page pgNo is free */
+    public void push(int pgNo) {
+        if (isFull())
+            throw new IllegalStateException("header page is full");
+        free[numFree++] = pgNo;
+    }
+
+    /** Remove and return the number of a free page */
+    public int pop() {
+        if (numFree == 0)
+            throw new IllegalStateException("header page is empty");
+        return free[--numFree];
+    }
+
+    /** @return the id of the next header page, or null if this is the last */
+    public BTreePageId getNextId() {
+        if (next == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), next, BTreePageId.HEADER);
+    }
+
+    /** Set the next header page; null if this is the last */
+    public void setNextId(BTreePageId id) {
+        next = id == null ? 0 : id.pageNumber();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(next);
+            dos.writeInt(numFree);
+            for (int i = 0; i < numFree; i++)
+                dos.writeInt(free[i]);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            return new BTreeHeaderPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeIndex is a secondary index over one field of a table stored in a
+ * {@link HeapFile}. It keeps its (key, page, slot) entries in a
+ * {@link BTreeFile} sorted on the key, so it can find the tuples matching an
+ * equality or range predicate on the field, and return them in order of the
+ * field.
+ * <p>
+ * A table stored in a BTreeFile is already indexed on its key by
+ * {@link BTreeFile#keyIndex}.
+ */
+public class BTreeIndex extends SecondaryIndex {
+
+    private final BTreeFile entries;
+
+    /**
+     * Opens the index stored in f over a field of a table. If f is empty, the
+     * index is empty until {@link #build} is called.
+     *
+     * @param f
+     *            the file holding the entries of the index
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     */
+    public BTreeIndex(File f, int tableid, int field) {
+        this(f, tableid, field, new int[0]);
+    }
+
+    /**
+     * Opens the index stored in f over a field of a table, whose entries also
+     * store the values of other fields so that it covers them. If f is empty,
+     * the index is empty until {@link #build} is called.
+     *
+     * @param f
+     *            the file holding the entries of the index
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     * @param include
+     *            the indexes of the other fields to store in the entries
+     */
+    public BTreeIndex(File f, int tableid, int field, int[] include) {
+        super(tableid, field, include);
+        this.entries = new BTreeFile(f, 0, entryTupleDesc(tableid, field,
+                include));
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    public boolean isOrdered() {
+        return true;
+    }
+
+    public DbFile getFile() {
+        return entries;
+    }
+
+    protected DbFileIterator entryIterator(TransactionId tid,
+            IndexPredicate ipred) {
+        return ipred == null ? entries.iterator(tid) : entries.indexIterator(
+                tid, ipred);
+    }
+
+}
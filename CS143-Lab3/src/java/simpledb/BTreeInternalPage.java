@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeInternalPage stores the separator keys and child pointers of a
+ * {@link BTreeFile}. A page with n keys has n + 1 children; every key in the
+ * subtree of child i is at most key i, and every key in the subtree of child
+ * i + 1 is at least key i. All children of a page have the same category,
+ * either all leaves or all internal pages.
+ * <p>
+ * The page is laid out as the page number of the parent (an int), the
+ * category of the children (a byte), the number of keys (an int), the key
+ * slots and then the child slots, padded with zeros to the page size. The
+ * number of key slots is
+ * <p>
+ * floor((BufferPool.getPageSize() - 13) / (key size + 4))
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private int childCategory;
+    private final Field[] keys;
+    private final int[] children;
+    private int numKeys;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     * The type of the key is looked up in the {@link Catalog}.
+     *
+     * @param id the id of this page
+     * @param data the bytes of the page
+     * @param keyField the index of the key field in the tuples of the table
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, int keyField)
+            throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), keyField);
+        int maxKeys = getMaxKeys();
+        keys = new Field[maxKeys];
+        children = new int[maxKeys + 1];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        parent = dis.readInt();
+        childCategory = dis.readByte();
+        numKeys = dis.readInt();
+        if (numKeys < 0 || numKeys > maxKeys)
+            throw new IOException("corrupt internal page " + id);
+        Type keyType = td.getFieldType(keyField);
+        try {
+            for (int i = 0; i < numKeys; i++)
+                keys[i] = keyType.parse(dis);
+        } catch (ParseException e) {
+            throw new IOException("parsing error in " + id, e);
+        }
+        dis.skipBytes((maxKeys - numKeys) * keyType.getLen());
+        for (int i = 0; i < children.length; i++)
+            children[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of key slots on an internal page of this table */
+    public int getMaxKeys() {
+        int keySize = td.getFieldType(keyField).getLen();
+        return (BufferPool.getPageSize() - 13) / (keySize + 4);
+    }
+
+    /** @return the number of keys on this page */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /** @return the number of empty key slots on this page */
+    public int getNumEmptySlots() {
+        return keys.length - numKeys;
+    }
+
+    /** @return the category of the children of this page, LEAF or INTERNAL */
+    public int getChildCategory() {
+        return childCategory;
+    }
+
+    /** Set the category of the children of this page, LEAF or INTERNAL */
+    public void setChildCategory(int categ) {
+        if (categ != BTreePageId.LEAF && categ != BTreePageId.INTERNAL)
+            throw new IllegalArgumentException(
+                    "children must be leaf or internal pages");
+        childCategory = categ;
+    }
+
+    /** @return the i-th key on this page */
+    public Field getKey(int i) {
+        if (i < 0 || i >= numKeys)
+            throw new NoSuchElementException();
+        return keys[i];
+    }
+
+    /** Replace the i-th key on this page */
+    public void setKey(int i, Field key) {
+        if (i < 0 || i >= numKeys)
+            throw new NoSuchElementException();
+        keys[i] = key;
+    }
+
+    /** @return the id of the i-th child, 0 <= i <= getNumKeys() */
+    public BTreePageId getChildId(int i) {
+        if (i < 0 || i > numKeys)
+            throw new NoSuchElementException();
+        return new BTreePageId(pid.getTableId(), children[i], childCategory);
+    }
+
+    /**
+     * @return the position of the child with page number pgNo, or -1 if it
+     *         is not a child of this page
+     */
+    public int childIndex(int pgNo) {
+        for (int i = 0; i <= numKeys; i++)
+            if (children[i] == pgNo)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Add a key and the child to its right, as when the child left was split
+     * into left and right. On an empty page, left becomes the first child.
+     *
+     * @throws DbException
+     *             if the page is full or left is not a child of this page
+     */
+    public void insertEntry(Field key, BTreePageId left, BTreePageId right)
+            throws DbException {
+        if (numKeys == keys.length)
+            throw new DbException("internal page is full");
+        int i;
+        if (numKeys == 0 && children[0] == 0) {
+            children[0] = left.pageNumber();
+            i = 0;
+        } else {
+            i = childIndex(left.pageNumber());
+            if (i < 0)
+                throw new DbException(left + " is not a child of " + pid);
+        }
+        System.arraycopy(keys, i, keys, i + 1, numKeys - i);
+        System.arraycopy(children, i + 1, children, i + 2, numKeys - i);
+        keys[i] = key;
+        children[i + 1] = right.pageNumber();
+        numKeys++;
+    }
+
+    /**
+     * Remove the i-th key and the child to its right, as when that child is
+     * merged into its left sibling.
+     */
+    public void deleteKeyAndRightChild(int i) {
+        getKey(i);
+        System.arraycopy(keys, i + 1, keys, i, numKeys - i - 1);
+        System.arraycopy(children, i + 2, children, i + 1, numKeys - i - 1);
+        numKeys--;
+        keys[numKeys] = null;
+        children[numKeys + 1] = 0;
+    }
+
+    /** @return a copy of the keys on this page, in order */
+    public List<Field> getKeys() {
+        return new ArrayList<Field>(Arrays.asList(keys).subList(0, numKeys));
+    }
+
+    /** @return a copy of the children of this page, as page numbers */
+    public List<Integer> getChildren() {
+        ArrayList<Integer> l = new ArrayList<Integer>(numKeys + 1);
+        for (int i = 0; i <= numKeys; i++)
+            l.add(children[i]);
+        return l;
+    }
+
+    /**
+     * Replace the contents of this page, as when a page is split or merged
+     * with a sibling.
+     *
+     * @param ks the keys, in order, no more than getMaxKeys()
+     * @param cs the page numbers of the children, one more than the keys
+     */
+    public void setEntries(List<Field> ks, List<Integer> cs) {
+        if (ks.size() > keys.length || cs.size() != ks.size() + 1)
+            throw new IllegalArgumentException("bad entries for a page");
+        Arrays.fill(keys, null);
+        Arrays.fill(children, 0);
+        ks.toArray(keys);
+        for (int i = 0; i < cs.size(); i++)
+            children[i] = cs.get(i);
+        numKeys = ks.size();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeByte(childCategory);
+            dos.writeInt(numKeys);
+            for (int i = 0; i < numKeys; i++)
+                keys[i].serialize(dos);
+            dos.write(new byte[(keys.length - numKeys)
+                    * td.getFieldType(keyField).getLen()]);
+            for (int i = 0; i < children.length; i++)
+                dos.writeInt(children[i]);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, beforeImageData(), keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
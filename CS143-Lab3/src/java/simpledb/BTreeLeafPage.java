@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeLeafPage stores the tuples of a {@link BTreeFile}, sorted on the key
+ * field. Leaves are linked to their left and right siblings so that range
+ * scans can walk along the bottom of the tree without revisiting the internal
+ * pages.
+ * <p>
+ * The page is laid out as the page numbers of the parent, left sibling and
+ * right sibling (three ints, 0 if there is none), a header with one bit per
+ * tuple slot as in {@link HeapPage}, and the tuple slots. The number of slots
+ * is
+ * <p>
+ * floor(((BufferPool.getPageSize() - 12) * 8) / (tuple size * 8 + 1))
+ * <p>
+ * The used slots are always the first getNumTuples() ones, in key order, so
+ * the slot in a tuple's RecordId is its position on the page. Inserting or
+ * deleting a tuple renumbers the tuples after it.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private int leftSibling;
+    private int rightSibling;
+    private final Tuple[] tuples;
+    private int numTuples;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk. The
+     * TupleDesc of the tuples is looked up in the {@link Catalog}.
+     *
+     * @param id the id of this page
+     * @param data the bytes of the page
+     * @param keyField the index of the field the tuples are sorted on
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, int keyField)
+            throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), keyField);
+        tuples = new Tuple[getMaxTuples()];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        parent = dis.readInt();
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        byte[] header = new byte[getHeaderSize()];
+        dis.readFully(header);
+        for (int i = 0; i < tuples.length; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                dis.skipBytes(td.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(dis));
+            } catch (ParseException e) {
+                throw new IOException("parsing error in " + id, e);
+            }
+            tuples[numTuples] = t;
+            t.setRecordId(new RecordId(pid, numTuples));
+            numTuples++;
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuple slots on a leaf page of this table */
+    public int getMaxTuples() {
+        return ((BufferPool.getPageSize() - 12) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private int getHeaderSize() {
+        return (getMaxTuples() + 7) / 8;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return tuples.length - numTuples;
+    }
+
+    /** @return the i-th tuple on this page, in key order */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numTuples)
+            throw new NoSuchElementException();
+        return tuples[i];
+    }
+
+    /** @return the key of the i-th tuple on this page */
+    public Field getKey(int i) {
+        return getTuple(i).getField(keyField);
+    }
+
+    /**
+     * Adds the specified tuple to the page after any tuples with an equal key,
+     * and sets its RecordId.
+     *
+     * @throws DbException
+     *             if the page is full or the tuple has the wrong TupleDesc
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (numTuples == tuples.length)
+            throw new DbException("leaf page is full");
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        Field key = t.getField(keyField);
+        int pos = numTuples;
+        while (pos > 0
+                && getKey(pos - 1).compare(Predicate.Op.GREATER_THAN, key))
+            pos--;
+        System.arraycopy(tuples, pos, tuples, pos + 1, numTuples - pos);
+        tuples[pos] = t;
+        numTuples++;
+        renumber(pos);
+    }
+
+    /**
+     * Removes the i-th tuple from this page and clears its RecordId.
+     */
+    public void deleteTuple(int i) {
+        Tuple t = getTuple(i);
+        System.arraycopy(tuples, i + 1, tuples, i, numTuples - i - 1);
+        tuples[--numTuples] = null;
+        t.setRecordId(null);
+        renumber(i);
+    }
+
+    /**
+     * @return a copy of the tuples on this page, in key order
+     */
+    public List<Tuple> getTuples() {
+        return new ArrayList<Tuple>(Arrays.asList(tuples).subList(0, numTuples));
+    }
+
+    /**
+     * Replace the contents of this page, as when a page is split or merged
+     * with a sibling.
+     *
+     * @param ts tuples in key order, no more than getMaxTuples()
+     */
+    public void setTuples(List<Tuple> ts) {
+        if (ts.size() > tuples.length)
+            throw new IllegalArgumentException("too many tuples for a page");
+        Arrays.fill(tuples, null);
+        ts.toArray(tuples);
+        numTuples = ts.size();
+        renumber(0);
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < numTuples; i++)
+            tuples[i].setRecordId(new RecordId(pid, i));
+    }
+
+    /** @return the id of the left sibling, or null if there is none */
+    public BTreePageId getLeftSiblingId() {
+        return leafId(leftSibling);
+    }
+
+    /** @return the id of the right sibling, or null if there is none */
+    public BTreePageId getRightSiblingId() {
+        return leafId(rightSibling);
+    }
+
+    /** Set the left sibling; null if there is none */
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /** Set the right sibling; null if there is none */
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    private BTreePageId leafId(int pgNo) {
+        if (pgNo == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), pgNo, BTreePageId.LEAF);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in key order
+     */
+    public Iterator<Tuple> iterator() {
+        return getTuples().iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            byte[] header = new byte[getHeaderSize()];
+            for (int i = 0; i < numTuples; i++)
+                header[i / 8] |= 1 << (i % 8);
+            dos.write(header);
+            for (int i = 0; i < numTuples; i++) {
+                Iterator<Field> fields = tuples[i].fields();
+                while (fields.hasNext())
+                    fields.next().serialize(dos);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, beforeImageData(), keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
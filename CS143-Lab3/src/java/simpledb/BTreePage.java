@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Common state of the pages of a {@link BTreeFile}: the page id, the layout
+ * of the tuples in the file, the page number of the parent page, and the
+ * dirty and before-image bookkeeping required by {@link Page}.
+ * <p>
+ * Parent pointers are stored as page numbers. Page 0 of every BTreeFile is
+ * its {@link BTreeRootPtrPage}, so a parent of 0 means the page is the root.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+    protected final TupleDesc td;
+    protected final int keyField;
+    protected int parent;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected BTreePage(BTreePageId id, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the id of the parent of this page, or the id of the root
+     *         pointer page if this page is the root
+     */
+    public BTreePageId getParentId() {
+        if (parent == 0)
+            return new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR);
+        return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Set the parent of this page.
+     *
+     * @param id the id of an internal page, or of the root pointer page to
+     *   make this page the root
+     */
+    public void setParentId(BTreePageId id) {
+        if (id.pgcateg() == BTreePageId.ROOT_PTR)
+            parent = 0;
+        else if (id.pgcateg() == BTreePageId.INTERNAL)
+            parent = id.pageNumber();
+        else
+            throw new IllegalArgumentException("parent must be an internal page");
+    }
+
+    /** @return true if this page is the root of its tree */
+    public boolean isRoot() {
+        return parent == 0;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the page this page was created from, before any changes */
+    protected byte[] beforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty page of
+     * any category. An empty leaf, internal or header page has no entries and
+     * is the root; an empty root pointer page points at no root.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Pads the stream with zeros up to a full page and returns its bytes */
+    protected static byte[] finishPage(ByteArrayOutputStream baos,
+            DataOutputStream dos) {
+        try {
+            dos.flush();
+            int len = BufferPool.getPageSize();
+            int pad = len - baos.size();
+            if (pad < 0)
+                throw new IllegalStateException("page overflow");
+            dos.write(new byte[pad]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+}
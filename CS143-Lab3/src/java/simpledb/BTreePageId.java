@@ -0,0 +1,93 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link BTreeFile}. Besides the table
+ * and page number, a BTreePageId records which kind of page it names, so that
+ * {@link BTreeFile#readPage} knows how to parse the bytes it reads.
+ */
+public class BTreePageId implements PageId {
+
+    /** The single page at the start of the file that locates the root */
+    public static final int ROOT_PTR = 0;
+    /** A page of keys and child pointers */
+    public static final int INTERNAL = 1;
+    /** A page of tuples, sorted on the key field */
+    public static final int LEAF = 2;
+    /** A page of the free page list */
+    public static final int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg which kind of page this is; one of ROOT_PTR, INTERNAL,
+     *   LEAF or HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        if (pgcateg < ROOT_PTR || pgcateg > HEADER)
+            throw new IllegalArgumentException("invalid page category "
+                    + pgcateg);
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the category of this page: ROOT_PTR, INTERNAL, LEAF or HEADER
+     */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + pgNo) * 4 + pgcateg;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the table ids, page numbers and categories are the same
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo
+                && other.pgcateg == pgcateg;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ", " + pgcateg + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, pgcateg };
+    }
+
+}
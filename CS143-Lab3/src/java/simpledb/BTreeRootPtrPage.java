@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is always page 0 of a {@link BTreeFile}. It records where
+ * the root of the tree is, so the root can move when it splits or collapses,
+ * and where the first page of the free page list is.
+ * <p>
+ * The page is laid out as the page number of the root (an int), the category
+ * of the root (a byte) and the page number of the first header page (an
+ * int), padded with zeros to the page size. A page number of 0 means there is
+ * no such page.
+ *
+ * @see BTreeHeaderPage
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, null, -1);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        header = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the id of the root page, or null if the tree is empty
+     */
+    public BTreePageId getRootId() {
+        if (root == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /**
+     * Set the root of the tree.
+     *
+     * @param id the id of a leaf or internal page, or null to empty the tree
+     */
+    public void setRootId(BTreePageId id) {
+        if (id == null) {
+            root = 0;
+            rootCategory = 0;
+        } else if (id.pgcateg() == BTreePageId.LEAF
+                || id.pgcateg() == BTreePageId.INTERNAL) {
+            root = id.pageNumber();
+            rootCategory = id.pgcateg();
+        } else {
+            throw new IllegalArgumentException(
+                    "root must be a leaf or internal page");
+        }
+    }
+
+    /**
+     * @return the id of the first page of the free page list, or null if no
+     *         pages are free
+     */
+    public BTreePageId getHeaderId() {
+        if (header == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    /**
+     * Set the first page of the free page list.
+     *
+     * @param id the id of a header page, or null if no pages are free
+     */
+    public void setHeaderId(BTreePageId id) {
+        header = id == null ? 0 : id.pageNumber();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeByte(rootCategory);
+            dos.writeInt(header);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+/**
+ * BatchAggregate is the batch form of {@link Aggregate}: it merges whole
+ * batches of its child into a {@link HashAggregator}, which reads the group
+ * and aggregate fields from their column vectors, and returns the groups in
+ * batches, with the TupleDesc of the equivalent Aggregate.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] aFields;
+    private final int[] gbFields;
+    private final Aggregator.Op[] aOps;
+    private final TupleDesc td;
+
+    private transient HashAggregator agg;
+    private transient DbIterator resIt;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            The operator that is feeding us rows.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     */
+    public BatchAggregate(BatchIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        this.child = child;
+        this.aFields = afields.clone();
+        this.gbFields = gfields.clone();
+        this.aOps = aops.clone();
+        this.td = Aggregate.outputTupleDesc(child.getTupleDesc(), gbFields,
+                aFields, aOps);
+        newAggregator();                // fails early if an aop is not supported
+    }
+
+    private HashAggregator newAggregator() {
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] gbTypes = new Type[gbFields.length];
+        for (int i = 0; i < gbFields.length; i++)
+            gbTypes[i] = childTd.getFieldType(gbFields[i]);
+        Type[] aTypes = new Type[aFields.length];
+        for (int i = 0; i < aFields.length; i++)
+            aTypes[i] = childTd.getFieldType(aFields[i]);
+        return new HashAggregator(gbFields, gbTypes, aFields, aTypes, aOps,
+                HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> rows, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gbFields.clone();
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return aFields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aOps.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        closeAggregator();
+        agg = newAggregator();
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null)
+            agg.mergeBatch(b);
+        resIt = agg.iterator();
+        resIt.open();
+        batch = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (resIt == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        while (!batch.isFull() && resIt.hasNext())
+            batch.add(resIt.next());
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        resIt.rewind();
+    }
+
+    public void close() {
+        child.close();
+        closeAggregator();
+        batch = null;
+    }
+
+    private void closeAggregator() {
+        if (resIt == null)
+            return;
+        resIt.close();
+        resIt = null;
+        agg.close();
+        agg = null;
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch form of {@link Filter}: it narrows the selection
+ * of each batch of its child to the rows that satisfy a predicate. A
+ * comparison of an int field with an int constant runs as a loop over the
+ * int column of the batch; any other predicate compares the fields.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate pred;
+    private final BatchIterator child;
+
+    /**
+     * Constructor.
+     * 
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.pred = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            filter(b);
+            if (b.numSelected() > 0)
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the rows that fail the predicate from the selection of b.
+     */
+    private void filter(TupleBatch b) {
+        int field = pred.getField();
+        int[] sel = b.selection();
+        int n = b.numSelected();
+        int m = 0;
+        if (getTupleDesc().getFieldType(field) == Type.INT_TYPE
+                && pred.getOperand() instanceof IntField) {
+            int[] v = b.getInts(field);
+            int c = ((IntField) pred.getOperand()).getValue();
+            switch (pred.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] == c)
+                        sel[m++] = sel[i];
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] != c)
+                        sel[m++] = sel[i];
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] > c)
+                        sel[m++] = sel[i];
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] >= c)
+                        sel[m++] = sel[i];
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] < c)
+                        sel[m++] = sel[i];
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] <= c)
+                        sel[m++] = sel[i];
+                break;
+            }
+        } else {
+            for (int i = 0; i < n; i++)
+                if (b.getField(field, sel[i]).compare(pred.getOp(),
+                        pred.getOperand()))
+                    sel[m++] = sel[i];
+        }
+        b.setNumSelected(m);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BatchHashEquiJoin is the batch form of {@link HashEquiJoin}: it copies
+ * every row of its first child into batches of its own and hashes them on
+ * the join field, then probes the table with each selected row of the
+ * batches of its second child. As for HashEquiJoin, the rows returned are
+ * the concatenation of the joining rows, a row of the first child first.
+ * <p>
+ * The table is a chained hash table over row numbers held in int arrays, so
+ * an int join field is hashed and compared without creating any Field;
+ * unlike HashEquiJoin, the first child is hashed whole rather than in
+ * chunks.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKey;
+
+    // the rows of child1, DEFAULT_SIZE per batch; row r of the table is row
+    // r % DEFAULT_SIZE of rows.get(r / DEFAULT_SIZE)
+    private transient ArrayList<TupleBatch> rows;
+    private transient int numRows;
+    // heads[hash & mask] is the first row with that hash, chain[r] the next
+    private transient int[] heads;
+    private transient int[] chain;
+
+    // the probe batch, the position in its selection, and the row of the
+    // table to try next for it
+    private transient TupleBatch probe;
+    private transient int probeIdx;
+    private transient int match;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor.
+     * 
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            the rows to hash
+     * @param child2
+     *            the rows to probe the table with
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1,
+            BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("not an equality join");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(),
+                child2.getTupleDesc());
+        this.intKey = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child1, child2 };
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        probe = null;
+        out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int hashOf(TupleBatch b, int field, int row) {
+        return mix(intKey ? b.getInts(field)[row] : b.getFields(field)[row]
+                .hashCode());
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        rows = new ArrayList<TupleBatch>();
+        numRows = 0;
+        TupleBatch b;
+        while ((b = child1.nextBatch()) != null) {
+            int[] sel = b.selection();
+            for (int i = 0; i < b.numSelected(); i++) {
+                if (numRows % TupleBatch.DEFAULT_SIZE == 0)
+                    rows.add(new TupleBatch(child1.getTupleDesc(),
+                            TupleBatch.DEFAULT_SIZE));
+                rows.get(rows.size() - 1).add(b, sel[i], null, 0);
+                numRows++;
+            }
+        }
+        int size = Integer.highestOneBit(Math.max(1, numRows)) * 2;
+        heads = new int[size];
+        Arrays.fill(heads, EMPTY);
+        chain = new int[numRows];
+        for (int r = 0; r < numRows; r++) {
+            int h = hashOf(rows.get(r / TupleBatch.DEFAULT_SIZE),
+                    pred.getField1(), r % TupleBatch.DEFAULT_SIZE) & (size - 1);
+            chain[r] = heads[h];
+            heads[h] = r;
+        }
+    }
+
+    private boolean keysEqual(TupleBatch b1, int row1, TupleBatch b2,
+            int row2) {
+        if (intKey)
+            return b1.getInts(pred.getField1())[row1] == b2.getInts(pred
+                    .getField2())[row2];
+        return b1.getFields(pred.getField1())[row1].equals(b2.getFields(pred
+                .getField2())[row2]);
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("Operator not yet open");
+        out.clear();
+        int mask = heads.length - 1;
+        while (!out.isFull()) {
+            if (probe == null || probeIdx == probe.numSelected()) {
+                probe = child2.nextBatch();
+                if (probe == null)
+                    break;
+                probeIdx = 0;
+                match = EMPTY;
+            }
+            int prow = probe.selection()[probeIdx];
+            if (match == EMPTY)
+                match = heads[hashOf(probe, pred.getField2(), prow) & mask];
+            // emit the matches of the probe row until the batch is full
+            while (match != EMPTY && !out.isFull()) {
+                TupleBatch b = rows.get(match / TupleBatch.DEFAULT_SIZE);
+                int brow = match % TupleBatch.DEFAULT_SIZE;
+                if (keysEqual(b, brow, probe, prow))
+                    out.add(b, brow, probe, prow);
+                match = chain[match];
+            }
+            if (match == EMPTY)
+                probeIdx++;
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+    }
+
+    public void close() {
+        child2.close();
+        child1.close();
+        rows = null;
+        heads = null;
+        chain = null;
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the iterator interface of the batch operators, which
+ * exchange {@link TupleBatch}es of up to {@link TupleBatch#DEFAULT_SIZE}
+ * rows rather than one Tuple at a time, so that a filter, projection, join
+ * or aggregate runs a tight loop over the column vectors of a batch per
+ * call. {@link Batcher} and {@link Unbatcher} adapt a DbIterator to a
+ * BatchIterator and back, so batch operators can read from and feed any
+ * other operator.
+ * <p>
+ * As for DbIterator, open must be called before any other method, and an
+ * iterator opens and closes its children.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other
+     * methods.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch, which has at least one selected row and is
+     * valid until the next call, or null if there are no more rows.
+     * 
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+
+    /**
+     * @return the batch iterators this one reads from, empty for one that
+     *         reads none, as a scan or a {@link Batcher} does
+     */
+    public BatchIterator[] getChildren();
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * BatchProject is the batch form of {@link Project}: each of its batches
+ * shares the columns it keeps with the batch of its child, so no values are
+ * copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final BatchIterator child;
+    private final TupleDesc td;
+
+    /**
+     * Constructor.
+     * 
+     * @param fieldList
+     *            The ids of the fields of the child's TupleDesc to project
+     *            out, in output order
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(int[] fieldList, BatchIterator child) {
+        this.fields = fieldList.clone();
+        this.child = child;
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the ids of the fields of the child's TupleDesc projected out,
+     *         in output order
+     */
+    public int[] getOutFields() {
+        return fields.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        return b == null ? null : b.project(fields, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch form of {@link SeqScan}. When the table is a
+ * {@link HeapFile}, it reads the table's pages itself and decodes the used
+ * slots of each page from the page's bytes straight into the column vectors
+ * of its batches, so no Tuple is built per row unless the page's tuples were
+ * already needed by another reader or an update; pages the zone map rules
+ * out by the scan's page filters are not read. Other files, and scans given
+ * a Bloom filter, are read through their SeqScan by a {@link Batcher}.
+ * <p>
+ * The scan it reads from is exposed so that it can be configured as the
+ * planner configures a SeqScan, with page filters, the columns of a
+ * ColumnFile to read or a Bloom filter; the configuration applies from the
+ * next open.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan scan;
+    private final int batchSize;
+
+    private transient HeapFile file;
+    private transient Predicate[] pageFilters;
+    private transient Batcher tuples;
+    private transient TupleBatch batch;
+    private transient int pageNo;
+    private transient HeapPage page;
+    private transient int slot;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table; the fields of the batches are named
+     *            tableAlias.fieldName
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(new SeqScan(tid, tableid, tableAlias));
+    }
+
+    /**
+     * Creates a batch scan of the table of a SeqScan, in its transaction and
+     * with its configuration.
+     *
+     * @param scan
+     *            the scan
+     */
+    public BatchSeqScan(SeqScan scan) {
+        this(scan, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a batch scan of the table of a SeqScan, in its transaction and
+     * with its configuration.
+     *
+     * @param scan
+     *            the scan
+     * @param batchSize
+     *            the number of rows of the batches
+     */
+    public BatchSeqScan(SeqScan scan, int batchSize) {
+        this.scan = scan;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the scan the batch scan is configured by
+     */
+    public SeqScan getScan() {
+        return scan;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[0];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (f instanceof HeapFile && scan.getRuntimeFilter() == null) {
+            file = (HeapFile) f;
+            pageFilters = scan.getPageFilters();
+            batch = new TupleBatch(getTupleDesc(), batchSize);
+            pageNo = -1;
+            page = null;
+        } else {
+            tuples = new Batcher(scan, batchSize);
+            tuples.open();
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (tuples != null)
+            return tuples.nextBatch();
+        if (batch == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        while (!batch.isFull()) {
+            if (page == null) {
+                if (++pageNo >= file.numPages())
+                    break;
+                if (pageFilters.length > 0
+                        && !file.getZoneMap().mayMatch(pageNo, pageFilters))
+                    continue;
+                page = (HeapPage) Database.getBufferPool().getPage(
+                        scan.getTransactionId(),
+                        new HeapPageId(file.getId(), pageNo),
+                        Permissions.READ_ONLY);
+                slot = 0;
+            }
+            slot = page.readInto(slot, batch);
+            if (slot < 0)
+                page = null;
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (tuples != null) {
+            tuples.rewind();
+            return;
+        }
+        pageNo = -1;
+        page = null;
+    }
+
+    public void close() {
+        if (tuples != null)
+            tuples.close();
+        tuples = null;
+        file = null;
+        batch = null;
+        page = null;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * Batcher adapts a DbIterator to the {@link BatchIterator} interface,
+ * collecting its tuples into batches, so that batch operators can run over
+ * any tuple-at-a-time operator.
+ */
+public class Batcher implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            the operator whose tuples are batched
+     */
+    public Batcher(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            the operator whose tuples are batched
+     * @param batchSize
+     *            the number of rows of the batches
+     */
+    public Batcher(DbIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the operator whose tuples are batched
+     */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[0];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(getTupleDesc(), batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
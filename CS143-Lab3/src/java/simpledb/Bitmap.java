@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Bitmap is a compressed set of non-negative ints, organized like a roaring
+ * bitmap. The ints are split on their high 16 bits into chunks, and the low
+ * 16 bits of each chunk are kept in a container: a sorted array while the
+ * chunk has at most {@link #ARRAY_MAX} members, and a bitset of 2^16 bits
+ * once it has more. Sparse and dense sets both take little space, and
+ * intersections and unions work a container at a time.
+ *
+ * @see BitmapIndex
+ */
+public class Bitmap {
+
+    /** the largest number of members kept in an array container */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITSET_WORDS = (1 << 16) / 64;
+
+    private final TreeMap<Integer, Container> containers = new TreeMap<Integer, Container>();
+
+    /**
+     * Adds x to the set.
+     */
+    public void add(int x) {
+        Container c = containers.get(x >>> 16);
+        if (c == null) {
+            c = new Container();
+            containers.put(x >>> 16, c);
+        }
+        c.add((char) x);
+    }
+
+    /**
+     * Removes x from the set, if it is a member.
+     */
+    public void remove(int x) {
+        Container c = containers.get(x >>> 16);
+        if (c == null)
+            return;
+        c.remove((char) x);
+        if (c.n == 0)
+            containers.remove(x >>> 16);
+    }
+
+    /**
+     * @return whether x is in the set
+     */
+    public boolean contains(int x) {
+        Container c = containers.get(x >>> 16);
+        return c != null && c.contains((char) x);
+    }
+
+    /**
+     * @return the number of members of the set
+     */
+    public int cardinality() {
+        int n = 0;
+        for (Container c : containers.values())
+            n += c.n;
+        return n;
+    }
+
+    /**
+     * @return a new set of the ints in both this set and o
+     */
+    public Bitmap and(Bitmap o) {
+        Bitmap r = new Bitmap();
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            Container c = o.containers.get(e.getKey());
+            if (c == null)
+                continue;
+            Container and = e.getValue().and(c);
+            if (and.n > 0)
+                r.containers.put(e.getKey(), and);
+        }
+        return r;
+    }
+
+    /**
+     * @return a new set of the ints in this set, o, or both
+     */
+    public Bitmap or(Bitmap o) {
+        Bitmap r = new Bitmap();
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            Container c = o.containers.get(e.getKey());
+            r.containers.put(e.getKey(), c == null ? e.getValue().copy() : e
+                    .getValue().or(c));
+        }
+        for (Map.Entry<Integer, Container> e : o.containers.entrySet())
+            if (!containers.containsKey(e.getKey()))
+                r.containers.put(e.getKey(), e.getValue().copy());
+        return r;
+    }
+
+    /**
+     * @return the members of the set in ascending order
+     */
+    public int[] toArray() {
+        int[] a = new int[cardinality()];
+        int i = 0;
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            int high = e.getKey() << 16;
+            Container c = e.getValue();
+            if (c.bits == null) {
+                for (int j = 0; j < c.n; j++)
+                    a[i++] = high | c.array[j];
+            } else {
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    long word = c.bits[w];
+                    while (word != 0) {
+                        a[i++] = high | (w * 64 + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return a;
+    }
+
+    /**
+     * @return the number of bytes {@link #serialize} writes
+     */
+    public int serializedSize() {
+        int size = 4;
+        for (Container c : containers.values())
+            size += 8 + (c.bits == null ? 2 * c.n : 8 * BITSET_WORDS);
+        return size;
+    }
+
+    /**
+     * Writes the set to dos: the number of containers, then the high bits,
+     * number of members and contents of each.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(containers.size());
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            Container c = e.getValue();
+            dos.writeInt(e.getKey());
+            dos.writeInt(c.n);
+            if (c.bits == null) {
+                for (int j = 0; j < c.n; j++)
+                    dos.writeChar(c.array[j]);
+            } else {
+                for (long word : c.bits)
+                    dos.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Reads a set written by {@link #serialize}.
+     */
+    public static Bitmap deserialize(DataInputStream dis) throws IOException {
+        Bitmap b = new Bitmap();
+        int size = dis.readInt();
+        for (int i = 0; i < size; i++) {
+            int high = dis.readInt();
+            Container c = new Container();
+            c.n = dis.readInt();
+            if (c.n <= ARRAY_MAX) {
+                c.array = new char[c.n];
+                for (int j = 0; j < c.n; j++)
+                    c.array[j] = dis.readChar();
+            } else {
+                c.array = null;
+                c.bits = new long[BITSET_WORDS];
+                for (int w = 0; w < BITSET_WORDS; w++)
+                    c.bits[w] = dis.readLong();
+            }
+            b.containers.put(high, c);
+        }
+        return b;
+    }
+
+    /**
+     * The low 16 bits of the members of a chunk; array holds the first n
+     * of them in order while bits is null.
+     */
+    private static class Container {
+
+        char[] array = new char[4];
+        long[] bits;
+        int n;
+
+        Container copy() {
+            Container c = new Container();
+            c.n = n;
+            c.array = array == null ? null : Arrays.copyOf(array, n);
+            c.bits = bits == null ? null : bits.clone();
+            return c;
+        }
+
+        boolean contains(char v) {
+            if (bits != null)
+                return (bits[v >>> 6] & (1L << v)) != 0;
+            return Arrays.binarySearch(array, 0, n, v) >= 0;
+        }
+
+        void add(char v) {
+            if (bits != null) {
+                if ((bits[v >>> 6] & (1L << v)) == 0) {
+                    bits[v >>> 6] |= 1L << v;
+                    n++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, n, v);
+            if (i >= 0)
+                return;
+            if (n == ARRAY_MAX) {
+                toBitset();
+                add(v);
+                return;
+            }
+            i = -i - 1;
+            if (n == array.length)
+                array = Arrays.copyOf(array, Math.min(Math.max(2 * n, 4),
+                        ARRAY_MAX));
+            System.arraycopy(array, i, array, i + 1, n - i);
+            array[i] = v;
+            n++;
+        }
+
+        void remove(char v) {
+            if (bits != null) {
+                if ((bits[v >>> 6] & (1L << v)) != 0) {
+                    bits[v >>> 6] &= ~(1L << v);
+                    if (--n <= ARRAY_MAX)
+                        toArray();
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, n, v);
+            if (i < 0)
+                return;
+            System.arraycopy(array, i + 1, array, i, n - i - 1);
+            n--;
+        }
+
+        Container and(Container o) {
+            Container r = new Container();
+            if (bits != null && o.bits != null) {
+                r.array = null;
+                r.bits = new long[BITSET_WORDS];
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    r.bits[w] = bits[w] & o.bits[w];
+                    r.n += Long.bitCount(r.bits[w]);
+                }
+                if (r.n <= ARRAY_MAX)
+                    r.toArray();
+                return r;
+            }
+            // walk the array, checking each member against the other
+            Container a = bits == null ? this : o;
+            Container other = a == this ? o : this;
+            r.array = new char[Math.max(a.n, 1)];
+            for (int j = 0; j < a.n; j++)
+                if (other.contains(a.array[j]))
+                    r.array[r.n++] = a.array[j];
+            return r;
+        }
+
+        Container or(Container o) {
+            Container r;
+            if (bits != null || o.bits != null) {
+                Container b = bits != null ? this : o;
+                Container other = b == this ? o : this;
+                r = b.copy();
+                if (other.bits != null) {
+                    r.n = 0;
+                    for (int w = 0; w < BITSET_WORDS; w++) {
+                        r.bits[w] |= other.bits[w];
+                        r.n += Long.bitCount(r.bits[w]);
+                    }
+                } else {
+                    for (int j = 0; j < other.n; j++)
+                        r.add(other.array[j]);
+                }
+                return r;
+            }
+            // merge the sorted arrays
+            r = new Container();
+            r.array = new char[n + o.n];
+            int i = 0, j = 0;
+            while (i < n || j < o.n) {
+                char v;
+                if (j == o.n || (i < n && array[i] < o.array[j]))
+                    v = array[i++];
+                else if (i == n || o.array[j] < array[i])
+                    v = o.array[j++];
+                else {
+                    v = array[i++];
+                    j++;
+                }
+                r.array[r.n++] = v;
+            }
+            if (r.n > ARRAY_MAX)
+                r.toBitset();
+            return r;
+        }
+
+        private void toBitset() {
+            bits = new long[BITSET_WORDS];
+            for (int j = 0; j < n; j++)
+                bits[array[j] >>> 6] |= 1L << array[j];
+            array = null;
+        }
+
+        private void toArray() {
+            char[] a = new char[n];
+            int j = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    a[j++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = a;
+            bits = null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapHeapScan is an access method that reads the tuples of a table
+ * satisfying all, or any, of a set of predicates, each on a field with a
+ * {@link BitmapIndex}. The bitmaps of the predicates are intersected (or
+ * united) when the scan is opened, and only the pages holding a row of the
+ * result are read, each once, in page order. Unlike a {@link Filter}, the
+ * values of the tuples are never compared.
+ */
+public class BitmapHeapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final String alias;
+    private final BitmapIndex[] indexes;
+    private final Predicate[] preds;
+    private final boolean any;
+    private final int tableid;
+    private TupleDesc td;
+    private DbFileIterator it;
+
+    /**
+     * Creates a scan of the tuples of a table satisfying predicates on
+     * fields with bitmap indexes.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     * @param indexes
+     *            bitmap indexes over the same table, at least one
+     * @param preds
+     *            the predicates, each on the field of the index at the same
+     *            position in indexes
+     * @param any
+     *            true to return the tuples satisfying any of the predicates,
+     *            false for those satisfying all of them
+     */
+    public BitmapHeapScan(TransactionId tid, String tableAlias,
+            BitmapIndex[] indexes, Predicate[] preds, boolean any) {
+        if (indexes.length == 0 || indexes.length != preds.length)
+            throw new IllegalArgumentException(
+                    "need one predicate for each index");
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i].getTableId() != indexes[0].getTableId())
+                throw new IllegalArgumentException(
+                        "indexes are over different tables");
+            if (indexes[i].getField() != preds[i].getField())
+                throw new IllegalArgumentException("predicate " + preds[i]
+                        + " is not on the field of its index");
+        }
+        this.tid = tid;
+        this.alias = tableAlias;
+        this.indexes = indexes.clone();
+        this.preds = preds.clone();
+        this.any = any;
+        this.tableid = indexes[0].getTableId();
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the predicates the tuples are found by
+     */
+    public Predicate[] getPredicates() {
+        return preds.clone();
+    }
+
+    /**
+     * @return whether tuples satisfying any of the predicates are returned,
+     *         rather than those satisfying all of them
+     */
+    public boolean isDisjunction() {
+        return any;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Bitmap rows = null;
+        for (int i = 0; i < indexes.length; i++) {
+            Bitmap b = indexes[i].lookup(preds[i].getOp(),
+                    preds[i].getOperand());
+            if (rows == null)
+                rows = b;
+            else
+                rows = any ? rows.or(b) : rows.and(b);
+        }
+        it = new BitmapIndex.RowIterator(tid, tableid, rows,
+                indexes[0].slotsPerPage());
+        it.open();
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the underlying table,
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc base = Database.getCatalog().getTupleDesc(tableid);
+            Type[] types = new Type[base.numFields()];
+            String[] names = new String[base.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = base.getFieldType(i);
+                names[i] = alias + "." + base.getFieldName(i);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("BitmapHeapScan not open");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("BitmapHeapScan not open");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+}
@@ -0,0 +1,343 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex is a secondary index for fields with few distinct values. It
+ * keeps a {@link Bitmap} of the rows holding each value, where a row is the
+ * position of a tuple in the table, page number times slots per page plus
+ * slot. A predicate is answered by combining the bitmaps of the values that
+ * satisfy it, so any operator is supported, and the bitmaps of predicates on
+ * several fields can be intersected or united before any page of the table
+ * is read; see {@link BitmapHeapScan}.
+ * <p>
+ * The bitmaps are kept in memory and stored in a file by {@link #build} and
+ * {@link #save}; the file is read the first time the index is used.
+ * Inserts and deletes update the bitmaps in memory only, so a file older
+ * than the table should be rebuilt, as {@link Catalog#loadSchema} does.
+ */
+public class BitmapIndex extends SecondaryIndex {
+
+    private final File f;
+    private HashMap<Field, Bitmap> bitmaps;
+
+    /**
+     * Creates an index over a field of a table.
+     *
+     * @param f
+     *            the file the bitmaps are stored in
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     */
+    public BitmapIndex(File f, int tableid, int field) {
+        super(tableid, field);
+        this.f = f;
+    }
+
+    /**
+     * @return the file the bitmaps are stored in
+     */
+    public File getBackingFile() {
+        return f;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return true;
+    }
+
+    public boolean isOrdered() {
+        return false;
+    }
+
+    /**
+     * @return null; the bitmaps are not read through the BufferPool
+     */
+    public DbFile getFile() {
+        return null;
+    }
+
+    /**
+     * @return the number of pages the bitmaps take when stored
+     */
+    public int numPages() {
+        int bytes = 4;
+        for (Bitmap b : bitmaps().values())
+            bytes += 8 + b.serializedSize();
+        return (bytes + BufferPool.getPageSize() - 1) / BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the number of distinct values of the field
+     */
+    public int numValues() {
+        return bitmaps().size();
+    }
+
+    /**
+     * @return the number of slots of each page of the table, by which rows
+     *         are numbered
+     */
+    public int slotsPerPage() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId());
+        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Returns the rows of the table whose indexed field satisfies
+     * "field op v". The bitmap returned is a copy, which may be combined with
+     * others with {@link Bitmap#and} and {@link Bitmap#or}.
+     */
+    public Bitmap lookup(Predicate.Op op, Field v) {
+        Bitmap r = new Bitmap();
+        if (op == Predicate.Op.EQUALS) {
+            Bitmap b = bitmaps().get(v);
+            return b == null ? r : r.or(b);
+        }
+        for (Map.Entry<Field, Bitmap> e : bitmaps().entrySet())
+            if (e.getKey().compare(op, v))
+                r = r.or(e.getValue());
+        return r;
+    }
+
+    /**
+     * Returns the exact fraction of the rows of the table whose indexed field
+     * satisfies "field op v", for the optimizer; unlike a histogram it is
+     * not fooled by strings that share a prefix.
+     */
+    public double estimateSelectivity(Predicate.Op op, Field v) {
+        int total = 0;
+        for (Bitmap b : bitmaps().values())
+            total += b.cardinality();
+        if (total == 0)
+            return 0.0;
+        return (double) lookup(op, v).cardinality() / total;
+    }
+
+    /**
+     * Returns the rows of every tuple of the table.
+     */
+    public Bitmap all() {
+        Bitmap r = new Bitmap();
+        for (Bitmap b : bitmaps().values())
+            r = r.or(b);
+        return r;
+    }
+
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new RowIterator(tid, getTableId(), ipred == null ? all()
+                : lookup(ipred.getOp(), ipred.getField()), slotsPerPage());
+    }
+
+    /**
+     * Returns the (value, page, slot) entries of the rows whose value
+     * satisfies ipred, generated from the bitmaps a value at a time.
+     */
+    protected DbFileIterator entryIterator(TransactionId tid,
+            IndexPredicate ipred) {
+        ArrayList<Field> values = new ArrayList<Field>();
+        for (Field v : bitmaps().keySet())
+            if (ipred == null || v.compare(ipred.getOp(), ipred.getField()))
+                values.add(v);
+        return new ValueIterator(values);
+    }
+
+    /**
+     * Builds the bitmaps from the tuples of the table and saves them.
+     */
+    public void build(TransactionId tid) throws DbException, IOException,
+            TransactionAbortedException {
+        bitmaps = new HashMap<Field, Bitmap>();
+        super.build(tid);
+        save();
+    }
+
+    private int row(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in the table");
+        return rid.getPageId().pageNumber() * slotsPerPage() + rid.tupleno();
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException {
+        Field v = t.getField(getField());
+        Bitmap b = bitmaps().get(v);
+        if (b == null) {
+            b = new Bitmap();
+            bitmaps.put(v, b);
+        }
+        b.add(row(t));
+        return new ArrayList<Page>();
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException {
+        Field v = t.getField(getField());
+        Bitmap b = bitmaps().get(v);
+        if (b != null) {
+            b.remove(row(t));
+            if (b.cardinality() == 0)
+                bitmaps.remove(v);
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Writes the bitmaps to the index file: the number of values, then each
+     * value followed by its bitmap.
+     */
+    public void save() throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        try {
+            dos.writeInt(bitmaps().size());
+            for (Map.Entry<Field, Bitmap> e : bitmaps.entrySet()) {
+                e.getKey().serialize(dos);
+                e.getValue().serialize(dos);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    private HashMap<Field, Bitmap> bitmaps() {
+        if (bitmaps != null)
+            return bitmaps;
+        bitmaps = new HashMap<Field, Bitmap>();
+        if (!f.exists())
+            return bitmaps;
+        Type type = Database.getCatalog().getTupleDesc(getTableId())
+                .getFieldType(getField());
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            try {
+                int n = dis.readInt();
+                for (int i = 0; i < n; i++) {
+                    Field v = type.parse(dis);
+                    bitmaps.put(v, Bitmap.deserialize(dis));
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (java.text.ParseException e) {
+            throw new RuntimeException("corrupt bitmap index " + f, e);
+        } catch (IOException e) {
+            throw new RuntimeException("could not read bitmap index " + f, e);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Iterator over the entries of the rows holding each of a list of values.
+     */
+    private class ValueIterator extends AbstractDbFileIterator {
+
+        private final ArrayList<Field> values;
+        private final TupleDesc td = entryTupleDesc(getTableId(), getField(),
+                new int[0]);
+        private final int slotsPerPage = slotsPerPage();
+        private int nextValue;
+        private int[] rows;
+        private int next;
+
+        ValueIterator(ArrayList<Field> values) {
+            this.values = values;
+        }
+
+        public void open() {
+            nextValue = 0;
+            rows = new int[0];
+            next = 0;
+        }
+
+        @Override
+        protected Tuple readNext() {
+            if (rows == null)
+                return null;
+            while (next == rows.length) {
+                if (nextValue == values.size())
+                    return null;
+                // a value may have lost its last row since the iterator
+                // was created
+                Bitmap b = bitmaps().get(values.get(nextValue++));
+                rows = b == null ? new int[0] : b.toArray();
+                next = 0;
+            }
+            int row = rows[next++];
+            Tuple e = new Tuple(td);
+            e.setField(0, values.get(nextValue - 1));
+            e.setField(1, new IntField(row / slotsPerPage));
+            e.setField(2, new IntField(row % slotsPerPage));
+            return e;
+        }
+
+        public void rewind() {
+            super.close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            rows = null;
+        }
+    }
+
+    /**
+     * Iterator over the tuples at a set of rows of a HeapFile. Rows are
+     * visited in order, so each page holding one is read once.
+     */
+    static class RowIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int tableid;
+        private final int[] rows;
+        private final int slotsPerPage;
+        private int next;
+        private HeapPage page;
+
+        RowIterator(TransactionId tid, int tableid, Bitmap rows,
+                int slotsPerPage) {
+            this.tid = tid;
+            this.tableid = tableid;
+            this.rows = rows.toArray();
+            this.slotsPerPage = slotsPerPage;
+        }
+
+        public void open() {
+            next = 0;
+            page = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            while (next < rows.length) {
+                int row = rows[next++];
+                int pgNo = row / slotsPerPage;
+                if (page == null || page.getId().pageNumber() != pgNo)
+                    page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableid, pgNo),
+                            Permissions.READ_ONLY);
+                Tuple t = page.getTuple(row % slotsPerPage);
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() {
+            super.close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            next = rows.length;
+            page = null;
+        }
+    }
+}
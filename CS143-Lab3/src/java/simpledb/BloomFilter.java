@@ -0,0 +1,89 @@
+package simpledb;
+
+/**
+ * BloomFilter is a compact, approximate set of fields. A field that was added
+ * is always reported as possibly present; a field that was not added is
+ * reported as absent except with a small false positive probability, chosen
+ * when the filter is sized.
+ * <p>
+ * {@link HashEquiJoin} builds one over the join keys of the tuples it hashes
+ * and hands it to the {@link SeqScan} of the other input, which drops the
+ * tuples that cannot join before anything else looks at them.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter sized to hold the given number of fields with
+     * the given false positive probability.
+     *
+     * @param expected
+     *            the number of distinct fields that will be added
+     * @param fpp
+     *            the false positive probability, between 0 and 1
+     */
+    public BloomFilter(int expected, double fpp) {
+        if (fpp <= 0 || fpp >= 1)
+            throw new IllegalArgumentException("invalid probability " + fpp);
+        int n = Math.max(expected, 1);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (ln2 * ln2));
+        numBits = (int) Math.min(Math.max(m, 64), Integer.MAX_VALUE - 63);
+        numHashes = Math.max(1, (int) Math.round((double) numBits / n * ln2));
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    /**
+     * @return the number of bits of the filter
+     */
+    public int numBits() {
+        return numBits;
+    }
+
+    /**
+     * @return the number of bits set for each field added
+     */
+    public int numHashes() {
+        return numHashes;
+    }
+
+    /**
+     * Adds a field to the filter.
+     */
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int b = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /**
+     * Returns false if the field was certainly not added to the filter, and
+     * true if it may have been.
+     */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int b = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** spreads the bits of a hash code, as the murmur3 finalizer does */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
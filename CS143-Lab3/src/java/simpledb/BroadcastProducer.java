@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BroadcastProducer sends every tuple of its child to each of a number of
+ * {@link PartitionConsumer}s, such as the copies of a join whose other
+ * input is split among them.
+ */
+public class BroadcastProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int consumers;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator whose tuples are sent
+     * @param consumers
+     *            the number of consumers each tuple is sent to
+     */
+    public BroadcastProducer(DbIterator child, int consumers) {
+        super(child);
+        this.consumers = consumers;
+    }
+
+    public String getName() {
+        return "broadcast(" + consumers + ")";
+    }
+
+    public int numOutputs() {
+        return consumers;
+    }
+
+    protected ExchangeQueue[] createOutputs() {
+        ExchangeQueue[] q = new ExchangeQueue[consumers];
+        for (int i = 0; i < consumers; i++)
+            q[i] = new ExchangeQueue(QUEUE_BATCHES, 1);
+        return q;
+    }
+
+    protected void route(Tuple t, List<List<Tuple>> batches) {
+        // tuples are only read, so the consumers can share them
+        for (List<Tuple> b : batches)
+            b.add(t);
+    }
+}
@@ -82,8 +82,24 @@ public class BufferPool {
 			throws TransactionAbortedException, DbException {
 		// some code goes here
 
-		Page p = m_pageMap.get(pid);
-		if (p == null) {
+		// Pages may be requested by several threads of a parallel scan at
+		// once, so the map is only touched holding the lock, but pages are
+		// read from disk without it
+		Page p;
+		synchronized (this) {
+			p = m_pageMap.get(pid);
+		}
+		if (p != null)
+			return p;
+
+		// Read page from disk
+		p = Database.getCatalog().getDatabaseFile(pid.getTableId())
+				.readPage(pid);
+		synchronized (this) {
+			// another thread may have cached the page in the meantime
+			Page cached = m_pageMap.get(pid);
+			if (cached != null)
+				return cached;
 			if (m_pageMap.size() >= m_numPages) {
 				evictPage();
 				/*
@@ -91,12 +107,8 @@ public class BufferPool {
 				 * ") exceeded.");
 				 */
 			}
-			// Read page from disk
-			p = Database.getCatalog().getDatabaseFile(pid.getTableId())
-					.readPage(pid);
 			m_pageMap.put(pid, p);
 		}
-
 		return p;
 	}
 
@@ -172,7 +184,11 @@ public class BufferPool {
 		// some code goes here
 		// not necessary for lab1
 		// indirection to Dbfile's insert
-		Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+		cacheDirtiedPages(tid, Database.getCatalog().getDatabaseFile(tableId)
+				.insertTuple(tid, t));
+		// the tuple has its RecordId now, so the indexes can point to it
+		for (DbIndex idx : Database.getCatalog().getIndexes(tableId))
+			cacheDirtiedPages(tid, idx.insertEntry(tid, t));
 	}
 
 	/**
@@ -193,10 +209,26 @@ public class BufferPool {
 			IOException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for lab1
-		Database.getCatalog()
-				.getDatabaseFile(t.getRecordId().getPageId().getTableId())
-				.deleteTuple(tid, t);
+		int tableId = t.getRecordId().getPageId().getTableId();
+		// the index entries are found through the RecordId, which the delete
+		// invalidates
+		for (DbIndex idx : Database.getCatalog().getIndexes(tableId))
+			cacheDirtiedPages(tid, idx.deleteEntry(tid, t));
+		cacheDirtiedPages(tid, Database.getCatalog().getDatabaseFile(tableId)
+				.deleteTuple(tid, t));
+	}
 
+	/**
+	 * Marks the pages modified by an insert or delete dirty and makes sure the
+	 * cached copies are the modified ones, for files that change pages the
+	 * BufferPool did not hand out (such as new pages).
+	 */
+	private synchronized void cacheDirtiedPages(TransactionId tid,
+			Iterable<Page> pages) {
+		for (Page p : pages) {
+			p.markDirty(true, tid);
+			m_pageMap.put(p.getId(), p);
+		}
 	}
 
 	/**
@@ -218,8 +250,7 @@ public class BufferPool {
 	 * its cache.
 	 */
 	public synchronized void discardPage(PageId pid) {
-		// some code goes here
-		// only necessary for lab5
+		m_pageMap.remove(pid);
 	}
 
 	/**
@@ -232,8 +263,8 @@ public class BufferPool {
 		// some code goes here
 		// not necessary for lab1
 		try {
-			HeapPage myPage = (HeapPage) m_pageMap.get(pid);
-			if (myPage.isDirty() != null)
+			Page myPage = m_pageMap.get(pid);
+			if (myPage != null && myPage.isDirty() != null)
 				Database.getCatalog().getDatabaseFile(pid.getTableId())
 						.writePage(myPage);
 			// notice that writePage takes care of change page to not dirty
@@ -22,6 +22,7 @@ public class Catalog {
 	private Vector<String> fileName;
 	private Vector<String> fileKey;
 	private Vector<Integer> fileId;
+	private Vector<DbIndex> indexes;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -33,6 +34,7 @@ public class Catalog {
 		fileName = new Vector<String>();
 		fileKey = new Vector<String>();
 		fileId = new Vector<Integer>();
+		indexes = new Vector<DbIndex>();
 	}
 
     /**
@@ -49,6 +51,8 @@ public class Catalog {
     	if(fileId.contains(file.getId()))
     	{
     		int index = fileId.indexOf(file.getId());
+    		// indexes over the old file do not describe the new one
+    		removeIndexes(file.getId());
    			fileItself.set(index, file);
     		fileName.set(index, name);
     		fileKey.set(index, pkeyField);
@@ -98,13 +102,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-    	if(fileId.contains(tableid))
-    	{
-    		DbFile tmpFile = fileItself.get(fileId.indexOf(tableid));
-    		return tmpFile.getTupleDesc();
-    	}
-    	else
-    		throw new NoSuchElementException("The tableid does not exist!");
+    	return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -116,8 +114,71 @@ public class Catalog {
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
     	if(fileId.contains(tableid))
     		return fileItself.get(fileId.indexOf(tableid));
-    	else
+    	// the files of indexes are not tables, but their pages are read
+    	// through the BufferPool like those of tables
+    	for (DbIndex idx : indexes)
+    		if (idx.getFile() != null && idx.getFile().getId() == tableid)
+    			return idx.getFile();
+    	throw new NoSuchElementException("The tableid does not exist!");
+    }
+
+    /**
+     * Register an index over a table. From then on the BufferPool keeps the
+     * index up to date as tuples are inserted into and deleted from the table,
+     * and the optimizer may read the table through it.
+     * @param index the index; its table must already be in the catalog
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void addIndex(DbIndex index) {
+    	if(!fileId.contains(index.getTableId()))
     		throw new NoSuchElementException("The tableid does not exist!");
+    	indexes.add(index);
+    }
+
+    /**
+     * Returns the indexes over the specified table: those registered with
+     * {@link #addIndex}, and the key of a table stored in a BTreeFile.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public List<DbIndex> getIndexes(int tableid) {
+    	ArrayList<DbIndex> l = new ArrayList<DbIndex>();
+    	DbFile f = getDatabaseFile(tableid);
+    	if (f instanceof BTreeFile)
+    		l.add(((BTreeFile) f).keyIndex());
+    	for (DbIndex idx : indexes)
+    		if (idx.getTableId() == tableid)
+    			l.add(idx);
+    	return l;
+    }
+
+    /**
+     * Returns an index that can find the tuples of a table satisfying
+     * "field op constant", or null if there is none. A clustered index is
+     * preferred, then, for equality, an unordered one such as a hash index,
+     * which finds a key without descending a tree.
+     */
+    public DbIndex getIndex(int tableid, int field, Predicate.Op op) {
+    	DbIndex best = null;
+    	for (DbIndex idx : getIndexes(tableid))
+    		if (idx.getField() == field && idx.supports(op)
+    				&& (best == null || rank(idx, op) > rank(best, op)))
+    			best = idx;
+    	return best;
+    }
+
+    private static int rank(DbIndex idx, Predicate.Op op) {
+    	int r = idx.isClustered() ? 2 : 0;
+    	if (op == Predicate.Op.EQUALS && !idx.isOrdered())
+    		r++;
+    	return r;
+    }
+
+    private void removeIndexes(int tableid) {
+    	Iterator<DbIndex> it = indexes.iterator();
+    	while (it.hasNext())
+    		if (it.next().getTableId() == tableid)
+    			it.remove();
     }
 
     public String getPrimaryKey(int tableid) {
@@ -144,6 +205,7 @@ public class Catalog {
     	fileName.clear();
     	fileKey.clear();
     	fileId.clear();
+    	indexes.clear();
     }
     
     /**
@@ -162,11 +224,28 @@ public class Catalog {
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
                 String[] els = fields.split(",");
+                // "slotted" after the fields stores the table in a
+                // SlottedFile, "columnar" in a ColumnFile, and "compressed"
+                // in a HeapFile of compressed pages
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                if (!storage.equals("") && !storage.equals("slotted")
+                        && !storage.equals("columnar")
+                        && !storage.equals("compressed")) {
+                    System.out.println("Unknown table option " + storage);
+                    System.exit(0);
+                }
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                // "index:f1:f2" also stores fields f1 and f2 in the entries
+                HashMap<Integer, String[]> included = new HashMap<Integer, String[]>();
+                ArrayList<Integer> bitmapped = new ArrayList<Integer>();
+                int clusterKey = -1;
+                // "dict" dictionary-encodes a string column of a columnar table
+                ArrayList<Integer> encoded = new ArrayList<Integer>();
                 for (String e : els) {
-                    String[] els2 = e.trim().split(" ");
+                    String[] els2 = e.trim().split(" +");
                     names.add(els2[0].trim());
                     if (els2[1].trim().toLowerCase().equals("int"))
                         types.add(Type.INT_TYPE);
@@ -176,11 +255,37 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[k].trim().equals("index"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[k].trim().startsWith("index:")) {
+                            indexed.add(names.size() - 1);
+                            included.put(names.size() - 1, els2[k].trim()
+                                    .substring("index:".length()).split(":"));
+                        }
+                        else if (els2[k].trim().equals("bitmap"))
+                            bitmapped.add(names.size() - 1);
+                        else if (els2[k].trim().equals("dict")) {
+                            if (types.get(types.size() - 1) != Type.STRING_TYPE
+                                    || !storage.equals("columnar")) {
+                                System.out.println("Field " + els2[0]
+                                        + " is not a string of a columnar table");
+                                System.exit(0);
+                            }
+                            encoded.add(names.size() - 1);
+                        }
+                        else if (els2[k].trim().equals("cluster")) {
+                            if (types.get(types.size() - 1) != Type.INT_TYPE) {
+                                System.out.println("Cluster key " + els2[0]
+                                        + " is not an int");
+                                System.exit(0);
+                            }
+                            clusterKey = names.size() - 1;
+                        }
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
@@ -188,9 +293,85 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                if (storage.equals("slotted") || storage.equals("columnar")) {
+                    if (!indexed.isEmpty() || !bitmapped.isEmpty()
+                            || clusterKey >= 0) {
+                        System.out.println(storage + " table " + name
+                                + " cannot be indexed or clustered");
+                        System.exit(0);
+                    }
+                    if (storage.equals("slotted")) {
+                        addTable(new SlottedFile(dataFile, t), name, primaryKey);
+                    } else {
+                        // the columns are loaded from the heap file of the
+                        // table, when it is newer than any of them or a
+                        // column was encoded or decoded since
+                        boolean[] encode = new boolean[typeAr.length];
+                        for (int field : encoded)
+                            encode[field] = true;
+                        ColumnFile cf = new ColumnFile(dataFile, t, encode);
+                        addTable(cf, name, primaryKey);
+                        boolean stale = false;
+                        for (int i = 0; i < typeAr.length; i++)
+                            stale |= cf.getColumnFile(i).lastModified()
+                                    < dataFile.lastModified()
+                                    || new File(cf.getColumnFile(i).getPath()
+                                            + ".dict").exists() != encode[i];
+                        if (stale)
+                            cf.load(new HeapFile(dataFile, t));
+                    }
+                    System.out.println("Added " + storage + " table : " + name
+                            + " with schema " + t);
+                    continue;
+                }
+                boolean compressed = storage.equals("compressed");
+                if (compressed && !CompressedPages.isCompressed(dataFile)) {
+                    CompressedPages.compress(dataFile);
+                    System.out.println("Compressed table " + name);
+                }
+                HeapFile tabHf = new HeapFile(dataFile, t, compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                // sorting the file makes the indexes below older than it,
+                // so they are rebuilt
+                tabHf.setClusterKey(clusterKey);
+                if (clusterKey >= 0 && !tabHf.isClustered()) {
+                    tabHf.reorganize();
+                    System.out.println("Reorganized table " + name + " on "
+                            + namesAr[clusterKey]);
+                }
+                for (int field : indexed) {
+                    String[] incNames = included.containsKey(field) ? included
+                            .get(field) : new String[0];
+                    int[] include = new int[incNames.length];
+                    String idxName = name + "." + namesAr[field];
+                    for (int k = 0; k < incNames.length; k++) {
+                        include[k] = names.indexOf(incNames[k]);
+                        if (include[k] < 0) {
+                            System.out.println("Unknown included field " + incNames[k]);
+                            System.exit(0);
+                        }
+                        idxName += "." + incNames[k];
+                    }
+                    File idxFile = new File(baseFolder + "/" + idxName + ".idx");
+                    loadIndex(tabHf, idxFile, new BTreeIndex(idxFile,
+                            tabHf.getId(), field, include));
+                }
+                for (int field : bitmapped) {
+                    File idxFile = new File(baseFolder + "/" + name + "."
+                            + namesAr[field] + ".bmp");
+                    loadIndex(tabHf, idxFile, new BitmapIndex(idxFile,
+                            tabHf.getId(), field));
+                }
+                // primary keys are looked up by equality, so they get a hash
+                // index
+                if (!primaryKey.equals("")) {
+                    File idxFile = new File(baseFolder + "/" + name + "."
+                            + primaryKey + ".hash");
+                    loadIndex(tabHf, idxFile, new HashIndex(idxFile,
+                            tabHf.getId(), names.indexOf(primaryKey)));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -200,5 +381,29 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Register an index over a table, building it first if its file is
+     * missing or older than the table's data file.
+     */
+    private void loadIndex(HeapFile table, File idxFile, SecondaryIndex idx)
+            throws IOException {
+        boolean stale = !idxFile.exists()
+                || idxFile.lastModified() < table.getFile().lastModified();
+        if (stale)
+            idxFile.delete();
+        addIndex(idx);
+        if (stale) {
+            try {
+                idx.build(new TransactionId());
+            } catch (DbException e) {
+                throw new IOException("could not build index " + idxFile, e);
+            } catch (TransactionAbortedException e) {
+                throw new IOException("could not build index " + idxFile, e);
+            }
+        }
+        System.out.println("Added " + idx.getClass().getSimpleName()
+                + " on " + table.getTupleDesc().getFieldName(idx.getField()));
+    }
 }
 
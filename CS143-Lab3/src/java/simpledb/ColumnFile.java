@@ -0,0 +1,394 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table in a file of its own, so that a scan which needs only some of the
+ * columns, such as an aggregate over one of them, reads only the pages of
+ * those columns. The file of column i is named after the table's file with
+ * ".col" and i appended; the table's file itself is not used, other than to
+ * identify the table.
+ * <p>
+ * The columns are split into {@link ColumnPage}s, and row r of the table is
+ * at the same slot of the same page number in every column whose values
+ * have the same width. The {@link RecordId} of a row names its page and
+ * slot in column 0. Inserts append a row to the end of every column; rows
+ * deleted from the end are reused. Pages are read and modified through the
+ * {@link BufferPool}.
+ * <p>
+ * String columns may be dictionary-encoded: the pages of such a column hold
+ * codes from a {@link StringDictionary} kept in the column's file name with
+ * ".dict" appended, and equality tests between its values, or against a
+ * constant {@link #encode encoded} with the dictionary, compare the codes.
+ *
+ * @see ColumnPage
+ * @see SeqScan#setColumns
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final File[] columnFiles;
+    private final int[] slotsPerPage;
+    private final StringDictionary[] dictionaries;
+
+    /**
+     * Constructs a column file backed by the column files of the specified
+     * file.
+     *
+     * @param f
+     *            the file the names of the column files are derived from
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, new boolean[td.numFields()]);
+    }
+
+    /**
+     * Constructs a column file backed by the column files of the specified
+     * file, with some of its string columns dictionary-encoded.
+     *
+     * @param f
+     *            the file the names of the column files are derived from
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     * @param encoded
+     *            for each column, true if it is dictionary-encoded
+     * @throws IllegalArgumentException
+     *             if an encoded column is not a string column
+     */
+    public ColumnFile(File f, TupleDesc td, boolean[] encoded) {
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        columnFiles = new File[td.numFields()];
+        slotsPerPage = new int[td.numFields()];
+        dictionaries = new StringDictionary[td.numFields()];
+        for (int i = 0; i < columnFiles.length; i++) {
+            columnFiles[i] = new File(f.getPath() + ".col" + i);
+            int valueSize = td.getFieldType(i).getLen();
+            if (encoded[i]) {
+                if (td.getFieldType(i) != Type.STRING_TYPE)
+                    throw new IllegalArgumentException("column " + i
+                            + " is not a string column");
+                dictionaries[i] = new StringDictionary(new File(
+                        columnFiles[i].getPath() + ".dict"));
+                valueSize = Type.INT_TYPE.getLen();
+            }
+            slotsPerPage[i] = ColumnPage.slotsPerPage(valueSize);
+        }
+    }
+
+    /**
+     * Returns the File this ColumnFile is named after.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the file the values of a column are stored in.
+     */
+    public File getColumnFile(int column) {
+        return columnFiles[column];
+    }
+
+    /**
+     * Returns the dictionary of a column, or null if it is not encoded.
+     */
+    public StringDictionary getDictionary(int column) {
+        return dictionaries[column];
+    }
+
+    /**
+     * Returns the number of values of a column that fit on a page.
+     */
+    public int slotsPerPage(int column) {
+        return slotsPerPage[column];
+    }
+
+    /**
+     * Returns a constant to compare the values of a column with: for an
+     * encoded column, the value with its code, or code -1 if no row has it,
+     * so that equality tests compare codes; otherwise the constant itself.
+     */
+    public Field encode(int column, Field constant) {
+        if (dictionaries[column] == null)
+            return constant;
+        try {
+            return dictionaries[column].lookup(((StringField) constant)
+                    .getValue());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash code of
+     * the absolute file name, as for {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages of all the columns together.
+     */
+    public int numPages() {
+        int n = 0;
+        for (int i = 0; i < columnFiles.length; i++)
+            n += numPages(i);
+        return n;
+    }
+
+    /**
+     * Returns the number of pages of a column.
+     */
+    public int numPages(int column) {
+        return (int) (columnFiles[column].length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId id = (ColumnPageId) pid;
+        if (id.pageNumber() >= numPages(id.getColumn()))
+            throw new IllegalArgumentException("Read past end of table.");
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            RandomAccessFile raf = new RandomAccessFile(
+                    columnFiles[id.getColumn()], "r");
+            try {
+                raf.seek((long) id.pageNumber() * pageSize);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            Debug.log(1, "ColumnFile.readPage: read page %d of column %d",
+                    id.pageNumber(), id.getColumn());
+            return new ColumnPage(id, data);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId id = (ColumnPageId) page.getId();
+        RandomAccessFile raf = new RandomAccessFile(
+                columnFiles[id.getColumn()], "rw");
+        try {
+            raf.seek((long) id.pageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+        page.markDirty(false, null);
+    }
+
+    private ColumnPage getPage(TransactionId tid, int column, int pgNo,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(tableid, column, pgNo), perm);
+    }
+
+    private RecordId recordId(int row) {
+        return new RecordId(new ColumnPageId(tableid, 0, row
+                / slotsPerPage[0]), row % slotsPerPage[0]);
+    }
+
+    /**
+     * @return one more than the last row in use, as found from the last page
+     *         of a column; every column holds the same rows
+     */
+    private int numRows(TransactionId tid, int column) throws DbException,
+            TransactionAbortedException {
+        int pages = numPages(column);
+        if (pages == 0)
+            return 0;
+        return (pages - 1) * slotsPerPage[column]
+                + getPage(tid, column, pages - 1, Permissions.READ_ONLY)
+                        .getEnd();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        int row = numRows(tid, 0);
+        ArrayList<Page> dirtypages = new ArrayList<Page>();
+        for (int c = 0; c < columnFiles.length; c++) {
+            int pgNo = row / slotsPerPage[c];
+            if (pgNo >= numPages(c))
+                writePage(new ColumnPage(new ColumnPageId(tableid, c, pgNo),
+                        ColumnPage.createEmptyPageData()));
+            ColumnPage page = getPage(tid, c, pgNo, Permissions.READ_WRITE);
+            page.setValue(row % slotsPerPage[c], t.getField(c));
+            dirtypages.add(page);
+        }
+        t.setRecordId(recordId(row));
+        return dirtypages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of the file");
+        int row = rid.getPageId().pageNumber() * slotsPerPage[0]
+                + rid.tupleno();
+        ArrayList<Page> dirtypages = new ArrayList<Page>();
+        for (int c = 0; c < columnFiles.length; c++) {
+            ColumnPage page = getPage(tid, c, row / slotsPerPage[c],
+                    Permissions.READ_WRITE);
+            page.clearValue(row % slotsPerPage[c]);
+            dirtypages.add(page);
+        }
+        t.setRecordId(null);
+        return dirtypages;
+    }
+
+    /**
+     * Replaces the rows of this file with the tuples of a HeapFile with the
+     * same TupleDesc, such as the heap file this file is named after, and
+     * rebuilds the dictionaries of the encoded columns from them. The
+     * pages of both files are read and written directly rather than through
+     * the BufferPool, so none of them may be cached. This file has to be in
+     * the Catalog.
+     */
+    public void load(HeapFile source) throws IOException {
+        if (!td.equals(source.getTupleDesc()))
+            throw new IllegalArgumentException("tupledesc mismatch");
+        for (File cf : columnFiles)
+            cf.delete();
+        for (StringDictionary d : dictionaries)
+            if (d != null)
+                d.clear();
+        ColumnPage[] pages = new ColumnPage[columnFiles.length];
+        int row = 0;
+        try {
+            for (int p = 0; p < source.numPages(); p++) {
+                Iterator<Tuple> it = ((HeapPage) source.readPage(new HeapPageId(
+                        source.getId(), p))).iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (int c = 0; c < pages.length; c++) {
+                        int slot = row % slotsPerPage[c];
+                        if (slot == 0) {
+                            if (pages[c] != null)
+                                writePage(pages[c]);
+                            pages[c] = new ColumnPage(new ColumnPageId(tableid,
+                                    c, row / slotsPerPage[c]),
+                                    ColumnPage.createEmptyPageData());
+                        }
+                        pages[c].setValue(slot, t.getField(c));
+                    }
+                    row++;
+                }
+            }
+        } catch (DbException e) {
+            throw new IOException(e);
+        }
+        for (int c = 0; c < pages.length; c++) {
+            if (pages[c] != null)
+                writePage(pages[c]);
+            else
+                new FileOutputStream(columnFiles[c]).close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return new ColumnFileIterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads only the
+     * pages of the specified columns. The tuples returned have the
+     * TupleDesc of the file, with the fields of the other columns null.
+     *
+     * @param columns
+     *            the indexes of the columns to read, at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("no column to read");
+        return new ColumnFileIterator(tid, columns.clone());
+    }
+
+    /**
+     * Helper class that iterates over the rows of the file, reading the
+     * pages of each of its columns as the rows reach them.
+     */
+    class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] columns;
+        private final ColumnPage[] pages;
+        private int row;
+        private int numRows;
+
+        public ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+            this.pages = new ColumnPage[columns.length];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            row = 0;
+            numRows = numRows(tid, columns[0]);
+            Arrays.fill(pages, null);
+        }
+
+        /** @return the page of the i-th column read holding the row */
+        private ColumnPage page(int i) throws DbException,
+                TransactionAbortedException {
+            int c = columns[i];
+            int pgNo = row / slotsPerPage[c];
+            if (pages[i] == null || pages[i].getId().pageNumber() != pgNo)
+                pages[i] = getPage(tid, c, pgNo, Permissions.READ_ONLY);
+            return pages[i];
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            for (; row < numRows; row++) {
+                if (!page(0).isSlotUsed(row % slotsPerPage[columns[0]]))
+                    continue;
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < columns.length; i++)
+                    t.setField(columns[i], page(i).getValue(
+                            row % slotsPerPage[columns[i]]));
+                t.setRecordId(recordId(row++));
+                return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            numRows = 0;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Each instance of ColumnPage stores the values of one column of a
+ * {@link ColumnFile} for a range of consecutive rows. Row r of the table is
+ * in slot r % n of page r / n of each column, where n is the number of
+ * values of the column's type that fit on a page.
+ * <p>
+ * The format is that of a {@link HeapPage} whose tuples have the one field:
+ * a header with a bit per slot, set if the slot holds a value, followed by
+ * the fixed-width values. A deleted row has its bit cleared on the pages of
+ * every column. The values of a column with a {@link StringDictionary} are
+ * stored as their 4-byte codes, and read as {@link EncodedStringField}s.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final StringDictionary dictionary;
+    private final byte[] header;
+    private final Field[] values;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * type of the values, and the dictionary of their codes, if any, are
+     * those of the {@link ColumnFile} of the table in the {@link Catalog}.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ColumnFile file = (ColumnFile) Database.getCatalog().getDatabaseFile(
+                id.getTableId());
+        this.type = file.getTupleDesc().getFieldType(id.getColumn());
+        this.dictionary = file.getDictionary(id.getColumn());
+        int n = file.slotsPerPage(id.getColumn());
+        header = new byte[(n + 7) / 8];
+        values = new Field[n];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        dis.readFully(header);
+        for (int i = 0; i < n; i++) {
+            if (!isSlotUsed(i)) {
+                dis.skipBytes(valueSize());
+            } else if (dictionary != null) {
+                values[i] = dictionary.decode(dis.readInt());
+            } else {
+                try {
+                    values[i] = type.parse(dis);
+                } catch (java.text.ParseException e) {
+                    throw new IOException("parsing error!", e);
+                }
+            }
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of values of valueSize bytes that fit on a page
+     */
+    public static int slotsPerPage(int valueSize) {
+        return (BufferPool.getPageSize() * 8) / (valueSize * 8 + 1);
+    }
+
+    /** @return the number of bytes a value takes on the page */
+    private int valueSize() {
+        return dictionary != null ? Type.INT_TYPE.getLen() : type.getLen();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage, with no slot in use.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.write(header);
+            for (int i = 0; i < values.length; i++) {
+                if (!isSlotUsed(i))
+                    dos.write(new byte[valueSize()]);
+                else if (dictionary != null)
+                    dos.writeInt(((EncodedStringField) values[i]).getCode());
+                else
+                    values[i].serialize(dos);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - baos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        try {
+            synchronized (oldDataLock) {
+                return new ColumnPage(pid, oldData);
+            }
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of slots on this page, used or not
+     */
+    public int getNumSlots() {
+        return values.length;
+    }
+
+    /**
+     * @return true if slot i holds a value
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return the value in slot i, or null if the slot is empty
+     */
+    public Field getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Stores a value in slot i, which must be empty. A value of a column with
+     * a dictionary is added to the dictionary if it is not in it yet.
+     *
+     * @throws DbException
+     *             if the slot is in use or the value has the wrong type
+     */
+    public void setValue(int i, Field f) throws DbException {
+        if (isSlotUsed(i))
+            throw new DbException("slot " + i + " is already in use");
+        if (f.getType() != type)
+            throw new DbException("type mismatch");
+        if (dictionary != null) {
+            try {
+                f = dictionary.encode(((StringField) f).getValue());
+            } catch (IOException e) {
+                throw new DbException("could not add " + f + " to "
+                        + dictionary.getFile() + ": " + e);
+            }
+        }
+        header[i / 8] |= 1 << (i % 8);
+        values[i] = f;
+    }
+
+    /**
+     * Empties slot i.
+     *
+     * @throws DbException
+     *             if the slot is already empty
+     */
+    public void clearValue(int i) throws DbException {
+        if (!isSlotUsed(i))
+            throw new DbException("slot " + i + " is already empty");
+        header[i / 8] &= ~(1 << (i % 8));
+        values[i] = null;
+    }
+
+    /**
+     * @return one more than the last slot in use, or 0 if none is
+     */
+    public int getEnd() {
+        for (int i = values.length - 1; i >= 0; i--)
+            if (isSlotUsed(i))
+                return i + 1;
+        return 0;
+    }
+}
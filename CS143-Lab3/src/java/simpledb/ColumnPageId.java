@@ -0,0 +1,78 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link ColumnFile}. Each column of a
+ * ColumnFile is stored in its own file of {@link ColumnPage}s, so a page is
+ * identified by the column as well as the page number within it.
+ */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The index of the column in the table
+     * @param pgNo The page number in the file of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the index of the column the page holds values of */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the file of the column associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the table ids, columns and page numbers are the same
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId other = (ColumnPageId) o;
+        return other.tableId == tableId && other.column == column
+                && other.pgNo == pgNo;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+}
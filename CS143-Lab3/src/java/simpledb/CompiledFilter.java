@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CompiledFilter is the form of a chain of {@link Filter}s built by the
+ * {@link QueryCompiler}: it returns the tuples of its child that satisfy a
+ * conjunction of predicates, evaluated by a class generated for them.
+ */
+public class CompiledFilter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate[] preds;
+    private final transient QueryCompiler.CompiledPredicate compiled;
+    private DbIterator child;
+
+    /**
+     * Constructor.
+     * 
+     * @param preds
+     *            the predicates
+     * @param compiled
+     *            the compiled conjunction of the predicates
+     * @param child
+     *            The child operator
+     */
+    public CompiledFilter(Predicate[] preds,
+            QueryCompiler.CompiledPredicate compiled, DbIterator child) {
+        this.preds = preds.clone();
+        this.compiled = compiled;
+        this.child = child;
+    }
+
+    /**
+     * @return the predicates the tuples are filtered by
+     */
+    public Predicate[] getPredicates() {
+        return preds.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (compiled.filter(t))
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
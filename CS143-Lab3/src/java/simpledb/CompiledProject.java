@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CompiledProject is the form of a {@link Project} built by the
+ * {@link QueryCompiler}: it projects the tuples of its child with a class
+ * generated for the projected fields.
+ */
+public class CompiledProject extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final transient QueryCompiler.CompiledProjection compiled;
+    private final TupleDesc td;
+    private DbIterator child;
+
+    /**
+     * Constructor.
+     * 
+     * @param fields
+     *            The ids of the fields of the child's TupleDesc to project
+     *            out
+     * @param compiled
+     *            the compiled projection of the fields
+     * @param td
+     *            the TupleDesc of the projected tuples
+     * @param child
+     *            The child operator
+     */
+    public CompiledProject(int[] fields,
+            QueryCompiler.CompiledProjection compiled, TupleDesc td,
+            DbIterator child) {
+        this.fields = fields.clone();
+        this.compiled = compiled;
+        this.td = td;
+        this.child = child;
+    }
+
+    /**
+     * @return the ids of the fields of the child's TupleDesc projected out
+     */
+    public int[] getOutFields() {
+        return fields.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return child.hasNext() ? compiled.project(child.next()) : null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
@@ -0,0 +1,312 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPages stores the pages of a {@link HeapFile} deflated on disk,
+ * for tables that are scanned far more often than they are updated. Pages
+ * are inflated when read, so the {@link BufferPool} only ever holds them
+ * uncompressed; a scan reads as many bytes from disk as the compressed
+ * pages take, which for fixed-width pages of zero-padded strings is a
+ * small fraction of their size.
+ * <p>
+ * The file starts with a header of a magic number, the page size, the
+ * offset of the page directory and the number of pages, followed by the
+ * compressed pages and page directories: a directory holds the offset and
+ * length of each page, in page order. A page that is written is appended
+ * at the end of the file, after the current directory, followed by a new
+ * directory; only once both are on disk is the header pointed at the new
+ * directory, so a crash part way through a write leaves the file as it was
+ * before it. The old copy of the page and the old directory are left
+ * unused; once the unused bytes outnumber those in use, the file is
+ * {@link #compress compressed} again to drop them.
+ */
+public class CompressedPages {
+
+    private static final int MAGIC = 0x53445a50;
+    private static final int HEADER_SIZE = 16;
+    /** the offset in the header of the directory offset and page count */
+    private static final int ROOT_OFFSET = 8;
+
+    private final File file;
+
+    /** the offset and length of each page; null until loaded */
+    private int[] offsets;
+    private int[] lengths;
+    private int numPages;
+
+    /**
+     * Creates the page store of a file. A file that does not exist or is
+     * empty holds no pages; nothing is read until the store is used.
+     */
+    public CompressedPages(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return true if f is a file of compressed pages, written for the
+     *         current page size
+     */
+    public static boolean isCompressed(File f) throws IOException {
+        if (f.length() < HEADER_SIZE)
+            return false;
+        DataInputStream dis = new DataInputStream(new FileInputStream(f));
+        try {
+            return dis.readInt() == MAGIC
+                    && dis.readInt() == BufferPool.getPageSize();
+        } finally {
+            dis.close();
+        }
+    }
+
+    private void load() throws IOException {
+        if (offsets != null)
+            return;
+        offsets = new int[16];
+        lengths = new int[16];
+        numPages = 0;
+        if (file.length() == 0)
+            return;
+        if (!isCompressed(file))
+            throw new IOException(file + " is not a file of compressed pages");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(ROOT_OFFSET);
+            int directoryOffset = raf.readInt();
+            numPages = raf.readInt();
+            offsets = new int[Math.max(16, numPages)];
+            lengths = new int[offsets.length];
+            byte[] directory = new byte[8 * numPages];
+            raf.seek(directoryOffset);
+            raf.readFully(directory);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    directory));
+            for (int i = 0; i < numPages; i++) {
+                offsets[i] = dis.readInt();
+                lengths[i] = dis.readInt();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the number of pages in the file
+     */
+    public synchronized int numPages() throws IOException {
+        load();
+        return numPages;
+    }
+
+    /**
+     * @return the number of bytes the pages take on disk, not counting
+     *         old copies of rewritten pages
+     */
+    public synchronized long compressedSize() throws IOException {
+        load();
+        long size = 0;
+        for (int i = 0; i < numPages; i++)
+            size += lengths[i];
+        return size;
+    }
+
+    /**
+     * @return the number of bytes of the file in use: the header, the pages
+     *         and the current directory
+     */
+    private long liveSize() throws IOException {
+        return HEADER_SIZE + compressedSize() + 8L * numPages;
+    }
+
+    /**
+     * Reads and inflates a page.
+     *
+     * @throws IllegalArgumentException
+     *             if the page is past the end of the file
+     * @throws IOException
+     *             if the page could not be read, or does not inflate to a
+     *             whole page
+     */
+    public synchronized byte[] read(int pgNo) throws IOException {
+        load();
+        if (pgNo >= numPages)
+            throw new IllegalArgumentException("Read past end of table.");
+        byte[] compressed = new byte[lengths[pgNo]];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(offsets[pgNo]);
+            raf.readFully(compressed);
+        } finally {
+            raf.close();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[BufferPool.getPageSize()];
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int k = inflater.inflate(data, n, data.length - n);
+                // no progress means the input ran out before its end
+                if (k == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary()))
+                    throw new IOException("page " + pgNo + " of " + file
+                            + " is truncated");
+                n += k;
+            }
+            if (n != data.length || !inflater.finished())
+                throw new IOException("page " + pgNo + " of " + file
+                        + " does not inflate to a page");
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pgNo + " of " + file
+                    + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    data.length / 4);
+            byte[] buf = new byte[1024];
+            while (!deflater.finished())
+                baos.write(buf, 0, deflater.deflate(buf));
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses and writes a page, which may be the page just past the end
+     * of the file. The file is compressed again if the write leaves more
+     * bytes of it unused than in use.
+     */
+    public synchronized void write(int pgNo, byte[] data) throws IOException {
+        load();
+        if (pgNo > numPages)
+            throw new IllegalArgumentException("page " + pgNo
+                    + " is past the end of the file");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            append(raf, pgNo, data);
+            writeDirectory(raf);
+        } catch (IOException e) {
+            // read the directory the header still points at
+            invalidate();
+            throw e;
+        } finally {
+            raf.close();
+        }
+        if (file.length() > 2 * liveSize()) {
+            compress(file);
+            invalidate();
+        }
+    }
+
+    /**
+     * Writes a compressed page at the end of the file, and records it in the
+     * directory held in memory.
+     */
+    private void append(RandomAccessFile raf, int pgNo, byte[] data)
+            throws IOException {
+        if (raf.length() == 0) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(BufferPool.getPageSize());
+            raf.writeInt(HEADER_SIZE);
+            raf.writeInt(0);
+        }
+        if (pgNo == numPages) {
+            if (numPages == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * numPages);
+                lengths = Arrays.copyOf(lengths, 2 * numPages);
+            }
+            numPages++;
+        }
+        byte[] compressed = deflate(data);
+        int offset = (int) raf.length();
+        raf.seek(offset);
+        raf.write(compressed);
+        offsets[pgNo] = offset;
+        lengths[pgNo] = compressed.length;
+    }
+
+    /**
+     * Writes the directory held in memory at the end of the file and, once
+     * it and the pages before it are on disk, points the header at it.
+     */
+    private void writeDirectory(RandomAccessFile raf) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < numPages; i++) {
+            dos.writeInt(offsets[i]);
+            dos.writeInt(lengths[i]);
+        }
+        dos.flush();
+        int directoryOffset = (int) raf.length();
+        raf.seek(directoryOffset);
+        raf.write(baos.toByteArray());
+        raf.getFD().sync();
+        raf.seek(ROOT_OFFSET);
+        raf.writeInt(directoryOffset);
+        raf.writeInt(numPages);
+        raf.getFD().sync();
+    }
+
+    /**
+     * Rewrites a file of heap pages, uncompressed or not, as a file of
+     * compressed pages with no unused space.
+     *
+     * @param f
+     *            the file to rewrite in place
+     */
+    public static void compress(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        tmp.delete();
+        CompressedPages out = new CompressedPages(tmp);
+        out.load();
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            if (isCompressed(f)) {
+                CompressedPages in = new CompressedPages(f);
+                for (int p = 0; p < in.numPages(); p++)
+                    out.append(raf, p, in.read(p));
+            } else {
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(f)));
+                try {
+                    byte[] data = new byte[BufferPool.getPageSize()];
+                    for (int p = 0; p < f.length() / data.length; p++) {
+                        dis.readFully(data);
+                        out.append(raf, p, data);
+                    }
+                } finally {
+                    dis.close();
+                }
+            }
+            out.writeDirectory(raf);
+        } finally {
+            raf.close();
+        }
+        // renaming over f replaces it at once where the platform allows it
+        if (!tmp.renameTo(f) && (!f.delete() || !tmp.renameTo(f)))
+            throw new IOException("could not replace " + f);
+    }
+
+    /**
+     * Forgets the directory, so that it is read again from the file, after
+     * the file was replaced.
+     */
+    public synchronized void invalidate() {
+        offsets = null;
+        lengths = null;
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Consumer returns the tuples one or more {@link Producer}s send it through
+ * an {@link ExchangeQueue}, on the thread of the operator reading it.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ExchangeQueue queue;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Opens the producers, and returns the queue to read.
+     */
+    protected abstract ExchangeQueue openProducers() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Closes the producers, once the queue is closed.
+     */
+    protected abstract void closeProducers();
+
+    public void open() throws DbException, TransactionAbortedException {
+        queue = openProducers();
+        batch = null;
+        super.open();
+    }
+
+    /**
+     * @return the next batch of tuples, or null once the producers have all
+     *         finished
+     */
+    protected List<Tuple> nextBatch() throws DbException,
+            TransactionAbortedException {
+        return queue.take();
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            List<Tuple> b = nextBatch();
+            if (b == null)
+                return null;
+            batch = b.iterator();
+        }
+        return batch.next();
+    }
+
+    public void close() {
+        super.close();
+        if (queue != null) {
+            queue.close();
+            queue = null;
+            closeProducers();
+        }
+        batch = null;
+    }
+
+    /**
+     * Prepares to return the tuples returned since the consumer was opened
+     * again, without running the producers again.
+     *
+     * @return false if the consumer cannot, so it must run them again
+     */
+    protected boolean replay() {
+        return false;
+    }
+
+    /**
+     * Rewinds by returning the tuples again if the consumer can replay them,
+     * or else by closing and opening again, which runs the producers again
+     * if no other consumer has them open.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!replay()) {
+            close();
+            open();
+        }
+        batch = null;
+    }
+}
@@ -68,6 +68,14 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns the number of pages in this DbFile, used to estimate the cost
+     * of scanning it.
+     *
+     * @return the number of pages in this DbFile.
+     */
+    public int numPages();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
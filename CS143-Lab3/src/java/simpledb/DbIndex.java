@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The interface for access paths that find the tuples of a table whose value
+ * in one field satisfies a predicate, without scanning the whole table.
+ * Indexes are registered with {@link Catalog#addIndex}, kept up to date by
+ * the {@link BufferPool} as tuples are inserted and deleted, and read through
+ * an {@link IndexScan}.
+ */
+public interface DbIndex {
+
+    /**
+     * @return the id of the table this index is over
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the indexed field in the tuples of the table
+     */
+    public int getField();
+
+    /**
+     * @return true if {@link #iterator} can find the tuples satisfying
+     *         "field op constant" without reading the rest of the index
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return true if {@link #iterator} returns tuples in ascending order of
+     *         the indexed field
+     */
+    public boolean isOrdered();
+
+    /**
+     * @return true if the table itself is stored in order of the indexed
+     *         field, so the tuples matching a range share as few pages as
+     *         possible
+     */
+    public boolean isClustered();
+
+    /**
+     * @return the DbFile holding the pages of the index, or null if the index
+     *         has no pages of its own to read through the BufferPool, such as
+     *         when it is the table's own file. The Catalog makes this file
+     *         available through {@link Catalog#getDatabaseFile} so the
+     *         BufferPool can read its pages.
+     */
+    public DbFile getFile();
+
+    /**
+     * @return the number of pages of the index, not counting the pages of the
+     *         table
+     */
+    public int numPages();
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * satisfies ipred, in order of the field if {@link #isOrdered}.
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred);
+
+    /**
+     * Add the entry for a tuple that has just been inserted into the table;
+     * its RecordId is where it is stored.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Remove the entry for a tuple that is about to be deleted from the table;
+     * its RecordId is still where it is stored.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column of a
+ * {@link ColumnFile}, which carries the code of its value in the column's
+ * {@link StringDictionary} as well as the value. The dictionary hands out
+ * one instance per code, so the rows of such a column share their fields
+ * and strings; two fields of the same dictionary whose values are both in
+ * it are compared for equality by their codes.
+ */
+public class EncodedStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient StringDictionary dictionary;
+
+    /**
+     * Constructor.
+     * 
+     * @param s
+     *            The value of this field.
+     * @param code
+     *            The code of the value in the dictionary, or -1 if the value
+     *            is not in it
+     * @param dictionary
+     *            The dictionary the code is from
+     */
+    public EncodedStringField(String s, int code, StringDictionary dictionary) {
+        super(s, Type.STRING_LEN);
+        this.code = code;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the code of the value, or -1 if it is not in the dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the dictionary the code is from
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return true if field and this field are both encoded by the same
+     *         dictionary, so their codes are equal exactly when their values
+     *         are; values not in the dictionary all share the code -1
+     */
+    private boolean sameDictionary(Object field) {
+        return dictionary != null && code >= 0
+                && field instanceof EncodedStringField
+                && ((EncodedStringField) field).dictionary == dictionary
+                && ((EncodedStringField) field).code >= 0;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDictionary(field))
+            return code == ((EncodedStringField) field).code;
+        return super.equals(field);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, by their codes
+     * if the test is for equality and both values are in the same
+     * dictionary.
+     * 
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS)
+                return code == ((EncodedStringField) val).code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return code != ((EncodedStringField) val).code;
+        }
+        return super.compare(op, val);
+    }
+}
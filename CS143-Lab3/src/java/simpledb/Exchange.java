@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Exchange is the base class of the operators that move tuples between the
+ * threads of a parallel plan. A {@link Producer} runs its child on a thread
+ * of its own and sends its tuples through {@link ExchangeQueue}s to the
+ * {@link Consumer}s reading them, which return them to the operators above
+ * them on their threads:
+ * <ul>
+ * <li>a {@link GatherConsumer} merges the output of several branches of a
+ * plan, each run by a {@link GatherProducer};
+ * <li>a {@link RepartitionProducer} splits its input by the hash of a field
+ * among {@link PartitionConsumer}s, so that each of several copies of an
+ * operator sees one partition of it;
+ * <li>a {@link BroadcastProducer} sends every tuple of its input to each of
+ * its PartitionConsumers.
+ * </ul>
+ * {@link #parallelize} uses these to run the hash joins and grouped
+ * aggregates of a plan as several copies over partitions of their inputs.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples a producer sends in one batch */
+    public static final int BATCH_SIZE = 256;
+
+    /** The number of batches a queue holds before its producers wait */
+    public static final int QUEUE_BATCHES = 4;
+
+    /**
+     * The number of tuples a consumer keeps in memory, to return them again,
+     * before writing the rest to disk
+     */
+    public static final int SPOOL_TUPLES = 1 << 16;
+
+    /**
+     * @return the name of the operator, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @param buffered
+     *            whether each consumer reads its whole output when opened,
+     *            so the producer does not wait on the operator above it
+     * @return n consumers, the i-th of which returns the tuples of child
+     *         whose value of field falls in partition i of n
+     */
+    public static DbIterator[] repartition(DbIterator child, int field,
+            int n, boolean buffered) {
+        return consumers(new RepartitionProducer(child, field, n), n,
+                buffered);
+    }
+
+    /**
+     * @param buffered
+     *            whether each consumer reads its whole output when opened,
+     *            so the producer does not wait on the operator above it
+     * @return n consumers, each of which returns every tuple of child
+     */
+    public static DbIterator[] broadcast(DbIterator child, int n,
+            boolean buffered) {
+        return consumers(new BroadcastProducer(child, n), n, buffered);
+    }
+
+    private static DbIterator[] consumers(Producer p, int n,
+            boolean buffered) {
+        DbIterator[] c = new DbIterator[n];
+        for (int i = 0; i < n; i++)
+            c[i] = new PartitionConsumer(p, i, buffered);
+        return c;
+    }
+
+    /**
+     * @return an operator returning the tuples of all of branches, each run
+     *         on a thread of its own
+     */
+    public static DbIterator gather(DbIterator[] branches) {
+        return new GatherConsumer(branches);
+    }
+
+    /**
+     * Replaces each equality HashEquiJoin of a plan with n copies joining the
+     * partitions of its inputs by the join fields, and each Aggregate with
+     * grouping with n copies over the partitions of its input by the first
+     * group field; the copies run in parallel, and their output is
+     * gathered.
+     *
+     * @param plan
+     *            the plan to rewrite
+     * @param n
+     *            the number of partitions, at least 2
+     * @return the plan, or the operator that replaces it
+     */
+    public static DbIterator parallelize(DbIterator plan, int n) {
+        if (!(plan instanceof Operator) || plan instanceof Exchange)
+            return plan;
+        Operator op = (Operator) plan;
+        DbIterator[] children = op.getChildren();
+        if (children != null && children.length > 0) {
+            children = Arrays.copyOf(children, children.length);
+            for (int i = 0; i < children.length; i++)
+                children[i] = parallelize(children[i], n);
+            op.setChildren(children);
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            JoinPredicate p = j.getJoinPredicate();
+            if (p.getOperator() != Predicate.Op.EQUALS)
+                return plan;
+            // a join stops reading its first input when its hash table is
+            // full, so that input is buffered lest the shared producer wait
+            // on it; the join has its second input spooled if it must
+            // probe it again
+            DbIterator[] left = repartition(children[0], p.getField1(), n,
+                    true);
+            DbIterator[] right = repartition(children[1], p.getField2(), n,
+                    false);
+            DbIterator[] joins = new DbIterator[n];
+            for (int i = 0; i < n; i++)
+                joins[i] = new HashEquiJoin(p, left[i], right[i]);
+            return gather(joins);
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            if (a.groupFields().length == 0)
+                return plan;
+            DbIterator[] in = repartition(children[0], a.groupFields()[0], n,
+                    false);
+            DbIterator[] aggs = new DbIterator[n];
+            for (int i = 0; i < n; i++)
+                aggs[i] = new Aggregate(in[i], a.aggregateFields(),
+                        a.groupFields(), a.aggregateOps());
+            return gather(aggs);
+        }
+        return plan;
+    }
+}
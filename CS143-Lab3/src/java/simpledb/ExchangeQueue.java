@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExchangeQueue carries batches of tuples from the {@link Producer}s of an
+ * exchange to one {@link Consumer}. It holds a bounded number of batches:
+ * a producer that gets ahead of its consumer waits for it to take some.
+ * The queue ends once every producer has finished, or when one of them
+ * fails, in which case the consumer sees its exception.
+ */
+public class ExchangeQueue {
+
+    private final int capacity;
+    private final LinkedList<List<Tuple>> batches = new LinkedList<List<Tuple>>();
+    private int producers;
+    private boolean closed;
+    private Throwable error;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            the number of batches the queue holds before producers wait
+     * @param producers
+     *            the number of producers that will finish the queue
+     */
+    public ExchangeQueue(int capacity, int producers) {
+        this.capacity = capacity;
+        this.producers = producers;
+    }
+
+    /**
+     * Adds a batch, waiting for the consumer to take batches while the queue
+     * is full.
+     *
+     * @return false if the consumer has closed the queue, so the batch and
+     *         any later ones are not wanted
+     */
+    public synchronized boolean put(List<Tuple> batch)
+            throws InterruptedException {
+        while (!closed && batches.size() >= capacity)
+            wait();
+        if (closed)
+            return false;
+        batches.add(batch);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Records that one producer has added all of its batches.
+     */
+    public synchronized void finish() {
+        producers--;
+        notifyAll();
+    }
+
+    /**
+     * Ends the queue with an exception a producer threw.
+     */
+    public synchronized void fail(Throwable e) {
+        if (error == null)
+            error = e;
+        notifyAll();
+    }
+
+    /**
+     * Removes the next batch, waiting for a producer to add one while the
+     * queue is empty.
+     *
+     * @return the batch, or null once every producer has finished
+     * @throws DbException
+     *             if a producer failed, or the wait was interrupted
+     * @throws TransactionAbortedException
+     *             if a producer's transaction was aborted
+     */
+    public synchronized List<Tuple> take() throws DbException,
+            TransactionAbortedException {
+        while (error == null && batches.isEmpty() && producers > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted waiting for a producer");
+            }
+        }
+        if (error instanceof DbException)
+            throw (DbException) error;
+        if (error instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) error;
+        if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        if (error != null)
+            throw new RuntimeException(error);
+        if (batches.isEmpty())
+            return null;
+        List<Tuple> batch = batches.removeFirst();
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Drops the batches in the queue and any later ones, once the consumer
+     * no longer reads it, and wakes the producers waiting on it.
+     */
+    public synchronized void close() {
+        closed = true;
+        batches.clear();
+        notifyAll();
+    }
+
+    /**
+     * @return true if the consumer has closed the queue
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
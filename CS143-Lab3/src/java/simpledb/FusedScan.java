@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * FusedScan is a {@link SeqScan} that also does the work of the Filters and
+ * the Project a plan would put above it: it tests each tuple against its
+ * predicates as soon as the tuple is read from its page, and returns only
+ * the projected fields of those that satisfy all of them. A plan
+ * Project(Filter(Filter(SeqScan))) thus reads its table through one
+ * iterator, with no call through the Filters for each tuple and no
+ * projected tuple made for the ones they drop.
+ * <p>
+ * {@link LogicalPlan#physicalPlan} makes a FusedScan of each chain of
+ * Filters directly above a SeqScan, and of the Project at the top of a plan
+ * over a single table. As a FusedScan is a SeqScan, the page filters,
+ * columns and runtime filter set on it apply as they would to the scan
+ * alone; the fields of its predicates and of its runtime filter are fields
+ * of the table, whatever fields it projects.
+ */
+public class FusedScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final Predicate[] preds;
+    private int[] outFields;
+    private TupleDesc outTd;
+    private QueryCompiler.CompiledPredicate compiledPred;
+    private QueryCompiler.CompiledProjection compiledProj;
+    private Tuple next;
+
+    /**
+     * Creates a scan returning the tuples of a table that satisfy all of a
+     * set of predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for a {@link SeqScan}
+     * @param preds
+     *            the predicates, over the fields of the table, in the order
+     *            they are to be tested
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] preds) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.preds = preds.clone();
+    }
+
+    /**
+     * @return a new SeqScan of the table of this scan, with its page
+     *         filters and columns, that returns every tuple of the pages it
+     *         reads, as the scan beneath the Filters this scan fuses would
+     */
+    public SeqScan toSeqScan() {
+        SeqScan ss = new SeqScan(tid, Database.getCatalog().getTableId(
+                getTableName()), getAlias());
+        ss.setPageFilters(getPageFilters());
+        ss.setColumns(getColumns());
+        return ss;
+    }
+
+    /**
+     * @return the predicates the tuples of the table are filtered by, in
+     *         the order they are tested
+     */
+    public Predicate[] getPredicates() {
+        return preds.clone();
+    }
+
+    /**
+     * Projects the tuples that satisfy the predicates, as a
+     * {@link Project} of the scan would.
+     *
+     * @param fields
+     *            the fields of the table to return, in output order
+     * @param types
+     *            the types of the output fields
+     */
+    public void setOutFields(int[] fields, Type[] types) {
+        TupleDesc td = getScanTupleDesc();
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            names[i] = td.getFieldName(fields[i]);
+        outFields = fields.clone();
+        outTd = new TupleDesc(types, names);
+        compiledProj = null;
+    }
+
+    /**
+     * @return the fields of the table returned, or null if every field is
+     */
+    public int[] getOutFields() {
+        return outFields == null ? null : outFields.clone();
+    }
+
+    /**
+     * Has the predicates and the projection tested and made by classes the
+     * {@link QueryCompiler} generated for them.
+     *
+     * @param pred
+     *            the compiled conjunction of the predicates, or null to
+     *            test them one by one
+     * @param proj
+     *            the compiled projection, or null to copy the fields one by
+     *            one
+     */
+    public void setCompiled(QueryCompiler.CompiledPredicate pred,
+            QueryCompiler.CompiledProjection proj) {
+        compiledPred = pred;
+        compiledProj = proj;
+    }
+
+    /**
+     * @return true if the predicates are tested by a compiled class
+     */
+    public boolean isCompiled() {
+        return compiledPred != null;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples read from the table, before they
+     *         are projected
+     */
+    public TupleDesc getScanTupleDesc() {
+        return super.getTupleDesc();
+    }
+
+    /**
+     * @return the TupleDesc of the projected fields if the scan projects,
+     *         or of the table's fields as for a {@link SeqScan}
+     */
+    public TupleDesc getTupleDesc() {
+        return outTd != null ? outTd : super.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        next = null;
+    }
+
+    /**
+     * @return true if t satisfies every predicate; safe to call from any
+     *         thread, as a {@link ParallelScan} does
+     */
+    boolean accept(Tuple t) {
+        if (compiledPred != null)
+            return compiledPred.filter(t);
+        for (int i = 0; i < preds.length; i++)
+            if (!preds[i].filter(t))
+                return false;
+        return true;
+    }
+
+    /** @return the projected fields of t, or t if the scan projects none */
+    Tuple project(Tuple t) {
+        if (outFields == null)
+            return t;
+        if (compiledProj != null)
+            return compiledProj.project(t);
+        Tuple out = new Tuple(outTd);
+        out.setRecordId(t.getRecordId());
+        for (int i = 0; i < outFields.length; i++)
+            out.setField(i, t.getField(outFields[i]));
+        return out;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (next == null && super.hasNext()) {
+            Tuple t = super.next();
+            if (accept(t))
+                next = project(t);
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        super.close();
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.rewind();
+        next = null;
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * GatherConsumer returns the tuples of several branches of a plan, each run
+ * on a thread of its own by a {@link GatherProducer}, in the order they are
+ * produced. The branches must return tuples of the same TupleDesc.
+ */
+public class GatherConsumer extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private GatherProducer[] producers;
+
+    /**
+     * Constructor.
+     *
+     * @param branches
+     *            the operators whose tuples are returned
+     */
+    public GatherConsumer(DbIterator[] branches) {
+        producers = new GatherProducer[branches.length];
+        for (int i = 0; i < branches.length; i++)
+            producers[i] = new GatherProducer(branches[i]);
+    }
+
+    public String getName() {
+        return "gather(" + producers.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    protected ExchangeQueue openProducers() throws DbException,
+            TransactionAbortedException {
+        ExchangeQueue q = new ExchangeQueue(QUEUE_BATCHES * producers.length,
+                producers.length);
+        for (GatherProducer p : producers) {
+            p.setOutput(q);
+            p.open();
+        }
+        return q;
+    }
+
+    protected void closeProducers() {
+        for (GatherProducer p : producers)
+            p.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return producers.clone();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        for (int i = 0; i < producers.length; i++)
+            producers[i] = (GatherProducer) children[i];
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * GatherProducer runs one branch of a plan whose output a
+ * {@link GatherConsumer} merges with that of other branches, sending its
+ * tuples to the queue the consumer shares among its producers.
+ */
+public class GatherProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ExchangeQueue output;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the branch to run
+     */
+    public GatherProducer(DbIterator child) {
+        super(child);
+    }
+
+    /**
+     * Sets the queue the tuples of the next run are sent to.
+     */
+    void setOutput(ExchangeQueue q) {
+        output = q;
+    }
+
+    public String getName() {
+        return "gather producer";
+    }
+
+    public int numOutputs() {
+        return 1;
+    }
+
+    protected ExchangeQueue[] createOutputs() {
+        return new ExchangeQueue[] { output };
+    }
+
+    protected void route(Tuple t, List<List<Tuple>> batches) {
+        batches.get(0).add(t);
+    }
+}
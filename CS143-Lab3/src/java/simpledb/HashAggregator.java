@@ -0,0 +1,808 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes any number of MIN, MAX, SUM, AVG or COUNT aggregates over int
+ * fields, or COUNTs over string fields, grouped by zero or more int or string
+ * fields, in a single pass over the input.
+ * <p>
+ * Group state is kept in flat arrays indexed by group number, and groups are
+ * found through an open-addressing table of group numbers, so no objects are
+ * allocated per input tuple. Once maxGroups groups are held in memory, tuples
+ * that would start a new group are written to one of
+ * {@link #SPILL_PARTITIONS} spill files chosen by the hash of their group.
+ * Groups in memory and groups in the spill files are therefore disjoint, and
+ * each spill file is aggregated on its own by {@link #iterator()}, spilling
+ * again with a different hash if it still has too many groups.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of groups held in memory before new groups are spilled */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 20;
+
+    /** Number of spill files new groups are hashed into */
+    static final int SPILL_PARTITIONS = 16;
+
+    /**
+     * Number of times a partition may be re-spilled before its groups are
+     * kept in memory regardless of maxGroups, so that a skewed hash cannot
+     * recurse forever.
+     */
+    static final int MAX_SPILL_DEPTH = 6;
+
+    private static final int EMPTY = -1;
+
+    private final int[] gbFields;
+    private final Type[] gbTypes;
+    private final int[] aFields;
+    private final Op[] ops;
+    private final int maxGroups;
+    private final int depth;
+    private TupleDesc td;
+
+    // open-addressing table; each slot holds a group number or EMPTY
+    private int[] slots;
+    // per-group state, indexed by group number; intKeys[k] holds key column
+    // k if it is an int, strKeys[k] if it is a string
+    private int[] hashes;
+    private int[][] intKeys;
+    private String[][] strKeys;
+    private long[] counts;
+    // values[g * ops.length + a] is the running value of aggregate a
+    private long[] values;
+    private int numGroups;
+
+    private File[] spillFiles;
+    private transient DataOutputStream[] spillOut;
+    private long[] spillCounts;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if what is not supported over afieldtype
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield,
+            Type afieldtype, Op what) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what,
+                DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field
+     * @param what
+     *            the aggregation operator
+     * @param maxGroups
+     *            the number of groups to hold in memory before spilling
+     * @throws IllegalArgumentException
+     *             if what is not supported over afieldtype
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield,
+            Type afieldtype, Op what, int maxGroups) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                gbfield == NO_GROUPING ? new Type[0]
+                        : new Type[] { gbfieldtype }, new int[] { afield },
+                new Type[] { afieldtype }, new Op[] { what }, maxGroups);
+    }
+
+    /**
+     * Aggregate constructor for several aggregates sharing one grouping.
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operator applied to each aggregate field
+     * @param maxGroups
+     *            the number of groups to hold in memory before spilling
+     * @throws IllegalArgumentException
+     *             if an operator is not supported over its field's type
+     */
+    public HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats, int maxGroups) {
+        this(gbfields, gbfieldtypes, afields, whats, maxGroups, 0, null);
+        if (gbfields.length != gbfieldtypes.length
+                || afields.length != afieldtypes.length
+                || afields.length != whats.length || afields.length == 0)
+            throw new IllegalArgumentException(
+                    "need one type per field and one operator per aggregate");
+        for (int a = 0; a < whats.length; a++) {
+            Op what = whats[a];
+            if (what != Op.MIN && what != Op.MAX && what != Op.SUM
+                    && what != Op.AVG && what != Op.COUNT)
+                throw new IllegalArgumentException("Unsupported aggregate "
+                        + what);
+            if (afieldtypes[a] != Type.INT_TYPE && what != Op.COUNT)
+                throw new IllegalArgumentException(
+                        "Only COUNT is supported over non-integer fields");
+        }
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive");
+    }
+
+    private HashAggregator(int[] gbfields, Type[] gbfieldtypes,
+            int[] afields, Op[] whats, int maxGroups, int depth, TupleDesc td) {
+        this.gbFields = gbfields.clone();
+        this.gbTypes = gbfieldtypes.clone();
+        this.aFields = afields.clone();
+        this.ops = whats.clone();
+        this.maxGroups = maxGroups;
+        this.depth = depth;
+        this.td = td;
+        int cap = 16;
+        slots = new int[cap * 2];
+        Arrays.fill(slots, EMPTY);
+        hashes = new int[cap];
+        intKeys = new int[gbTypes.length][];
+        strKeys = new String[gbTypes.length][];
+        for (int k = 0; k < gbTypes.length; k++) {
+            if (gbTypes[k] == Type.STRING_TYPE)
+                strKeys[k] = new String[cap];
+            else
+                intKeys[k] = new int[cap];
+        }
+        counts = new long[cap];
+        values = new long[cap * ops.length];
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (td == null)
+            td = createTd(tup.getTupleDesc());
+
+        int h = 0;
+        for (int k = 0; k < gbFields.length; k++) {
+            Field f = tup.getField(gbFields[k]);
+            h = 31 * h + (intKeys[k] != null ? ((IntField) f).getValue()
+                    : ((StringField) f).getValue().hashCode());
+        }
+        h = hash(h);
+
+        int mask = slots.length - 1;
+        int pos = h & mask;
+        int g;
+        while ((g = slots[pos]) != EMPTY) {
+            if (hashes[g] == h && keyEquals(g, tup))
+                break;
+            pos = (pos + 1) & mask;
+        }
+
+        boolean isNew = g == EMPTY;
+        if (isNew) {
+            if (numGroups >= maxGroups && depth < MAX_SPILL_DEPTH) {
+                spill(h, tup);
+                return;
+            }
+            g = newGroup(pos, h);
+            for (int k = 0; k < gbFields.length; k++) {
+                Field f = tup.getField(gbFields[k]);
+                if (intKeys[k] != null)
+                    intKeys[k][g] = ((IntField) f).getValue();
+                else
+                    strKeys[k][g] = ((StringField) f).getValue();
+            }
+        }
+
+        for (int a = 0; a < ops.length; a++)
+            if (ops[a] != Op.COUNT)
+                accumulate(g, a, ((IntField) tup.getField(aFields[a]))
+                        .getValue(), isNew);
+        counts[g]++;
+    }
+
+    /**
+     * Merges the selected rows of a batch into the aggregate, as
+     * mergeTupleIntoGroup does each of them, reading the group and aggregate
+     * fields straight from the column vectors of the batch.
+     *
+     * @param batch
+     *            the rows, with the fields of the tuples given to
+     *            mergeTupleIntoGroup
+     */
+    public void mergeBatch(TupleBatch batch) {
+        if (td == null)
+            td = createTd(batch.getTupleDesc());
+        int[][] keyInts = new int[gbFields.length][];
+        Field[][] keyStrs = new Field[gbFields.length][];
+        for (int k = 0; k < gbFields.length; k++) {
+            if (intKeys[k] != null)
+                keyInts[k] = batch.getInts(gbFields[k]);
+            else
+                keyStrs[k] = batch.getFields(gbFields[k]);
+        }
+        int[][] aInts = new int[ops.length][];
+        for (int a = 0; a < ops.length; a++)
+            if (ops[a] != Op.COUNT)
+                aInts[a] = batch.getInts(aFields[a]);
+
+        int[] sel = batch.selection();
+        for (int i = 0; i < batch.numSelected(); i++) {
+            int row = sel[i];
+            int h = 0;
+            for (int k = 0; k < gbFields.length; k++)
+                h = 31 * h + (keyInts[k] != null ? keyInts[k][row]
+                        : ((StringField) keyStrs[k][row]).getValue()
+                                .hashCode());
+            h = hash(h);
+
+            int mask = slots.length - 1;
+            int pos = h & mask;
+            int g;
+            while ((g = slots[pos]) != EMPTY) {
+                if (hashes[g] == h && keyEquals(g, keyInts, keyStrs, row))
+                    break;
+                pos = (pos + 1) & mask;
+            }
+
+            boolean isNew = g == EMPTY;
+            if (isNew) {
+                if (numGroups >= maxGroups && depth < MAX_SPILL_DEPTH) {
+                    spill(h, batch.getTuple(row));
+                    continue;
+                }
+                g = newGroup(pos, h);
+                for (int k = 0; k < gbFields.length; k++) {
+                    if (keyInts[k] != null)
+                        intKeys[k][g] = keyInts[k][row];
+                    else
+                        strKeys[k][g] = ((StringField) keyStrs[k][row])
+                                .getValue();
+                }
+            }
+
+            for (int a = 0; a < ops.length; a++)
+                if (aInts[a] != null)
+                    accumulate(g, a, aInts[a][row], isNew);
+            counts[g]++;
+        }
+    }
+
+    /**
+     * Merges the groups of another aggregator into this one, as if this one
+     * had been given the other's tuples as well. Both must have been
+     * constructed with the same fields and operators. Groups spilled by the
+     * other are aggregated and merged in turn. Once maxGroups groups are held
+     * in memory, new groups are spilled with their running values, as new
+     * groups of tuples are.
+     *
+     * @param other
+     *            the aggregator whose groups are merged, which is not changed
+     * @throws DbException
+     *             if the spill files of the other could not be read
+     */
+    public void merge(HashAggregator other) throws DbException {
+        if (td == null)
+            td = other.td;
+        for (int og = 0; og < other.numGroups; og++)
+            mergeGroup(other.intKeys, other.strKeys, other.counts,
+                    other.values, og);
+        if (other.spillFiles == null)
+            return;
+        try {
+            other.flushSpills();
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                if (other.spillCounts[p] == 0)
+                    continue;
+                HashAggregator spilled = other.aggregateSpill(p);
+                try {
+                    merge(spilled);
+                } finally {
+                    spilled.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges group og, whose state is laid out in the given arrays as it is
+     * in those of an aggregator, into the group with the same keys.
+     */
+    private void mergeGroup(int[][] oInts, String[][] oStrs, long[] oCounts,
+            long[] oValues, int og) {
+        int h = 0;
+        for (int k = 0; k < gbFields.length; k++)
+            h = 31 * h + (intKeys[k] != null ? oInts[k][og] : oStrs[k][og]
+                    .hashCode());
+        h = hash(h);
+
+        int mask = slots.length - 1;
+        int pos = h & mask;
+        int g;
+        while ((g = slots[pos]) != EMPTY) {
+            if (hashes[g] == h && keyEquals(g, oInts, oStrs, og))
+                break;
+            pos = (pos + 1) & mask;
+        }
+
+        boolean isNew = g == EMPTY;
+        if (isNew) {
+            if (numGroups >= maxGroups && depth < MAX_SPILL_DEPTH) {
+                spillGroup(h, oInts, oStrs, oCounts, oValues, og);
+                return;
+            }
+            g = newGroup(pos, h);
+            for (int k = 0; k < gbFields.length; k++) {
+                if (intKeys[k] != null)
+                    intKeys[k][g] = oInts[k][og];
+                else
+                    strKeys[k][g] = oStrs[k][og];
+            }
+        }
+
+        // AVG keeps a running sum, so it merges as SUM does
+        for (int a = 0; a < ops.length; a++)
+            if (ops[a] != Op.COUNT)
+                accumulate(g, a, oValues[og * ops.length + a], isNew);
+        counts[g] += oCounts[og];
+    }
+
+    private boolean keyEquals(int g, int[][] oInts, String[][] oStrs, int og) {
+        for (int k = 0; k < gbFields.length; k++) {
+            if (intKeys[k] != null) {
+                if (intKeys[k][g] != oInts[k][og])
+                    return false;
+            } else if (!strKeys[k][g].equals(oStrs[k][og])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Adds v to the running value of aggregate a of group g */
+    private void accumulate(int g, int a, long v, boolean isNew) {
+        int i = g * ops.length + a;
+        if (isNew) {
+            values[i] = v;
+            return;
+        }
+        switch (ops[a]) {
+        case MIN:
+            if (v < values[i])
+                values[i] = v;
+            break;
+        case MAX:
+            if (v > values[i])
+                values[i] = v;
+            break;
+        default:
+            values[i] += v;
+        }
+    }
+
+    private boolean keyEquals(int g, int[][] keyInts, Field[][] keyStrs,
+            int row) {
+        for (int k = 0; k < gbFields.length; k++) {
+            if (keyInts[k] != null) {
+                if (intKeys[k][g] != keyInts[k][row])
+                    return false;
+            } else if (!strKeys[k][g].equals(((StringField) keyStrs[k][row])
+                    .getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(int g, Tuple tup) {
+        for (int k = 0; k < gbFields.length; k++) {
+            Field f = tup.getField(gbFields[k]);
+            if (intKeys[k] != null) {
+                if (intKeys[k][g] != ((IntField) f).getValue())
+                    return false;
+            } else if (!strKeys[k][g].equals(((StringField) f).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a group, whose keys the caller sets, in slot pos of the table.
+     */
+    private int newGroup(int pos, int h) {
+        int g = numGroups++;
+        if (g == hashes.length) {
+            int cap = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, cap);
+            for (int k = 0; k < gbTypes.length; k++) {
+                if (intKeys[k] != null)
+                    intKeys[k] = Arrays.copyOf(intKeys[k], cap);
+                else
+                    strKeys[k] = Arrays.copyOf(strKeys[k], cap);
+            }
+            counts = Arrays.copyOf(counts, cap);
+            values = Arrays.copyOf(values, cap * ops.length);
+        }
+        hashes[g] = h;
+        slots[pos] = g;
+        // keep the table at most half full
+        if (numGroups * 2 > slots.length)
+            rehash(slots.length * 2);
+        return g;
+    }
+
+    private void rehash(int size) {
+        slots = new int[size];
+        Arrays.fill(slots, EMPTY);
+        int mask = size - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int pos = hashes[g] & mask;
+            while (slots[pos] != EMPTY)
+                pos = (pos + 1) & mask;
+            slots[pos] = g;
+        }
+    }
+
+    /**
+     * Scrambles a hash code. Each spill depth uses a different seed, so that
+     * the groups of one spill file are spread over the partitions of the next.
+     */
+    private int hash(int h) {
+        h ^= depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Writes tup to the spill file of its partition, as a group of one tuple.
+     */
+    private void spill(int h, Tuple tup) {
+        try {
+            DataOutputStream dos = spillStream(h);
+            for (int k = 0; k < gbFields.length; k++) {
+                Field f = tup.getField(gbFields[k]);
+                if (intKeys[k] != null)
+                    dos.writeInt(((IntField) f).getValue());
+                else
+                    dos.writeUTF(((StringField) f).getValue());
+            }
+            dos.writeLong(1);
+            for (int a = 0; a < ops.length; a++)
+                if (ops[a] != Op.COUNT)
+                    dos.writeLong(((IntField) tup.getField(aFields[a]))
+                            .getValue());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes group og, laid out as mergeGroup takes it, to the spill file of
+     * its partition.
+     */
+    private void spillGroup(int h, int[][] oInts, String[][] oStrs,
+            long[] oCounts, long[] oValues, int og) {
+        try {
+            DataOutputStream dos = spillStream(h);
+            for (int k = 0; k < gbFields.length; k++) {
+                if (intKeys[k] != null)
+                    dos.writeInt(oInts[k][og]);
+                else
+                    dos.writeUTF(oStrs[k][og]);
+            }
+            dos.writeLong(oCounts[og]);
+            for (int a = 0; a < ops.length; a++)
+                if (ops[a] != Op.COUNT)
+                    dos.writeLong(oValues[og * ops.length + a]);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Counts a record in the spill file of the partition of hash h.
+     *
+     * @return the stream the record is written to
+     */
+    private DataOutputStream spillStream(int h) throws IOException {
+        // the table is indexed by the low bits, so partition on the high ones
+        int p = h >>> 28 & (SPILL_PARTITIONS - 1);
+        if (spillFiles == null) {
+            spillFiles = new File[SPILL_PARTITIONS];
+            spillCounts = new long[SPILL_PARTITIONS];
+        }
+        if (spillOut == null)
+            spillOut = new DataOutputStream[SPILL_PARTITIONS];
+        if (spillOut[p] == null) {
+            if (spillFiles[p] == null) {
+                spillFiles[p] = File.createTempFile("agg", ".spill");
+                spillFiles[p].deleteOnExit();
+            }
+            spillOut[p] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(spillFiles[p], true)));
+        }
+        spillCounts[p]++;
+        return spillOut[p];
+    }
+
+    private void flushSpills() throws IOException {
+        if (spillOut == null)
+            return;
+        for (int p = 0; p < SPILL_PARTITIONS; p++) {
+            if (spillOut[p] != null) {
+                spillOut[p].close();
+                spillOut[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Aggregates the groups spilled to partition p with a new aggregator one
+     * level deeper than this one. Each spilled record holds the group
+     * fields, the number of tuples of the group and the running value of
+     * each non-COUNT aggregate, and is merged as a group of another
+     * aggregator is.
+     */
+    private HashAggregator aggregateSpill(int p) throws IOException {
+        HashAggregator child = new HashAggregator(gbFields, gbTypes, aFields,
+                ops, maxGroups, depth + 1, td);
+        int[][] recInts = new int[gbTypes.length][];
+        String[][] recStrs = new String[gbTypes.length][];
+        for (int k = 0; k < gbTypes.length; k++) {
+            if (gbTypes[k] == Type.STRING_TYPE)
+                recStrs[k] = new String[1];
+            else
+                recInts[k] = new int[1];
+        }
+        long[] recCount = new long[1];
+        long[] recValues = new long[ops.length];
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(spillFiles[p])));
+        try {
+            for (long n = 0; n < spillCounts[p]; n++) {
+                for (int k = 0; k < gbTypes.length; k++) {
+                    if (recStrs[k] != null)
+                        recStrs[k][0] = dis.readUTF();
+                    else
+                        recInts[k][0] = dis.readInt();
+                }
+                recCount[0] = dis.readLong();
+                for (int a = 0; a < ops.length; a++)
+                    if (ops[a] != Op.COUNT)
+                        recValues[a] = dis.readLong();
+                child.mergeGroup(recInts, recStrs, recCount, recValues, 0);
+            }
+        } finally {
+            dis.close();
+        }
+        return child;
+    }
+
+    /**
+     * @return the number of groups currently held in memory
+     */
+    public int numGroupsInMemory() {
+        return numGroups;
+    }
+
+    /**
+     * @return true if any tuples have been spilled to disk
+     */
+    public boolean hasSpilled() {
+        return spillFiles != null;
+    }
+
+    /**
+     * @return the field holding v, the value of an aggregate by op
+     * @throws DbException
+     *             if v does not fit in an int field
+     */
+    static IntField resultField(Op op, long v) throws DbException {
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw new DbException(op + " of " + v
+                    + " does not fit in an int field");
+        return new IntField((int) v);
+    }
+
+    private Tuple groupTuple(int g) throws DbException {
+        Tuple t = new Tuple(td);
+        int k = 0;
+        for (; k < gbFields.length; k++) {
+            if (intKeys[k] != null)
+                t.setField(k, new IntField(intKeys[k][g]));
+            else
+                t.setField(k, new StringField(strKeys[k][g], Type.STRING_LEN));
+        }
+        int base = g * ops.length;
+        for (int a = 0; a < ops.length; a++) {
+            long v;
+            switch (ops[a]) {
+            case COUNT:
+                v = counts[g];
+                break;
+            case AVG:
+                v = values[base + a] / counts[g];
+                break;
+            default:
+                v = values[base + a];
+            }
+            t.setField(k + a, resultField(ops[a], v));
+        }
+        return t;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. Groups held in memory
+     * are returned first, followed by the groups of each spill file in turn;
+     * only one spill file is aggregated in memory at a time.
+     *
+     * @return a DbIterator whose tuples hold the group-by fields, in the
+     *         order given to the constructor, followed by one field per
+     *         aggregate.
+     */
+    public DbIterator iterator() {
+        if (td == null)
+            td = createTd(null);
+        return new ResultIterator();
+    }
+
+    private TupleDesc createTd(TupleDesc child) {
+        Type[] types = new Type[gbFields.length + ops.length];
+        String[] names = new String[types.length];
+        for (int k = 0; k < gbFields.length; k++) {
+            types[k] = gbTypes[k];
+            names[k] = child == null ? null : child.getFieldName(gbFields[k]);
+        }
+        for (int a = 0; a < ops.length; a++) {
+            types[gbFields.length + a] = Type.INT_TYPE;
+            names[gbFields.length + a] = child == null ? null : child
+                    .getFieldName(aFields[a]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private class ResultIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean open = false;
+        private int nextGroup;
+        private int partition;
+        private HashAggregator spillAgg;
+        private DbIterator spillIt;
+        private Tuple next;
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                flushSpills();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: "
+                        + e.getMessage());
+            }
+            nextGroup = 0;
+            partition = -1;
+            spillIt = null;
+            next = null;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException,
+                TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("Operator not yet open");
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        private Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            if (nextGroup < numGroups)
+                return groupTuple(nextGroup++);
+            while (true) {
+                if (spillIt != null && spillIt.hasNext())
+                    return spillIt.next();
+                if (spillIt != null)
+                    closeSpill();
+                if (spillFiles == null || ++partition >= SPILL_PARTITIONS)
+                    return null;
+                if (spillCounts[partition] == 0)
+                    continue;
+                try {
+                    spillAgg = aggregateSpill(partition);
+                } catch (IOException e) {
+                    throw new DbException("could not read spill file: "
+                            + e.getMessage());
+                }
+                spillIt = spillAgg.iterator();
+                spillIt.open();
+            }
+        }
+
+        private void closeSpill() {
+            spillIt.close();
+            spillIt = null;
+            spillAgg.close();
+            spillAgg = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (spillIt != null)
+                closeSpill();
+            next = null;
+            open = false;
+        }
+    }
+
+    /**
+     * Deletes any spill files. The aggregator must not be used afterwards.
+     */
+    public void close() {
+        try {
+            flushSpills();
+        } catch (IOException e) {
+            // the files are deleted below regardless
+        }
+        if (spillFiles != null) {
+            for (File f : spillFiles)
+                if (f != null)
+                    f.delete();
+            spillFiles = null;
+        }
+    }
+}
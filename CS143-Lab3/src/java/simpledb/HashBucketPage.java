@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashBucketPage stores the tuples of a {@link HashFile} whose keys hash to
+ * the same bucket. A bucket whose tuples cannot be told apart by more bits
+ * of their hash, such as one holding many copies of the same key, continues
+ * on overflow pages chained through the next pointer.
+ * <p>
+ * The page is laid out as the local depth of the bucket (an int), the page
+ * number of the next page of the bucket (an int, 0 if this is the last), the
+ * number of tuples (an int) and the tuples, packed. The slot in a tuple's
+ * RecordId is its position on the page; deleting a tuple moves the last
+ * tuple into its slot.
+ */
+public class HashBucketPage extends HashPage {
+
+    private final TupleDesc td;
+    private int localDepth;
+    private int next;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk. The
+     * TupleDesc of the tuples is looked up in the {@link Catalog}.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        localDepth = dis.readInt();
+        next = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > getMaxTuples())
+            throw new IOException("corrupt bucket page " + id);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error in " + id, e);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples that fit on a bucket page of this table */
+    public int getMaxTuples() {
+        return (BufferPool.getPageSize() - 12) / td.getSize();
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    /** @return true if no more tuples fit on this page */
+    public boolean isFull() {
+        return tuples.size() == getMaxTuples();
+    }
+
+    /** @return the i-th tuple on this page */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return a copy of the tuples on this page */
+    public List<Tuple> getTuples() {
+        return new ArrayList<Tuple>(tuples);
+    }
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     *
+     * @throws DbException
+     *             if the page is full or the tuple has the wrong TupleDesc
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (isFull())
+            throw new DbException("bucket page is full");
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        t.setRecordId(new RecordId(pid, tuples.size()));
+        tuples.add(t);
+    }
+
+    /**
+     * Removes the i-th tuple from this page and clears its RecordId. The last
+     * tuple takes its slot.
+     */
+    public void deleteTuple(int i) {
+        Tuple last = tuples.remove(tuples.size() - 1);
+        if (i < tuples.size()) {
+            tuples.get(i).setRecordId(null);
+            tuples.set(i, last);
+            last.setRecordId(new RecordId(pid, i));
+        } else {
+            last.setRecordId(null);
+        }
+    }
+
+    /** Removes all the tuples from this page and returns them */
+    public List<Tuple> clear() {
+        ArrayList<Tuple> l = new ArrayList<Tuple>(tuples);
+        tuples.clear();
+        for (Tuple t : l)
+            t.setRecordId(null);
+        return l;
+    }
+
+    /** @return the number of hash bits all the keys in this bucket share */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int depth) {
+        localDepth = depth;
+    }
+
+    /** @return the page number of the next page of the bucket, or 0 */
+    public int getNext() {
+        return next;
+    }
+
+    /** Set the next page of the bucket; 0 if this is the last */
+    public void setNext(int pgNo) {
+        next = pgNo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(localDepth);
+            dos.writeInt(next);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples)
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage is page 0 of a {@link HashFile}. It maps the low
+ * getGlobalDepth() bits of the hash of a key to the page number of the
+ * bucket the key belongs in; several slots point to the same bucket when the
+ * bucket's local depth is less than the global depth. It also heads the list
+ * of bucket pages that were freed and can be reused.
+ * <p>
+ * The page is laid out as the global depth (an int), the page number of the
+ * first free page (an int, 0 if there is none) and 2^(global depth) bucket
+ * page numbers (0 if the file is empty). The directory has to fit on the
+ * page, which bounds the global depth by {@link #getMaxDepth}.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private int globalDepth;
+    private int freeHead;
+    private int[] buckets;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        globalDepth = dis.readInt();
+        freeHead = dis.readInt();
+        if (globalDepth < 0 || globalDepth > getMaxDepth())
+            throw new IOException("corrupt directory page " + id);
+        buckets = new int[1 << globalDepth];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the largest global depth whose directory fits on a page */
+    public static int getMaxDepth() {
+        int slots = (BufferPool.getPageSize() - 8) / 4;
+        int depth = 0;
+        while ((2 << depth) <= slots)
+            depth++;
+        return depth;
+    }
+
+    /** @return the number of hash bits the directory is indexed by */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /** @return the number of slots in the directory, 2^(global depth) */
+    public int getNumSlots() {
+        return buckets.length;
+    }
+
+    /** @return the page number of the bucket slot i points to */
+    public int getSlot(int i) {
+        return buckets[i];
+    }
+
+    /** Make slot i point to the bucket on page pgNo */
+    public void setSlot(int i, int pgNo) {
+        buckets[i] = pgNo;
+    }
+
+    /**
+     * @return the page number of the bucket for a key with the specified
+     *         hash, or 0 if the file is empty
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & (buckets.length - 1)];
+    }
+
+    /**
+     * Double the directory, so that it is indexed by one more bit of the
+     * hash. Both new slots for each old slot point to the old slot's bucket.
+     */
+    public void doubleSize() {
+        if (globalDepth == getMaxDepth())
+            throw new IllegalStateException("directory is full");
+        int[] b = new int[buckets.length * 2];
+        System.arraycopy(buckets, 0, b, 0, buckets.length);
+        System.arraycopy(buckets, 0, b, buckets.length, buckets.length);
+        buckets = b;
+        globalDepth++;
+    }
+
+    /** @return the page number of the first free page, or 0 if none */
+    public int getFreeHead() {
+        return freeHead;
+    }
+
+    /** Set the first free page; 0 if there is none */
+    public void setFreeHead(int pgNo) {
+        freeHead = pgNo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(globalDepth);
+            dos.writeInt(freeHead);
+            for (int b : buckets)
+                dos.writeInt(b);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finishPage(baos, dos);
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+}
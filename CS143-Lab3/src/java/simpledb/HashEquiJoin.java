@@ -3,14 +3,26 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join by hashing the tuples
+ * of its first child on the join field and probing the table with the tuples
+ * of its second child.
+ * <p>
+ * It can also build a {@link BloomFilter} over the join keys it hashed and
+ * hand it to the {@link SeqScan} the second child reads from, beneath any
+ * {@link Filter}s, so that probe tuples that cannot join are dropped as soon
+ * as they are read.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** the false positive probability of the Bloom filters built */
+    public static final double BLOOM_FPP = 0.01;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
+    private final boolean bloom;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -26,9 +38,32 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, false);
+    }
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on, and whether to drop the tuples of child2 that cannot join with a
+     * Bloom filter.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, which is
+     *            hashed
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param bloomFilter
+     *            whether to build a Bloom filter over the keys of child1;
+     *            it is only used if child2 is a SeqScan, possibly under
+     *            Filters
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean bloomFilter) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.bloom = bloomFilter;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -36,6 +71,25 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /**
+     * @return whether a Bloom filter over the keys of child1 is handed to
+     *         the scan of child2
+     */
+    public boolean usesBloomFilter() {
+        return bloom;
+    }
+
+    /**
+     * Returns the scan the second child reads from, beneath any Filters,
+     * or null if it does not read from one.
+     */
+    private SeqScan probeScan() {
+        DbIterator it = child2;
+        while (it instanceof Filter || it instanceof CompiledFilter)
+            it = ((Operator) it).getChildren()[0];
+        return it instanceof SeqScan ? (SeqScan) it : null;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -65,17 +119,37 @@ public class HashEquiJoin extends Operator {
             }
             list.add(t1);
             if (cnt++ == MAP_SIZE)
-                return true;
+                break;
         }
+        // the rest of child1 is joined in later passes over child2, which a
+        // consumer of a shared producer has to keep for them
+        if (child2 instanceof PartitionConsumer && child1.hasNext())
+            ((PartitionConsumer) child2).spool();
+        buildBloomFilter();
         return cnt > 0;
 
     }
 
+    /**
+     * Hands a Bloom filter over the keys in the hash table to the scan of
+     * child2, which must not have read any tuple since it was last rewound.
+     */
+    private void buildBloomFilter() {
+        SeqScan scan = bloom ? probeScan() : null;
+        if (scan == null)
+            return;
+        BloomFilter f = new BloomFilter(map.size(), BLOOM_FPP);
+        for (Object key : map.keySet())
+            f.add((Field) key);
+        scan.setRuntimeFilter(pred.getField2(), f);
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
+        super.open();
+        listIt = null;
         loadMap();
     }
 
@@ -87,11 +161,16 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        SeqScan scan = bloom ? probeScan() : null;
+        if (scan != null)
+            scan.setRuntimeFilter(pred.getField2(), null);
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -151,9 +230,10 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
+        // child2 is done: advance child1, and probe child2 again if there
+        // is more of it
         if (loadMap()) {
+            child2.rewind();
             return fetchNext();
         }
 
@@ -0,0 +1,462 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores its tuples in an
+ * extendible hash table on one key field. Finding the tuples with a given key
+ * through {@link #lookupIterator} reads the directory page and the pages of a
+ * single bucket, however large the file is; unlike a {@link BTreeFile}, the
+ * tuples are in no particular order, so only equality lookups are supported.
+ * <p>
+ * Page 0 is the {@link HashDirectoryPage}, which maps the low bits of the
+ * hash of a key to a {@link HashBucketPage}. When a bucket is full it is
+ * split in two on one more bit of the hash, doubling the directory if the
+ * bucket already used all the bits the directory is indexed by. A bucket
+ * whose tuples all agree on every bit the directory could use, such as one
+ * holding many copies of the same key, gets an overflow page instead. All
+ * pages are read and modified through the {@link BufferPool}.
+ *
+ * @see HashPageId
+ */
+public class HashFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash file backed by the specified file. An empty file is
+     * an empty table; its directory page is written on the first insert.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this table
+     * @param key
+     *            the field the tuples are hashed on
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("invalid key field " + key);
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, the hash code of the
+     * absolute file name, as for {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the field the tuples of this file are hashed on.
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, including the directory
+     * page and any free pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * The hash of a key. Fields hash to their values, so the bits are mixed
+     * to keep consecutive keys from filling the directory unevenly.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            if (id.pageNumber() >= numPages()) {
+                // the directory of a file that was never written
+                if (!id.isDirectory())
+                    throw new IllegalArgumentException("Read past end of table.");
+            } else {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek((long) id.pageNumber() * pageSize);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            Debug.log(1, "HashFile.readPage: read page %d", id.pageNumber());
+            if (id.isDirectory())
+                return new HashDirectoryPage(id, data);
+            return new HashBucketPage(id, data);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+        page.markDirty(false, null);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Fetch a page through the BufferPool. Pages requested READ_WRITE are
+     * marked dirty straight away and remembered in dirtypages, so that the
+     * BufferPool cannot evict them while an insert or delete is still
+     * changing them, and so that the operation can report them.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgNo, Permissions perm) throws DbException,
+            TransactionAbortedException {
+        HashPageId pid = new HashPageId(tableid, pgNo);
+        if (dirtypages != null && dirtypages.containsKey(pid))
+            return dirtypages.get(pid);
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private HashDirectoryPage getDirectory(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) getPage(tid, dirtypages, 0, perm);
+    }
+
+    private HashBucketPage getBucketPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashBucketPage) getPage(tid, dirtypages, pgNo, perm);
+    }
+
+    /** @return the pages of the bucket starting at page pgNo, in order */
+    private ArrayList<HashBucketPage> getChain(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, int pgNo) throws DbException,
+            TransactionAbortedException {
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        while (pgNo != 0) {
+            HashBucketPage p = getBucketPage(tid, dirtypages, pgNo,
+                    Permissions.READ_ONLY);
+            chain.add(p);
+            pgNo = p.getNext();
+        }
+        return chain;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        int h = hash(t.getField(keyField));
+        while (true) {
+            int bucket = getDirectory(tid, dirtypages, Permissions.READ_ONLY)
+                    .getBucket(h);
+            if (bucket == 0) {
+                // the first insert into an empty file
+                bucket = getEmptyPage(tid, dirtypages).getId().pageNumber();
+                getDirectory(tid, dirtypages, Permissions.READ_WRITE).setSlot(
+                        0, bucket);
+            }
+            ArrayList<HashBucketPage> chain = getChain(tid, dirtypages, bucket);
+            for (HashBucketPage p : chain) {
+                if (!p.isFull()) {
+                    getBucketPage(tid, dirtypages, p.getId().pageNumber(),
+                            Permissions.READ_WRITE).insertTuple(t);
+                    return new ArrayList<Page>(dirtypages.values());
+                }
+            }
+            if (!splitBucket(tid, dirtypages, chain, h)) {
+                HashBucketPage overflow = getEmptyPage(tid, dirtypages);
+                overflow.insertTuple(t);
+                getBucketPage(tid, dirtypages,
+                        chain.get(chain.size() - 1).getId().pageNumber(),
+                        Permissions.READ_WRITE).setNext(
+                        overflow.getId().pageNumber());
+                return new ArrayList<Page>(dirtypages.values());
+            }
+            // the tuple's half of the bucket may still be full; try again
+        }
+    }
+
+    /**
+     * Split a full bucket in two on the next bit of the hash, doubling the
+     * directory if necessary. The tuples of all the pages of the bucket are
+     * redistributed, reusing its overflow pages.
+     *
+     * @param chain
+     *            the pages of the bucket
+     * @param h
+     *            the hash of the key being inserted
+     * @return false, leaving the bucket unchanged, if no split could separate
+     *         the tuples of the bucket and the tuple being inserted
+     */
+    private boolean splitBucket(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, ArrayList<HashBucketPage> chain,
+            int h) throws DbException, IOException,
+            TransactionAbortedException {
+        int depth = chain.get(0).getLocalDepth();
+        int maxDepth = HashDirectoryPage.getMaxDepth();
+        int differ = 0;
+        for (HashBucketPage p : chain)
+            for (int i = 0; i < p.getNumTuples(); i++)
+                differ |= hash(p.getTuple(i).getField(keyField)) ^ h;
+        if (depth == maxDepth
+                || ((differ >>> depth) & ((1 << (maxDepth - depth)) - 1)) == 0)
+            return false;
+
+        HashDirectoryPage dir = getDirectory(tid, dirtypages,
+                Permissions.READ_WRITE);
+        if (depth == dir.getGlobalDepth())
+            dir.doubleSize();
+
+        int lowPgNo = chain.get(0).getId().pageNumber();
+        ArrayList<Tuple> low = new ArrayList<Tuple>();
+        ArrayList<Tuple> high = new ArrayList<Tuple>();
+        LinkedList<Integer> spare = new LinkedList<Integer>();
+        for (HashBucketPage p : chain) {
+            HashBucketPage w = getBucketPage(tid, dirtypages, p.getId()
+                    .pageNumber(), Permissions.READ_WRITE);
+            for (Tuple t : w.clear()) {
+                if ((hash(t.getField(keyField)) >>> depth & 1) == 0)
+                    low.add(t);
+                else
+                    high.add(t);
+            }
+            if (w.getId().pageNumber() != lowPgNo)
+                spare.add(w.getId().pageNumber());
+        }
+        int highPgNo = getEmptyPage(tid, dirtypages).getId().pageNumber();
+        fillBucket(tid, dirtypages, lowPgNo, depth + 1, low, spare);
+        fillBucket(tid, dirtypages, highPgNo, depth + 1, high, spare);
+        for (int pgNo : spare)
+            freePage(tid, dirtypages, pgNo);
+
+        for (int i = 0; i < dir.getNumSlots(); i++)
+            if (dir.getSlot(i) == lowPgNo && (i >>> depth & 1) == 1)
+                dir.setSlot(i, highPgNo);
+        return true;
+    }
+
+    /**
+     * Write tuples into the bucket starting at page pgNo, continuing on pages
+     * taken from spare, or new pages once spare is exhausted.
+     */
+    private void fillBucket(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, int pgNo, int depth,
+            List<Tuple> tuples, LinkedList<Integer> spare) throws DbException,
+            IOException, TransactionAbortedException {
+        HashBucketPage p = getBucketPage(tid, dirtypages, pgNo,
+                Permissions.READ_WRITE);
+        p.setLocalDepth(depth);
+        p.setNext(0);
+        for (Tuple t : tuples) {
+            if (p.isFull()) {
+                HashBucketPage next = spare.isEmpty() ? getEmptyPage(tid,
+                        dirtypages) : getBucketPage(tid, dirtypages,
+                        spare.removeFirst(), Permissions.READ_WRITE);
+                next.setNext(0);
+                p.setNext(next.getId().pageNumber());
+                p = next;
+            }
+            p.insertTuple(t);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        int bucket = getDirectory(tid, dirtypages, Permissions.READ_ONLY)
+                .getBucket(hash(t.getField(keyField)));
+        ArrayList<HashBucketPage> chain = getChain(tid, dirtypages, bucket);
+        for (int c = 0; c < chain.size(); c++) {
+            HashBucketPage p = chain.get(c);
+            for (int i = 0; i < p.getNumTuples(); i++) {
+                if (!sameTuple(p.getTuple(i), t))
+                    continue;
+                p = getBucketPage(tid, dirtypages, p.getId().pageNumber(),
+                        Permissions.READ_WRITE);
+                p.deleteTuple(i);
+                t.setRecordId(null);
+                if (c > 0 && p.getNumTuples() == 0) {
+                    // unlink the empty overflow page
+                    getBucketPage(tid, dirtypages,
+                            chain.get(c - 1).getId().pageNumber(),
+                            Permissions.READ_WRITE).setNext(p.getNext());
+                    freePage(tid, dirtypages, p.getId().pageNumber());
+                }
+                return new ArrayList<Page>(dirtypages.values());
+            }
+        }
+        throw new DbException("tuple is not a member of the file");
+    }
+
+    private static boolean sameTuple(Tuple a, Tuple b) {
+        if (a == b)
+            return true;
+        for (int i = 0; i < a.getTupleDesc().numFields(); i++)
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Return a new empty bucket page, reusing a free page if there is one and
+     * extending the file otherwise.
+     */
+    private HashBucketPage getEmptyPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages) throws DbException,
+            IOException, TransactionAbortedException {
+        HashDirectoryPage dir = getDirectory(tid, dirtypages,
+                Permissions.READ_ONLY);
+        int pgNo = dir.getFreeHead();
+        if (pgNo != 0) {
+            HashBucketPage free = getBucketPage(tid, dirtypages, pgNo,
+                    Permissions.READ_ONLY);
+            getDirectory(tid, dirtypages, Permissions.READ_WRITE).setFreeHead(
+                    free.getNext());
+        } else {
+            // page 0 belongs to the directory even before it is written
+            pgNo = Math.max(numPages(), 1);
+        }
+        HashPageId id = new HashPageId(tableid, pgNo);
+        dirtypages.remove(id);
+        Database.getBufferPool().discardPage(id);
+        writePageData(pgNo, HashPage.createEmptyPageData());
+        return getBucketPage(tid, dirtypages, pgNo, Permissions.READ_WRITE);
+    }
+
+    /** Add the bucket page pgNo to the free page list */
+    private void freePage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgNo) throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = getDirectory(tid, dirtypages,
+                Permissions.READ_WRITE);
+        HashBucketPage p = getBucketPage(tid, dirtypages, pgNo,
+                Permissions.READ_WRITE);
+        p.clear();
+        p.setLocalDepth(0);
+        p.setNext(dir.getFreeHead());
+        dir.setFreeHead(pgNo);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals key, which only
+     * reads the pages of the key's bucket.
+     */
+    public DbFileIterator lookupIterator(TransactionId tid, Field key) {
+        return new HashFileIterator(tid, key);
+    }
+
+    /**
+     * Helper class that iterates over the pages of the file, or of a single
+     * bucket for a lookup. The tuples of each page are copied when the page
+     * is reached, so tuples can be deleted while the iterator is open.
+     */
+    class HashFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;
+        private int nextPgNo;
+        private Iterator<Tuple> tuples;
+
+        /**
+         * @param key
+         *            the key to look up, or null to scan the whole file
+         */
+        public HashFileIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (numPages() == 0)
+                nextPgNo = 0;
+            else if (key == null)
+                nextPgNo = 1;
+            else
+                nextPgNo = getDirectory(tid, null, Permissions.READ_ONLY)
+                        .getBucket(hash(key));
+            tuples = Collections.<Tuple> emptyList().iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            if (tuples == null)
+                return null;
+            while (true) {
+                while (tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (key == null || key.equals(t.getField(keyField)))
+                        return t;
+                }
+                if (nextPgNo == 0 || nextPgNo >= numPages())
+                    return null;
+                HashBucketPage p = getBucketPage(tid, null, nextPgNo,
+                        Permissions.READ_ONLY);
+                tuples = p.getTuples().iterator();
+                nextPgNo = key == null ? nextPgNo + 1 : p.getNext();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            tuples = null;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashIndex is a secondary index over one field of a table stored in a
+ * {@link HeapFile}. It keeps its (key, page, slot) entries in a
+ * {@link HashFile} hashed on the key, so finding the tuples with a given
+ * value of the field reads a single bucket of the index. It cannot help with
+ * any other predicate, and returns tuples in no particular order.
+ * <p>
+ * {@link Catalog#loadSchema} builds one for the primary key of each table.
+ */
+public class HashIndex extends SecondaryIndex {
+
+    private final HashFile entries;
+
+    /**
+     * Opens the index stored in f over a field of a table. If f is empty, the
+     * index is empty until {@link #build} is called.
+     *
+     * @param f
+     *            the file holding the entries of the index
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     */
+    public HashIndex(File f, int tableid, int field) {
+        this(f, tableid, field, new int[0]);
+    }
+
+    /**
+     * Opens the index stored in f over a field of a table, whose entries also
+     * store the values of other fields so that it covers them. If f is empty,
+     * the index is empty until {@link #build} is called.
+     *
+     * @param f
+     *            the file holding the entries of the index
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     * @param include
+     *            the indexes of the other fields to store in the entries
+     */
+    public HashIndex(File f, int tableid, int field, int[] include) {
+        super(tableid, field, include);
+        this.entries = new HashFile(f, 0, entryTupleDesc(tableid, field,
+                include));
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public boolean isOrdered() {
+        return false;
+    }
+
+    public DbFile getFile() {
+        return entries;
+    }
+
+    protected DbFileIterator entryIterator(TransactionId tid,
+            IndexPredicate ipred) {
+        if (ipred == null)
+            return entries.iterator(tid);
+        if (!supports(ipred.getOp()))
+            throw new IllegalArgumentException("hash index does not support "
+                    + ipred.getOp());
+        return entries.lookupIterator(tid, ipred.getField());
+    }
+
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Common state of the pages of a {@link HashFile}: the page id and the dirty
+ * and before-image bookkeeping required by {@link Page}.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    protected final HashPageId pid;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected HashPage(HashPageId id) {
+        this.pid = id;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the page this page was created from, before any changes */
+    protected byte[] beforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty page.
+     * An empty directory page has a global depth of 0 and no bucket; an empty
+     * bucket page has a local depth of 0, no entries and no overflow page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Pads the stream with zeros up to a full page and returns its bytes */
+    protected static byte[] finishPage(ByteArrayOutputStream baos,
+            DataOutputStream dos) {
+        try {
+            dos.flush();
+            int pad = BufferPool.getPageSize() - baos.size();
+            if (pad < 0)
+                throw new IllegalStateException("page overflow");
+            dos.write(new byte[pad]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+}
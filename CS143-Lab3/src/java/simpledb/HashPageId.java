@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link HashFile}. Page 0 of a
+ * HashFile is always its {@link HashDirectoryPage} and every other page is a
+ * {@link HashBucketPage}, so the page number is enough to know how to parse
+ * a page.
+ */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return true if this is the id of the directory page */
+    public boolean isDirectory() {
+        return pgNo == 0;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the table ids and page numbers are the same
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+}
@@ -9,6 +9,16 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can be clustered on one of its INT fields, its cluster key: its
+ * tuples are then laid out in ascending order of the key, so the tuples in a
+ * range of keys share as few pages as possible and a scan returns them in key
+ * order. {@link #reorganize} sorts the file, and the zone map records whether
+ * it is still in order as tuples are inserted.
+ * <p>
+ * A HeapFile can also be stored compressed, for tables that are scanned far
+ * more often than they are updated: its pages are then kept deflated on disk
+ * by {@link CompressedPages} and inflated as they are read.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -31,6 +41,22 @@ public class HeapFile implements DbFile {
 	 */
 	private final int m_tableid;
 
+	/**
+	 * The min and max of each INT field on each page, used to skip pages
+	 * during filtered scans.
+	 */
+	private final ZoneMap m_zoneMap;
+
+	/**
+	 * The field the tuples are kept in order of, or -1.
+	 */
+	private int m_clusterKey = -1;
+
+	/**
+	 * The compressed pages of the file, or null if it is not compressed.
+	 */
+	private final CompressedPages m_compressedPages;
+
 	/**
 	 * Constructs a heap file backed by the specified file.
 	 * 
@@ -39,10 +65,29 @@ public class HeapFile implements DbFile {
 	 *            file.
 	 */
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, false);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file, which holds
+	 * compressed pages if compressed is true.
+	 * 
+	 * @see CompressedPages#compress
+	 */
+	public HeapFile(File f, TupleDesc td, boolean compressed) {
 		// some code goes here
 		m_file = f;
 		m_tableid = f.getAbsoluteFile().hashCode();
 		m_tupleDesc = td;
+		m_zoneMap = new ZoneMap(this);
+		m_compressedPages = compressed ? new CompressedPages(f) : null;
+	}
+
+	/**
+	 * Returns true if the pages of this file are stored compressed.
+	 */
+	public boolean isCompressed() {
+		return m_compressedPages != null;
 	}
 
 	/**
@@ -55,6 +100,252 @@ public class HeapFile implements DbFile {
 		return m_file;
 	}
 
+	/**
+	 * Returns the zone map of this HeapFile.
+	 */
+	public ZoneMap getZoneMap() {
+		return m_zoneMap;
+	}
+
+	/**
+	 * Declares the field this file is clustered on. The file is only in
+	 * order of it once {@link #isClustered} says so.
+	 * 
+	 * @param field
+	 *            the index of an INT field, or -1 for none
+	 */
+	public void setClusterKey(int field) {
+		if (field >= 0 && m_tupleDesc.getFieldType(field) != Type.INT_TYPE)
+			throw new IllegalArgumentException(
+					"the cluster key must be an INT field");
+		if (field != m_clusterKey) {
+			m_clusterKey = field;
+			// the order recorded by the zone map is for the old key
+			m_zoneMap.invalidate();
+		}
+	}
+
+	/**
+	 * Returns the field this file is clustered on, or -1 if it has none.
+	 */
+	public int getClusterKey() {
+		return m_clusterKey;
+	}
+
+	/**
+	 * Returns true if this file has a cluster key and its tuples are in
+	 * ascending order of it, by page and slot.
+	 */
+	public boolean isClustered() {
+		return m_clusterKey >= 0 && m_zoneMap.isSorted();
+	}
+
+	/**
+	 * The number of tuples {@link #reorganize} sorts in memory at a time.
+	 */
+	public static final int REORGANIZE_RUN_TUPLES = 100000;
+
+	/**
+	 * Rewrites this file with its tuples in ascending order of the cluster
+	 * key, packed into as few pages as possible. The pages of the file are
+	 * dropped from the BufferPool, so none of them may be dirty. Tuples move,
+	 * so secondary indexes over the file have to be rebuilt, as
+	 * {@link Catalog#loadSchema} does.
+	 * <p>
+	 * At most {@link #REORGANIZE_RUN_TUPLES} tuples are held in memory: a
+	 * larger file is sorted in runs of that many, written to temporary files
+	 * and merged. The sorted file is written next to this one and renamed
+	 * over it, so a failure leaves the old file in place.
+	 */
+	public void reorganize() throws IOException {
+		reorganize(REORGANIZE_RUN_TUPLES);
+	}
+
+	/**
+	 * Reorganizes the file, sorting at most runTuples tuples in memory at a
+	 * time.
+	 */
+	void reorganize(int runTuples) throws IOException {
+		if (m_clusterKey < 0)
+			throw new IllegalStateException("the file has no cluster key");
+		Comparator<Tuple> cmp = new TupleComparator(m_tupleDesc,
+				new int[] { m_clusterKey }, new boolean[] { true });
+		File tmp = new File(m_file.getPath() + ".tmp");
+		ArrayList<SortedRun> runs = new ArrayList<SortedRun>();
+		try {
+			ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+			for (int p = 0; p < numPages(); p++) {
+				HeapPageId pid = new HeapPageId(getId(), p);
+				Database.getBufferPool().discardPage(pid);
+				Iterator<Tuple> it = ((HeapPage) readPage(pid)).iterator();
+				while (it.hasNext()) {
+					tuples.add(it.next());
+					if (tuples.size() == runTuples) {
+						runs.add(new SortedRun(m_tupleDesc, tuples, cmp));
+						tuples.clear();
+					}
+				}
+			}
+			Collections.sort(tuples, cmp);
+			SortedPageWriter out = new SortedPageWriter(tmp);
+			try {
+				if (runs.isEmpty()) {
+					for (Tuple t : tuples)
+						out.add(t);
+				} else {
+					if (!tuples.isEmpty())
+						runs.add(new SortedRun(m_tupleDesc, tuples, cmp));
+					tuples = null;
+					merge(runs, cmp, out);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			for (SortedRun run : runs)
+				run.close();
+		}
+		// renaming over the file replaces it at once where the platform
+		// allows it; only otherwise is the old file deleted first
+		if (!tmp.renameTo(m_file)
+				&& (!m_file.delete() || !tmp.renameTo(m_file)))
+			throw new IOException("could not replace " + m_file);
+		if (m_compressedPages != null) {
+			CompressedPages.compress(m_file);
+			m_compressedPages.invalidate();
+		}
+		m_zoneMap.invalidate();
+	}
+
+	/**
+	 * Writes the tuples of sorted runs to out, in order.
+	 */
+	private static void merge(ArrayList<SortedRun> runs,
+			final Comparator<Tuple> cmp, SortedPageWriter out)
+			throws IOException {
+		PriorityQueue<SortedRun> heads = new PriorityQueue<SortedRun>(
+				runs.size(), new Comparator<SortedRun>() {
+					public int compare(SortedRun r1, SortedRun r2) {
+						return cmp.compare(r1.head, r2.head);
+					}
+				});
+		for (SortedRun run : runs) {
+			run.openReader();
+			if (run.advance())
+				heads.add(run);
+		}
+		while (!heads.isEmpty()) {
+			SortedRun run = heads.poll();
+			out.add(run.head);
+			if (run.advance())
+				heads.add(run);
+		}
+	}
+
+	/**
+	 * A run of tuples sorted in memory and written to a temporary file, read
+	 * back one tuple at a time while the runs are merged.
+	 */
+	private static class SortedRun {
+		private final TupleDesc td;
+		private final File file;
+		private int remaining;
+		private DataInputStream in;
+		Tuple head;
+
+		SortedRun(TupleDesc td, ArrayList<Tuple> tuples,
+				Comparator<Tuple> cmp) throws IOException {
+			this.td = td;
+			Collections.sort(tuples, cmp);
+			file = File.createTempFile("reorganize", ".run");
+			file.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				for (Tuple t : tuples)
+					for (int i = 0; i < td.numFields(); i++)
+						t.getField(i).serialize(out);
+			} finally {
+				out.close();
+			}
+			remaining = tuples.size();
+		}
+
+		void openReader() throws IOException {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		}
+
+		/**
+		 * Reads the next tuple of the run into head.
+		 * 
+		 * @return false once the run is exhausted
+		 */
+		boolean advance() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			head = new Tuple(td);
+			try {
+				for (int i = 0; i < td.numFields(); i++)
+					head.setField(i, td.getFieldType(i).parse(in));
+			} catch (java.text.ParseException e) {
+				throw new IOException(e);
+			}
+			return true;
+		}
+
+		void close() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// the file is deleted anyway
+				}
+				in = null;
+			}
+			file.delete();
+		}
+	}
+
+	/**
+	 * Packs tuples added in order into consecutive pages of a file.
+	 */
+	private class SortedPageWriter {
+		private final BufferedOutputStream out;
+		private HeapPage page;
+		private int pageNo;
+
+		SortedPageWriter(File f) throws IOException {
+			out = new BufferedOutputStream(new FileOutputStream(f));
+		}
+
+		void add(Tuple t) throws IOException {
+			try {
+				if (page == null)
+					page = new HeapPage(new HeapPageId(getId(), pageNo++),
+							HeapPage.createEmptyPageData());
+				page.insertTuple(t);
+			} catch (DbException e) {
+				throw new IOException(e);
+			}
+			if (page.getNumEmptySlots() == 0) {
+				out.write(page.getPageData());
+				page = null;
+			}
+		}
+
+		void close() throws IOException {
+			try {
+				if (page != null)
+					out.write(page.getPageData());
+				page = null;
+			} finally {
+				out.close();
+			}
+		}
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this HeapFile. Implementation note:
 	 * you will need to generate this tableid somewhere ensure that each
@@ -83,6 +374,14 @@ public class HeapFile implements DbFile {
 	public Page readPage(PageId pid) {
 		// some code goes here
 		HeapPageId hpid = (HeapPageId) pid; // cast to HeapPageId
+		if (m_compressedPages != null) {
+			try {
+				return new HeapPage(hpid, m_compressedPages.read(hpid
+						.pageNumber()));
+			} catch (IOException ioe) {
+				throw new RuntimeException(ioe);
+			}
+		}
 		BufferedInputStream bis = null; // The stream to read file from
 		try {
 			bis = new BufferedInputStream(new FileInputStream(m_file));
@@ -128,12 +427,19 @@ public class HeapFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		// some code goes here
 		// not necessary for lab1
-		RandomAccessFile myFile=new RandomAccessFile(m_file,"rw");
-        long offset= page.getId().pageNumber()*BufferPool.PAGE_SIZE;
-        byte[] data=page.getPageData();
-        myFile.seek(offset);
-        myFile.write(data);
+		if (m_compressedPages != null) {
+			m_compressedPages.write(page.getId().pageNumber(),
+					page.getPageData());
+		} else {
+			RandomAccessFile myFile=new RandomAccessFile(m_file,"rw");
+			long offset= page.getId().pageNumber()*BufferPool.PAGE_SIZE;
+			byte[] data=page.getPageData();
+			myFile.seek(offset);
+			myFile.write(data);
+			myFile.close();
+		}
         page.markDirty(false,null);
+        m_zoneMap.update((HeapPage) page);
 	}
 
 	/**
@@ -142,11 +448,34 @@ public class HeapFile implements DbFile {
 	public int numPages() {
 		// some code goes here
 
+		if (m_compressedPages != null) {
+			try {
+				return m_compressedPages.numPages();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
 		// The # of pages is the size of the physical file in bytes /
 		// The size of each page in bytes.
 		return (int) (m_file.length() / BufferPool.getPageSize());
 	}
 
+	/**
+	 * Returns the number of pages' worth of bytes a scan of this file reads
+	 * from disk: the number of pages, or fewer if they are compressed.
+	 */
+	public int numDiskPages() {
+		if (m_compressedPages == null)
+			return numPages();
+		try {
+			return (int) Math.ceil((double) m_compressedPages
+					.compressedSize() / BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	// see DbFile.java for javadocs
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
@@ -164,6 +493,7 @@ public class HeapFile implements DbFile {
 												// tuple
 				page.insertTuple(t);
 				page.markDirty(true, tid);
+				m_zoneMap.widen(page, t);
 				pagesLists.add(page);
 				return pagesLists;
 			}
@@ -174,6 +504,7 @@ public class HeapFile implements DbFile {
 		writePage(page);//write a empty page to file
         page=(HeapPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);//access through bufferpool
 		page.insertTuple(t);
+		m_zoneMap.widen(page, t);
 		pagesLists.add(page);
 		return pagesLists;
 	}
@@ -199,7 +530,20 @@ public class HeapFile implements DbFile {
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
 		// some code goes here
-		return new HeapFileIterator(this, tid);
+		return new HeapFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of this file that skips the pages
+	 * which the zone map shows cannot hold a tuple satisfying all of the
+	 * predicates. The tuples of the pages that are read are all returned; it
+	 * is up to the caller to apply the predicates to them.
+	 * 
+	 * @param preds
+	 *            predicates over the fields of this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+		return new HeapFileIterator(this, tid, preds.clone());
 	}
 
 	/**
@@ -227,6 +571,11 @@ public class HeapFile implements DbFile {
 		 */
 		HeapFile m_heapFile;
 
+		/**
+		 * The predicates pages are skipped by, or null to read every page.
+		 */
+		Predicate[] m_preds;
+
 		/**
 		 * Set local variables for HeapFile and Transactionid
 		 * 
@@ -234,10 +583,14 @@ public class HeapFile implements DbFile {
 		 *            The underlying HeapFile.
 		 * @param tid
 		 *            The transaction ID.
+		 * @param preds
+		 *            The predicates to skip pages by, or null.
 		 */
-		public HeapFileIterator(HeapFile hf, TransactionId tid) {
+		public HeapFileIterator(HeapFile hf, TransactionId tid,
+				Predicate[] preds) {
 			m_heapFile = hf;
 			m_tid = tid;
+			m_preds = preds;
 		}
 
 		/**
@@ -262,6 +615,12 @@ public class HeapFile implements DbFile {
 					&& m_currentPageNumber < m_heapFile.numPages() - 1) {
 				m_currentPageNumber++; // Go to next page.
 
+				// Skip pages the zone map rules out without reading them
+				if (m_preds != null
+						&& !m_heapFile.m_zoneMap.mayMatch(m_currentPageNumber,
+								m_preds))
+					continue;
+
 				// Get the iterator for the current page
 				HeapPageId currentPageId = new HeapPageId(m_heapFile.getId(),
 						m_currentPageNumber);
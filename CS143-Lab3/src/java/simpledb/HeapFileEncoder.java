@@ -223,4 +223,61 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into the pages of
+   * a {@link SlottedFile}, each holding as many variable-length records as
+   * fit. Strings longer than {@link Type#STRING_LEN} are truncated.
+   *
+   * @see SlottedPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int used = SlottedPage.HEADER_SIZE;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+          String[] vals = line.split(java.util.regex.Pattern.quote(
+                  String.valueOf(fieldSeparator)), -1);
+          if (vals.length != typeAr.length)
+              throw new IOException("BAD LINE : " + line);
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < typeAr.length; i++) {
+              String s = vals[i].trim();
+              if (typeAr[i] == Type.INT_TYPE) {
+                  try {
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  } catch (NumberFormatException e) {
+                      throw new IOException("BAD LINE : " + line);
+                  }
+              } else {
+                  t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          }
+          int need = SlottedPage.SLOT_SIZE + SlottedPage.recordSize(t);
+          if (used + need > npagebytes && !page.isEmpty()) {
+              os.write(SlottedPage.encode(page, npagebytes));
+              page.clear();
+              used = SlottedPage.HEADER_SIZE;
+          }
+          page.add(t);
+          used += need;
+      }
+      // an empty table still gets one empty page, as for convert
+      os.write(SlottedPage.encode(page, npagebytes));
+      br.close();
+      os.close();
+  }
 }
@@ -30,9 +30,17 @@ public class HeapPage implements Page {
 	byte m_header[];
 
 	/**
-	 * The array of tuples stored in this HeapPage.
+	 * The array of tuples stored in this HeapPage, or null until they are
+	 * first needed.
 	 */
-	Tuple m_tuples[];
+	private volatile Tuple m_tuples[];
+
+	/**
+	 * The bytes this page was read from, kept until its tuples are decoded.
+	 */
+	private volatile byte[] m_data;
+
+	private final Object tuplesLock = new Object();
 
 	/**
 	 * The number of slots in this HeapPage.
@@ -78,20 +86,44 @@ public class HeapPage implements Page {
 		m_header = new byte[getHeaderSize()];
 		for (int i = 0; i < m_header.length; i++)
 			m_header[i] = dis.readByte();
-
-		m_tuples = new Tuple[m_numSlots];
-		try {
-			// allocate and read the actual records of this page
-			for (int i = 0; i < m_tuples.length; i++)
-				m_tuples[i] = readNextTuple(dis, i);
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
-		}
 		dis.close();
 
+		// the records are decoded on first use, see tuples()
+		m_data = data;
+
 		setBeforeImage();
 	}
 
+	/**
+	 * @return the tuples of this page, decoding them from the bytes it was
+	 *         read from on the first call
+	 */
+	private Tuple[] tuples() {
+		Tuple[] tuples = m_tuples;
+		if (tuples != null)
+			return tuples;
+		synchronized (tuplesLock) {
+			if (m_tuples != null)
+				return m_tuples;
+			DataInputStream dis = new DataInputStream(
+					new ByteArrayInputStream(m_data));
+			tuples = new Tuple[m_numSlots];
+			try {
+				dis.skipBytes(m_header.length);
+				// allocate and read the actual records of this page
+				for (int i = 0; i < tuples.length; i++)
+					tuples[i] = readNextTuple(dis, i);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (NoSuchElementException e) {
+				e.printStackTrace();
+			}
+			m_tuples = tuples;
+			m_data = null;
+			return tuples;
+		}
+	}
+
 	/**
 	 * Retrieve the number of tuples on this page.
 	 * 
@@ -204,6 +236,12 @@ public class HeapPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		// a page whose tuples were never decoded is still its bytes
+		byte[] data = m_data;
+		if (m_tuples == null && data != null)
+			return data.clone();
+
+		Tuple[] tuples = tuples();
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -219,7 +257,7 @@ public class HeapPage implements Page {
 		}
 
 		// create the tuples
-		for (int i = 0; i < m_tuples.length; i++) {
+		for (int i = 0; i < tuples.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
@@ -236,7 +274,7 @@ public class HeapPage implements Page {
 
 			// non-empty slot
 			for (int j = 0; j < m_td.numFields(); j++) {
-				Field f = m_tuples[i].getField(j);
+				Field f = tuples[i].getField(j);
 				try {
 					f.serialize(dos);
 
@@ -248,7 +286,7 @@ public class HeapPage implements Page {
 
 		// padding
 		int zerolen = BufferPool.getPageSize()
-				- (m_header.length + m_td.getSize() * m_tuples.length); // -
+				- (m_header.length + m_td.getSize() * tuples.length); // -
 																		// numSlots
 																		// *
 																		// td.getSize();
@@ -301,7 +339,7 @@ public class HeapPage implements Page {
 			if (isSlotUsed(tupleIndex)) {
 				markSlotUsed(tupleIndex, false);
 				t.setRecordId(null);
-				m_tuples[tupleIndex] = null;
+				tuples()[tupleIndex] = null;
 				return;
 			}
 		} 
@@ -334,7 +372,7 @@ public class HeapPage implements Page {
 					break;
 			}
 			t.setRecordId(new RecordId(m_heapPageId, i));//update the rid
-			m_tuples[i] = t;
+			tuples()[i] = t;
 			markSlotUsed(i, true);
 		}
 	}
@@ -361,6 +399,13 @@ public class HeapPage implements Page {
 		return m_tid;
 	}
 
+	/**
+	 * @return the number of slots on this page, used or not.
+	 */
+	int getNumSlots() {
+		return m_numSlots;
+	}
+
 	/**
 	 * @return the number of empty slots on this page.
 	 */
@@ -401,6 +446,73 @@ public class HeapPage implements Page {
         }
 	}
 
+	/**
+	 * Copies the records of the used slots of this page, from a slot on, into
+	 * the column vectors of a batch until it is full. Until something needs
+	 * the page's tuples, the records are decoded from the bytes the page was
+	 * read from: int fields straight into the batch's int vectors and string
+	 * fields into new StringFields, with no Tuple built per row. Once the
+	 * tuples exist, their values are copied instead.
+	 *
+	 * @param slot
+	 *            the first slot to copy
+	 * @param batch
+	 *            a batch of rows of this page's TupleDesc
+	 * @return the slot to go on from, or -1 once every slot has been copied
+	 */
+	int readInto(int slot, TupleBatch batch) {
+		int n = m_td.numFields();
+		int[][] ints = new int[n][];
+		Field[][] fields = new Field[n][];
+		for (int i = 0; i < n; i++) {
+			if (m_td.getFieldType(i) == Type.INT_TYPE)
+				ints[i] = batch.getInts(i);
+			else
+				fields[i] = batch.getFields(i);
+		}
+		// m_data is read first: it is only cleared once m_tuples is set
+		byte[] data = m_data;
+		Tuple[] tuples = m_tuples;
+		int size = m_td.getSize();
+		for (; slot < m_numSlots; slot++) {
+			if (!isSlotUsed(slot))
+				continue;
+			if (batch.isFull())
+				return slot;
+			int row = batch.newRow();
+			if (tuples != null) {
+				Tuple t = tuples[slot];
+				for (int i = 0; i < n; i++) {
+					if (ints[i] != null)
+						ints[i][row] = t.getInt(i);
+					else
+						fields[i][row] = t.getField(i);
+				}
+				continue;
+			}
+			int off = m_header.length + slot * size;
+			for (int i = 0; i < n; i++) {
+				if (ints[i] != null) {
+					ints[i][row] = readInt(data, off);
+				} else {
+					int len = readInt(data, off);
+					fields[i][row] = new StringField(new String(data,
+							off + 4, len), Type.STRING_LEN);
+				}
+				off += m_td.getFieldType(i).getLen();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the big-endian int at off in data, as DataInputStream reads it
+	 */
+	private static int readInt(byte[] data, int off) {
+		return (data[off] << 24) | ((data[off + 1] & 0xff) << 16)
+				| ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+	}
+
 	/**
 	 * @return an iterator over all tuples on this page (calling remove on this
 	 *         iterator throws an UnsupportedOperationException) (note that this
@@ -426,7 +538,7 @@ public class HeapPage implements Page {
 			if (!isSlotUsed(i)) {
 				return null;
 			} else {
-				return m_tuples[i];
+				return tuples()[i];
 			}
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its child to a table that has an index on the
+ * join field. Instead of scanning the whole inner table for each outer tuple,
+ * as {@link Join} does, it looks the outer tuple's join value up in the
+ * index, so each outer tuple only costs the pages holding its matches.
+ * <p>
+ * Filters over the inner table are applied to the tuples the index returns.
+ * The tuples returned are the concatenation of the outer and inner tuples, as
+ * for {@link Join}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private DbIterator outer;
+    private final TransactionId tid;
+    private final DbIndex index;
+    private final String innerAlias;
+    private final Predicate[] innerFilters;
+    private final Predicate.Op probeOp;
+    private final TupleDesc innerTd;
+    private final TupleDesc td;
+
+    private Tuple outerTuple;
+    private DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; field1 is in the outer tuples and
+     *            field2 in the tuples of the inner table
+     * @param outer
+     *            Iterator for the outer relation
+     * @param tid
+     *            The transaction the inner table is read as a part of
+     * @param index
+     *            An index on field2 of the inner table that supports the
+     *            join operator
+     * @param innerAlias
+     *            the alias of the inner table; its fields are named
+     *            innerAlias.fieldName, as for {@link SeqScan}
+     * @param innerFilters
+     *            predicates over the inner table that the joined inner
+     *            tuples must also satisfy
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator outer,
+            TransactionId tid, DbIndex index, String innerAlias,
+            Predicate[] innerFilters) {
+        // the index is probed with "field2 op' value of field1"
+        probeOp = reverse(p.getOperator());
+        if (index.getField() != p.getField2() || !index.supports(probeOp))
+            throw new IllegalArgumentException(
+                    "index cannot be probed with the join predicate");
+        this.pred = p;
+        this.outer = outer;
+        this.tid = tid;
+        this.index = index;
+        this.innerAlias = innerAlias;
+        this.innerFilters = innerFilters.clone();
+
+        TupleDesc base = Database.getCatalog().getTupleDesc(
+                index.getTableId());
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = innerAlias + "." + base.getFieldName(i);
+        }
+        innerTd = new TupleDesc(types, names);
+        td = TupleDesc.merge(outer.getTupleDesc(), innerTd);
+    }
+
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name.
+     */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by the inner alias.
+     */
+    public String getJoinField2Name() {
+        return innerTd.getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return the index the inner table is read through
+     */
+    public DbIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the alias of the inner table
+     */
+    public String getInnerAlias() {
+        return innerAlias;
+    }
+
+    /**
+     * @return the predicates applied to the inner tuples
+     */
+    public Predicate[] getInnerFilters() {
+        return innerFilters.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        outerTuple = null;
+        matches = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        outer.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        outerTuple = null;
+        outer.rewind();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    /**
+     * Returns the next outer tuple joined with one of the inner tuples the
+     * index finds for it, or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple inner = matches.next();
+                if (passes(inner))
+                    return merge(outerTuple, inner);
+            }
+            closeMatches();
+            if (!outer.hasNext())
+                return null;
+            outerTuple = outer.next();
+            matches = index.iterator(tid, new IndexPredicate(probeOp,
+                    outerTuple.getField(pred.getField1())));
+            matches.open();
+        }
+    }
+
+    private boolean passes(Tuple inner) {
+        for (Predicate p : innerFilters)
+            if (!p.filter(inner))
+                return false;
+        return true;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        int n = left.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < innerTd.numFields(); i++)
+            t.setField(n + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+    }
+
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an access method that reads the fields of a table covered
+ * by a {@link SecondaryIndex}, for the tuples whose value in the indexed field
+ * satisfies an {@link IndexPredicate}, from the entries of the index alone.
+ * Unlike an {@link IndexScan}, it never reads a page of the table, so it can
+ * only be used when a query refers to no field the index does not cover.
+ * <p>
+ * The tuples returned hold the covered fields only, in the order of
+ * {@link SecondaryIndex#getCoveredFields}: the indexed field first.
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private TupleDesc td;
+    private DbFileIterator it;
+
+    /**
+     * Creates a scan of the fields of a table covered by one of its indexes
+     * as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the fields from
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the indexed field, or null to return the
+     *            covered fields of every tuple of the table
+     */
+    public IndexOnlyScan(TransactionId tid, SecondaryIndex index,
+            String tableAlias, IndexPredicate ipred) {
+        if (ipred != null && !index.supports(ipred.getOp()))
+            throw new IllegalArgumentException("index does not support "
+                    + ipred.getOp());
+        this.tid = tid;
+        this.index = index;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index the fields are read from
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate on the indexed field, or null if there is none
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the index of the indexed field in the returned tuples, which is
+     *         always 0; tuples are returned in order of it if the index
+     *         {@link DbIndex#isOrdered is ordered}
+     */
+    public int getKeyField() {
+        return 0;
+    }
+
+    /**
+     * @return the index in the tuples of the table of field i of the returned
+     *         tuples
+     */
+    public int getTableField(int i) {
+        return index.getCoveredFields()[i];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = index.indexOnlyIterator(tid, ipred);
+        it.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the covered fields, with field names from the
+     * underlying table prefixed with the tableAlias string from the
+     * constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc base = index.coveredTupleDesc();
+            Type[] types = new Type[base.numFields()];
+            String[] names = new String[base.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = base.getFieldType(i);
+                names[i] = alias + "." + base.getFieldName(i);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexOnlyScan not open");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexOnlyScan not open");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+}
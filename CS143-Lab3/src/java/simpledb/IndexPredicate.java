@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index against a constant, as in
+ * "key op constant". It is what an {@link IndexScan} passes to an index to
+ * choose the tuples it reads.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation to apply, as the key op fvalue
+     * @param fvalue
+     *            the constant the key is compared against
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if a key satisfies this predicate
+     */
+    public boolean filter(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    /**
+     * @return true if a tuple with key greater than the constant can satisfy
+     *         this predicate; false means a scan in key order can stop at the
+     *         first such tuple
+     */
+    public boolean matchesAbove() {
+        return op != Predicate.Op.EQUALS && op != Predicate.Op.LESS_THAN
+                && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if a tuple with key less than the constant can satisfy this
+     *         predicate; false means a scan in key order can start at the
+     *         constant
+     */
+    public boolean matchesBelow() {
+        return op != Predicate.Op.EQUALS && op != Predicate.Op.GREATER_THAN
+                && op != Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate ipd = (IndexPredicate) o;
+        return op == ipd.op && fieldvalue.equals(ipd.fieldvalue);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + fieldvalue.hashCode();
+    }
+
+    public String toString() {
+        return op + " " + fieldvalue;
+    }
+
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose value
+ * in an indexed field satisfies an {@link IndexPredicate}, through a
+ * {@link DbIndex}. Unlike a {@link SeqScan} followed by a {@link Filter}, it
+ * only reads the parts of the index that can hold matching keys, and the
+ * pages of the table those keys point to.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final DbIndex index;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private TupleDesc td;
+    private DbFileIterator it;
+
+    /**
+     * Creates a scan over the key of a table stored in a BTreeFile as a part
+     * of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a BTreeFile
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the key field, or null to return every tuple
+     *            in key order
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            IndexPredicate ipred) {
+        this(tid, keyIndex(tableid), tableAlias, ipred);
+    }
+
+    /**
+     * Creates a scan of a table through one of its indexes as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the table through
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the indexed field, or null to return every
+     *            tuple of the table
+     */
+    public IndexScan(TransactionId tid, DbIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        if (ipred != null && !index.supports(ipred.getOp()))
+            throw new IllegalArgumentException("index does not support "
+                    + ipred.getOp());
+        this.tid = tid;
+        this.index = index;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    private static DbIndex keyIndex(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            throw new IllegalArgumentException("table " + tableid
+                    + " is not stored in a BTreeFile");
+        return ((BTreeFile) f).keyIndex();
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index the table is read through
+     */
+    public DbIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate on the indexed field, or null if there is none
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the index of the field the index is on; tuples are returned in
+     *         order of it if the index {@link DbIndex#isOrdered is ordered}
+     */
+    public int getKeyField() {
+        return index.getField();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = index.iterator(tid, ipred);
+        it.open();
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the underlying table,
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc base = Database.getCatalog().getTupleDesc(
+                    index.getTableId());
+            Type[] types = new Type[base.numFields()];
+            String[] names = new String[base.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = base.getFieldType(i);
+                names[i] = alias + "." + base.getFieldName(i);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexScan not open");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexScan not open");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+}
@@ -44,6 +44,28 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(null, lj, plan1, plan2);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)} does.
+     * If the optimizer chose to probe an index on the inner table, plan2 must
+     * be the scan of that table, possibly under filters; it is replaced by
+     * lookups in the index.
+     * 
+     * @param tid
+     *            The transaction the join runs as a part of
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     */
+    public static DbIterator instantiateJoin(TransactionId tid,
+            LogicalJoinNode lj, DbIterator plan1, DbIterator plan2)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,6 +90,52 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (lj.innerIndex != null) {
+            // collect the filters over the inner table's scan
+            ArrayList<Predicate> filters = new ArrayList<Predicate>();
+            DbIterator base = plan2;
+            while (base instanceof Filter) {
+                filters.add(((Filter) base).getPredicate());
+                base = ((Filter) base).getChildren()[0];
+            }
+            String alias = null;
+            if (base instanceof SeqScan) {
+                alias = ((SeqScan) base).getAlias();
+            } else if (base instanceof IndexScan) {
+                IndexScan is = (IndexScan) base;
+                alias = is.getAlias();
+                if (is.getIndexPredicate() != null)
+                    filters.add(new Predicate(is.getKeyField(), is
+                            .getIndexPredicate().getOp(), is
+                            .getIndexPredicate().getField()));
+            } else if (base instanceof IndexOnlyScan) {
+                // the filters refer to the covered fields; the join reads
+                // whole tuples of the table
+                IndexOnlyScan is = (IndexOnlyScan) base;
+                alias = is.getAlias();
+                for (int i = 0; i < filters.size(); i++) {
+                    Predicate f = filters.get(i);
+                    filters.set(i, new Predicate(is.getTableField(f
+                            .getField()), f.getOp(), f.getOperand()));
+                }
+                if (is.getIndexPredicate() != null)
+                    filters.add(new Predicate(is.getIndex().getField(), is
+                            .getIndexPredicate().getOp(), is
+                            .getIndexPredicate().getField()));
+            } else if (base instanceof BitmapHeapScan
+                    && !((BitmapHeapScan) base).isDisjunction()) {
+                alias = ((BitmapHeapScan) base).getAlias();
+                filters.addAll(Arrays.asList(((BitmapHeapScan) base)
+                        .getPredicates()));
+            }
+            if (alias != null)
+                return new IndexNestedLoopJoin(p, plan1, tid, lj.innerIndex,
+                        alias, filters.toArray(new Predicate[0]));
+        }
+
+        if (lj.hashJoin && lj.p == Predicate.Op.EQUALS)
+            return new HashEquiJoin(p, plan1, plan2, lj.bloomFilter);
+
         j = new Join(p,plan1,plan2);
 
         return j;
@@ -318,6 +386,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base table, which an index can be probed on
+        boolean t1Base = true, t2Base = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -353,6 +423,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1Base = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -369,6 +440,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2Base = false;
 
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -385,8 +457,48 @@ public class JoinOptimizer {
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
 
+        LogicalJoinNode hj = withHashJoin(j, t1card, t2Base, stats);
+        if (hj != null) {
+            double hcost = estimateHashJoinCost(hj, t1card, t2card, t1cost,
+                    t2cost, stats);
+            if (hcost < cost1) {
+                j = hj;
+                cost1 = hcost;
+            }
+        }
+
+        if (t2Base) {
+            LogicalJoinNode ij = withInnerIndex(j);
+            if (ij != null) {
+                double icost = estimateIndexJoinCost(ij, t1card, t1cost, stats);
+                if (icost < cost1) {
+                    j = ij;
+                    cost1 = icost;
+                }
+            }
+        }
+
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        LogicalJoinNode hj2 = withHashJoin(j2, t2card, t1Base, stats);
+        if (hj2 != null) {
+            double hcost = estimateHashJoinCost(hj2, t2card, t1card, t2cost,
+                    t1cost, stats);
+            if (hcost < cost2) {
+                j2 = hj2;
+                cost2 = hcost;
+            }
+        }
+        if (t1Base) {
+            LogicalJoinNode ij2 = withInnerIndex(j2);
+            if (ij2 != null) {
+                double icost = estimateIndexJoinCost(ij2, t2card, t2cost, stats);
+                if (icost < cost2) {
+                    j2 = ij2;
+                    cost2 = icost;
+                }
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -408,6 +520,143 @@ public class JoinOptimizer {
         return cc;
     }
 
+    /**
+     * Returns a copy of j that probes an index on f2 of t2 for each tuple of
+     * t1, or null if t2 has no index that can find the matches of a tuple.
+     */
+    private LogicalJoinNode withInnerIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null)
+            return null;
+        int tableid = p.getTableId(j.t2Alias);
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid)
+                    .fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        // the index is probed with "f2 op' value of f1"
+        DbIndex idx = Database.getCatalog().getIndex(tableid, field,
+                j.swapInnerOuter().p);
+        if (idx == null)
+            return null;
+        LogicalJoinNode ij = new LogicalJoinNode(j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, j.p);
+        ij.innerIndex = idx;
+        return ij;
+    }
+
+    /**
+     * Returns a copy of j that hashes t1 and probes it with the tuples of t2,
+     * or null if j is not an equality join of two tables. The copy hands a
+     * Bloom filter over the keys of t1 to the scan of t2 when t2 is a base
+     * table of which few tuples are expected to find a match.
+     * 
+     * @param card1
+     *            Estimated cardinality of the hashed side
+     * @param probeBase
+     *            whether t2 is a base table rather than a join
+     * @param stats
+     *            table stats, referenced by table names
+     */
+    private LogicalJoinNode withHashJoin(LogicalJoinNode j, int card1,
+            boolean probeBase, Map<String, TableStats> stats) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null
+                || j.p != Predicate.Op.EQUALS)
+            return null;
+        LogicalJoinNode hj = new LogicalJoinNode(j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, j.p);
+        hj.hashJoin = true;
+        hj.bloomFilter = probeBase
+                && probeMatchFraction(hj, card1, stats) < BLOOM_THRESHOLD;
+        return hj;
+    }
+
+    /**
+     * Use a Bloom filter in a hash join when less than this fraction of the
+     * probe tuples are expected to find a match.
+     */
+    static final double BLOOM_THRESHOLD = 0.5;
+
+    /**
+     * Estimate the fraction of the tuples of t2 that match one of card1
+     * tuples of t1, as the fraction of the distinct values of f2 that card1
+     * keys can cover.
+     */
+    private double probeMatchFraction(LogicalJoinNode j, int card1,
+            Map<String, TableStats> stats) {
+        TableStats s = stats.get(Database.getCatalog().getTableName(
+                p.getTableId(j.t2Alias)));
+        double sel;
+        if (isPkey(j.t2Alias, j.f2PureName)) {
+            sel = 1.0 / Math.max(1, s.totalTuples());
+        } else {
+            try {
+                int field = Database.getCatalog()
+                        .getTupleDesc(p.getTableId(j.t2Alias))
+                        .fieldNameToIndex(j.f2PureName);
+                sel = s.avgSelectivity(field, j.p);
+            } catch (NoSuchElementException e) {
+                return 1.0;
+            }
+        }
+        return Math.min(1.0, card1 * sel);
+    }
+
+    /**
+     * Estimate the cost of a hash join: one scan of t1 to build the hash
+     * table, and one scan of t2 for each {@link HashEquiJoin#MAP_SIZE}
+     * tuples of t1 that are hashed at a time. Each tuple of t1 is hashed
+     * once and each tuple of t2 probes the table once, unless a Bloom
+     * filter drops it first.
+     * 
+     * @param j
+     *            the join, with {@link LogicalJoinNode#hashJoin} set
+     * @param stats
+     *            table stats, referenced by table names
+     */
+    private double estimateHashJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2,
+            Map<String, TableStats> stats) {
+        double passes = Math.max(1,
+                Math.ceil((double) card1 / HashEquiJoin.MAP_SIZE));
+        double probes = card2;
+        if (j.bloomFilter)
+            probes = card2 * Math.max(HashEquiJoin.BLOOM_FPP,
+                    probeMatchFraction(j, card1, stats));
+        return cost1 + passes * cost2 + card1 + probes;
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join: one scan of the outer
+     * side, plus one probe of the index on the inner table for each outer
+     * tuple, each of which reads the pages of the matching inner tuples.
+     * 
+     * @param j
+     *            the join, with its {@link LogicalJoinNode#innerIndex} set
+     * @param card1
+     *            Estimated cardinality of the outer side
+     * @param cost1
+     *            Estimated cost of one full scan of the outer side
+     * @param stats
+     *            table stats, referenced by table names
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            double cost1, Map<String, TableStats> stats) {
+        TableStats s = stats.get(Database.getCatalog().getTableName(
+                p.getTableId(j.t2Alias)));
+        double sel;
+        if (j.p != Predicate.Op.EQUALS)
+            sel = 0.3;
+        else if (isPkey(j.t2Alias, j.f2PureName))
+            sel = 1.0 / Math.max(1, s.totalTuples());
+        else
+            sel = s.avgSelectivity(j.innerIndex.getField(), j.p);
+        return cost1 + card1
+                * (s.estimateIndexScanCost(j.innerIndex, sel) + sel
+                        * s.totalTuples());
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
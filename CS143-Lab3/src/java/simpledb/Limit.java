@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements a LIMIT clause without an ORDER BY. It
+ * returns the first n tuples of its child and then stops pulling from it, so
+ * the rest of the plan below it is never evaluated.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int limit;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must be non-negative");
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the maximum number of tuples this operator returns
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child until
+     * limit tuples have been returned.
+     *
+     * @return The next tuple, or null if the limit has been reached or the
+     *         child is exhausted
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit || !child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -23,6 +23,20 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** An index on f2 of t2 that the join probes for each tuple of t1, or
+     * null if t2 is scanned in a nested loops join. Set by the
+     * JoinOptimizer. */
+    public DbIndex innerIndex;
+
+    /** Whether t1 is hashed on f1 and probed with the tuples of t2, rather
+     * than joined by nested loops. Set by the JoinOptimizer. */
+    public boolean hashJoin;
+
+    /** Whether a hash join hands a Bloom filter over the keys of t1 to the
+     * scan of t2, to drop the tuples of t2 that cannot join as they are
+     * read. Set by the JoinOptimizer. */
+    public boolean bloomFilter;
+
     public LogicalJoinNode() {
     }
 
@@ -1,10 +1,15 @@
 package simpledb;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 
 /**
@@ -12,9 +17,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates can share the grouping; they are computed
+ * by a single {@link Aggregate} operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +34,15 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private boolean hasLimit = false;
+    private int limitCount;
     private String query;
 //    private Query owner;
 
@@ -186,36 +194,75 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Aggregates added by several calls are computed together
+        and share one grouping; adding the same aggregate twice has no effect.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null to leave the grouping as is
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*")) {
+            if (!op.equalsIgnoreCase("COUNT"))
+                throw new ParsingException("Only COUNT can be computed over *");
+            afield="null.*";
+        }
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to the GROUP BY list of the query.  Fields are grouped
+        on in the order they are added; adding a field twice has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** @return the position of the aggregate op(afield) among the aggregates
+        of this plan, or -1 if it has not been added */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++)
+            if (aggOps.elementAt(i).equals(op) && aggFields.elementAt(i).equals(afield))
+                return i;
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        several times orders by each field in turn, with later fields breaking ties on earlier ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause to the query, so that at most count tuples are
+        returned.  If the query also has an ORDER BY, the plan uses a
+        {@link TopN} rather than sorting the whole input.
+        @param count the maximum number of tuples to return
+     * @throws ParsingException if count is negative
+    */
+    public void addLimit(int count) throws ParsingException {
+        if (count < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limitCount = count;
+        hasLimit = true;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -258,6 +305,277 @@ public class LogicalPlan {
 
     }
 
+    /** Choose the cheapest index that can evaluate one of the filters over a
+        table, or the intersection of the bitmap indexes that can evaluate
+        several of them, or an index covering all of the fields of the table
+        the query refers to, if reading the table through it is cheaper than
+        scanning it.
+        @param t the transaction the plan runs as a part of
+        @param table the table being accessed
+        @param preds the filters over the table, in the order they were added
+        @param s the statistics of the table
+        @param referenced the fields of the table the query refers to, or
+        null if it refers to all of them
+        @return an IndexScan, BitmapHeapScan or IndexOnlyScan under Filters
+        for the remaining predicates, or null if the table should be scanned
+    */
+    private DbIterator indexAccessPath(TransactionId t, LogicalScanNode table,
+            ArrayList<Predicate> preds, TableStats s, Set<Integer> referenced) {
+        if (s == null)
+            return null;
+        double bestCost = s.estimateScanCost();
+        // a scan of a clustered table only reads the pages in the range of
+        // its filters on the cluster key
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (file instanceof HeapFile && ((HeapFile) file).isClustered()) {
+            double keySel = 1.0;
+            for (Predicate p : preds)
+                if (p.getField() == ((HeapFile) file).getClusterKey())
+                    keySel *= s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            bestCost = s.estimateClusteredScanCost(keySel);
+        }
+        Predicate best = null;
+        DbIndex bestIndex = null;
+        for (Predicate p : preds) {
+            DbIndex idx = Database.getCatalog().getIndex(table.t, p.getField(), p.getOp());
+            if (idx == null)
+                continue;
+            double cost = s.estimateIndexScanCost(idx, selectivity(s, idx, p));
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = p;
+                bestIndex = idx;
+            }
+        }
+
+        ArrayList<BitmapIndex> bitmapIndexes = new ArrayList<BitmapIndex>();
+        ArrayList<Predicate> bitmapPreds = new ArrayList<Predicate>();
+        double bitmapSel = 1.0;
+        int bitmapPages = 0;
+        for (Predicate p : preds) {
+            BitmapIndex idx = bitmapIndex(table.t, p.getField());
+            if (idx == null)
+                continue;
+            bitmapIndexes.add(idx);
+            bitmapPreds.add(p);
+            bitmapSel *= selectivity(s, idx, p);
+            bitmapPages += idx.numPages();
+        }
+        double bitmapCost = bitmapPreds.size() > 1 ? s.estimateBitmapScanCost(
+                bitmapPages, bitmapSel) : Double.MAX_VALUE;
+
+        SecondaryIndex covering = null;
+        Predicate coveringPred = null;
+        double coveringCost = Double.MAX_VALUE;
+        if (referenced != null) {
+            for (DbIndex idx : Database.getCatalog().getIndexes(table.t)) {
+                if (!(idx instanceof SecondaryIndex)
+                        || !((SecondaryIndex) idx).covers(referenced))
+                    continue;
+                Predicate keyPred = null;
+                double sel = 1.0;
+                for (Predicate p : preds) {
+                    if (p.getField() != idx.getField() || !idx.supports(p.getOp()))
+                        continue;
+                    double psel = selectivity(s, idx, p);
+                    if (keyPred == null || psel < sel) {
+                        keyPred = p;
+                        sel = psel;
+                    }
+                }
+                double cost = s.estimateIndexOnlyScanCost(idx, sel);
+                if (cost < coveringCost) {
+                    coveringCost = cost;
+                    covering = (SecondaryIndex) idx;
+                    coveringPred = keyPred;
+                }
+            }
+        }
+        if (coveringCost < bestCost && coveringCost <= bitmapCost) {
+            DbIterator plan = new IndexOnlyScan(t, covering, table.alias,
+                    coveringPred == null ? null : new IndexPredicate(
+                            coveringPred.getOp(), coveringPred.getOperand()));
+            // the fields of the tuples are the covered ones, in index order
+            List<Integer> covered = new ArrayList<Integer>();
+            for (int f : covering.getCoveredFields())
+                covered.add(f);
+            for (Predicate p : preds)
+                if (p != coveringPred)
+                    plan = new Filter(new Predicate(covered.indexOf(p.getField()),
+                            p.getOp(), p.getOperand()), plan);
+            return plan;
+        }
+
+        if (bitmapCost < bestCost) {
+            DbIterator plan = new BitmapHeapScan(t, table.alias,
+                    bitmapIndexes.toArray(new BitmapIndex[0]),
+                    bitmapPreds.toArray(new Predicate[0]), false);
+            for (Predicate p : preds)
+                if (!bitmapPreds.contains(p))
+                    plan = new Filter(p, plan);
+            return plan;
+        }
+
+        if (best == null)
+            return null;
+        DbIterator plan = new IndexScan(t, bestIndex, table.alias,
+                new IndexPredicate(best.getOp(), best.getOperand()));
+        for (Predicate p : preds)
+            if (p != best)
+                plan = new Filter(p, plan);
+        return plan;
+    }
+
+    /** Determine the fields of a table that the query refers to, in its
+        select list, filters, joins, grouping or ordering. COUNT(*) refers
+        to no field.
+        @param table the table being accessed
+        @return the indexes of the fields in the tuples of the table, or
+        null if the select list includes "*"
+    */
+    private Set<Integer> referencedFields(LogicalScanNode table) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp != null)
+                continue;
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.addAll(aggFields);
+        names.addAll(groupByFields);
+        names.addAll(oByFields);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        HashSet<Integer> fields = new HashSet<Integer>();
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || !parts[0].equals(table.alias))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(parts[1]));
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+            }
+        }
+        return fields;
+    }
+
+    /** @return the selectivity of a predicate answered by an index, which
+        is exact for a bitmap index and estimated from the histograms
+        otherwise */
+    private static double selectivity(TableStats s, DbIndex idx, Predicate p) {
+        if (idx instanceof BitmapIndex)
+            return ((BitmapIndex) idx).estimateSelectivity(p.getOp(), p.getOperand());
+        return s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+    }
+
+    /** @return a bitmap index over a field of a table, or null */
+    private static BitmapIndex bitmapIndex(int tableid, int field) {
+        for (DbIndex idx : Database.getCatalog().getIndexes(tableid))
+            if (idx instanceof BitmapIndex && idx.getField() == field)
+                return (BitmapIndex) idx;
+        return null;
+    }
+
+    /** Determine whether the tuples returned by a plan are known to be ordered
+        so that tuples with equal values in the specified fields are adjacent,
+        which is the case when the leading sort keys of the plan are exactly
+        those fields, in any order and direction.
+        @param plan the plan to inspect
+        @param fields indexes of fields in the TupleDesc of plan
+        @return true if the tuples of each distinct combination of values of
+        fields are returned contiguously
+    */
+    static boolean isGroupedOn(DbIterator plan, int[] fields) {
+        int[] sortKeys = null;
+        if (plan instanceof OrderBy)
+            sortKeys = ((OrderBy) plan).getOrderByFields();
+        else if (plan instanceof TopN)
+            sortKeys = ((TopN) plan).getOrderByFields();
+        else if (plan instanceof Filter)
+            return isGroupedOn(((Filter) plan).getChildren()[0], fields);
+        else if (scanOrder(plan) >= 0)
+            sortKeys = new int[] { scanOrder(plan) };
+        if (sortKeys == null || sortKeys.length < fields.length)
+            return false;
+        HashSet<Integer> leading = new HashSet<Integer>();
+        for (int i = 0; i < fields.length; i++)
+            leading.add(sortKeys[i]);
+        for (int f : fields)
+            if (!leading.contains(f))
+                return false;
+        return true;
+    }
+
+    /** Determine the field an access method, possibly under Filters,
+        returns its tuples in ascending order of: the key of an ordered
+        index, or the cluster key of a clustered table.
+        @param plan the plan to inspect
+        @return the index of the field in the TupleDesc of plan, or -1 if
+        the order of the tuples is not known
+    */
+    static int scanOrder(DbIterator plan) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        if (plan instanceof IndexScan && ((IndexScan) plan).getIndex().isOrdered())
+            return ((IndexScan) plan).getKeyField();
+        if (plan instanceof IndexOnlyScan && ((IndexOnlyScan) plan).getIndex().isOrdered())
+            return ((IndexOnlyScan) plan).getKeyField();
+        if (plan instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(((SeqScan) plan).getTableName()));
+            if (f instanceof HeapFile && ((HeapFile) f).isClustered())
+                return ((HeapFile) f).getClusterKey();
+        }
+        return -1;
+    }
+
+    /** Replace each chain of Filters directly above a SeqScan in a plan,
+        and each SeqScan with no Filter above it, with a FusedScan that
+        tests the predicates of the Filters as it reads the table.
+        @param t the transaction the plan runs in
+        @param plan the plan to rewrite
+        @return the plan, or the FusedScan that replaces it
+    */
+    static DbIterator fuseScans(TransactionId t, DbIterator plan) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator base = plan;
+        while (base instanceof Filter) {
+            preds.add(((Filter) base).getPredicate());
+            base = ((Filter) base).getChildren()[0];
+        }
+        if (base instanceof SeqScan && !(base instanceof FusedScan)) {
+            SeqScan ss = (SeqScan) base;
+            // the innermost filter first, as it was applied
+            Collections.reverse(preds);
+            FusedScan fs = new FusedScan(t, Database.getCatalog().getTableId(
+                    ss.getTableName()), ss.getAlias(),
+                    preds.toArray(new Predicate[0]));
+            fs.setPageFilters(ss.getPageFilters());
+            fs.setColumns(ss.getColumns());
+            return fs;
+        }
+        if (base instanceof Operator) {
+            Operator op = (Operator) base;
+            DbIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                children = Arrays.copyOf(children, children.length);
+                for (int i = 0; i < children.length; i++)
+                    children[i] = fuseScans(t, children[i]);
+                op.setChildren(children);
+            }
+        }
+        return plan;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -289,6 +607,8 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,ArrayList<Predicate>> filterPreds = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,SeqScan> seqScans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -300,9 +620,11 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            seqScans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            filterPreds.put(table.alias, new ArrayList<Predicate>());
 
         }
 
@@ -327,6 +649,12 @@ public class LogicalPlan {
                 f = new IntField(new Integer(lf.c).intValue());
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
+            // equality tests on a dictionary-encoded column compare codes
+            DbFile file = Database.getCatalog().getDatabaseFile(
+                    getTableId(lf.tableAlias));
+            if (file instanceof ColumnFile)
+                f = ((ColumnFile) file).encode(
+                        td.fieldNameToIndex(lf.fieldQuantifiedName), f);
 
             Predicate p = null;
             try {
@@ -335,6 +663,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            filterPreds.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +672,33 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // read a table through an index instead of scanning it if one of
+        // its filters is selective enough, or only read an index if it holds
+        // every field of the table the query needs; otherwise let the scan
+        // skip the pages its filters rule out
+        for (LogicalScanNode table : tables) {
+            ArrayList<Predicate> preds = filterPreds.get(table.alias);
+            Set<Integer> referenced = referencedFields(table);
+            DbIterator access = indexAccessPath(t, table, preds,
+                    statsMap.get(Database.getCatalog().getTableName(table.t)),
+                    referenced);
+            if (access != null) {
+                subplanMap.put(table.alias, access);
+                continue;
+            }
+            SeqScan ss = seqScans.get(table.alias);
+            ss.setPageFilters(preds.toArray(new Predicate[0]));
+            // a column store only reads the columns the query uses; COUNT(*)
+            // counts field 0
+            if (referenced != null) {
+                int[] columns = new int[Math.max(1, referenced.size())];
+                int i = 0;
+                for (int f : referenced)
+                    columns[i++] = f;
+                ss.setColumns(columns);
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
      
@@ -383,7 +739,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(t,lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -415,28 +771,33 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the Aggregate outputs the group by fields, then the aggregates
+                int aggIdx = aggregateIndex(si.aggOp, si.fname);
+                if (aggIdx < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + aggIdx);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gIdx = groupByFields.indexOf(si.fname);
+                    if (gIdx < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gIdx);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,12 +822,27 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gIdx = new int[groupByFields.size()];
+                for (int i = 0; i < gIdx.length; i++)
+                    gIdx[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                int[] aIdx = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggFields.size()];
+                for (int i = 0; i < aIdx.length; i++) {
+                    // COUNT(*) counts the tuples, whatever field it counts
+                    if (aggFields.elementAt(i).equals("null.*"))
+                        aIdx[i] = 0;
+                    else
+                        aIdx[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    ops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                // input that is already grouped can be aggregated as it streams by,
+                // without a hash table
+                if (gIdx.length > 0 && isGroupedOn(node, gIdx))
+                    aggNode = new StreamAggregate(node, aIdx, gIdx, ops);
+                else
+                    aggNode = new Aggregate(node, aIdx, gIdx, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -476,10 +852,37 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIdx = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIdx.length; i++) {
+                oByIdx[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                asc[i] = oByAscs.elementAt(i);
+            }
+            // tuples read in order of the sort key need no sorting
+            if (oByIdx.length == 1 && asc[0] && scanOrder(node) == oByIdx[0]) {
+                if (hasLimit)
+                    node = new Limit(limitCount, node);
+            } else if (hasLimit)
+                node = new TopN(oByIdx, asc, limitCount, node);
+            else
+                node = new OrderBy(oByIdx, asc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        // filters and the projection over a single table are applied as
+        // its tuples are read
+        node = fuseScans(t, node);
+        if (node instanceof FusedScan
+                && ((FusedScan) node).getOutFields() == null) {
+            int[] fields = new int[outFields.size()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = outFields.get(i);
+            ((FusedScan) node).setOutFields(fields,
+                    outTypes.toArray(new Type[0]));
+        } else
+            node = new Project(outFields, outTypes, node);
+        if (hasLimit && !hasOrderBy)
+            node = new Limit(limitCount, node);
+        return node;
     }
 
     public static void main(String argv[]) {
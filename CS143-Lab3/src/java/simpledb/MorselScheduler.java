@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * MorselScheduler runs the pipelines of parallel plans on one fixed pool of
+ * worker threads, shared by all queries. The input of a pipeline is split
+ * into morsels, small pieces such as a few consecutive pages of a
+ * {@link HeapFile}, and each morsel is run through the pipeline as a task of
+ * a {@link ForkJoinPool}. Workers that run out of tasks steal them from the
+ * others, so the load balances however much the morsels cost, and
+ * concurrent queries share the workers rather than each starting threads
+ * of its own.
+ *
+ * @Threadsafe
+ */
+public class MorselScheduler {
+
+    private static ForkJoinPool pool;
+
+    /**
+     * A pipeline run over the morsels of its input.
+     */
+    public interface Pipeline<T> {
+        /**
+         * Runs the pipeline over one morsel. Called on a worker thread.
+         *
+         * @param morsel
+         *            the index of the morsel
+         * @return the output of the pipeline for the morsel, not null
+         */
+        T run(int morsel) throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * @return the pool of workers, with one per processor, created on first
+     *         use
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                        public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+                            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                    .newThread(p);
+                            t.setName("morsel worker " + t.getPoolIndex());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, null, true);
+        }
+        return pool;
+    }
+
+    /**
+     * @return the number of workers pipelines are run on
+     */
+    public static int numWorkers() {
+        return getPool().getParallelism();
+    }
+
+    /**
+     * Starts running a pipeline over the morsels of its input, whose output
+     * is read in the order of the morsels from the returned Run. At most
+     * window morsels are run or held ahead of the one being read.
+     *
+     * @param pipeline
+     *            the pipeline to run
+     * @param morsels
+     *            the number of morsels of its input
+     * @param window
+     *            the number of morsels run ahead of the reader, at least one
+     */
+    public static <T> Run<T> dispatch(Pipeline<T> pipeline, int morsels,
+            int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("window must be at least 1");
+        return new Run<T>(pipeline, morsels, window);
+    }
+
+    /**
+     * The run of a pipeline over the morsels of its input.
+     */
+    public static class Run<T> {
+        private final Pipeline<T> pipeline;
+        private final int morsels;
+        /** the output of each morsel in the window, by morsel % window */
+        private final Object[] results;
+        /** the exception the pipeline threw on each morsel in the window */
+        private final Throwable[] errors;
+        private int dispatched;
+        private int consumed;
+        private int running;
+        private boolean stopped;
+
+        private Run(Pipeline<T> pipeline, int morsels, int window) {
+            this.pipeline = pipeline;
+            this.morsels = morsels;
+            this.results = new Object[Math.min(window, Math.max(morsels, 1))];
+            this.errors = new Throwable[results.length];
+            synchronized (this) {
+                while (dispatched < morsels && dispatched < results.length)
+                    submit(dispatched++);
+            }
+        }
+
+        private void submit(final int m) {
+            running++;
+            getPool().execute(new Runnable() {
+                public void run() {
+                    Object out = null;
+                    Throwable e = null;
+                    try {
+                        if (!isStopped())
+                            out = pipeline.run(m);
+                    } catch (Throwable t) {
+                        e = t;
+                    }
+                    synchronized (Run.this) {
+                        running--;
+                        if (!stopped) {
+                            results[m % results.length] = out;
+                            errors[m % results.length] = e;
+                        }
+                        Run.this.notifyAll();
+                    }
+                }
+            });
+        }
+
+        private synchronized boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Returns the output of the next morsel, waiting for it to be run,
+         * and dispatches the morsel after the window. An exception the
+         * pipeline threw on a morsel is thrown in its place.
+         *
+         * @return the output, or null once all morsels have been read
+         * @throws DbException
+         *             if the pipeline failed on a morsel, or the wait was
+         *             interrupted
+         * @throws TransactionAbortedException
+         *             if the pipeline's transaction was aborted
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized T next() throws DbException,
+                TransactionAbortedException {
+            if (consumed == morsels || stopped)
+                return null;
+            int slot = consumed % results.length;
+            while (results[slot] == null && errors[slot] == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted waiting for a morsel");
+                }
+            }
+            Throwable error = errors[slot];
+            if (error instanceof DbException)
+                throw (DbException) error;
+            if (error instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) error;
+            if (error instanceof RuntimeException)
+                throw (RuntimeException) error;
+            if (error != null)
+                throw new RuntimeException(error);
+            T out = (T) results[slot];
+            results[slot] = null;
+            consumed++;
+            if (dispatched < morsels)
+                submit(dispatched++);
+            return out;
+        }
+
+        /**
+         * Stops dispatching morsels, and waits for those being run to
+         * finish, so that none runs once this returns.
+         */
+        public synchronized void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (int i = 0; i < results.length; i++) {
+                results[i] = null;
+                errors[i] = null;
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
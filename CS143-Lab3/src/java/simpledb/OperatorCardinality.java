@@ -1,6 +1,7 @@
 package simpledb;
 
 //import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -22,16 +23,50 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         if (o instanceof Filter) {
-            return updateFilterCardinality((Filter) o, tableAliasToId,
+            return updateFilterCardinality(o,
+                    new Predicate[] { ((Filter) o).getPredicate() },
+                    tableAliasToId, tableStats);
+        } else if (o instanceof CompiledFilter) {
+            return updateFilterCardinality(o,
+                    ((CompiledFilter) o).getPredicates(), tableAliasToId,
                     tableStats);
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateIndexNestedLoopJoinCardinality(
+                    (IndexNestedLoopJoin) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
+            return updateAggregateCardinality(o,
+                    ((Aggregate) o).groupFields(), tableAliasToId, tableStats);
+        } else if (o instanceof StreamAggregate) {
+            return updateAggregateCardinality(o,
+                    ((StreamAggregate) o).groupFields(), tableAliasToId,
+                    tableStats);
+        } else if (o instanceof ParallelAggregate) {
+            return updateAggregateCardinality(o,
+                    ((ParallelAggregate) o).groupFields(), tableAliasToId,
                     tableStats);
+        } else if (o instanceof ParallelScan) {
+            o.setEstimatedCardinality(scanCardinality(
+                    ((ParallelScan) o).getScan(), tableStats));
+            return false;
+        } else if (o instanceof Unbatcher) {
+            // a batch plan returns the tuples of the operators it replaced
+            DbIterator plan = tuplePlan(((Unbatcher) o).getBatchChild());
+            int card = 1;
+            boolean hasJoinPK = false;
+            if (plan instanceof Operator) {
+                hasJoinPK = updateOperatorCardinality((Operator) plan,
+                        tableAliasToId, tableStats);
+                card = ((Operator) plan).getEstimatedCardinality();
+            } else if (isScan(plan)) {
+                card = scanCardinality(plan, tableStats);
+            }
+            o.setEstimatedCardinality(card);
+            return hasJoinPK;
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -41,35 +76,47 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
-    private static boolean updateFilterCardinality(Filter f,
-            Map<String, Integer> tableAliasToId,
+    /**
+     * Updates the cardinality of a filter of the conjunction of preds, as a
+     * Filter or CompiledFilter is
+     */
+    private static boolean updateFilterCardinality(Operator f,
+            Predicate[] preds, Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
         double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
+        boolean known = true;
+        for (Predicate pred : preds) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                known = false;
+                break;
+            }
+            selectivity *= tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .estimateSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             pred.getOp(), pred.getOperand());
+        }
+        if (known) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -77,10 +124,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child,
+                        tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -120,9 +166,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +177,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,6 +188,56 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateIndexNestedLoopJoinCardinality(
+            IndexNestedLoopJoin j, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+
+        DbIterator child1 = j.getChildren()[0];
+        int child1Card = 1;
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                .equals(pureFieldName2);
+
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
+        }
+
+        // the inner table is not a child, but its filters are applied to it
+        int innerId = j.getIndex().getTableId();
+        TableStats innerStats = tableStats.get(Database.getCatalog()
+                .getTableName(innerId));
+        double selectivity = 1.0;
+        for (Predicate p : j.getInnerFilters())
+            selectivity *= innerStats.estimateSelectivity(p.getField(),
+                    p.getOp(), p.getOperand());
+        int child2Card = innerStats.estimateTableCardinality(selectivity);
+        child2Card = child2Card > 0 ? child2Card : 1;
+
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -177,9 +271,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +282,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -201,8 +293,8 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
-            Map<String, Integer> tableAliasToId,
+    private static boolean updateAggregateCardinality(Operator a,
+            int[] groupFields, Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = a.getChildren()[0];
         int childCard = 1;
@@ -214,34 +306,129 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupFields.length == 0) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // the number of groups is at most the product of the number of
+        // distinct values of each group by field
+        double groups = 1.0;
+        TupleDesc childTd = child.getTupleDesc();
+        for (int gfield : groupFields) {
+            String[] tmp = childTd.getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
         return hasJoinPK;
     }
+
+    /**
+     * @return the tuple-at-a-time operators computing the tuples of a batch
+     *         plan, whose cardinalities are those of its batch operators
+     */
+    private static DbIterator tuplePlan(BatchIterator b) {
+        if (b instanceof BatchSeqScan)
+            return ((BatchSeqScan) b).getScan();
+        if (b instanceof Batcher)
+            return ((Batcher) b).getChild();
+        BatchIterator[] children = b.getChildren();
+        if (b instanceof BatchFilter)
+            return new Filter(((BatchFilter) b).getPredicate(),
+                    tuplePlan(children[0]));
+        if (b instanceof BatchProject) {
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int f : ((BatchProject) b).getOutFields())
+                fields.add(f);
+            TupleDesc td = b.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = td.getFieldType(i);
+            return new Project(fields, types, tuplePlan(children[0]));
+        }
+        if (b instanceof BatchHashEquiJoin)
+            return new HashEquiJoin(((BatchHashEquiJoin) b).getJoinPredicate(),
+                    tuplePlan(children[0]), tuplePlan(children[1]));
+        if (b instanceof BatchAggregate) {
+            BatchAggregate a = (BatchAggregate) b;
+            return new Aggregate(tuplePlan(children[0]), a.aggregateFields(),
+                    a.groupFields(), a.aggregateOps());
+        }
+        throw new IllegalArgumentException("unknown batch operator "
+                + b.getClass().getSimpleName());
+    }
+
+    /**
+     * @return true if it is a leaf of the operator tree that reads a table
+     */
+    private static boolean isScan(DbIterator it) {
+        return it instanceof SeqScan || it instanceof IndexScan
+                || it instanceof BitmapHeapScan || it instanceof IndexOnlyScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by a SeqScan, or by
+     *         a FusedScan, IndexScan, BitmapHeapScan or IndexOnlyScan, which
+     *         only return those matching their predicates
+     */
+    private static int scanCardinality(DbIterator scan,
+            Map<String, TableStats> tableStats) {
+        if (scan instanceof FusedScan) {
+            FusedScan fs = (FusedScan) scan;
+            TableStats s = tableStats.get(fs.getTableName());
+            double sel = 1.0;
+            for (Predicate p : fs.getPredicates())
+                sel *= s.estimateSelectivity(p.getField(), p.getOp(),
+                        p.getOperand());
+            return s.estimateTableCardinality(sel);
+        }
+        if (scan instanceof SeqScan)
+            return tableStats.get(((SeqScan) scan).getTableName())
+                    .estimateTableCardinality(1.0);
+        if (scan instanceof BitmapHeapScan) {
+            BitmapHeapScan bs = (BitmapHeapScan) scan;
+            TableStats s = tableStats.get(bs.getTableName());
+            // the predicates are taken to be independent
+            double sel = bs.isDisjunction() ? 0.0 : 1.0;
+            for (Predicate p : bs.getPredicates()) {
+                double psel = s.estimateSelectivity(p.getField(), p.getOp(),
+                        p.getOperand());
+                sel = bs.isDisjunction() ? sel + psel - sel * psel : sel * psel;
+            }
+            return s.estimateTableCardinality(sel);
+        }
+        if (scan instanceof IndexOnlyScan) {
+            IndexOnlyScan is = (IndexOnlyScan) scan;
+            TableStats s = tableStats.get(is.getTableName());
+            IndexPredicate ipred = is.getIndexPredicate();
+            if (ipred == null)
+                return s.estimateTableCardinality(1.0);
+            return s.estimateTableCardinality(s.estimateSelectivity(is
+                    .getIndex().getField(), ipred.getOp(), ipred.getField()));
+        }
+        IndexScan is = (IndexScan) scan;
+        TableStats s = tableStats.get(is.getTableName());
+        IndexPredicate ipred = is.getIndexPredicate();
+        if (ipred == null)
+            return s.estimateTableCardinality(1.0);
+        return s.estimateTableCardinality(s.estimateSelectivity(
+                is.getKeyField(), ipred.getOp(), ipred.getField()));
+    }
 }
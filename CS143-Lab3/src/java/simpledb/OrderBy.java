@@ -11,10 +11,9 @@ public class OrderBy extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
+    private int[] orderByFields;
+    private boolean[] ascs;
     private Iterator<Tuple> it;
-    private boolean asc;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +26,59 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts the tuples from the iterator on
+     * several fields. Ties on orderbyFields[i] are broken by
+     * orderbyFields[i+1].
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            asc[i] is true if orderbyFields[i] is sorted ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one sort direction per ORDER BY field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return the fields this operator sorts on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return the sort direction of each field in {@link #getOrderByFields}
+     */
+    public boolean[] getAscs() {
+        return this.ascs.clone();
     }
     
     public TupleDesc getTupleDesc() {
@@ -57,9 +89,11 @@ public class OrderBy extends Operator {
             TransactionAbortedException {
         child.open();
         // load all the tuples in a collection, and sort it
+        childTups.clear();
         while (child.hasNext())
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        Collections.sort(childTups, new TupleComparator(td, orderByFields,
+                ascs));
         it = childTups.iterator();
         super.open();
     }
@@ -99,25 +133,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
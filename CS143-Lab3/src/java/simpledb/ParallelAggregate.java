@@ -0,0 +1,320 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ParallelAggregate computes the aggregates of an {@link Aggregate} over a
+ * {@link ParallelScan} on the workers of the {@link MorselScheduler}, in two
+ * phases:
+ * <ol>
+ * <li>each morsel of the scan is read, and its tuples merged into
+ * pre-aggregation tables of the worker that reads it: one
+ * {@link HashAggregator} per partition of the groups by hash, which no other
+ * worker touches, so no locks are taken per tuple;
+ * <li>the tables of each partition are then merged across the workers, one
+ * partition per task, into the final groups of that partition.
+ * </ol>
+ * The groups of different partitions are disjoint, so the partitions are
+ * returned one after another, and the tuples are those the Aggregate would
+ * return, in another order. The groups held in memory are bounded as an
+ * Aggregate's are: each worker's table of a partition holds its share of
+ * {@link HashAggregator#DEFAULT_MAX_GROUPS} among all the workers and
+ * partitions, and the merged table of a partition its share among the
+ * partitions, and each spills further groups to disk as an Aggregate does.
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private ParallelScan scan;
+    private final int[] aFields;
+    private final int[] gbFields;
+    private final Aggregator.Op[] aOps;
+    private final int partitions;
+    private final int maxGroups;
+
+    /** the pre-aggregation tables of each worker, by partition */
+    private transient Map<Thread, HashAggregator[]> local;
+    private transient MorselScheduler.Run<Boolean> run;
+    private transient HashAggregator[] merged;
+    private transient int partition;
+    private transient DbIterator current;
+
+    /**
+     * Constructor.
+     *
+     * @param scan
+     *            the scan whose tuples are aggregated
+     * @param afields
+     *            the columns over which aggregates are computed
+     * @param gfields
+     *            the columns the result is grouped by; empty if there is no
+     *            grouping
+     * @param aops
+     *            the aggregation operator to apply to each of afields
+     * @param partitions
+     *            the number of partitions the groups are split into, at
+     *            least one; without grouping there is only one
+     */
+    public ParallelAggregate(ParallelScan scan, int[] afields, int[] gfields,
+            Aggregator.Op[] aops, int partitions) {
+        this(scan, afields, gfields, aops, partitions,
+                HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate that holds at most maxGroups groups in
+     * memory across all of its tables, rather than the default.
+     */
+    ParallelAggregate(ParallelScan scan, int[] afields, int[] gfields,
+            Aggregator.Op[] aops, int partitions, int maxGroups) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException(
+                    "need one operator per aggregate field");
+        if (partitions < 1)
+            throw new IllegalArgumentException("at least one partition needed");
+        this.scan = scan;
+        this.aFields = afields.clone();
+        this.gbFields = gfields.clone();
+        this.aOps = aops.clone();
+        this.partitions = gbFields.length == 0 ? 1 : partitions;
+        this.maxGroups = maxGroups;
+        newTable(1); // fails early if an aop is not supported over its afield
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gbFields.clone();
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return aFields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aOps.clone();
+    }
+
+    /**
+     * @return the number of partitions the groups are split into
+     */
+    public int numPartitions() {
+        return partitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Aggregate.outputTupleDesc(scan.getTupleDesc(), gbFields,
+                aFields, aOps);
+    }
+
+    /**
+     * @return a table holding at most a share of maxGroups groups in memory
+     */
+    private HashAggregator newTable(int shares) {
+        TupleDesc td = scan.getTupleDesc();
+        Type[] gbTypes = new Type[gbFields.length];
+        for (int i = 0; i < gbFields.length; i++)
+            gbTypes[i] = td.getFieldType(gbFields[i]);
+        Type[] aTypes = new Type[aFields.length];
+        for (int i = 0; i < aFields.length; i++)
+            aTypes[i] = td.getFieldType(aFields[i]);
+        return new HashAggregator(gbFields, gbTypes, aFields, aTypes, aOps,
+                Math.max(1, maxGroups / shares));
+    }
+
+    /**
+     * @return the partition of the groups t falls in, of n
+     */
+    static int partition(Tuple t, int[] gbFields, int n) {
+        int h = 0;
+        for (int f : gbFields)
+            h = 31 * h + t.getField(f).hashCode();
+        long x = (h * 0x9E3779B9L) & 0xffffffffL;
+        return (int) ((x * n) >>> 32);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        local = new ConcurrentHashMap<Thread, HashAggregator[]>();
+        if (current != null)
+            current.close();
+        current = null;
+        closeMerged();
+        partition = 0;
+        super.open();
+        try {
+            preAggregate();
+            mergePartitions();
+        } finally {
+            if (merged == null)
+                for (HashAggregator[] tables : local.values())
+                    for (HashAggregator t : tables)
+                        if (t != null)
+                            t.close();
+            local = null;
+        }
+    }
+
+    /** Merges the tuples of each morsel into its worker's tables */
+    private void preAggregate() throws DbException,
+            TransactionAbortedException {
+        int morsels = scan.openMorsels();
+        final int shares = MorselScheduler.numWorkers() * partitions;
+        run = MorselScheduler.dispatch(new MorselScheduler.Pipeline<Boolean>() {
+            public Boolean run(int morsel) throws DbException,
+                    TransactionAbortedException {
+                HashAggregator[] tables = local.get(Thread.currentThread());
+                if (tables == null) {
+                    tables = new HashAggregator[partitions];
+                    for (int p = 0; p < partitions; p++)
+                        tables[p] = newTable(shares);
+                    local.put(Thread.currentThread(), tables);
+                }
+                for (Tuple t : scan.read(morsel))
+                    tables[partition(t, gbFields, partitions)]
+                            .mergeTupleIntoGroup(t);
+                return Boolean.TRUE;
+            }
+        }, morsels, 2 * MorselScheduler.numWorkers());
+        try {
+            while (run.next() != null)
+                ;
+        } finally {
+            run.stop();
+            run = null;
+        }
+    }
+
+    /**
+     * Merges the tables of each partition across the workers, dropping each
+     * worker's table once it is merged
+     */
+    private void mergePartitions() throws DbException,
+            TransactionAbortedException {
+        final ArrayList<HashAggregator[]> tables = new ArrayList<HashAggregator[]>(
+                local.values());
+        final HashAggregator[] out = new HashAggregator[partitions];
+        run = MorselScheduler.dispatch(new MorselScheduler.Pipeline<Boolean>() {
+            public Boolean run(int p) throws DbException {
+                HashAggregator m = newTable(partitions);
+                for (HashAggregator[] worker : tables) {
+                    m.merge(worker[p]);
+                    worker[p].close();
+                    worker[p] = null;
+                }
+                out[p] = m;
+                return Boolean.TRUE;
+            }
+        }, partitions, partitions);
+        try {
+            while (run.next() != null)
+                ;
+        } finally {
+            run.stop();
+            run = null;
+        }
+        merged = out;
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (current == null || !current.hasNext()) {
+            if (current != null)
+                current.close();
+            current = null;
+            if (partition == partitions)
+                return null;
+            current = merged[partition++].iterator();
+            current.open();
+        }
+        return current.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (current != null)
+            current.close();
+        partition = 0;
+        current = null;
+    }
+
+    public void close() {
+        super.close();
+        if (run != null)
+            run.stop();
+        run = null;
+        scan.close();
+        if (current != null)
+            current.close();
+        current = null;
+        closeMerged();
+    }
+
+    /**
+     * Closes the merged table of each partition, deleting the files it
+     * spilled to
+     */
+    private void closeMerged() {
+        if (merged != null)
+            for (HashAggregator m : merged)
+                if (m != null)
+                    m.close();
+        merged = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { scan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        scan = (ParallelScan) children[0];
+    }
+
+    /**
+     * Replaces each Aggregate in a plan whose child is a FusedScan of a
+     * HeapFile of more than one morsel of pages with a ParallelAggregate over
+     * a ParallelScan of it.
+     *
+     * @param tid
+     *            the transaction the plan runs in
+     * @param plan
+     *            the plan to rewrite
+     * @param partitions
+     *            the number of partitions the groups of each aggregate are
+     *            split into
+     * @return the plan, or the ParallelAggregate that replaces it
+     */
+    public static DbIterator parallelize(TransactionId tid, DbIterator plan,
+            int partitions) {
+        if (!(plan instanceof Operator))
+            return plan;
+        Operator op = (Operator) plan;
+        DbIterator[] children = op.getChildren();
+        if (plan instanceof Aggregate && children[0] instanceof FusedScan) {
+            Aggregate a = (Aggregate) plan;
+            DbIterator in = ParallelScan.parallelize(tid, children[0],
+                    MorselScheduler.numWorkers());
+            if (in instanceof ParallelScan)
+                return new ParallelAggregate((ParallelScan) in,
+                        a.aggregateFields(), a.groupFields(),
+                        a.aggregateOps(), partitions);
+        }
+        if (children != null && children.length > 0) {
+            children = Arrays.copyOf(children, children.length);
+            for (int i = 0; i < children.length; i++)
+                children[i] = parallelize(tid, children[i], partitions);
+            op.setChildren(children);
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ParallelScan reads a {@link HeapFile} on the workers of the
+ * {@link MorselScheduler}. The pages of the file are split into morsels of
+ * {@link #PAGES_PER_RANGE} pages; each is read through the
+ * {@link BufferPool} as a task of the scheduler, keeping the tuples that
+ * satisfy the predicates of a {@link FusedScan}, projected as the FusedScan
+ * projects them. The morsels are returned in page order, so the tuples come
+ * out in the order the FusedScan alone would return them.
+ * <p>
+ * At most {@link #numWorkers()} morsels are read ahead of the one being
+ * returned, so a slow consumer holds no more than that many morsels of
+ * tuples in memory. Only the zone map page filters, predicates and
+ * projection of the FusedScan apply; a runtime filter set on it by a
+ * {@link HashEquiJoin} is not seen by the workers.
+ */
+public class ParallelScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of consecutive pages in a morsel */
+    public static final int PAGES_PER_RANGE = 8;
+
+    private final TransactionId tid;
+    private final FusedScan scan;
+    private final int workers;
+
+    private transient int tableid;
+    private transient HeapFile file;
+    private transient Predicate[] pageFilters;
+    private transient int numPages;
+    private transient MorselScheduler.Run<List<Tuple>> run;
+    private transient Iterator<Tuple> current;
+    private transient volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the pages are read in
+     * @param scan
+     *            the scan of a HeapFile whose tuples are returned
+     * @param workers
+     *            the number of morsels read at once, at least one
+     */
+    public ParallelScan(TransactionId tid, FusedScan scan, int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("at least one worker needed");
+        this.tid = tid;
+        this.scan = scan;
+        this.workers = workers;
+    }
+
+    /**
+     * @return the scan whose tuples are returned
+     */
+    public FusedScan getScan() {
+        return scan;
+    }
+
+    /**
+     * @return the number of morsels read at once
+     */
+    public int numWorkers() {
+        return workers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        current = null;
+        run = MorselScheduler.dispatch(
+                new MorselScheduler.Pipeline<List<Tuple>>() {
+                    public List<Tuple> run(int morsel) throws DbException,
+                            TransactionAbortedException {
+                        return read(morsel);
+                    }
+                }, openMorsels(), workers);
+        super.open();
+    }
+
+    /**
+     * Prepares to read the morsels of the table, without reading any, for
+     * the scan itself or for an operator that runs a pipeline of its own over
+     * them.
+     *
+     * @return the number of morsels
+     */
+    int openMorsels() throws DbException {
+        tableid = Database.getCatalog().getTableId(scan.getTableName());
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new DbException("only heap files can be scanned in parallel");
+        file = (HeapFile) f;
+        pageFilters = scan.getPageFilters();
+        numPages = file.numPages();
+        stopped = false;
+        return (numPages + PAGES_PER_RANGE - 1) / PAGES_PER_RANGE;
+    }
+
+    /**
+     * Reads a morsel once {@link #openMorsels()} has been called, until the
+     * scan is closed. Called on a worker thread.
+     *
+     * @return the tuples of morsel r that satisfy the predicates
+     */
+    List<Tuple> read(int r) throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        int end = Math.min(numPages, (r + 1) * PAGES_PER_RANGE);
+        for (int p = r * PAGES_PER_RANGE; p < end && !stopped; p++) {
+            if (pageFilters.length > 0
+                    && !file.getZoneMap().mayMatch(p, pageFilters))
+                continue;
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, p), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (scan.accept(t))
+                    out.add(scan.project(t));
+            }
+        }
+        return out;
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (current == null || !current.hasNext()) {
+            List<Tuple> l = run.next();
+            if (l == null)
+                return null;
+            current = l.iterator();
+        }
+        return current.next();
+    }
+
+    public void close() {
+        super.close();
+        stopped = true;
+        if (run != null)
+            run.stop();
+        run = null;
+        current = null;
+        file = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // reads its table itself
+    }
+
+    /**
+     * Replaces each FusedScan of a HeapFile of more than one morsel of pages
+     * in a plan with a ParallelScan of it, except those a nested loops
+     * {@link Join} rescans for each tuple of its outer child.
+     *
+     * @param tid
+     *            the transaction the plan runs in
+     * @param plan
+     *            the plan to rewrite
+     * @param workers
+     *            the number of morsels each scan reads at once
+     * @return the plan, or the ParallelScan that replaces it
+     */
+    public static DbIterator parallelize(TransactionId tid, DbIterator plan,
+            int workers) {
+        return parallelize(tid, plan, workers, new HashSet<Producer>());
+    }
+
+    /**
+     * Rewrites a plan as {@link #parallelize(TransactionId, DbIterator, int)}
+     * does, skipping the producers in seen: a producer shared by several
+     * consumers is rewritten below the first only.
+     */
+    private static DbIterator parallelize(TransactionId tid, DbIterator plan,
+            int workers, Set<Producer> seen) {
+        if (plan instanceof Producer && !seen.add((Producer) plan))
+            return plan;
+        if (plan instanceof FusedScan) {
+            FusedScan fs = (FusedScan) plan;
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(fs.getTableName()));
+            if (f instanceof HeapFile
+                    && ((HeapFile) f).numPages() > PAGES_PER_RANGE)
+                return new ParallelScan(tid, fs, workers);
+            return plan;
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                children = Arrays.copyOf(children, children.length);
+                int n = op instanceof Join ? 1 : children.length;
+                for (int i = 0; i < n; i++)
+                    children[i] = parallelize(tid, children[i], workers,
+                            seen);
+                op.setChildren(children);
+            }
+        }
+        return plan;
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,24 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    /** run the operators that have a batch form on batches */
+    static boolean vectorize = false;
+    /** compile the predicates and projections of each plan */
+    static boolean compile = false;
+    /** run the scans and the aggregates of scans of each plan on the
+        workers of the MorselScheduler, and its hash joins and other grouped
+        aggregates on one thread per processor */
+    static boolean parallel = false;
+
+    /**
+     * Zql does not understand LIMIT, so a trailing "LIMIT n" is removed from
+     * a statement before it is handed to the ZqlParser.
+     */
+    static final Pattern LIMIT_PATTERN = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d{1,9})\\s*;?\\s*$");
+
+    /** The LIMIT of the statement being processed, or -1 if it has none */
+    private int limit = -1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -182,22 +202,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.addElement(groupByField);
                 System.out.println("GROUP BY FIELD : " + groupByField);
             }
 
@@ -207,8 +223,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +234,22 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
+                ZExp operand = ((ZExpression) si.getExpression()).getOperand(0);
+                if (!(operand instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
+                            "Expressions in aggregates are not supported.");
                 }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
-                        .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggField = ((ZConstant) operand).getValue();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +259,30 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), null);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -279,9 +297,23 @@ public class Parser {
         // and run it
         Query query = new Query(tId);
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
+        // rewritten before it is explained, so the plan shown is the one run
+        if (physicalPlan != null && vectorize)
+            physicalPlan = Vectorizer.vectorize(physicalPlan);
+        if (physicalPlan != null && compile)
+            physicalPlan = QueryCompiler.compile(physicalPlan);
+        if (physicalPlan != null && parallel) {
+            int n = MorselScheduler.numWorkers();
+            physicalPlan = ParallelAggregate.parallelize(tId, physicalPlan, n);
+            if (n > 1)
+                physicalPlan = Exchange.parallelize(physicalPlan, n);
+            physicalPlan = ParallelScan.parallelize(tId, physicalPlan, n);
+        }
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
@@ -297,8 +329,11 @@ public class Parser {
                         "updateOperatorCardinality", p, h, h);
 
                 System.out.println("The query plan is:");
-                m.invoke(null, (Operator) physicalPlan,
-                        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+                // a plan over a single table may be a FusedScan alone
+                if (physicalPlan instanceof Operator)
+                    m.invoke(null, (Operator) physicalPlan,
+                            lp.getTableAliasToIdMapping(),
+                            TableStats.getStatsMap());
                 c = Class.forName("simpledb.QueryPlanVisualizer");
                 m = c.getMethod(
                         "printQueryPlanTree", DbIterator.class, System.out.getClass());
@@ -317,7 +352,7 @@ public class Parser {
                 e.printStackTrace();
             }
         }
-        
+
         System.out.println("Finishing method\n");
 
         return query;
@@ -346,6 +381,9 @@ public class Parser {
         DbIterator newTups;
 
         if (s.getValues() != null) {
+            if (limit >= 0)
+                throw new simpledb.ParsingException(
+                        "LIMIT is not allowed in INSERT ... VALUES statements.");
             @SuppressWarnings("unchecked")
             Vector<ZExp> values = (Vector<ZExp>) s.getValues();
             if (td.numFields() != values.size()) {
@@ -390,6 +428,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (limit >= 0)
+                lp.addLimit(limit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -411,6 +451,9 @@ public class Parser {
             throw new simpledb.ParsingException("Unknown table : "
                     + s.getTable());
         }
+        if (limit >= 0)
+            throw new simpledb.ParsingException(
+                    "LIMIT is not allowed in DELETE statements.");
         String name = s.getTable();
         Query sdbq = new Query(tid);
 
@@ -468,12 +511,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s)
+                .getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -487,6 +533,25 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Removes a trailing LIMIT clause from the specified statement, recording
+     * its count so that it can be added to the logical plan once Zql has
+     * parsed the rest of the statement.
+     * 
+     * @param s
+     *            the statement text
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String s) {
+        Matcher m = LIMIT_PATTERN.matcher(s);
+        if (!m.matches()) {
+            limit = -1;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + ";";
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -506,7 +571,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                statement.write(buf, 0, n);
+            String text = stripLimit(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -584,11 +656,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -598,7 +670,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-vectorize] [-compile] [-parallel] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -618,9 +690,19 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-vectorize")) {
+                    vectorize = true;
+                    System.out.println("Vectorized execution enabled.");
+                } else if (argv[i].equals("-compile")) {
+                    compile = QueryCompiler.isAvailable();
+                    System.out.println(compile ? "Query compilation enabled."
+                            : "No Java compiler to compile queries with.");
+                } else if (argv[i].equals("-parallel")) {
+                    parallel = true;
+                    System.out.println("Parallel execution enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
-                    if (i++ == argv.length) {
+                    if (++i == argv.length) {
                         System.out.println("Expected file name after -f\n"
                                 + usage);
                         System.exit(0);
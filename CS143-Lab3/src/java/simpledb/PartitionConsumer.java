@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PartitionConsumer returns the tuples a {@link RepartitionProducer} or a
+ * {@link BroadcastProducer} sends to one of its consumers.
+ * <p>
+ * As the producer is shared, it waits for whichever of its consumers reads
+ * slowest, and cannot be run again for one consumer alone. A consumer can
+ * therefore keep the tuples it reads in a {@link TupleBuffer}, which spills
+ * them to disk past {@link Exchange#SPOOL_TUPLES}:
+ * <ul>
+ * <li>a buffered consumer reads its whole output as soon as it is opened,
+ * so that the producer never waits on the operator above it, such as a
+ * {@link HashEquiJoin} that stops reading its first input when its hash
+ * table is full;
+ * <li>any consumer keeps the tuples it reads from the time {@link #spool}
+ * is called, such as the input a HashEquiJoin probes once for every part
+ * of its other input it hashes, and returns them again when rewound.
+ * </ul>
+ */
+public class PartitionConsumer extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Producer producer;
+    private final int partition;
+    private final boolean buffered;
+
+    /** the tuples kept since the consumer was opened, or null */
+    private transient TupleBuffer spool;
+    /** whether a batch has been returned without being kept */
+    private transient boolean dropped;
+
+    /**
+     * Constructor.
+     *
+     * @param producer
+     *            the producer, which may be shared with other consumers
+     * @param partition
+     *            the index of the producer's output to read
+     * @param buffered
+     *            whether to read the whole output when opened, keeping it
+     *            to be returned and rewound at the pace of the operator
+     *            above
+     */
+    public PartitionConsumer(Producer producer, int partition,
+            boolean buffered) {
+        this.producer = producer;
+        this.partition = partition;
+        this.buffered = buffered;
+    }
+
+    /**
+     * @return the index of the producer's output read
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    public String getName() {
+        return "partition " + partition;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producer.getTupleDesc();
+    }
+
+    protected ExchangeQueue openProducers() throws DbException,
+            TransactionAbortedException {
+        spool = null;
+        dropped = false;
+        producer.open(partition);
+        ExchangeQueue queue = producer.getOutput(partition);
+        if (buffered) {
+            spool = new TupleBuffer(getTupleDesc(), SPOOL_TUPLES);
+            try {
+                for (List<Tuple> b = queue.take(); b != null; b = queue.take())
+                    spool.add(b);
+            } catch (DbException e) {
+                closeProducers();
+                throw e;
+            } catch (TransactionAbortedException e) {
+                closeProducers();
+                throw e;
+            }
+            spool.rewind();
+        }
+        return queue;
+    }
+
+    protected void closeProducers() {
+        if (spool != null)
+            spool.close();
+        spool = null;
+        producer.close(partition);
+    }
+
+    /**
+     * Keeps the tuples read from now on, so that the consumer can be rewound
+     * while the other consumers of the producer read on. A HashEquiJoin
+     * calls this before probing this input when its other input does not
+     * fit in its hash table, so it will probe this one again.
+     *
+     * @throws IllegalStateException
+     *             if the consumer has returned tuples it did not keep
+     */
+    public void spool() {
+        if (spool != null)
+            return;
+        if (dropped)
+            throw new IllegalStateException(getName()
+                    + " has returned tuples it did not keep");
+        spool = new TupleBuffer(getTupleDesc(), SPOOL_TUPLES);
+    }
+
+    protected List<Tuple> nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (spool == null) {
+            List<Tuple> b = super.nextBatch();
+            dropped |= b != null;
+            return b;
+        }
+        List<Tuple> b = spool.next();
+        if (b != null)
+            return b;
+        b = super.nextBatch();
+        if (b != null)
+            spool.add(b);
+        return b;
+    }
+
+    protected boolean replay() {
+        if (spool == null)
+            return false;
+        spool.rewind();
+        return true;
+    }
+
+    /**
+     * @throws DbException
+     *             if the consumer has not kept the tuples it returned and
+     *             the producer has other consumers, which read the same run
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spool == null && producer.numOutputs() > 1)
+            throw new DbException("cannot rewind " + getName() + " of "
+                    + producer.getName() + ", which its other consumers read");
+        super.rewind();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { producer };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        producer = (Producer) children[0];
+    }
+}
@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Producer runs its child on a thread of its own, and sends the child's
+ * tuples in batches to one or more {@link ExchangeQueue}s, which subclasses
+ * choose the tuples of. A producer is read through its {@link Consumer}s
+ * rather than as an iterator: each of them opens it for the output it
+ * reads. A run of the child starts when the first consumer opens the
+ * producer, and consumers that open it while the run is under way read the
+ * same run. The run stops once every consumer that opened it has closed it
+ * again, even if some outputs were never opened, so a query that stops
+ * early or fails leaves no thread behind; a consumer that opens the
+ * producer after that starts a new run, once the thread of the last has
+ * stopped.
+ */
+public abstract class Producer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    /**
+     * Held while a run is started or stopped; an empty array, as a plain
+     * Object is not serializable
+     */
+    private final Object[] lifecycle = new Object[0];
+    private transient ExchangeQueue[] outputs;
+    /** whether each output has been opened in the current run */
+    private transient boolean[] taken;
+    /** whether the consumer of each output has closed the current run */
+    private transient boolean[] closed;
+    private transient Thread thread;
+    private transient int opens;
+    private transient volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator whose tuples are sent
+     */
+    public Producer(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the queues the tuples are sent to, created for a new run of
+     *         the child
+     */
+    protected abstract ExchangeQueue[] createOutputs();
+
+    /**
+     * @return the number of outputs, each read by one consumer
+     */
+    public abstract int numOutputs();
+
+    /**
+     * Adds t to the batches of the outputs it is sent to.
+     *
+     * @param t
+     *            a tuple of the child
+     * @param batches
+     *            the batch being filled for each output
+     */
+    protected abstract void route(Tuple t, List<List<Tuple>> batches);
+
+    /**
+     * @return the i-th queue the tuples are sent to, while the producer is
+     *         open
+     */
+    public synchronized ExchangeQueue getOutput(int i) {
+        return outputs[i];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * Opens the only output of the producer.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        open(0);
+    }
+
+    /**
+     * Opens the producer for the consumer of an output, starting a run of
+     * the child if none is under way, once the thread of the last run has
+     * stopped.
+     *
+     * @throws DbException
+     *             if the output has already been opened in the current run,
+     *             which other consumers still have open
+     */
+    public void open(int output) throws DbException,
+            TransactionAbortedException {
+        synchronized (lifecycle) {
+            synchronized (this) {
+                if (thread != null) {
+                    if (taken[output])
+                        throw new DbException("output " + output + " of "
+                                + getName()
+                                + " cannot be read again while its other"
+                                + " consumers read the same run");
+                    taken[output] = true;
+                    opens++;
+                    return;
+                }
+                outputs = createOutputs();
+                taken = new boolean[outputs.length];
+                closed = new boolean[outputs.length];
+                taken[output] = true;
+                opens = 1;
+                stopped = false;
+                thread = new Thread(new Runnable() {
+                    public void run() {
+                        produce();
+                    }
+                }, getName());
+                thread.setDaemon(true);
+                thread.start();
+                super.open();
+            }
+        }
+    }
+
+    private void produce() {
+        ExchangeQueue[] out = outputs;
+        ArrayList<List<Tuple>> batches = new ArrayList<List<Tuple>>(
+                out.length);
+        for (int i = 0; i < out.length; i++)
+            batches.add(new ArrayList<Tuple>(BATCH_SIZE));
+        try {
+            child.open();
+            try {
+                while (!stopped && child.hasNext()) {
+                    route(child.next(), batches);
+                    for (int i = 0; i < out.length; i++) {
+                        if (batches.get(i).size() < BATCH_SIZE)
+                            continue;
+                        if (!out[i].put(batches.get(i)) && allClosed(out))
+                            return;
+                        batches.set(i, new ArrayList<Tuple>(BATCH_SIZE));
+                    }
+                }
+                for (int i = 0; i < out.length; i++)
+                    if (!batches.get(i).isEmpty())
+                        out[i].put(batches.get(i));
+            } finally {
+                child.close();
+            }
+            for (ExchangeQueue q : out)
+                q.finish();
+        } catch (Throwable e) {
+            for (ExchangeQueue q : out)
+                q.fail(e);
+        }
+    }
+
+    private static boolean allClosed(ExchangeQueue[] queues) {
+        for (ExchangeQueue q : queues)
+            if (!q.isClosed())
+                return false;
+        return true;
+    }
+
+    /**
+     * Producers are read through their consumers' queues
+     */
+    protected Tuple fetchNext() {
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("a producer is rewound through its consumers");
+    }
+
+    /**
+     * Closes the only output of the producer.
+     */
+    public void close() {
+        close(0);
+    }
+
+    /**
+     * Closes the producer for the consumer of an output, whose queue then
+     * drops the tuples sent to it. Once every consumer that opened the run
+     * has closed it, closes the other queues and waits for the thread of the
+     * run to stop, which it does before reading the next tuple of its child.
+     */
+    public void close(int output) {
+        synchronized (lifecycle) {
+            Thread t;
+            synchronized (this) {
+                if (thread == null || !taken[output] || closed[output])
+                    return;
+                closed[output] = true;
+                outputs[output].close();
+                if (--opens > 0)
+                    return;
+                super.close();
+                for (ExchangeQueue q : outputs)
+                    q.close();
+                stopped = true;
+                t = thread;
+                thread = null;
+            }
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of consumers that have the producer open
+     */
+    public synchronized int numOpen() {
+        return opens;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
@@ -45,6 +45,17 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the fields of the child's TupleDesc projected out,
+     *         in output order
+     */
+    public int[] getOutFields() {
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = outFieldIds.get(i);
+        return fields;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+import javax.tools.*;
+
+/**
+ * QueryCompiler generates a class for each conjunction of predicates and
+ * each projection of a plan, with the field accesses, casts and comparisons
+ * written out for the fields, types and operators at hand, and compiles it
+ * with the system Java compiler. A {@link CompiledFilter} or
+ * {@link CompiledProject} then evaluates a row with one call to straight-line
+ * code rather than through Predicate.filter, Field.compare and its switch on
+ * the operator, so the JIT sees monomorphic code per query.
+ * <p>
+ * The constants of the predicates are passed to the constructor of the
+ * generated class rather than written into it, so a class is compiled once
+ * per shape of predicate and reused by every query with that shape. When
+ * no compiler is available, as on a JRE, or a predicate compares fields of
+ * different types, nothing is generated and the plan is left as it is.
+ */
+public class QueryCompiler {
+
+    /** A conjunction of predicates, generated by the QueryCompiler */
+    public interface CompiledPredicate {
+        /** @return true if t satisfies every predicate */
+        public boolean filter(Tuple t);
+    }
+
+    /** A projection, generated by the QueryCompiler */
+    public interface CompiledProjection {
+        /** @return a new tuple of the projected fields of t */
+        public Tuple project(Tuple t);
+    }
+
+    /** the generated classes, by their source with no class name */
+    private static final HashMap<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private static int numClasses = 0;
+
+    /**
+     * @return true if the system Java compiler is available
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Replaces each chain of Filters of a plan whose predicates compare a
+     * field with a constant of its type with a {@link CompiledFilter}, and
+     * each Project with a {@link CompiledProject}. A {@link FusedScan} keeps
+     * its place, and tests its predicates and projects its tuples with the
+     * classes generated for them.
+     * 
+     * @return the plan, or the operator that replaces it
+     */
+    public static DbIterator compile(DbIterator plan) {
+        if (plan instanceof FusedScan) {
+            FusedScan fs = (FusedScan) plan;
+            int[] out = fs.getOutFields();
+            fs.setCompiled(predicate(fs.getPredicates(),
+                    fs.getScanTupleDesc()), out == null ? null : projection(
+                    out, fs.getTupleDesc()));
+            return plan;
+        }
+        if (plan instanceof Filter) {
+            ArrayList<Predicate> preds = new ArrayList<Predicate>();
+            DbIterator child = plan;
+            while (child instanceof Filter) {
+                preds.add(((Filter) child).getPredicate());
+                child = ((Filter) child).getChildren()[0];
+            }
+            child = compile(child);
+            // the innermost filter first, as it was applied
+            Collections.reverse(preds);
+            Predicate[] p = preds.toArray(new Predicate[0]);
+            CompiledPredicate cp = predicate(p, child.getTupleDesc());
+            if (cp != null)
+                return new CompiledFilter(p, cp, child);
+            // keep the chain, with its child compiled
+            Filter lowest = (Filter) plan;
+            while (lowest.getChildren()[0] instanceof Filter)
+                lowest = (Filter) lowest.getChildren()[0];
+            lowest.setChildren(new DbIterator[] { child });
+            return plan;
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                children = Arrays.copyOf(children, children.length);
+                for (int i = 0; i < children.length; i++)
+                    children[i] = compile(children[i]);
+                op.setChildren(children);
+            }
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            CompiledProjection cp = projection(p.getOutFields(),
+                    p.getTupleDesc());
+            if (cp != null)
+                return new CompiledProject(p.getOutFields(), cp,
+                        p.getTupleDesc(), p.getChildren()[0]);
+        }
+        return plan;
+    }
+
+    /** @return the Java expression reading field i of t as a value */
+    private static String value(Type type, int i) {
+        if (type == Type.INT_TYPE)
+            return "((simpledb.IntField) t.getField(" + i + ")).getValue()";
+        return "((simpledb.StringField) t.getField(" + i + ")).getValue()";
+    }
+
+    /** @return the Java expression comparing a field with constant c */
+    private static String comparison(Type type, int field, Predicate.Op op,
+            String c) {
+        String v = value(type, field);
+        if (type == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return v + " == " + c;
+            case NOT_EQUALS:
+                return v + " != " + c;
+            case GREATER_THAN:
+                return v + " > " + c;
+            case GREATER_THAN_OR_EQ:
+                return v + " >= " + c;
+            case LESS_THAN:
+                return v + " < " + c;
+            default:
+                return v + " <= " + c;
+            }
+        }
+        switch (op) {
+        case EQUALS:
+            return v + ".equals(" + c + ")";
+        case NOT_EQUALS:
+            return "!" + v + ".equals(" + c + ")";
+        case LIKE:
+            return v + ".indexOf(" + c + ") >= 0";
+        case GREATER_THAN:
+            return v + ".compareTo(" + c + ") > 0";
+        case GREATER_THAN_OR_EQ:
+            return v + ".compareTo(" + c + ") >= 0";
+        case LESS_THAN:
+            return v + ".compareTo(" + c + ") < 0";
+        default:
+            return v + ".compareTo(" + c + ") <= 0";
+        }
+    }
+
+    /**
+     * Returns the compiled conjunction of predicates over tuples of td, or
+     * null if one of them compares a field with a constant of another type
+     * or the class cannot be compiled.
+     */
+    public static CompiledPredicate predicate(Predicate[] preds, TupleDesc td) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder init = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < preds.length; i++) {
+            Predicate p = preds[i];
+            Type type = td.getFieldType(p.getField());
+            if (p.getOperand() == null || p.getOperand().getType() != type)
+                return null;
+            String javaType = type == Type.INT_TYPE ? "int" : "String";
+            String cast = type == Type.INT_TYPE ? "simpledb.IntField"
+                    : "simpledb.StringField";
+            fields.append("    private final " + javaType + " c" + i + ";\n");
+            init.append("        c" + i + " = ((" + cast + ") consts[" + i
+                    + "]).getValue();\n");
+            body.append(i == 0 ? "        return " : "\n            && ");
+            body.append(comparison(type, p.getField(), p.getOp(), "c" + i));
+        }
+        if (preds.length == 0)
+            body.append("        return true");
+        String source = "public final class %s implements "
+                + "simpledb.QueryCompiler.CompiledPredicate {\n" + fields
+                + "    public %s(simpledb.Field[] consts) {\n" + init
+                + "    }\n"
+                + "    public boolean filter(simpledb.Tuple t) {\n" + body
+                + ";\n    }\n}\n";
+        Field[] consts = new Field[preds.length];
+        for (int i = 0; i < preds.length; i++)
+            consts[i] = preds[i].getOperand();
+        return (CompiledPredicate) instantiate(source, Field[].class, consts);
+    }
+
+    /**
+     * Returns the compiled projection of fields into tuples of td, or null
+     * if the class cannot be compiled.
+     */
+    public static CompiledProjection projection(int[] fields, TupleDesc td) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < fields.length; i++)
+            body.append("        o.setField(" + i + ", t.getField("
+                    + fields[i] + "));\n");
+        String source = "public final class %s implements "
+                + "simpledb.QueryCompiler.CompiledProjection {\n"
+                + "    private final simpledb.TupleDesc td;\n"
+                + "    public %s(simpledb.TupleDesc td) {\n"
+                + "        this.td = td;\n" + "    }\n"
+                + "    public simpledb.Tuple project(simpledb.Tuple t) {\n"
+                + "        simpledb.Tuple o = new simpledb.Tuple(td);\n"
+                + "        o.setRecordId(t.getRecordId());\n" + body
+                + "        return o;\n" + "    }\n}\n";
+        return (CompiledProjection) instantiate(source, TupleDesc.class, td);
+    }
+
+    /**
+     * Compiles the class of a source, unless one was already compiled from
+     * it, and creates an instance.
+     * 
+     * @param source
+     *            the source, with %s in place of the class name
+     * @return the instance, or null if the class cannot be compiled
+     */
+    private static Object instantiate(String source, Class<?> argType,
+            Object arg) {
+        try {
+            Class<?> c;
+            synchronized (classes) {
+                c = classes.get(source);
+                if (c == null && !classes.containsKey(source)) {
+                    c = compileClass(source);
+                    classes.put(source, c);
+                }
+            }
+            if (c == null)
+                return null;
+            return c.getConstructor(argType).newInstance(arg);
+        } catch (Exception e) {
+            Debug.log("QueryCompiler: could not instantiate %s", e);
+            return null;
+        }
+    }
+
+    /** A class file held in memory */
+    private static class ClassBytes extends SimpleJavaFileObject {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassBytes(String name) {
+            super(URI.create("bytes:///" + name + Kind.CLASS.extension),
+                    Kind.CLASS);
+        }
+
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    /** A source file held in memory */
+    private static class Source extends SimpleJavaFileObject {
+        final String code;
+
+        Source(String name, String code) {
+            super(URI.create("string:///" + name + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            this.code = code;
+        }
+
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /** @return the compiled class, or null if it cannot be compiled */
+    private static Class<?> compileClass(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+        final String name = "CompiledQuery" + numClasses++;
+        final HashMap<String, ClassBytes> out = new HashMap<String, ClassBytes>();
+        JavaFileManager fm = new ForwardingJavaFileManager<StandardJavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            public JavaFileObject getJavaFileForOutput(Location location,
+                    String className, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                ClassBytes cb = new ClassBytes(className);
+                out.put(className, cb);
+                return cb;
+            }
+        };
+        StringWriter errors = new StringWriter();
+        List<String> options = Arrays.asList("-classpath",
+                System.getProperty("java.class.path"));
+        boolean ok = compiler.getTask(errors, fm, null, options, null,
+                Arrays.asList(new Source(name, String.format(source, name,
+                        name)))).call();
+        if (!ok) {
+            Debug.log("QueryCompiler: could not compile %s: %s", name, errors);
+            return null;
+        }
+        ClassLoader loader = new ClassLoader(QueryCompiler.class
+                .getClassLoader()) {
+            protected Class<?> findClass(String n)
+                    throws ClassNotFoundException {
+                ClassBytes cb = out.get(n);
+                if (cb == null)
+                    throw new ClassNotFoundException(n);
+                byte[] b = cb.bytes.toByteArray();
+                return defineClass(n, b, 0, b.length);
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -2,38 +2,120 @@ package simpledb;
 
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import simpledb.TupleDesc.TDItem;
 
 public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "iscan";
+    static final String BITMAP_SCAN = "bscan";
+    static final String INDEX_ONLY_SCAN = "ioscan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
+    static final String STREAM_GROUPBY = "g(sorted)";
+    static final String PARALLEL_GROUPBY = "g(parallel)";
+    static final String PARALLEL_SCAN = "pscan";
+    static final String COMPILED_SELECT = "σ(compiled)";
+    static final String COMPILED_PROJECT = "π(compiled)";
+    static final String BATCH_SCAN = "vscan";
+    static final String BATCH_SELECT = "σ(vec)";
+    static final String BATCH_PROJECT = "π(vec)";
+    static final String BATCH_HASH_JOIN = "⨝(vec hash)";
+    static final String BATCH_GROUPBY = "g(vec)";
+    static final String BATCH = "batch";
+    static final String UNBATCH = "unbatch";
     static final String SPACE = "  ";
 
-    private int calculateQueryPlanTreeDepth(DbIterator root) {
+    /**
+     * The producers met so far in a walk of the plan; a producer shared by
+     * several consumers is drawn above its child under the first only
+     */
+    private Set<Producer> producers = new HashSet<Producer>();
+
+    /**
+     * @return the children a node is drawn above, each a DbIterator or a
+     *         BatchIterator: the batch plan of an Unbatcher, the operator a
+     *         Batcher reads, none for a producer met before in the walk, and
+     *         the children of any other operator
+     */
+    private Object[] childrenOf(Object node) {
+        if (node instanceof Producer && !producers.add((Producer) node))
+            return new Object[1];
+        if (node instanceof Unbatcher)
+            return new Object[] { ((Unbatcher) node).getBatchChild() };
+        if (node instanceof Batcher)
+            return new Object[] { ((Batcher) node).getChild() };
+        if (node instanceof BatchIterator)
+            return ((BatchIterator) node).getChildren();
+        return ((Operator) node).getChildren();
+    }
+
+    /**
+     * @return the TupleDesc of a node, a DbIterator or a BatchIterator
+     */
+    private static TupleDesc tupleDescOf(Object node) {
+        if (node instanceof BatchIterator)
+            return ((BatchIterator) node).getTupleDesc();
+        return ((DbIterator) node).getTupleDesc();
+    }
+
+    /**
+     * @return true if it is drawn as a scan: a table scan, or the
+     *         ParallelScan or BatchSeqScan of a FusedScan or SeqScan
+     */
+    private static boolean isScan(Object it) {
+        return it instanceof SeqScan || it instanceof IndexScan
+                || it instanceof BitmapHeapScan
+                || it instanceof IndexOnlyScan || it instanceof ParallelScan
+                || it instanceof BatchSeqScan;
+    }
+
+    /**
+     * @return the names of the fields of td, separated by commas
+     */
+    private static String fieldNames(TupleDesc td) {
+        String names = "";
+        Iterator<TDItem> it = td.iterator();
+        while (it.hasNext())
+            names += (names.length() > 0 ? "," : "") + it.next().fieldName;
+        return names;
+    }
+
+    private static String orderFieldNames(TupleDesc td, int[] fields) {
+        String names = "";
+        for (int i = 0; i < fields.length; i++)
+            names += (i > 0 ? "," : "") + td.getFieldName(fields[i]);
+        return names;
+    }
+
+    private int calculateQueryPlanTreeDepth(Object root) {
         if (root == null)
             return 0;
 
-        if (!(root instanceof Operator))
+        if (!(root instanceof Operator) && !(root instanceof BatchIterator))
             return 2;
-        Operator o = (Operator) root;
-        DbIterator[] children = o.getChildren();
+        Object[] children = childrenOf(root);
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (root instanceof Join || root instanceof HashEquiJoin
+                || children.length == 2 && root instanceof BatchIterator) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
         else
         {
-            if (children!=null && children[0]!=null)
+            if (children!=null && children.length > 0 && children[0]!=null)
                 return this.calculateQueryPlanTreeDepth(children[0])+2;
         }
         return 2;
@@ -57,7 +139,7 @@ public class QueryPlanVisualizer {
     }
 
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
-            DbIterator queryPlan, int currentStartPosition,
+            Object queryPlan, int currentStartPosition,
             int parentUpperBarStartShift) {
         if (queryPlan == null)
             return null;
@@ -65,30 +147,98 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
-//            TupleDesc td = s.getTupleDesc();
+        if (isScan(queryPlan)) {
+            String scan = SCAN;
+            if (queryPlan instanceof ParallelScan) {
+                scan = PARALLEL_SCAN;
+                queryPlan = ((ParallelScan) queryPlan).getScan();
+            } else if (queryPlan instanceof BatchSeqScan) {
+                scan = BATCH_SCAN;
+                queryPlan = ((BatchSeqScan) queryPlan).getScan();
+            }
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof BitmapHeapScan) {
+                BitmapHeapScan s = (BitmapHeapScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof IndexOnlyScan) {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            if (queryPlan instanceof FusedScan) {
+                FusedScan s = (FusedScan) queryPlan;
+                TupleDesc td = s.getScanTupleDesc();
+                String preds = "";
+                for (Predicate p : s.getPredicates())
+                    preds += " AND " + td.getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+                String fields = "";
+                if (s.getOutFields() != null) {
+                    Iterator<TDItem> it = s.getTupleDesc().iterator();
+                    while (it.hasNext())
+                        fields += "," + it.next().fieldName;
+                    fields = ", " + PROJECT + "(" + fields.substring(1) + ")";
+                }
+                thisNode.text = String.format("%1$s(%2$s%3$s%4$s)", scan,
+                        tableName + alias, preds.length() == 0 ? ""
+                                : ", " + preds.substring(5), fields);
+            } else if (queryPlan instanceof SeqScan) {
+                thisNode.text = String
+                        .format("%1$s(%2$s)", scan, tableName + alias);
+            } else if (queryPlan instanceof BitmapHeapScan) {
+                BitmapHeapScan s = (BitmapHeapScan) queryPlan;
+                TupleDesc td = s.getTupleDesc();
+                String preds = "";
+                for (Predicate p : s.getPredicates())
+                    preds += (preds.length() == 0 ? "" : s.isDisjunction()
+                            ? " OR " : " AND ")
+                            + td.getFieldName(p.getField()) + p.getOp()
+                            + p.getOperand();
+                thisNode.text = String.format("%1$s(%2$s, %3$s)", BITMAP_SCAN,
+                        tableName + alias, preds);
+            } else if (queryPlan instanceof IndexOnlyScan) {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                IndexPredicate ipred = s.getIndexPredicate();
+                String key = s.getTupleDesc().getFieldName(s.getKeyField());
+                thisNode.text = String.format("%1$s(%2$s%3$s)",
+                        INDEX_ONLY_SCAN, tableName + alias, ipred == null ? ""
+                                : ", " + key + ipred.getOp() + ipred.getField());
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                IndexPredicate ipred = s.getIndexPredicate();
+                String key = s.getTupleDesc().getFieldName(s.getKeyField());
+                thisNode.text = String.format("%1$s(%2$s%3$s)", INDEX_SCAN,
+                        tableName + alias, ipred == null ? "" : ", " + key
+                                + ipred.getOp() + ipred.getField());
+            }
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
             thisNode.width = thisNode.textStartPosition - currentStartPosition
                     + thisNode.text.length();
-            int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
+            // a scan may be the whole plan, as a FusedScan can be
+            int embedHeight = Math.max(0,
+                    (queryPlanDepth - currentDepth) / 2 - 1);
             thisNode.height = currentDepth + 2 * embedHeight;
             int currentHeight = thisNode.height;
             SubTreeDescriptor parentNode = thisNode;
@@ -102,10 +252,75 @@ public class QueryPlanVisualizer {
                 currentHeight -= 2;
             }
             thisNode = parentNode;
+        } else if (queryPlan instanceof BatchIterator) {
+            BatchIterator b = (BatchIterator) queryPlan;
+            Object[] children = childrenOf(b);
+            String alignTxt;
+            if (b instanceof BatchHashEquiJoin) {
+                JoinPredicate jp = ((BatchHashEquiJoin) b)
+                        .getJoinPredicate();
+                TupleDesc td = b.getTupleDesc();
+                thisNode.text = String.format("%1$s(%2$s)",
+                        BATCH_HASH_JOIN, td.getFieldName(jp.getField1())
+                                + jp.getOperator()
+                                + td.getFieldName(jp.getField2()
+                                        + tupleDescOf(children[0])
+                                                .numFields()));
+                int upBarShift = parentUpperBarStartShift;
+                if (JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = JOIN.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width
+                                + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - JOIN.length() / 2;
+                thisNode.width = Math.max(left.width + right.width
+                        + SPACE.length(), thisNode.textStartPosition
+                        + thisNode.text.length() - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
+                return thisNode;
+            }
+            if (b instanceof BatchFilter) {
+                Predicate p = ((BatchFilter) b).getPredicate();
+                thisNode.text = String.format("%1$s(%2$s)", BATCH_SELECT,
+                        tupleDescOf(children[0]).getFieldName(
+                                p.getField()) + p.getOp() + p.getOperand());
+                alignTxt = SELECT;
+            } else if (b instanceof BatchProject) {
+                thisNode.text = String.format("%1$s(%2$s)", BATCH_PROJECT,
+                        fieldNames(b.getTupleDesc()));
+                alignTxt = PROJECT;
+            } else if (b instanceof BatchAggregate) {
+                TupleDesc td = b.getTupleDesc();
+                int groups = ((BatchAggregate) b).groupFields().length;
+                String names = "";
+                for (int i = 0; i < groups; i++)
+                    names += (i > 0 ? "," : "") + td.getFieldName(i);
+                String aggs = "";
+                for (int i = groups; i < td.numFields(); i++)
+                    aggs += (aggs.length() > 0 ? "," : "")
+                            + td.getFieldName(i);
+                thisNode.text = String.format("%1$s(%2$s), %3$s",
+                        BATCH_GROUPBY, names, aggs);
+                alignTxt = GROUPBY;
+            } else {
+                thisNode.text = BATCH;
+                alignTxt = BATCH;
+            }
+            unaryNode(thisNode, alignTxt, queryPlanDepth, currentDepth,
+                    adjustDepth, children[0], currentStartPosition,
+                    parentUpperBarStartShift);
         } else {
 
             Operator plan = (Operator) queryPlan;
-            DbIterator[] children = plan.getChildren();
+            Object[] children = childrenOf(plan);
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
@@ -113,7 +328,7 @@ public class QueryPlanVisualizer {
                 JoinPredicate jp = j.getJoinPredicate();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
+                        + tupleDescOf(children[0]).numFields());
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
                         field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
@@ -142,9 +357,11 @@ public class QueryPlanVisualizer {
                 TupleDesc td = j.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                        + tupleDescOf(children[0]).numFields());
+                thisNode.text = String.format("%1$s(%2$s%3$s),card:%4$d",
+                        HASH_JOIN, field1 + jp.getOperator() + field2,
+                        j.usesBloomFilter() ? ",bloom" : "",
+                        j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -165,21 +382,57 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof IndexNestedLoopJoin) {
+                IndexNestedLoopJoin j = (IndexNestedLoopJoin) plan;
+                JoinPredicate jp = j.getJoinPredicate();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d",
+                        INDEX_JOIN, j.getJoinField1Name() + jp.getOperator()
+                                + j.getJoinField2Name(),
+                        j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (INDEX_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = INDEX_JOIN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - INDEX_JOIN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
+            else if (plan instanceof Aggregate || plan instanceof StreamAggregate
+                    || plan instanceof ParallelAggregate) {
+                Operator a = (Operator) plan;
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                int[] gfields = plan instanceof Aggregate ? ((Aggregate) plan)
+                        .groupFields()
+                        : plan instanceof ParallelAggregate ? ((ParallelAggregate) plan)
+                                .groupFields() : ((StreamAggregate) plan)
+                                .groupFields();
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                // the aggregates are the output fields after the group by fields
+                String aggs = "";
+                for (int i = gfields.length; i < td.numFields(); i++)
+                    aggs += (aggs.length() > 0 ? "," : "") + td.getFieldName(i);
+                if (gfields.length == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String groups = "";
+                    for (int i = 0; i < gfields.length; i++)
+                        groups += (i > 0 ? "," : "") + td.getFieldName(i);
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            plan instanceof StreamAggregate ? STREAM_GROUPBY
+                                    : plan instanceof ParallelAggregate ? PARALLEL_GROUPBY
+                                            : GROUPBY, groups, aggs,
+                            a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -199,8 +452,8 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, tupleDescOf(children[0])
+                        .getFieldName(p.getField())
                         + p.getOp()
                         + p.getOperand(),f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
@@ -222,8 +475,8 @@ public class QueryPlanVisualizer {
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        orderFieldNames(tupleDescOf(children[0]),
+                                o.getOrderByFields()),o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +491,49 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$s,%3$d),card:%4$d",
+                        TOPN,
+                        orderFieldNames(tupleDescOf(children[0]),
+                                o.getOrderByFields()), o.getLimit(),
+                        o.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (TOPN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = TOPN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - TOPN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit o = (Limit) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$d),card:%3$d",
+                        LIMIT,
+                        o.getLimit(),
+                        o.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,6 +557,32 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof CompiledFilter) {
+                CompiledFilter f = (CompiledFilter) plan;
+                String preds = "";
+                for (Predicate p : f.getPredicates())
+                    preds += (preds.length() > 0 ? " AND " : "")
+                            + tupleDescOf(children[0]).getFieldName(
+                                    p.getField()) + p.getOp() + p.getOperand();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d",
+                        COMPILED_SELECT, preds, f.getEstimatedCardinality());
+                unaryNode(thisNode, SELECT, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof CompiledProject) {
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d",
+                        COMPILED_PROJECT, fieldNames(plan.getTupleDesc()),
+                        plan.getEstimatedCardinality());
+                unaryNode(thisNode, PROJECT, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof Unbatcher) {
+                thisNode.text = String.format("%1$s,card:%2$d", UNBATCH,
+                        plan.getEstimatedCardinality());
+                unaryNode(thisNode, UNBATCH, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            }
             else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
@@ -334,6 +656,28 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /**
+     * Lays out a node drawn above one child, its text aligned on alignTxt
+     * as the operators of a plan before it is rewritten are
+     */
+    private void unaryNode(SubTreeDescriptor thisNode, String alignTxt,
+            int queryPlanDepth, int currentDepth, int adjustDepth,
+            Object child, int currentStartPosition,
+            int parentUpperBarStartShift) {
+        int upBarShift = parentUpperBarStartShift;
+        if (alignTxt.length() / 2 > parentUpperBarStartShift)
+            upBarShift = alignTxt.length() / 2;
+        SubTreeDescriptor c = this.buildTree(queryPlanDepth, currentDepth + 2
+                + adjustDepth, child, currentStartPosition, upBarShift);
+        thisNode.upBarPosition = c.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - alignTxt.length() / 2;
+        thisNode.width = Math.max(c.width, thisNode.textStartPosition
+                + thisNode.text.length() - currentStartPosition);
+        thisNode.leftChild = c;
+        thisNode.height = currentDepth;
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
@@ -360,8 +704,10 @@ public class QueryPlanVisualizer {
     }
 
     public String getQueryPlanTree(DbIterator physicalPlan) {
+        producers.clear();
         int queryPlanDepth = this.calculateQueryPlanTreeDepth(physicalPlan) - 1;
 
+        producers.clear();
         SubTreeDescriptor root = this.buildTree(queryPlanDepth, 0,
                 physicalPlan, 0, 0);
         char[] buffer = new char[queryPlanDepth * (root.width + 1)];
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * RepartitionProducer splits the tuples of its child among a number of
+ * partitions by the hash of one of their fields, so that the tuples with
+ * equal values of the field, in this and any other RepartitionProducer
+ * with the same number of partitions, are all in the same partition. Each
+ * partition is read by a {@link PartitionConsumer}.
+ */
+public class RepartitionProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+    private final int partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator whose tuples are split
+     * @param field
+     *            the field of the child's tuples to split them by
+     * @param partitions
+     *            the number of partitions
+     */
+    public RepartitionProducer(DbIterator child, int field, int partitions) {
+        super(child);
+        this.field = field;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return the field the tuples are split by
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the partition of n that tuples with value f of their field
+     *         are sent to
+     */
+    public static int partition(Field f, int n) {
+        // spread the hash over the partitions by its high bits, so that keys
+        // hashed again within a partition still use all of a table's buckets
+        long h = (f.hashCode() * 0x9E3779B9L) & 0xffffffffL;
+        return (int) ((h * n) >>> 32);
+    }
+
+    public String getName() {
+        return "repartition(" + getTupleDesc().getFieldName(field) + ","
+                + partitions + ")";
+    }
+
+    public int numOutputs() {
+        return partitions;
+    }
+
+    protected ExchangeQueue[] createOutputs() {
+        ExchangeQueue[] q = new ExchangeQueue[partitions];
+        for (int i = 0; i < partitions; i++)
+            q[i] = new ExchangeQueue(QUEUE_BATCHES, 1);
+        return q;
+    }
+
+    protected void route(Tuple t, List<List<Tuple>> batches) {
+        batches.get(partition(t.getField(field), partitions)).add(t);
+    }
+}
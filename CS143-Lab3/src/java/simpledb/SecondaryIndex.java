@@ -0,0 +1,298 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SecondaryIndex is the common part of the indexes over a field of a table
+ * stored in a {@link HeapFile}. They keep a file of (key, page, slot)
+ * entries, one for each tuple of the table, so the tuples matching a
+ * predicate on the field can be fetched by their RecordIds instead of by
+ * scanning the table. Subclasses choose how the entries are organized, and so
+ * which predicates they can find the entries for.
+ * <p>
+ * An index can also store the values of other fields of the tuple in each
+ * entry, between the key and the RecordId, so that its entries are (key,
+ * included fields..., page, slot) in the order of its include list. A query
+ * that only refers to the fields an index covers can then be answered from
+ * the entries alone, through an {@link IndexOnlyScan}, without reading any
+ * page of the table.
+ * <p>
+ * The entries are only valid as long as tuples do not move, which is why the
+ * table has to be a HeapFile.
+ */
+public abstract class SecondaryIndex implements DbIndex {
+
+    /** The number of entries added by {@link #build} between flushes */
+    static final int BUILD_FLUSH_INTERVAL = 1000;
+
+    private final int tableid;
+    private final int field;
+    private final int[] include;
+
+    /**
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     */
+    protected SecondaryIndex(int tableid, int field) {
+        this(tableid, field, new int[0]);
+    }
+
+    /**
+     * @param tableid
+     *            the table to index; it must be stored in a HeapFile
+     * @param field
+     *            the index of the field to index
+     * @param include
+     *            the indexes of other fields whose values are stored in the
+     *            entries
+     */
+    protected SecondaryIndex(int tableid, int field, int[] include) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException(
+                    "secondary indexes are only supported over HeapFiles");
+        this.tableid = tableid;
+        this.field = field;
+        this.include = include.clone();
+    }
+
+    /**
+     * @return the TupleDesc of the entries of an index over field of the
+     *         table: the indexed field, then the included fields, then the
+     *         page number and slot of the tuple
+     */
+    protected static TupleDesc entryTupleDesc(int tableid, int field,
+            int[] include) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[include.length + 3];
+        String[] names = new String[include.length + 3];
+        types[0] = td.getFieldType(field);
+        names[0] = td.getFieldName(field);
+        for (int i = 0; i < include.length; i++) {
+            types[i + 1] = td.getFieldType(include[i]);
+            names[i + 1] = td.getFieldName(include[i]);
+        }
+        types[include.length + 1] = types[include.length + 2] = Type.INT_TYPE;
+        names[include.length + 1] = "page";
+        names[include.length + 2] = "slot";
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the fields of the table whose values are stored in the
+     *         entries, in the order they are stored: the indexed field, then
+     *         the included fields
+     */
+    public int[] getCoveredFields() {
+        int[] covered = new int[include.length + 1];
+        covered[0] = field;
+        System.arraycopy(include, 0, covered, 1, include.length);
+        return covered;
+    }
+
+    /**
+     * @return true if the entries store the values of all of the specified
+     *         fields of the table
+     */
+    public boolean covers(Collection<Integer> fields) {
+        HashSet<Integer> covered = new HashSet<Integer>();
+        for (int f : getCoveredFields())
+            covered.add(f);
+        return covered.containsAll(fields);
+    }
+
+    /**
+     * Returns an iterator over the entries of the index whose key satisfies
+     * ipred, or over all of them if ipred is null.
+     */
+    protected abstract DbFileIterator entryIterator(TransactionId tid,
+            IndexPredicate ipred);
+
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new EntryIterator(tid, entryIterator(tid, ipred));
+    }
+
+    /**
+     * Returns an iterator over the values of the {@link #getCoveredFields
+     * covered fields} of the tuples whose key satisfies ipred, read from the
+     * entries of the index without reading the table.
+     */
+    public DbFileIterator indexOnlyIterator(TransactionId tid,
+            IndexPredicate ipred) {
+        return new CoveredIterator(entryIterator(tid, ipred));
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by
+     *         {@link #indexOnlyIterator}, with the names of the covered
+     *         fields in the table
+     */
+    public TupleDesc coveredTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int[] covered = getCoveredFields();
+        Type[] types = new Type[covered.length];
+        String[] names = new String[covered.length];
+        for (int i = 0; i < covered.length; i++) {
+            types[i] = td.getFieldType(covered[i]);
+            names[i] = td.getFieldName(covered[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Add an entry for every tuple already in the table, and flush the index
+     * to disk. The index must be registered in the Catalog first. Pages are
+     * flushed as the build goes, so the BufferPool does not fill up with
+     * dirty index pages.
+     */
+    public void build(TransactionId tid) throws DbException, IOException,
+            TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid)
+                .iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            insertEntry(tid, it.next());
+            if (++n % BUILD_FLUSH_INTERVAL == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return true if the table is clustered on the indexed field
+     */
+    public boolean isClustered() {
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(
+                tableid);
+        return table.getClusterKey() == field && table.isClustered();
+    }
+
+    public int numPages() {
+        return getFile().numPages();
+    }
+
+    private Tuple entry(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in the table");
+        Tuple e = new Tuple(getFile().getTupleDesc());
+        e.setField(0, t.getField(field));
+        for (int i = 0; i < include.length; i++)
+            e.setField(i + 1, t.getField(include[i]));
+        e.setField(include.length + 1, new IntField(rid.getPageId()
+                .pageNumber()));
+        e.setField(include.length + 2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return getFile().insertTuple(tid, entry(t));
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return getFile().deleteTuple(tid, entry(t));
+    }
+
+    /**
+     * Helper class that strips the RecordId from each entry returned by an
+     * iterator over the entries of the index.
+     */
+    private class CoveredIterator extends AbstractDbFileIterator {
+
+        private final DbFileIterator it;
+        private final TupleDesc td = coveredTupleDesc();
+
+        CoveredIterator(DbFileIterator it) {
+            this.it = it;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            if (!it.hasNext())
+                return null;
+            Tuple e = it.next();
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, e.getField(i));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            it.rewind();
+        }
+
+        public void close() {
+            super.close();
+            it.close();
+        }
+    }
+
+    /**
+     * Helper class that fetches the tuple each entry returned by an iterator
+     * over the entries of the index points at.
+     */
+    protected class EntryIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final DbFileIterator it;
+
+        public EntryIterator(TransactionId tid, DbFileIterator it) {
+            this.tid = tid;
+            this.it = it;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                int n = e.getTupleDesc().numFields();
+                HeapPageId pid = new HeapPageId(tableid,
+                        ((IntField) e.getField(n - 2)).getValue());
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                        tid, pid, Permissions.READ_ONLY);
+                Tuple t = page.getTuple(((IntField) e.getField(n - 1))
+                        .getValue());
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            it.rewind();
+        }
+
+        public void close() {
+            super.close();
+            it.close();
+        }
+    }
+
+}
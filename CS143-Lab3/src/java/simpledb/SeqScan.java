@@ -17,6 +17,11 @@ public class SeqScan implements DbIterator {
     private int tableIdItself;
     private String tAlias;
     private DbFileIterator iterItself;
+    private Predicate[] pageFilters = new Predicate[0];
+    private int[] columns;
+    private int runtimeField;
+    private BloomFilter runtimeFilter;
+    private Tuple nextTuple;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -49,6 +54,20 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableIdItself);
     }
     
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return tableIdItself;
+    }
+
+    /**
+     * @return the transaction the operator runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tidItself;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -80,10 +99,83 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Sets predicates the tuples of this scan will be filtered by. When the
+     * table is a {@link HeapFile}, pages its zone map shows hold no tuple
+     * satisfying all of them are not read. The scan still returns every
+     * tuple of the pages it reads, so the predicates must also be applied
+     * above it, as by a {@link Filter}.
+     * 
+     * @param preds
+     *            predicates over the fields of the table
+     */
+    public void setPageFilters(Predicate[] preds) {
+        pageFilters = preds.clone();
+    }
+
+    /**
+     * @return the predicates pages are skipped by
+     */
+    public Predicate[] getPageFilters() {
+        return pageFilters.clone();
+    }
+
+    /**
+     * Sets the fields of the table the plan above this scan uses. When the
+     * table is a {@link ColumnFile}, only the columns of those fields are
+     * read, and the other fields of the tuples returned are null.
+     * 
+     * @param fields
+     *            the indexes of the fields to read, at least one, or null to
+     *            read every field
+     */
+    public void setColumns(int[] fields) {
+        columns = fields == null ? null : fields.clone();
+    }
+
+    /**
+     * @return the fields read from a ColumnFile, or null for all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * Sets a Bloom filter over one field of the table, such as the join keys
+     * a {@link HashEquiJoin} above this scan has hashed. Tuples whose value
+     * of the field is certainly not in the filter are dropped as soon as
+     * they are read. The filter may be replaced while the scan is open; it
+     * applies to the tuples read after the next rewind.
+     * 
+     * @param field
+     *            the field the filter is over
+     * @param filter
+     *            the filter, or null to return every tuple
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        runtimeField = field;
+        runtimeFilter = filter;
+    }
+
+    /**
+     * @return the Bloom filter the tuples of this scan are dropped by, or
+     *         null
+     */
+    public BloomFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-    	iterItself = Database.getCatalog().getDatabaseFile(tableIdItself).iterator(tidItself);		//get the DbFile iterator from the database with tid
+    	DbFile f = Database.getCatalog().getDatabaseFile(tableIdItself);
+    	if (pageFilters.length > 0 && f instanceof HeapFile)
+    		iterItself = ((HeapFile) f).iterator(tidItself, pageFilters);
+    	else if (columns != null && f instanceof ColumnFile)
+    		iterItself = ((ColumnFile) f).iterator(tidItself, columns);
+    	else
+    		iterItself = f.iterator(tidItself);		//get the DbFile iterator from the database with tid
     	iterItself.open();
+    	nextTuple = null;
     }
 
     /**
@@ -117,23 +209,46 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here 
-        return iterItself.hasNext();
+        return advance();
+    }
+
+    /**
+     * Reads ahead to the next tuple that passes the runtime filter, if any;
+     * not overridable, so that next() does not call back into a subclass.
+     */
+    private boolean advance() throws TransactionAbortedException, DbException {
+        if (runtimeFilter == null)
+            return nextTuple != null || iterItself.hasNext();
+        while (nextTuple == null && iterItself.hasNext()) {
+            Tuple t = iterItself.next();
+            if (runtimeFilter.mightContain(t.getField(runtimeField)))
+                nextTuple = t;
+        }
+        return nextTuple != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return iterItself.next();
+        if (runtimeFilter != null)
+            advance();
+        if (nextTuple == null)
+            return iterItself.next();
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
     }
 
     public void close() {
         // some code goes here
     	iterItself.close();
+    	nextTuple = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
     	iterItself.rewind();
+    	nextTuple = null;
     }
 }
@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -39,11 +39,16 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            // a trailing "slotted" writes the pages of a SlottedFile
+            if (args.length==6 && args[5].equals("slotted"))
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -67,6 +72,17 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("reorganize")) {
+            // sort a table file by one of its int fields
+            if (args.length != 4) {
+                System.err.println("Usage: reorganize <file.dat> <numColumns> <keyField>");
+                return;
+            }
+            HeapFile table = Utility.openHeapFile(Integer.parseInt(args[2]),
+                    new File(args[1]));
+            table.setClusterKey(Integer.parseInt(args[3]));
+            table.reorganize();
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
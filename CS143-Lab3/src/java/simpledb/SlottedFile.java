@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that, like a {@link HeapFile},
+ * stores a collection of tuples in no particular order, but on
+ * {@link SlottedPage}s, which store each tuple in only as many bytes as its
+ * values need. Tables with STRING fields holding short strings take far
+ * fewer pages than as a HeapFile, so scanning them reads fewer pages.
+ * <p>
+ * Pages are identified by {@link HeapPageId}s. Tuples are read and modified
+ * through the {@link BufferPool}. Secondary indexes and zone maps are only
+ * kept for HeapFiles.
+ *
+ * @see SlottedPage
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this table
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash code of
+     * the absolute file name, as for {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        if (id.pageNumber() >= numPages())
+            throw new IllegalArgumentException("Read past end of table.");
+        byte[] data = new byte[pageSize];
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                raf.seek((long) id.pageNumber() * pageSize);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            Debug.log(1, "SlottedFile.readPage: read page %d", id.pageNumber());
+            return new SlottedPage(id, data);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) page.getId().pageNumber()
+                    * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+        page.markDirty(false, null);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+                + SlottedPage.recordSize(t) > BufferPool.getPageSize())
+            throw new DbException("tuple is larger than a page");
+        ArrayList<Page> dirtypages = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableid, i), Permissions.READ_WRITE);
+            if (page.fits(t)) {
+                page.insertTuple(t);
+                dirtypages.add(page);
+                return dirtypages;
+            }
+        }
+        // no page has room; append an empty page
+        HeapPageId pid = new HeapPageId(tableid, numPages());
+        writePage(new SlottedPage(pid, SlottedPage.createEmptyPageData()));
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+                pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        dirtypages.add(page);
+        return dirtypages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (t.getRecordId() == null
+                || t.getRecordId().getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of the file");
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+                t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirtypages = new ArrayList<Page>();
+        dirtypages.add(page);
+        return dirtypages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /**
+     * Helper class that iterates over the tuples of the file, page by page.
+     */
+    class SlottedFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private int pgNo;
+        private Iterator<Tuple> tuples;
+
+        public SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pgNo = 0;
+            tuples = Collections.<Tuple> emptyList().iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            if (tuples == null)
+                return null;
+            while (!tuples.hasNext()) {
+                if (pgNo >= numPages())
+                    return null;
+                tuples = ((SlottedPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, pgNo++), Permissions.READ_ONLY))
+                        .iterator();
+            }
+            return tuples.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            tuples = null;
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a
+ * {@link SlottedFile}. Unlike a {@link HeapPage}, which gives every tuple a
+ * fixed-size slot of {@link TupleDesc#getSize} bytes, a slotted page stores
+ * each tuple as a variable-length record: INT fields take 4 bytes, and
+ * STRING fields a 1-byte length followed by their characters, without the
+ * padding up to {@link Type#STRING_LEN}. Tables of short strings fit many
+ * times more tuples on a page.
+ * <p>
+ * The page starts with the number of slots as 2 bytes, followed by the slot
+ * directory: for each slot, the 2-byte offset and 2-byte length of its
+ * record, or a length of 0 for an empty slot. Records are packed against the
+ * end of the page, so the free space is the gap between the directory and
+ * the records. A tuple keeps its slot, and so its {@link RecordId}, for as
+ * long as it is on the page; only the slot number is stored in the
+ * RecordId, so records can be moved within the page, and writing the page
+ * compacts the space freed by deletes.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** the size of the slot count at the start of the page */
+    static final int HEADER_SIZE = 2;
+    /** the size of the offset and length of a slot in the directory */
+    static final int SLOT_SIZE = 4;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    /** the tuple in each slot, or null for an empty slot */
+    private final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    /** the number of bytes taken by the header, directory and records */
+    private int used = HEADER_SIZE;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above. The TupleDesc of the tuples is looked up
+     * in the {@link Catalog}.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data));
+        int numSlots = dis.readUnsignedShort();
+        for (int i = 0; i < numSlots; i++) {
+            int offset = dis.readUnsignedShort();
+            int length = dis.readUnsignedShort();
+            Tuple t = null;
+            if (length > 0) {
+                t = readRecord(td, new DataInputStream(new ByteArrayInputStream(
+                        data, offset, length)));
+                t.setRecordId(new RecordId(pid, i));
+                used += length;
+            }
+            slots.add(t);
+            used += SLOT_SIZE;
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a page
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 1 + Math.min(((StringField) t.getField(i)).getValue()
+                        .length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    private static void writeRecord(Tuple t, DataOutputStream dos)
+            throws IOException {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(i)).getValue();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                dos.writeByte(s.length());
+                dos.writeBytes(s);
+            } else {
+                t.getField(i).serialize(dos);
+            }
+        }
+    }
+
+    private static Tuple readRecord(TupleDesc td, DataInputStream dis)
+            throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] bs = new byte[dis.readUnsignedByte()];
+                dis.readFully(bs);
+                t.setField(i, new StringField(new String(bs), Type.STRING_LEN));
+            } else {
+                t.setField(i, new IntField(dis.readInt()));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Lays out the page holding the specified slots, as written to disk.
+     *
+     * @param slots
+     *            the tuple in each slot, or null for an empty slot
+     * @param pageSize
+     *            the number of bytes in a page
+     * @throws IllegalStateException
+     *             if the tuples do not fit on a page
+     */
+    static byte[] encode(List<Tuple> slots, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dir = new DataOutputStream(baos);
+        int end = pageSize;
+        try {
+            dir.writeShort(slots.size());
+            for (Tuple t : slots) {
+                if (t == null) {
+                    dir.writeInt(0);
+                    continue;
+                }
+                ByteArrayOutputStream rec = new ByteArrayOutputStream();
+                writeRecord(t, new DataOutputStream(rec));
+                end -= rec.size();
+                if (end < HEADER_SIZE + SLOT_SIZE * slots.size())
+                    throw new IllegalStateException("page overflow");
+                System.arraycopy(rec.toByteArray(), 0, data, end, rec.size());
+                dir.writeShort(end);
+                dir.writeShort(rec.size());
+            }
+            dir.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, 0, baos.size());
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage: one with no slots.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return encode(slots, BufferPool.getPageSize());
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        try {
+            synchronized (oldDataLock) {
+                return new SlottedPage(pid, oldData);
+            }
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of bytes free on this page
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - used;
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean fits(Tuple t) {
+        int need = recordSize(t);
+        if (!slots.contains(null))
+            need += SLOT_SIZE;
+        return need <= getFreeSpace();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException
+     *             if the tuple does not fit or its tupledesc is mismatched.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Tuple Desc mismatch");
+        if (!fits(t))
+            throw new DbException("page is full");
+        int i = slots.indexOf(null);
+        if (i < 0) {
+            i = slots.size();
+            slots.add(null);
+            used += SLOT_SIZE;
+        }
+        slots.set(i, t);
+        used += recordSize(t);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page. Empty slots at the
+     * end of the directory are dropped.
+     *
+     * @throws DbException
+     *             if this tuple is not on this page, or its slot is already
+     *             empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid)
+                || rid.tupleno() >= slots.size()
+                || slots.get(rid.tupleno()) == null)
+            throw new DbException("tuple not in this page or is already deleted");
+        used -= recordSize(slots.get(rid.tupleno()));
+        slots.set(rid.tupleno(), null);
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+            slots.remove(slots.size() - 1);
+            used -= SLOT_SIZE;
+        }
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (Tuple t : slots)
+            if (t != null)
+                n++;
+        return n;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (Tuple t : slots)
+            if (t != null)
+                tuples.add(t);
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+}
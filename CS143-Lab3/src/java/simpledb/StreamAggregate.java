@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same aggregates as {@link Aggregate}, but
+ * requires its child to return the tuples of each group contiguously, as it
+ * does when it is sorted on the group by fields. Each group is returned as
+ * soon as a tuple with a different key is read, so only the running state of
+ * the current group is held in memory, and groups come out in the order of
+ * the child.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private int[] aFields;
+    private int[] gbFields;
+    private Aggregator.Op[] aOps;
+    private TupleDesc td;
+
+    // state of the group currently being aggregated
+    private Field[] key;
+    private long[] values;
+    private long count;
+    private Tuple pending;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, with the tuples of
+     *            each group adjacent to one another.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     * @throws IllegalArgumentException
+     *             if an operator is not supported over its field's type
+     */
+    public StreamAggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException(
+                    "need one operator per aggregate field");
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < aops.length; i++) {
+            Aggregator.Op op = aops[i];
+            if (op != Aggregator.Op.MIN && op != Aggregator.Op.MAX
+                    && op != Aggregator.Op.SUM && op != Aggregator.Op.AVG
+                    && op != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("Unsupported aggregate "
+                        + op);
+            if (childTd.getFieldType(afields[i]) != Type.INT_TYPE
+                    && op != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException(
+                        "Only COUNT is supported over non-integer fields");
+        }
+        this.child = child;
+        this.aFields = afields.clone();
+        this.gbFields = gfields.clone();
+        this.aOps = aops.clone();
+        this.td = Aggregate.outputTupleDesc(childTd, gbFields, aFields, aOps);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gbFields.clone();
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return aFields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aOps.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        key = null;
+        pending = null;
+        values = new long[aOps.length];
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        key = null;
+        pending = null;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Reads tuples from the child until the
+     * group key changes, and returns the aggregates of the group that ended.
+     *
+     * @return The next group, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (pending == null) {
+            if (!child.hasNext())
+                return null;
+            pending = child.next();
+        }
+        startGroup(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(t)) {
+                pending = t;
+                break;
+            }
+            merge(t);
+        }
+        return groupTuple();
+    }
+
+    private void startGroup(Tuple t) {
+        key = new Field[gbFields.length];
+        for (int k = 0; k < gbFields.length; k++)
+            key[k] = t.getField(gbFields[k]);
+        for (int a = 0; a < aOps.length; a++)
+            if (aOps[a] != Aggregator.Op.COUNT)
+                values[a] = ((IntField) t.getField(aFields[a])).getValue();
+        count = 1;
+    }
+
+    private boolean sameGroup(Tuple t) {
+        for (int k = 0; k < gbFields.length; k++)
+            if (!key[k].equals(t.getField(gbFields[k])))
+                return false;
+        return true;
+    }
+
+    private void merge(Tuple t) {
+        for (int a = 0; a < aOps.length; a++) {
+            if (aOps[a] == Aggregator.Op.COUNT)
+                continue;
+            long v = ((IntField) t.getField(aFields[a])).getValue();
+            switch (aOps[a]) {
+            case MIN:
+                if (v < values[a])
+                    values[a] = v;
+                break;
+            case MAX:
+                if (v > values[a])
+                    values[a] = v;
+                break;
+            default:
+                values[a] += v;
+            }
+        }
+        count++;
+    }
+
+    private Tuple groupTuple() throws DbException {
+        Tuple t = new Tuple(td);
+        for (int k = 0; k < key.length; k++)
+            t.setField(k, key[k]);
+        for (int a = 0; a < aOps.length; a++) {
+            long v;
+            switch (aOps[a]) {
+            case COUNT:
+                v = count;
+                break;
+            case AVG:
+                v = values[a] / count;
+                break;
+            default:
+                v = values[a];
+            }
+            t.setField(key.length + a, HashAggregator.resultField(aOps[a],
+                    v));
+        }
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
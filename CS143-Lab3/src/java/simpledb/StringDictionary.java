@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a string column of a
+ * {@link ColumnFile} to consecutive integer codes, in the order they are
+ * first stored, so that the pages of the column hold the 4-byte codes
+ * instead of the fixed-width strings. The values are kept in a file, one
+ * after the other; a new value is appended to it as soon as it is given a
+ * code, and codes are never reused, even if the insert that added the value
+ * is aborted.
+ *
+ * @see EncodedStringField
+ */
+public class StringDictionary {
+
+    private final File file;
+
+    /** the field of each code, and the code of each value; null until loaded */
+    private ArrayList<EncodedStringField> fields;
+    private HashMap<String, EncodedStringField> codes;
+
+    /**
+     * Creates the dictionary kept in a file. A file that does not exist
+     * holds no values; nothing is read until the dictionary is used.
+     */
+    public StringDictionary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file the values are kept in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private void load() throws IOException {
+        if (fields != null)
+            return;
+        fields = new ArrayList<EncodedStringField>();
+        codes = new HashMap<String, EncodedStringField>();
+        if (!file.exists())
+            return;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            while (true) {
+                String s;
+                try {
+                    s = dis.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                add(s);
+            }
+        } finally {
+            dis.close();
+        }
+    }
+
+    private EncodedStringField add(String s) {
+        EncodedStringField f = new EncodedStringField(s, fields.size(), this);
+        fields.add(f);
+        codes.put(f.getValue(), f);
+        return f;
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public synchronized int size() throws IOException {
+        load();
+        return fields.size();
+    }
+
+    /**
+     * @return the field of a code
+     * @throws IllegalArgumentException
+     *             if the code is not in the dictionary
+     */
+    public synchronized EncodedStringField decode(int code) throws IOException {
+        load();
+        if (code < 0 || code >= fields.size())
+            throw new IllegalArgumentException("code " + code
+                    + " is not in dictionary " + file);
+        return fields.get(code);
+    }
+
+    /**
+     * @return the field of a value, with code -1 if the value is not in the
+     *         dictionary
+     */
+    public synchronized EncodedStringField lookup(String s) throws IOException {
+        load();
+        EncodedStringField f = codes.get(new StringField(s, Type.STRING_LEN)
+                .getValue());
+        return f != null ? f : new EncodedStringField(s, -1, this);
+    }
+
+    /**
+     * Returns the field of a value, giving the value the next code if it is
+     * not in the dictionary yet.
+     */
+    public synchronized EncodedStringField encode(String s) throws IOException {
+        EncodedStringField f = lookup(s);
+        if (f.getCode() >= 0)
+            return f;
+        f = add(f.getValue());
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file,
+                true));
+        try {
+            dos.writeUTF(f.getValue());
+        } finally {
+            dos.close();
+        }
+        return f;
+    }
+
+    /**
+     * Removes every value, along with the file.
+     */
+    public synchronized void clear() {
+        file.delete();
+        fields = null;
+        codes = null;
+    }
+}
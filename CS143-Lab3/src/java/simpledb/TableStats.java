@@ -71,6 +71,8 @@ public class TableStats {
     private int ioCostPerPage;
     private int tableid;
     private int numPages;
+    /** the pages' worth of bytes a scan reads, fewer if compressed */
+    private int numDiskPages;
     private int numTuples;
     private TupleDesc td;
     private Histogram[] histograms;
@@ -99,7 +101,9 @@ public class TableStats {
         this.ioCostPerPage = ioCostPerPage;
         this.tableid = tableid;
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
-        numPages = ((HeapFile)f).numPages();
+        numPages = f.numPages();
+        numDiskPages = f instanceof HeapFile ? ((HeapFile) f).numDiskPages()
+                : numPages;
         SeqScan it = new SeqScan(null, tableid);
         td = f.getTupleDesc();
         int[] max = new int[td.numFields()];
@@ -166,11 +170,92 @@ public class TableStats {
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
      * 
+     * A compressed HeapFile costs only the pages its compressed pages fill.
+     * 
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
         // some code goes here
-        return numPages * ioCostPerPage;
+        return numDiskPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the table when it is a
+     * clustered HeapFile and the scan's filters on its cluster key have the
+     * specified selectivity. The matching tuples are stored together, and
+     * the zone maps let the scan skip every other page without reading it.
+     * 
+     * @param keySelectivity
+     *            the selectivity of the filters on the cluster key
+     * @return The estimated cost of the scan.
+     */
+    public double estimateClusteredScanCost(double keySelectivity) {
+        return Math.ceil(keySelectivity * numDiskPages) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy a
+     * predicate with the specified selectivity through an index, as an
+     * {@link IndexScan} does: the pages of the index holding the matching
+     * entries, plus the pages of the table holding the matching tuples. If
+     * the index is not clustered, each matching tuple may be on a different
+     * page, although no page is read more often than a full scan would.
+     * 
+     * @param index
+     *            an index over the table
+     * @param selectivityFactor
+     *            the selectivity of the predicate on the indexed field
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(DbIndex index, double selectivityFactor) {
+        double indexPages = Math.ceil(selectivityFactor * index.numPages());
+        double tablePages;
+        if (index.isClustered())
+            tablePages = Math.ceil(selectivityFactor * numPages);
+        else
+            tablePages = Math.min(Math.ceil(selectivityFactor * numTuples),
+                    numPages);
+        // one more page to find where the matching entries start
+        return (1 + indexPages + tablePages) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy
+     * predicates with the specified combined selectivity through the
+     * intersection of bitmap indexes, as a {@link BitmapHeapScan} does: the
+     * pages of the bitmaps, plus each page of the table holding a matching
+     * tuple, read once.
+     * 
+     * @param indexPages
+     *            the number of pages of the bitmap indexes
+     * @param selectivityFactor
+     *            the selectivity of all of the predicates together
+     * @return The estimated cost of the bitmap heap scan.
+     */
+    public double estimateBitmapScanCost(int indexPages,
+            double selectivityFactor) {
+        double tablePages = Math.min(Math.ceil(selectivityFactor * numTuples),
+                numPages);
+        return (indexPages + tablePages) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the fields an index covers for the
+     * tuples of the table that satisfy a predicate with the specified
+     * selectivity, as an {@link IndexOnlyScan} does: only the pages of the
+     * index holding the matching entries, and none of the table.
+     *
+     * @param index
+     *            the index the fields are read from
+     * @param selectivityFactor
+     *            the selectivity of the predicate on the indexed field, or
+     *            1.0 to read every entry
+     * @return The estimated cost of the index-only scan.
+     */
+    public double estimateIndexOnlyScanCost(DbIndex index,
+            double selectivityFactor) {
+        double indexPages = Math.ceil(selectivityFactor * index.numPages());
+        return (1 + indexPages) * ioCostPerPage;
     }
 
     /**
@@ -232,7 +317,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Unlike
+ * {@link OrderBy}, which materializes and sorts every tuple from its child,
+ * TopN keeps a bounded heap of the n best tuples seen so far, so it runs in
+ * O(m log n) time and O(n) memory over m input tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private ArrayList<Tuple> topTups = new ArrayList<Tuple>();
+    private int[] orderByFields;
+    private boolean[] ascs;
+    private int limit;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * Creates a new TopN node that orders the tuples from the iterator on
+     * several fields, as {@link OrderBy} does.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            asc[i] is true if orderbyFields[i] is sorted ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit,
+            DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must be non-negative");
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one sort direction per ORDER BY field");
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.ascs[0];
+    }
+
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    public String getOrderFieldName() {
+        return td.getFieldName(orderByFields[0]);
+    }
+
+    /**
+     * @return the fields this operator sorts on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return the sort direction of each field in {@link #getOrderByFields}
+     */
+    public boolean[] getAscs() {
+        return this.ascs.clone();
+    }
+
+    /**
+     * @return the maximum number of tuples this operator returns
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups.clear();
+        if (limit > 0) {
+            Comparator<Tuple> cmp = new TupleComparator(td, orderByFields,
+                    ascs);
+            // the head of the heap is the worst tuple kept so far, so a new
+            // tuple only has to be compared against it. It starts at the
+            // default capacity and grows with its input, as the limit may be
+            // far larger than the child's output.
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.min(
+                    limit, 11), Collections.reverseOrder(cmp));
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            topTups.addAll(heap);
+            Collections.sort(topTups, cmp);
+        }
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples from
+     * the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
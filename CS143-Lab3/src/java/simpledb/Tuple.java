@@ -105,6 +105,20 @@ public class Tuple implements Serializable {
         return fieldObj[i];
     }
 
+    /**
+     * @return the value of the ith field, which must be an int field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
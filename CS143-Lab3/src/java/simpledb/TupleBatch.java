@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a TupleDesc column by
+ * column, for the operators of the {@link BatchIterator} interface: the
+ * values of an int column are kept in an int[], and those of any other
+ * column in a Field[]. A selection vector lists the rows that are part of
+ * the batch, in order, so a filter drops rows by shortening it rather than
+ * by moving the rows.
+ * <p>
+ * A batch returned by {@link BatchIterator#nextBatch} is only valid until the
+ * next call to nextBatch of the same iterator, which may reuse it; operators
+ * that hold on to rows copy them.
+ */
+public class TupleBatch {
+
+    /** The number of rows the batches of the batch operators hold */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final int[] sel;
+    private int size;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch.
+     * 
+     * @param td
+     *            the TupleDesc of the rows
+     * @param capacity
+     *            the number of rows the batch holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        ints = new int[td.numFields()][];
+        fields = new Field[td.numFields()][];
+        for (int i = 0; i < ints.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+        sel = new int[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, int[][] ints, Field[][] fields,
+            int[] sel, int size, int numSelected) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.sel = sel;
+        this.size = size;
+        this.numSelected = numSelected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows the batch holds
+     */
+    public int capacity() {
+        return sel.length;
+    }
+
+    /**
+     * @return the number of rows in the batch, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return size == sel.length;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /**
+     * Returns the selection vector: its first {@link #numSelected} entries
+     * are the selected rows, in increasing order. An operator that narrows
+     * the selection overwrites them in place and then calls
+     * {@link #setNumSelected}.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Sets the number of entries of the selection vector in use.
+     */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > size)
+            throw new IllegalArgumentException("bad selection size " + n);
+        numSelected = n;
+    }
+
+    /**
+     * @return the values of an int column, indexed by row
+     * @throws IllegalArgumentException
+     *             if the column is not an int column
+     */
+    public int[] getInts(int column) {
+        if (ints[column] == null)
+            throw new IllegalArgumentException("column " + column
+                    + " is not an int column");
+        return ints[column];
+    }
+
+    /**
+     * @return the values of a column that is not an int column, indexed by
+     *         row
+     * @throws IllegalArgumentException
+     *             if the column is an int column
+     */
+    public Field[] getFields(int column) {
+        if (fields[column] == null)
+            throw new IllegalArgumentException("column " + column
+                    + " is an int column");
+        return fields[column];
+    }
+
+    /**
+     * @return the value of a column in a row, as a Field
+     */
+    public Field getField(int column, int row) {
+        if (ints[column] != null)
+            return new IntField(ints[column][row]);
+        return fields[column][row];
+    }
+
+    /**
+     * @return a row as a new Tuple
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+
+    /**
+     * Appends the fields of a tuple as a new, selected row. The tuple needs
+     * the types of this batch's TupleDesc, but not its names.
+     * 
+     * @throws IllegalStateException
+     *             if the batch is full
+     */
+    public void add(Tuple t) {
+        int row = newRow();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][row] = t.getInt(i);
+            else
+                fields[i][row] = t.getField(i);
+        }
+    }
+
+    /**
+     * Appends a new, selected row made of a row of one batch followed by a
+     * row of another, as the rows of a join are.
+     * 
+     * @param b1
+     *            the batch holding the first fields of the row
+     * @param row1
+     *            the row of b1
+     * @param b2
+     *            the batch holding the remaining fields, or null if b1 holds
+     *            all of them
+     * @param row2
+     *            the row of b2
+     * @throws IllegalStateException
+     *             if the batch is full
+     */
+    public void add(TupleBatch b1, int row1, TupleBatch b2, int row2) {
+        int row = newRow();
+        int n1 = b1.ints.length;
+        for (int i = 0; i < ints.length; i++) {
+            TupleBatch b = i < n1 ? b1 : b2;
+            int c = i < n1 ? i : i - n1;
+            int r = i < n1 ? row1 : row2;
+            if (ints[i] != null)
+                ints[i][row] = b.ints[c][r];
+            else
+                fields[i][row] = b.fields[c][r];
+        }
+    }
+
+    /**
+     * Appends a new, selected row, whose values the caller then writes into
+     * the column vectors, as a scan does that decodes rows straight into
+     * them.
+     * 
+     * @return the index of the row
+     * @throws IllegalStateException
+     *             if the batch is full
+     */
+    int newRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (numSelected != size)
+            throw new IllegalStateException(
+                    "cannot add rows to a filtered batch");
+        sel[numSelected++] = size;
+        return size++;
+    }
+
+    /**
+     * Empties the batch.
+     */
+    public void clear() {
+        size = 0;
+        numSelected = 0;
+    }
+
+    /**
+     * Returns a batch of some of the columns of this one, with the same rows
+     * selected. The columns are shared rather than copied, so the projection
+     * is only valid as long as this batch is.
+     * 
+     * @param columns
+     *            the columns of this batch to keep, in their new order
+     * @param projectedTd
+     *            the TupleDesc of the projection
+     */
+    public TupleBatch project(int[] columns, TupleDesc projectedTd) {
+        int[][] pInts = new int[columns.length][];
+        Field[][] pFields = new Field[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            pInts[i] = ints[columns[i]];
+            pFields[i] = fields[columns[i]];
+        }
+        return new TupleBatch(projectedTd, pInts, pFields, Arrays.copyOf(sel,
+                sel.length), size, numSelected);
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * TupleBuffer keeps batches of tuples in the order they are added, to be
+ * read back from the first any number of times. The batches are held in
+ * memory until they add up to a number of tuples; later ones are written to
+ * a temporary file, and read back from it.
+ */
+public class TupleBuffer {
+
+    private final TupleDesc td;
+    private final int memoryTuples;
+    private final ArrayList<List<Tuple>> memory = new ArrayList<List<Tuple>>();
+    private int tuplesInMemory;
+    private int numBatches;
+    private File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int read;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the tuples
+     * @param memoryTuples
+     *            the number of tuples held in memory before batches are
+     *            written to disk
+     */
+    public TupleBuffer(TupleDesc td, int memoryTuples) {
+        this.td = td;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * Adds a batch after the others. If every earlier batch has been read,
+     * the batch counts as read too, as the caller has it already.
+     *
+     * @throws DbException
+     *             if the batch could not be written to disk
+     */
+    public void add(List<Tuple> batch) throws DbException {
+        boolean atEnd = read == numBatches;
+        if (file == null && tuplesInMemory + batch.size() <= memoryTuples) {
+            memory.add(batch);
+            tuplesInMemory += batch.size();
+        } else {
+            try {
+                if (file == null) {
+                    file = File.createTempFile("exchange", ".spill");
+                    file.deleteOnExit();
+                }
+                if (out == null)
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file, true)));
+                out.writeInt(batch.size());
+                for (Tuple t : batch)
+                    for (int i = 0; i < td.numFields(); i++)
+                        t.getField(i).serialize(out);
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: "
+                        + e.getMessage());
+            }
+        }
+        numBatches++;
+        if (atEnd) {
+            // nothing is read again before a rewind
+            read = numBatches;
+            closeReader();
+        }
+    }
+
+    /**
+     * @return the number of batches added
+     */
+    public int numBatches() {
+        return numBatches;
+    }
+
+    /**
+     * @return true if some batches have been written to disk
+     */
+    public boolean hasSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns the next batch, the first after a rewind.
+     *
+     * @return the batch, or null once every batch added has been read
+     * @throws DbException
+     *             if the batch could not be read from disk
+     */
+    public List<Tuple> next() throws DbException {
+        if (read == numBatches)
+            return null;
+        if (read < memory.size())
+            return memory.get(read++);
+        try {
+            // the batch may have been added since the reader was opened
+            out.flush();
+            openDisk();
+            int n = in.readInt();
+            ArrayList<Tuple> batch = new ArrayList<Tuple>(n);
+            for (int k = 0; k < n; k++) {
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+                batch.add(t);
+            }
+            read++;
+            return batch;
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: "
+                    + e.getMessage());
+        } catch (ParseException e) {
+            throw new DbException("could not read spill file: "
+                    + e.getMessage());
+        }
+    }
+
+    /** Opens the file for reading from its first batch */
+    private void openDisk() throws IOException {
+        if (in != null)
+            return;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)));
+    }
+
+    /**
+     * Starts reading the batches again from the first.
+     */
+    public void rewind() {
+        read = 0;
+        closeReader();
+    }
+
+    private void closeReader() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing is lost; the file is read again from the start
+            }
+            in = null;
+        }
+    }
+
+    /**
+     * Drops the batches, deleting the file.
+     */
+    public void close() {
+        closeReader();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        if (file != null)
+            file.delete();
+        file = null;
+        memory.clear();
+        tuplesInMemory = 0;
+        numBatches = 0;
+        read = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Compares tuples on one or more fields. The type of each key is looked up
+ * once, when the comparator is built, so that comparing two tuples costs a
+ * primitive int comparison or a single String.compareTo per key rather than
+ * several calls through Field.compare.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    private final int[] fields;
+    private final boolean[] isInt;
+    private final int[] signs;
+
+    /**
+     * @param td
+     *            the TupleDesc of the tuples being compared
+     * @param fields
+     *            the fields to compare, most significant first
+     * @param asc
+     *            asc[i] is true if fields[i] is compared in ascending order
+     */
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        this.fields = fields.clone();
+        this.isInt = new boolean[fields.length];
+        this.signs = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            isInt[i] = td.getFieldType(fields[i]) == Type.INT_TYPE;
+            signs[i] = asc[i] ? 1 : -1;
+        }
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c;
+            if (isInt[i]) {
+                int v1 = ((IntField) o1.getField(fields[i])).getValue();
+                int v2 = ((IntField) o2.getField(fields[i])).getValue();
+                c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            } else {
+                c = ((StringField) o1.getField(fields[i])).getValue()
+                        .compareTo(((StringField) o2.getField(fields[i]))
+                                .getValue());
+            }
+            if (c != 0)
+                return c < 0 ? -signs[i] : signs[i];
+        }
+        return 0;
+    }
+}
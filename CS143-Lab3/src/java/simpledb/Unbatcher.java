@@ -0,0 +1,76 @@
+package simpledb;
+
+/**
+ * Unbatcher adapts a {@link BatchIterator} to the DbIterator interface,
+ * returning the selected rows of its batches one Tuple at a time, so that
+ * any operator can read the output of batch operators.
+ */
+public class Unbatcher extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int next;
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            the batch operator whose rows are returned
+     */
+    public Unbatcher(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch operator whose rows are returned
+     */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        if (batch == null || next == batch.numSelected()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.selection()[next++]);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    /**
+     * @return no children: the child of an Unbatcher is not a DbIterator
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Vectorizer rewrites the scans, filters, projections, hash joins and
+ * aggregates of a physical plan into their batch forms, so that those
+ * operators exchange {@link TupleBatch}es of int vectors and shared fields
+ * rather than Tuples, and run without allocating per row. Each maximal
+ * subtree of such operators becomes one batch plan read through an
+ * {@link Unbatcher}; other operators keep their place and are fed to batch
+ * operators through a {@link Batcher}.
+ * <p>
+ * SeqScans become {@link BatchSeqScan}s, which decode heap pages straight
+ * into batches and keep the page filters and columns the planner gave the
+ * scans. A {@link FusedScan} is split back into its scan, filters and
+ * projection, which are batched each in turn. A HashEquiJoin's
+ * Bloom filter is dropped, as the batch join hashes its whole first child
+ * before probing it.
+ */
+public class Vectorizer {
+
+    /**
+     * @return a plan returning the same tuples as plan, with the operators
+     *         that have a batch form replaced by it
+     */
+    public static DbIterator vectorize(DbIterator plan) {
+        BatchIterator b = toBatches(plan);
+        if (b != null)
+            return new Unbatcher(b);
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                children = Arrays.copyOf(children, children.length);
+                for (int i = 0; i < children.length; i++)
+                    children[i] = vectorize(children[i]);
+                op.setChildren(children);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return the batch form of plan, or null if its top operator has none
+     */
+    private static BatchIterator toBatches(DbIterator plan) {
+        if (plan instanceof FusedScan) {
+            FusedScan fs = (FusedScan) plan;
+            BatchIterator b = new BatchSeqScan(fs.toSeqScan());
+            for (Predicate p : fs.getPredicates())
+                b = new BatchFilter(p, b);
+            if (fs.getOutFields() != null)
+                b = new BatchProject(fs.getOutFields(), b);
+            return b;
+        }
+        if (plan instanceof SeqScan)
+            return new BatchSeqScan((SeqScan) plan);
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new BatchFilter(f.getPredicate(), batches(f.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return new BatchProject(p.getOutFields(), batches(p.getChildren()[0]));
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            DbIterator[] children = j.getChildren();
+            return new BatchHashEquiJoin(j.getJoinPredicate(),
+                    batches(children[0]), batches(children[1]));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            return new BatchAggregate(batches(a.getChildren()[0]),
+                    a.aggregateFields(), a.groupFields(), a.aggregateOps());
+        }
+        return null;
+    }
+
+    /**
+     * @return the batch form of plan, or a Batcher over its vectorized form
+     *         if it has none
+     */
+    private static BatchIterator batches(DbIterator plan) {
+        BatchIterator b = toBatches(plan);
+        return b != null ? b : new Batcher(vectorize(plan));
+    }
+}
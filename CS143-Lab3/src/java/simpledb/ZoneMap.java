@@ -0,0 +1,338 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of each INT field on each page
+ * of a {@link HeapFile}, so that a scan with a filter can skip the pages whose
+ * range cannot satisfy it without reading them.
+ * <p>
+ * The zone map also records whether the tuples of the file are in ascending
+ * order of its {@link HeapFile#getClusterKey cluster key}, by page and slot.
+ * Rebuilding the map checks the order, and an insert that lands out of order
+ * clears the flag until the file is {@link HeapFile#reorganize reorganized}.
+ * <p>
+ * The ranges are kept in a side file next to the heap file, named after it
+ * with ".zm" appended: a header of the page size, the number of INT fields,
+ * the cluster key the order was checked on and whether the file is in order
+ * of it, followed by a min and max per INT field for each page, in page
+ * order. A page with no tuples has a min larger than its max. Inserts widen
+ * the range of their page in memory, and writing a page back records its
+ * exact range, so the ranges always cover every tuple on the page, even
+ * those not yet flushed. Deletes leave a range wider than it needs to be
+ * until the page is written. If the side file is missing, older than the
+ * heap file or of a different layout, it is rebuilt by reading the heap file
+ * directly.
+ */
+public class ZoneMap {
+
+    private static final int HEADER_SIZE = 16;
+
+    private final HeapFile hf;
+    private final File file;
+    /** the position of each field among the INT fields, or -1 */
+    private final int[] slot;
+    private final int numInts;
+
+    /** a min and max per INT field for each page; null until loaded */
+    private ArrayList<int[]> zones;
+    /** whether the tuples are in order of the cluster key, once loaded */
+    private boolean sorted;
+
+    /**
+     * Creates the zone map of a heap file. Nothing is read until it is
+     * used.
+     */
+    public ZoneMap(HeapFile hf) {
+        this.hf = hf;
+        this.file = new File(hf.getFile().getPath() + ".zm");
+        TupleDesc td = hf.getTupleDesc();
+        slot = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < slot.length; i++)
+            slot[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        numInts = n;
+    }
+
+    /**
+     * @return the file the ranges are stored in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns false if no tuple on the page can satisfy all of the
+     * predicates, and true if some may, or if nothing is known about the
+     * page. Predicates over fields that are not INT are ignored.
+     *
+     * @param pgNo
+     *            the page number
+     * @param preds
+     *            predicates over the fields of the heap file
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate[] preds) {
+        load();
+        if (pgNo >= zones.size())
+            return true;
+        int[] zone = zones.get(pgNo);
+        for (Predicate p : preds) {
+            int s = slot[p.getField()];
+            if (s < 0)
+                continue;
+            int min = zone[2 * s], max = zone[2 * s + 1];
+            if (min > max)
+                return false;
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean may;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                may = min <= v && v <= max;
+                break;
+            case GREATER_THAN:
+                may = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                may = max >= v;
+                break;
+            case LESS_THAN:
+                may = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                may = min <= v;
+                break;
+            case NOT_EQUALS:
+                may = min != v || max != v;
+                break;
+            default:
+                may = true;
+            }
+            if (!may)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the file has a cluster key and its tuples are in
+     *         ascending order of it, by page and slot
+     */
+    public synchronized boolean isSorted() {
+        load();
+        return sorted;
+    }
+
+    /**
+     * Widens the range of a page to cover a tuple just inserted into it, and
+     * notes if the tuple breaks the order of the cluster key.
+     */
+    public synchronized void widen(HeapPage page, Tuple t) throws IOException {
+        load();
+        int pgNo = page.getId().pageNumber();
+        cover(zone(pgNo), t);
+        if (sorted && !inOrder(page, t)) {
+            sorted = false;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(HEADER_SIZE - 4);
+                raf.writeInt(0);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if the key of t is no smaller than those of the tuples
+     *         before it in the file, and no larger than those after it. The
+     *         ranges of other pages are checked rather than their tuples, so
+     *         a range left wide by deletes may give a false negative.
+     */
+    private boolean inOrder(HeapPage page, Tuple t) {
+        int key = hf.getClusterKey();
+        int s = slot[key];
+        int v = ((IntField) t.getField(key)).getValue();
+        int tupleno = t.getRecordId().tupleno();
+        for (int i = 0; i < page.getNumSlots(); i++) {
+            Tuple o = i == tupleno ? null : page.getTuple(i);
+            if (o == null)
+                continue;
+            int ov = ((IntField) o.getField(key)).getValue();
+            if (i < tupleno ? ov > v : ov < v)
+                return false;
+        }
+        int pgNo = page.getId().pageNumber();
+        for (int p = pgNo - 1; p >= 0; p--) {
+            int[] zone = zones.get(p);
+            if (zone[2 * s] <= zone[2 * s + 1])
+                return zone[2 * s + 1] <= v && nextInOrder(pgNo, s, v);
+        }
+        return nextInOrder(pgNo, s, v);
+    }
+
+    private boolean nextInOrder(int pgNo, int s, int v) {
+        for (int p = pgNo + 1; p < zones.size(); p++) {
+            int[] zone = zones.get(p);
+            if (zone[2 * s] <= zone[2 * s + 1])
+                return zone[2 * s] >= v;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the ranges and deletes the side file, so that they are
+     * rebuilt from the heap file when next used.
+     */
+    public synchronized void invalidate() {
+        zones = null;
+        file.delete();
+    }
+
+    /**
+     * Records the exact range of a page that was just written to the heap
+     * file, in memory and in the side file.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        load();
+        int pgNo = page.getId().pageNumber();
+        int[] zone = zone(pgNo);
+        clear(zone);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            cover(zone, it.next());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(HEADER_SIZE + (long) pgNo * numInts * 8);
+            raf.write(toBytes(zone));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int[] zone(int pgNo) {
+        while (zones.size() <= pgNo) {
+            int[] zone = new int[2 * numInts];
+            clear(zone);
+            zones.add(zone);
+        }
+        return zones.get(pgNo);
+    }
+
+    private static void clear(int[] zone) {
+        for (int i = 0; i < zone.length; i += 2) {
+            zone[i] = Integer.MAX_VALUE;
+            zone[i + 1] = Integer.MIN_VALUE;
+        }
+    }
+
+    private void cover(int[] zone, Tuple t) {
+        for (int i = 0; i < slot.length; i++) {
+            int s = slot[i];
+            if (s < 0)
+                continue;
+            int v = ((IntField) t.getField(i)).getValue();
+            zone[2 * s] = Math.min(zone[2 * s], v);
+            zone[2 * s + 1] = Math.max(zone[2 * s + 1], v);
+        }
+    }
+
+    private byte[] toBytes(int[] zone) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(zone.length * 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int v : zone)
+            dos.writeInt(v);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Reads the side file, or rebuilds it if it does not describe the heap
+     * file as it is on disk.
+     */
+    private void load() {
+        if (zones != null)
+            return;
+        zones = new ArrayList<int[]>();
+        int pages = hf.numPages();
+        long recordSize = numInts * 8L;
+        if (file.exists()
+                && file.lastModified() >= hf.getFile().lastModified()
+                && file.length() == HEADER_SIZE + pages * recordSize) {
+            try {
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (dis.readInt() == BufferPool.getPageSize()
+                            && dis.readInt() == numInts
+                            && dis.readInt() == hf.getClusterKey()) {
+                        sorted = dis.readInt() != 0;
+                        for (int p = 0; p < pages; p++) {
+                            int[] zone = new int[2 * numInts];
+                            for (int i = 0; i < zone.length; i++)
+                                zone[i] = dis.readInt();
+                            zones.add(zone);
+                        }
+                        return;
+                    }
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                // fall through and rebuild it
+            }
+            zones.clear();
+        }
+        rebuild(pages);
+    }
+
+    private void rebuild(int pages) {
+        int key = hf.getClusterKey();
+        sorted = key >= 0;
+        int last = Integer.MIN_VALUE;
+        try {
+            DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                dos.writeInt(BufferPool.getPageSize());
+                dos.writeInt(numInts);
+                dos.writeInt(key);
+                dos.writeInt(0);
+                for (int p = 0; p < pages; p++) {
+                    int[] zone = zone(p);
+                    // read the page directly, not through the BufferPool;
+                    // inserts into pages already in it widen the range
+                    // afterwards
+                    HeapPage page = (HeapPage) hf.readPage(new HeapPageId(
+                            hf.getId(), p));
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        cover(zone, t);
+                        if (key >= 0) {
+                            int v = ((IntField) t.getField(key)).getValue();
+                            sorted &= v >= last;
+                            last = v;
+                        }
+                    }
+                    dos.write(toBytes(zone));
+                }
+            } finally {
+                dos.close();
+            }
+            // the order is only known once every page has been read
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(HEADER_SIZE - 4);
+                raf.writeInt(sorted ? 1 : 0);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // the ranges are still kept in memory; the side file is rebuilt
+            // the next time it is loaded
+            file.delete();
+        }
+    }
+}
@@ -176,6 +176,51 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates over one
+   * grouping in a single pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                              Aggregator.Op.MAX });
+    assertEquals(4, op.getTupleDesc().numFields());
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 3, 12, 6,
+                    3, 3, 12, 6,
+                    5, 1, 7, 7 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouping on two fields
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 5,
+                    1, 2, 6,
+                    1, 1, 7,
+                    2, 1, 8 });
+    Aggregate op = new Aggregate(scan, new int[] { 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM });
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 12,
+                    1, 2, 6,
+                    2, 1, 8 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    int count = 0;
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private File file;
+  private BTreeFile bf;
+
+  /**
+   * Set up an empty tree on small pages, so that a few thousand tuples need
+   * several levels of internal pages
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BufferPool.setPageSize(256);
+    tid = new TransactionId();
+    file = File.createTempFile("btree", ".dat");
+    file.deleteOnExit();
+    file.delete();
+    bf = new BTreeFile(file, 0, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(bf);
+  }
+
+  @After public void tearDown() {
+    BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    file.delete();
+  }
+
+  private ArrayList<Integer> insertRandom(int n, int maxKey) throws Exception {
+    Random rand = new Random(6830);
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      int k = rand.nextInt(maxKey);
+      keys.add(k);
+      Database.getBufferPool().insertTuple(tid, bf.getId(),
+          Utility.getHeapTuple(new int[] { k, i }));
+    }
+    Collections.sort(keys);
+    return keys;
+  }
+
+  /** @return the keys returned by it, checking they come in order */
+  private ArrayList<Integer> scanKeys(DbFileIterator it) throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext()) {
+      int k = ((IntField) it.next().getField(0)).getValue();
+      if (!keys.isEmpty())
+        assertTrue(keys.get(keys.size() - 1) <= k);
+      keys.add(k);
+    }
+    it.close();
+    return keys;
+  }
+
+  private int count(ArrayList<Integer> keys, Predicate.Op op, int v) {
+    int n = 0;
+    for (int k : keys)
+      if (new IntField(k).compare(op, new IntField(v)))
+        n++;
+    return n;
+  }
+
+  /**
+   * Test that inserts split leaves and internal pages and a full scan
+   * returns every tuple in key order
+   */
+  @Test public void insertAndScan() throws Exception {
+    ArrayList<Integer> keys = insertRandom(3000, 500);
+    assertEquals(keys, scanKeys(bf.iterator(tid)));
+    assertTrue(bf.numPages() > 100);
+  }
+
+  /**
+   * Test point lookups and range scans, including over duplicate keys that
+   * span several leaves
+   */
+  @Test public void indexIterator() throws Exception {
+    ArrayList<Integer> keys = insertRandom(3000, 50);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+    for (Predicate.Op op : ops) {
+      for (int v : new int[] { -1, 0, 17, 49, 50 }) {
+        IndexPredicate ipred = new IndexPredicate(op, new IntField(v));
+        ArrayList<Integer> got = scanKeys(bf.indexIterator(tid, ipred));
+        assertEquals(op + " " + v, count(keys, op, v), got.size());
+        for (int k : got)
+          assertTrue(ipred.filter(new IntField(k)));
+      }
+    }
+  }
+
+  /**
+   * Test that deleting every tuple while scanning, as Delete does, merges
+   * the tree back down to an empty root, and that the freed pages are reused
+   */
+  @Test public void deleteAll() throws Exception {
+    insertRandom(3000, 100000);
+    int pages = bf.numPages();
+    DbFileIterator it = bf.iterator(tid);
+    it.open();
+    int deleted = 0;
+    while (it.hasNext()) {
+      Database.getBufferPool().deleteTuple(tid, it.next());
+      deleted++;
+    }
+    it.close();
+    assertEquals(3000, deleted);
+    assertTrue(scanKeys(bf.iterator(tid)).isEmpty());
+
+    ArrayList<Integer> keys = insertRandom(3000, 100000);
+    assertEquals(keys, scanKeys(bf.iterator(tid)));
+    assertEquals(pages, bf.numPages());
+  }
+
+  /**
+   * Test that deleting part of the tuples rebalances the tree and leaves the
+   * rest in order
+   */
+  @Test public void deleteRange() throws Exception {
+    ArrayList<Integer> keys = insertRandom(3000, 1000);
+    DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(
+        Predicate.Op.LESS_THAN, new IntField(800)));
+    it.open();
+    while (it.hasNext())
+      Database.getBufferPool().deleteTuple(tid, it.next());
+    it.close();
+    ArrayList<Integer> rest = new ArrayList<Integer>();
+    for (int k : keys)
+      if (k >= 800)
+        rest.add(k);
+    assertEquals(rest, scanKeys(bf.iterator(tid)));
+  }
+
+  /**
+   * Test that deleting a tuple by value finds it even if its RecordId is out
+   * of date
+   */
+  @Test public void deleteByValue() throws Exception {
+    insertRandom(500, 1000);
+    Tuple t = Utility.getHeapTuple(new int[] { 1000, 7 });
+    Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+    Tuple copy = Utility.getHeapTuple(new int[] { 1000, 7 });
+    copy.setRecordId(new RecordId(t.getRecordId().getPageId(), 0));
+    Database.getBufferPool().deleteTuple(tid, copy);
+    assertFalse(scanKeys(bf.iterator(tid)).contains(1000));
+  }
+
+  /**
+   * Test that a flushed tree can be read back from disk
+   */
+  @Test public void flushAndReopen() throws Exception {
+    ArrayList<Integer> keys = insertRandom(2000, 300);
+    Database.getBufferPool().flushAllPages();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(keys, scanKeys(bf.iterator(tid)));
+  }
+
+  /**
+   * Test that tuples of the wrong type are rejected
+   */
+  @Test(expected = DbException.class)
+  public void insertWrongType() throws Exception {
+    bf.insertTuple(tid, Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
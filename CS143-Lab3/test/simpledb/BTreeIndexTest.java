@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeIndexTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 500;
+  private static final int VALUES = 50;
+
+  private TransactionId tid;
+  private HeapFile table;
+  private ArrayList<ArrayList<Integer>> tuples;
+  private File file;
+  private BTreeIndex index;
+
+  /**
+   * Initialize each unit test with a table of random tuples, indexed on its
+   * second field
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, VALUES, null, tuples);
+    file = File.createTempFile("btreeindex", ".idx");
+    file.deleteOnExit();
+    file.delete();
+    index = new BTreeIndex(file, table.getId(), 1);
+    Database.getCatalog().addIndex(index);
+    index.build(tid);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Returns the tuples of the table whose second field satisfies op v
+   */
+  private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int v) {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (new IntField(t.get(1)).compare(op, new IntField(v)))
+        l.add(t);
+    return l;
+  }
+
+  private IndexScan scan(Predicate.Op op, int v) {
+    return new IndexScan(tid, index, "t", new IndexPredicate(op,
+        new IntField(v)));
+  }
+
+  /**
+   * Test equality and range lookups against the contents of the table
+   */
+  @Test public void lookups() throws Exception {
+    SystemTestUtil.matchTuples(scan(Predicate.Op.EQUALS, 7),
+        matching(Predicate.Op.EQUALS, 7));
+    SystemTestUtil.matchTuples(scan(Predicate.Op.LESS_THAN, 5),
+        matching(Predicate.Op.LESS_THAN, 5));
+    SystemTestUtil.matchTuples(scan(Predicate.Op.GREATER_THAN_OR_EQ, 45),
+        matching(Predicate.Op.GREATER_THAN_OR_EQ, 45));
+  }
+
+  /**
+   * Test that the tuples come out in order of the indexed field
+   */
+  @Test public void ordered() throws Exception {
+    IndexScan scan = new IndexScan(tid, index, "t", null);
+    scan.open();
+    int n = 0, last = Integer.MIN_VALUE;
+    while (scan.hasNext()) {
+      int v = ((IntField) scan.next().getField(1)).getValue();
+      assertTrue(v >= last);
+      last = v;
+      n++;
+    }
+    scan.close();
+    assertEquals(ROWS, n);
+  }
+
+  /**
+   * Test that inserts and deletes through the BufferPool maintain the index
+   */
+  @Test public void maintenance() throws Exception {
+    Tuple t = Utility.getHeapTuple(new int[] { 1, VALUES + 1 });
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    ArrayList<Integer> row = new ArrayList<Integer>();
+    row.add(1);
+    row.add(VALUES + 1);
+    tuples.add(row);
+    SystemTestUtil.matchTuples(scan(Predicate.Op.GREATER_THAN, VALUES),
+        matching(Predicate.Op.GREATER_THAN, VALUES));
+
+    // delete every tuple with the value 3, as found through the index
+    IndexScan s = scan(Predicate.Op.EQUALS, 3);
+    s.open();
+    while (s.hasNext())
+      Database.getBufferPool().deleteTuple(tid, s.next());
+    s.close();
+    s.open();
+    assertTrue(TestUtil.checkExhausted(s));
+    s.close();
+    tuples.removeAll(matching(Predicate.Op.EQUALS, 3));
+    SystemTestUtil.matchTuples(scan(Predicate.Op.LESS_THAN_OR_EQ, 4),
+        matching(Predicate.Op.LESS_THAN_OR_EQ, 4));
+  }
+
+  /**
+   * Test the indexes the catalog reports for a table
+   */
+  @Test public void catalog() throws Exception {
+    Catalog c = Database.getCatalog();
+    assertEquals(1, c.getIndexes(table.getId()).size());
+    assertSame(index, c.getIndex(table.getId(), 1, Predicate.Op.LESS_THAN));
+    assertNull(c.getIndex(table.getId(), 1, Predicate.Op.LIKE));
+    assertNull(c.getIndex(table.getId(), 0, Predicate.Op.EQUALS));
+    // the pages of the index are read through the catalog
+    assertSame(index.getFile(), c.getDatabaseFile(index.getFile().getId()));
+  }
+
+  /**
+   * Test that an index over an unknown table is rejected
+   */
+  @Test(expected = NoSuchElementException.class)
+  public void unknownTable() throws Exception {
+    Database.getCatalog().clear();
+    Database.getCatalog().addIndex(index);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeIndexTest.class);
+  }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchOperatorsTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HeapFile small;
+  private HeapFile big;
+
+  /**
+   * Initialize each unit test with a small table whose keys cover few of the
+   * values of a big one, which spans several batches
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    small = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(small, "s");
+    big = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(big, "b");
+  }
+
+  /** @return the rows of it, sorted */
+  private ArrayList<ArrayList<Integer>> collect(DbIterator it)
+      throws Exception {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext())
+      l.add(SystemTestUtil.tupleToList(it.next()));
+    it.close();
+    Collections.sort(l, new java.util.Comparator<ArrayList<Integer>>() {
+      public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+        return a.toString().compareTo(b.toString());
+      }
+    });
+    return l;
+  }
+
+  private BatchIterator scan(HeapFile f, String alias) {
+    return new BatchSeqScan(tid, f.getId(), alias);
+  }
+
+  /**
+   * Test that a batch scan, filter and projection return the rows of the
+   * equivalent operators, and that the adapters round-trip any operator
+   */
+  @Test public void filterProject() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(1, op, new IntField(500));
+      ArrayList<Integer> fields = new ArrayList<Integer>();
+      fields.add(2);
+      fields.add(0);
+      DbIterator expected = new Project(fields, new Type[] { Type.INT_TYPE,
+          Type.INT_TYPE }, new Filter(p, new SeqScan(tid, big.getId(), "b")));
+      DbIterator actual = new Unbatcher(new BatchProject(new int[] { 2, 0 },
+          new BatchFilter(p, scan(big, "b"))));
+      assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+      assertEquals(collect(expected), collect(actual));
+    }
+    assertEquals(collect(new SeqScan(tid, big.getId(), "b")),
+        collect(new Unbatcher(new Batcher(new SeqScan(tid, big.getId(),
+            "b"), 7))));
+  }
+
+  /**
+   * Test that a batch scan returns the rows of a scan whatever its batch
+   * size, and skips the pages its page filters rule out as a scan does
+   */
+  @Test public void scanPages() throws Exception {
+    for (int size : new int[] { 1, 7, 1000, TupleBatch.DEFAULT_SIZE }) {
+      assertEquals(collect(new SeqScan(tid, big.getId(), "b")),
+          collect(new Unbatcher(new BatchSeqScan(new SeqScan(tid,
+              big.getId(), "b"), size))));
+    }
+
+    big.setClusterKey(1);
+    big.reorganize();
+    Predicate[] preds = { new Predicate(1, Predicate.Op.LESS_THAN,
+        new IntField(100)) };
+    SeqScan expected = new SeqScan(tid, big.getId(), "b");
+    expected.setPageFilters(preds);
+    BatchSeqScan actual = new BatchSeqScan(tid, big.getId(), "b");
+    actual.getScan().setPageFilters(preds);
+    ArrayList<ArrayList<Integer>> rows = collect(expected);
+    assertTrue(rows.size() < 5000);
+    assertEquals(rows, collect(new Unbatcher(actual)));
+  }
+
+  /**
+   * Test that a batch scan decodes the string columns of heap pages as a
+   * scan parses them
+   */
+  @Test public void scanStrings() throws Exception {
+    Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+    File text = File.createTempFile("strings", ".txt");
+    text.deleteOnExit();
+    BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < 1000; i++)
+      bw.write(i + ",name" + (i % 50) + "\n");
+    bw.close();
+    File data = File.createTempFile("strings", ".dat");
+    data.deleteOnExit();
+    HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, types);
+    HeapFile f = new HeapFile(data, new TupleDesc(types, new String[] {
+        "id", "name" }));
+    Database.getCatalog().addTable(f, "t");
+
+    ArrayList<String> expected = new ArrayList<String>();
+    DbIterator it = new SeqScan(tid, f.getId(), "t");
+    it.open();
+    while (it.hasNext())
+      expected.add(it.next().toString());
+    it.close();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    ArrayList<String> actual = new ArrayList<String>();
+    it = new Unbatcher(new BatchSeqScan(new SeqScan(tid, f.getId(), "t"),
+        7));
+    it.open();
+    while (it.hasNext())
+      actual.add(it.next().toString());
+    it.close();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Test that a batch hash join returns the rows of a hash join, even when
+   * a probe row has more matches than fit in a batch
+   */
+  @Test public void join() throws Exception {
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    ArrayList<ArrayList<Integer>> expected = collect(new HashEquiJoin(p,
+        new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(),
+            "b")));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, collect(new Unbatcher(new BatchHashEquiJoin(p,
+        scan(small, "s"), scan(big, "b")))));
+
+    // each probe row matches every row of a table of one key
+    HashMap<Integer, Integer> seven = new HashMap<Integer, Integer>();
+    seven.put(0, 7);
+    HeapFile same = SystemTestUtil.createRandomHeapFile(2, 2500, 1000, seven,
+        null, "c");
+    Database.getCatalog().addTable(same, "k");
+    HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 3, 1000, seven,
+        null, "c");
+    Database.getCatalog().addTable(probe, "p");
+    JoinPredicate p0 = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    expected = collect(new HashEquiJoin(p0, new SeqScan(tid, same.getId(),
+        "k"), new SeqScan(tid, probe.getId(), "p")));
+    assertEquals(2500 * 3, expected.size());
+    assertEquals(expected, collect(new Unbatcher(new BatchHashEquiJoin(p0,
+        scan(same, "k"), scan(probe, "p")))));
+  }
+
+  /**
+   * Test that a batch aggregate returns the groups of an aggregate
+   */
+  @Test public void aggregate() throws Exception {
+    int[] afields = { 2, 2, 0 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MAX,
+        Aggregator.Op.COUNT };
+    Aggregate expected = new Aggregate(new SeqScan(tid, big.getId(), "b"),
+        afields, new int[] { 1 }, ops);
+    BatchAggregate actual = new BatchAggregate(scan(big, "b"), afields,
+        new int[] { 1 }, ops);
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    assertEquals(collect(expected), collect(new Unbatcher(actual)));
+
+    actual = new BatchAggregate(new BatchFilter(new Predicate(1,
+        Predicate.Op.LESS_THAN, new IntField(100)), scan(big, "b")),
+        new int[] { 0 }, new int[0], new Aggregator.Op[] {
+            Aggregator.Op.COUNT });
+    expected = new Aggregate(new Filter(new Predicate(1,
+        Predicate.Op.LESS_THAN, new IntField(100)), new SeqScan(tid, big
+        .getId(), "b")), 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+    assertEquals(collect(expected), collect(new Unbatcher(actual)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOperatorsTest.class);
+  }
+}
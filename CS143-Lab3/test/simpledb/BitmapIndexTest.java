@@ -0,0 +1,226 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 2000;
+  private static final String[] GENDERS = { "F", "M", "X" };
+
+  private TransactionId tid;
+  private File dataFile;
+  private File genderFile;
+  private File genreFile;
+  private HeapFile table;
+  private BitmapIndex gender;
+  private BitmapIndex genre;
+
+  /**
+   * Initialize each unit test with a table of (id, gender, genre) rows,
+   * with bitmap indexes on gender and genre
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    File text = File.createTempFile("bitmap", ".txt");
+    text.deleteOnExit();
+    BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++)
+      bw.write(i + "," + GENDERS[i % 3] + "," + (i % 20) + "\n");
+    bw.close();
+    dataFile = File.createTempFile("bitmap", ".dat");
+    dataFile.deleteOnExit();
+    Type[] types = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    HeapFileEncoder.convert(text, dataFile, BufferPool.getPageSize(), 3, types);
+    table = new HeapFile(dataFile, new TupleDesc(types, new String[] { "id",
+        "gender", "genre" }));
+    Database.getCatalog().addTable(table, "p");
+
+    genderFile = File.createTempFile("bitmap", ".bmp");
+    genderFile.deleteOnExit();
+    genreFile = File.createTempFile("bitmap", ".bmp");
+    genreFile.deleteOnExit();
+    gender = new BitmapIndex(genderFile, table.getId(), 1);
+    genre = new BitmapIndex(genreFile, table.getId(), 2);
+    Database.getCatalog().addIndex(gender);
+    Database.getCatalog().addIndex(genre);
+    gender.build(tid);
+    genre.build(tid);
+  }
+
+  @After public void tearDown() {
+    genderFile.delete();
+    genreFile.delete();
+    dataFile.delete();
+  }
+
+  private static Field g(String s) {
+    return new StringField(s, Type.STRING_LEN);
+  }
+
+  /** @return the ids of the tuples returned by it */
+  private TreeSet<Integer> ids(DbIterator it) throws Exception {
+    TreeSet<Integer> ids = new TreeSet<Integer>();
+    it.open();
+    while (it.hasNext())
+      assertTrue(ids.add(((IntField) it.next().getField(0)).getValue()));
+    it.close();
+    return ids;
+  }
+
+  /** @return the ids of the rows the predicates select */
+  private TreeSet<Integer> expected(String gender, Predicate.Op op, int genre,
+      boolean any) {
+    TreeSet<Integer> ids = new TreeSet<Integer>();
+    for (int i = 0; i < ROWS; i++) {
+      boolean a = GENDERS[i % 3].equals(gender);
+      boolean b = new IntField(i % 20).compare(op, new IntField(genre));
+      if (any ? a || b : a && b)
+        ids.add(i);
+    }
+    return ids;
+  }
+
+  private BitmapHeapScan scan(String gv, Predicate.Op op, int gr, boolean any) {
+    return new BitmapHeapScan(tid, "p", new BitmapIndex[] { gender, genre },
+        new Predicate[] { new Predicate(1, Predicate.Op.EQUALS, g(gv)),
+            new Predicate(2, op, new IntField(gr)) }, any);
+  }
+
+  /**
+   * Test the set operations of bitmaps, including chunks dense enough to
+   * be kept as bitsets
+   */
+  @Test public void bitmap() {
+    Random rand = new Random(6830);
+    Bitmap a = new Bitmap(), b = new Bitmap();
+    TreeSet<Integer> sa = new TreeSet<Integer>(), sb = new TreeSet<Integer>();
+    for (int i = 0; i < 20000; i++) {
+      int x = rand.nextInt(1 << 17);
+      a.add(x);
+      sa.add(x);
+      int y = rand.nextInt(1 << 13) * 3;
+      b.add(y);
+      sb.add(y);
+    }
+    for (int i = 0; i < 5000; i++) {
+      int x = rand.nextInt(1 << 17);
+      a.remove(x);
+      sa.remove(x);
+    }
+    assertEquals(sa.size(), a.cardinality());
+    TreeSet<Integer> and = new TreeSet<Integer>(sa);
+    and.retainAll(sb);
+    TreeSet<Integer> or = new TreeSet<Integer>(sa);
+    or.addAll(sb);
+    assertEquals(new ArrayList<Integer>(and), toList(a.and(b).toArray()));
+    assertEquals(new ArrayList<Integer>(or), toList(a.or(b).toArray()));
+    assertTrue(a.contains(sa.first()));
+    assertFalse(a.contains(1 << 20));
+  }
+
+  private static ArrayList<Integer> toList(int[] a) {
+    ArrayList<Integer> l = new ArrayList<Integer>();
+    for (int x : a)
+      l.add(x);
+    return l;
+  }
+
+  /**
+   * Test lookups on a string field through an IndexScan
+   */
+  @Test public void lookups() throws Exception {
+    assertEquals(3, gender.numValues());
+    TreeSet<Integer> ids = ids(new IndexScan(tid, gender, "p",
+        new IndexPredicate(Predicate.Op.EQUALS, g("M"))));
+    assertEquals(expected("M", Predicate.Op.LESS_THAN, 0, true), ids);
+    assertEquals(ROWS, ids(new IndexScan(tid, genre, "p", null)).size());
+    assertEquals(ROWS * 13 / 20, ids(new IndexScan(tid, genre, "p",
+        new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(6))))
+        .size());
+  }
+
+  /**
+   * Test the intersection and union of predicates on two fields
+   */
+  @Test public void andOr() throws Exception {
+    assertEquals(expected("F", Predicate.Op.EQUALS, 4, false),
+        ids(scan("F", Predicate.Op.EQUALS, 4, false)));
+    assertEquals(expected("X", Predicate.Op.LESS_THAN, 3, false),
+        ids(scan("X", Predicate.Op.LESS_THAN, 3, false)));
+    assertEquals(expected("M", Predicate.Op.EQUALS, 9, true),
+        ids(scan("M", Predicate.Op.EQUALS, 9, true)));
+  }
+
+  /**
+   * Test that inserts and deletes through the BufferPool maintain the
+   * bitmaps, and that saved bitmaps are read back
+   */
+  @Test public void maintenance() throws Exception {
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(ROWS));
+    t.setField(1, g("F"));
+    t.setField(2, new IntField(4));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    TreeSet<Integer> exp = expected("F", Predicate.Op.EQUALS, 4, false);
+    exp.add(ROWS);
+    assertEquals(exp, ids(scan("F", Predicate.Op.EQUALS, 4, false)));
+
+    BitmapHeapScan s = scan("F", Predicate.Op.EQUALS, 4, false);
+    s.open();
+    while (s.hasNext())
+      Database.getBufferPool().deleteTuple(tid, s.next());
+    s.close();
+    assertTrue(ids(scan("F", Predicate.Op.EQUALS, 4, false)).isEmpty());
+
+    gender.save();
+    BitmapIndex reread = new BitmapIndex(genderFile, table.getId(), 1);
+    assertEquals(gender.lookup(Predicate.Op.EQUALS, g("F")).cardinality(),
+        reread.lookup(Predicate.Op.EQUALS, g("F")).cardinality());
+  }
+
+  /**
+   * Test that the planner intersects the bitmaps of selective filters on
+   * two indexed fields
+   */
+  @Test public void planner() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("p", new TableStats(table.getId(), 1000));
+    Parser parser = new Parser();
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM p WHERE p.gender = 'M' AND p.genre = 3 AND p.id > 10;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    assertTrue(plan instanceof BitmapHeapScan);
+    assertEquals(2, ((BitmapHeapScan) plan).getPredicates().length);
+
+    TreeSet<Integer> exp = expected("M", Predicate.Op.EQUALS, 3, false);
+    assertEquals(exp, ids(lp.physicalPlan(tid, stats, false)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BitmapIndexTest.class);
+  }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ClusteredTableTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+
+  private TransactionId tid;
+  private File file;
+  private HeapFile hf;
+  private ArrayList<ArrayList<Integer>> tuples;
+
+  /**
+   * Initialize each unit test with a table of random tuples, clustered on
+   * its first field
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    Random rand = new Random(6830);
+    tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      t.add(rand.nextInt(1000));
+      t.add(i);
+      tuples.add(t);
+    }
+    file = File.createTempFile("clustered", ".dat");
+    file.deleteOnExit();
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    hf = new HeapFile(file, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(hf, "t");
+    hf.setClusterKey(0);
+  }
+
+  @After public void tearDown() {
+    hf.getZoneMap().getFile().delete();
+    file.delete();
+  }
+
+  /** @return the first fields of the tuples of the table, in file order */
+  private ArrayList<Integer> keys() throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    return keys;
+  }
+
+  /**
+   * Test that reorganizing sorts the file on the cluster key and keeps
+   * every tuple
+   */
+  @Test public void reorganize() throws Exception {
+    assertFalse(hf.isClustered());
+    hf.reorganize();
+    assertTrue(hf.isClustered());
+    ArrayList<Integer> keys = keys();
+    ArrayList<Integer> sorted = new ArrayList<Integer>(keys);
+    Collections.sort(sorted);
+    assertEquals(sorted, keys);
+    SystemTestUtil.matchTuples(hf, tuples);
+
+    // the order is recorded with the zone map, not recomputed
+    HeapFile reopened = new HeapFile(file, hf.getTupleDesc());
+    reopened.setClusterKey(0);
+    assertTrue(reopened.isClustered());
+    reopened.setClusterKey(1);
+    assertFalse(reopened.isClustered());
+  }
+
+  /**
+   * Test that a file larger than a sorted run is sorted in runs that are
+   * merged, keeping every tuple
+   */
+  @Test public void reorganizeRuns() throws Exception {
+    hf.reorganize(700);
+    assertTrue(hf.isClustered());
+    ArrayList<Integer> keys = keys();
+    ArrayList<Integer> sorted = new ArrayList<Integer>(keys);
+    Collections.sort(sorted);
+    assertEquals(sorted, keys);
+    SystemTestUtil.matchTuples(hf, tuples);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  private Tuple tuple(int key) {
+    Tuple t = new Tuple(hf.getTupleDesc());
+    t.setField(0, new IntField(key));
+    t.setField(1, new IntField(-1));
+    return t;
+  }
+
+  /**
+   * Test that inserts in order of the key keep the file clustered, and that
+   * one out of order does not
+   */
+  @Test public void inserts() throws Exception {
+    hf.reorganize();
+    for (int i = 0; i < 100; i++)
+      Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000 + i));
+    assertTrue(hf.isClustered());
+
+    Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(0));
+    assertFalse(hf.isClustered());
+    Database.getBufferPool().flushAllPages();
+    hf.reorganize();
+    assertTrue(hf.isClustered());
+    assertEquals(ROWS + 101, keys().size());
+  }
+
+  /** @return the operators of a plan over one table, from the top */
+  private static ArrayList<DbIterator> operators(DbIterator plan) {
+    ArrayList<DbIterator> ops = new ArrayList<DbIterator>();
+    ops.add(plan);
+    while (plan instanceof Operator) {
+      plan = ((Operator) plan).getChildren()[0];
+      ops.add(plan);
+    }
+    return ops;
+  }
+
+  private static boolean contains(DbIterator plan, Class<?> c) {
+    for (DbIterator op : operators(plan))
+      if (c.isInstance(op))
+        return true;
+    return false;
+  }
+
+  /**
+   * Test that the planner neither sorts nor hashes on the cluster key
+   */
+  @Test public void planner() throws Exception {
+    hf.reorganize();
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(hf.getId(), 1000));
+    Parser parser = new Parser();
+
+    DbIterator plan = parser.generateLogicalPlan(tid,
+        "SELECT t.c0 FROM t ORDER BY t.c0;").physicalPlan(tid, stats, false);
+    assertFalse(contains(plan, OrderBy.class));
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    plan.open();
+    while (plan.hasNext())
+      keys.add(((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+    assertEquals(keys(), keys);
+
+    plan = parser.generateLogicalPlan(tid,
+        "SELECT t.c1 FROM t ORDER BY t.c1;").physicalPlan(tid, stats, false);
+    assertTrue(contains(plan, OrderBy.class));
+
+    plan = parser.generateLogicalPlan(tid,
+        "SELECT t.c0, COUNT(t.c1) FROM t GROUP BY t.c0;").physicalPlan(tid,
+        stats, false);
+    assertTrue(contains(plan, StreamAggregate.class));
+  }
+
+  /**
+   * Test that an index on the cluster key is clustered
+   */
+  @Test public void clusteredIndex() throws Exception {
+    hf.reorganize();
+    File idxFile = File.createTempFile("clustered", ".idx");
+    idxFile.deleteOnExit();
+    idxFile.delete();
+    BTreeIndex idx = new BTreeIndex(idxFile, hf.getId(), 0);
+    BTreeIndex other = new BTreeIndex(idxFile, hf.getId(), 1);
+    assertTrue(idx.isClustered());
+    assertFalse(other.isClustered());
+    idxFile.delete();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ClusteredTableTest.class);
+  }
+}
@@ -0,0 +1,289 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+  private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE,
+      Type.INT_TYPE };
+
+  private TransactionId tid;
+  private TupleDesc td;
+  private File heapFile;
+  private HeapFile heap;
+  private ColumnFile columns;
+  /** the number of pages of each column read from disk */
+  private int[] reads;
+
+  /**
+   * Initialize each unit test with a table of (id, name, v) rows stored in
+   * a heap file and loaded into a column file
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    File text = File.createTempFile("columns", ".txt");
+    text.deleteOnExit();
+    BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++)
+      bw.write(i + ",name" + (i % 50) + "," + (i % 10) + "\n");
+    bw.close();
+    td = new TupleDesc(TYPES, new String[] { "id", "name", "v" });
+
+    heapFile = File.createTempFile("columns", ".dat");
+    heapFile.deleteOnExit();
+    HeapFileEncoder.convert(text, heapFile, BufferPool.getPageSize(), 3,
+        TYPES);
+    heap = new HeapFile(heapFile, td);
+    Database.getCatalog().addTable(heap, "h");
+
+    // the column file is named after a file of its own, so that both are in
+    // the catalog at once
+    File named = new File(heapFile.getPath() + ".c");
+    reads = new int[TYPES.length];
+    columns = new ColumnFile(named, td) {
+      public Page readPage(PageId pid) {
+        reads[((ColumnPageId) pid).getColumn()]++;
+        return super.readPage(pid);
+      }
+    };
+    Database.getCatalog().addTable(columns, "c");
+    columns.load(heap);
+  }
+
+  @After public void tearDown() {
+    for (int i = 0; i < TYPES.length; i++)
+      columns.getColumnFile(i).delete();
+    heap.getZoneMap().getFile().delete();
+    heapFile.delete();
+  }
+
+  /** @return the tuples read by it, as strings, in the order they are read */
+  private ArrayList<String> contents(DbFileIterator it) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    it.close();
+    return l;
+  }
+
+  /**
+   * Test that the column file holds the rows of the heap file, in order
+   */
+  @Test public void load() throws Exception {
+    assertEquals(contents(heap.iterator(tid)),
+        contents(columns.iterator(tid)));
+    // a page holds fewer strings than ints
+    assertTrue(columns.numPages(1) > columns.numPages(0));
+    assertEquals(columns.numPages(0), columns.numPages(2));
+  }
+
+  /**
+   * Test that a scan of some of the columns only reads their pages
+   */
+  @Test public void projection() throws Exception {
+    SeqScan ss = new SeqScan(tid, columns.getId(), "c");
+    ss.setColumns(new int[] { 2 });
+    ss.open();
+    int n = 0;
+    long sum = 0;
+    while (ss.hasNext()) {
+      Tuple t = ss.next();
+      assertNull(t.getField(0));
+      assertNull(t.getField(1));
+      sum += ((IntField) t.getField(2)).getValue();
+      n++;
+    }
+    ss.close();
+    assertEquals(ROWS, n);
+    assertEquals(ROWS / 10 * 45, sum);
+    assertEquals(0, reads[0]);
+    assertEquals(0, reads[1]);
+    assertEquals(columns.numPages(2), reads[2]);
+  }
+
+  private Tuple tuple(int id) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField("new", Type.STRING_LEN));
+    t.setField(2, new IntField(-id));
+    return t;
+  }
+
+  /**
+   * Test that deleted rows are skipped and inserted rows appended, across
+   * new pages of every column
+   */
+  @Test public void updates() throws Exception {
+    DbFileIterator it = columns.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    Database.getBufferPool().deleteTuple(tid, first);
+    int pages = columns.numPages();
+    for (int i = 0; i < 500; i++)
+      Database.getBufferPool().insertTuple(tid, columns.getId(),
+          tuple(ROWS + i));
+    assertTrue(columns.numPages() > pages);
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    ArrayList<String> l = contents(columns.iterator(tid));
+    assertEquals(ROWS - 1 + 500, l.size());
+    assertFalse(l.contains(first.toString()));
+    assertEquals(tuple(ROWS + 499).toString(), l.get(l.size() - 1));
+    assertEquals(l.subList(l.size() - 500, l.size()),
+        contents(columns.iterator(tid, new int[] { 0, 1, 2 }))
+            .subList(l.size() - 500, l.size()));
+  }
+
+  /**
+   * Test that the planner reads only the columns a query uses, including
+   * for COUNT(*)
+   */
+  @Test public void planner() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("c", new TableStats(columns.getId(), 1000));
+    // the statistics are built from every column
+    reads = new int[TYPES.length];
+    Parser parser = new Parser();
+    DbIterator plan = parser.generateLogicalPlan(tid,
+        "SELECT AVG(c.id) FROM c WHERE c.v = 3;").physicalPlan(tid, stats,
+        false);
+    plan.open();
+    // ids 3, 13, ..., 2993
+    assertEquals(1498, ((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+
+    plan = parser.generateLogicalPlan(tid, "SELECT COUNT(*) FROM c;")
+        .physicalPlan(tid, stats, false);
+    plan.open();
+    assertEquals(ROWS, ((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+    assertEquals(0, reads[1]);
+  }
+
+  /** @return a column file of the table with the name column encoded */
+  private ColumnFile encoded() throws Exception {
+    ColumnFile d = new ColumnFile(new File(heapFile.getPath() + ".d"), td,
+        new boolean[] { false, true, false });
+    Database.getCatalog().addTable(d, "d");
+    d.load(heap);
+    return d;
+  }
+
+  private void delete(ColumnFile f) {
+    for (int i = 0; i < TYPES.length; i++) {
+      f.getColumnFile(i).delete();
+      if (f.getDictionary(i) != null)
+        f.getDictionary(i).clear();
+    }
+  }
+
+  /**
+   * Test that an encoded column stores codes, and reads the rows back with
+   * one field per distinct value
+   */
+  @Test public void dictionary() throws Exception {
+    ColumnFile d = encoded();
+    try {
+      assertEquals(contents(heap.iterator(tid)), contents(d.iterator(tid)));
+      assertEquals(50, d.getDictionary(1).size());
+      assertEquals(d.numPages(0), d.numPages(1));
+      assertTrue(d.numPages(1) * 10 < columns.numPages(1));
+
+      DbFileIterator it = d.iterator(tid);
+      it.open();
+      Field first = it.next().getField(1);
+      for (int i = 1; i < 50; i++)
+        it.next();
+      assertTrue(first == it.next().getField(1));
+      it.close();
+
+      // the dictionary is read back from its file
+      Database.getBufferPool().insertTuple(tid, d.getId(), tuple(ROWS));
+      Database.getBufferPool().flushAllPages();
+      assertEquals(51, d.getDictionary(1).size());
+      Database.reset();
+      ColumnFile reread = new ColumnFile(d.getFile(), td, new boolean[] {
+          false, true, false });
+      Database.getCatalog().addTable(reread, "d");
+      ArrayList<String> l = contents(reread.iterator(new TransactionId()));
+      assertEquals(ROWS + 1, l.size());
+      assertEquals(tuple(ROWS).toString(), l.get(ROWS));
+    } finally {
+      delete(d);
+    }
+  }
+
+  /**
+   * Test that filters and grouping on an encoded column work on the
+   * encoded constants and fields
+   */
+  @Test public void encodedQueries() throws Exception {
+    ColumnFile d = encoded();
+    try {
+      Field c = d.encode(1, new StringField("name7", Type.STRING_LEN));
+      assertEquals(7, ((EncodedStringField) c).getCode());
+      Field none = d.encode(1, new StringField("none", Type.STRING_LEN));
+      assertEquals(-1, ((EncodedStringField) none).getCode());
+      // values missing from the dictionary share code -1, so they must be
+      // compared by value
+      Field other = d.encode(1, new StringField("other", Type.STRING_LEN));
+      assertFalse(none.equals(other));
+      assertFalse(none.compare(Predicate.Op.EQUALS, other));
+      assertTrue(none.compare(Predicate.Op.NOT_EQUALS, other));
+      assertTrue(none.equals(d.encode(1, new StringField("none",
+          Type.STRING_LEN))));
+      assertFalse(c.equals(none));
+
+      HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+      stats.put("d", new TableStats(d.getId(), 1000));
+      Parser parser = new Parser();
+      DbIterator plan = parser.generateLogicalPlan(tid,
+          "SELECT d.name, COUNT(d.id) FROM d WHERE d.name = 'name7' "
+              + "GROUP BY d.name;").physicalPlan(tid, stats, false);
+      plan.open();
+      Tuple t = plan.next();
+      assertEquals("name7", t.getField(0).toString());
+      assertEquals(ROWS / 50, ((IntField) t.getField(1)).getValue());
+      assertFalse(plan.hasNext());
+      plan.close();
+
+      plan = parser.generateLogicalPlan(tid,
+          "SELECT d.id FROM d WHERE d.name = 'none';").physicalPlan(tid,
+          stats, false);
+      plan.open();
+      assertFalse(plan.hasNext());
+      plan.close();
+    } finally {
+      delete(d);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnFileTest.class);
+  }
+}
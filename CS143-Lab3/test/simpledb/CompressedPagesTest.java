@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompressedPagesTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 2000;
+  private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE };
+
+  private TransactionId tid;
+  private TupleDesc td;
+  private File plainFile;
+  private File compressedFile;
+  private HeapFile plain;
+  private HeapFile compressed;
+
+  /**
+   * Initialize each unit test with the same table of (id, name) rows stored
+   * plain and compressed
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    File text = File.createTempFile("compressed", ".txt");
+    text.deleteOnExit();
+    BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++)
+      bw.write(i + ",name" + (i % 50) + "\n");
+    bw.close();
+    td = new TupleDesc(TYPES, new String[] { "id", "name" });
+
+    plainFile = File.createTempFile("plain", ".dat");
+    plainFile.deleteOnExit();
+    HeapFileEncoder.convert(text, plainFile, BufferPool.getPageSize(), 2,
+        TYPES);
+    plain = new HeapFile(plainFile, td);
+    Database.getCatalog().addTable(plain, "p");
+
+    compressedFile = File.createTempFile("compressed", ".dat");
+    compressedFile.deleteOnExit();
+    HeapFileEncoder.convert(text, compressedFile, BufferPool.getPageSize(),
+        2, TYPES);
+    assertFalse(CompressedPages.isCompressed(compressedFile));
+    CompressedPages.compress(compressedFile);
+    assertTrue(CompressedPages.isCompressed(compressedFile));
+    compressed = new HeapFile(compressedFile, td, true);
+    Database.getCatalog().addTable(compressed, "c");
+  }
+
+  @After public void tearDown() {
+    plain.getZoneMap().getFile().delete();
+    compressed.getZoneMap().getFile().delete();
+    plainFile.delete();
+    compressedFile.delete();
+  }
+
+  /** @return the tuples of f, as strings, in the order they are read */
+  private ArrayList<String> contents(DbFile f) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    it.close();
+    return l;
+  }
+
+  /**
+   * Test that the compressed file holds the same pages in a fraction of the
+   * bytes, and that the optimizer sees a cheaper scan
+   */
+  @Test public void compression() throws Exception {
+    assertEquals(plain.numPages(), compressed.numPages());
+    assertEquals(contents(plain), contents(compressed));
+    assertTrue(compressedFile.length() * 4 < plainFile.length());
+    assertTrue(compressed.numDiskPages() * 4 < plain.numDiskPages());
+    assertTrue(new TableStats(compressed.getId(), 1000).estimateScanCost()
+        * 4 < new TableStats(plain.getId(), 1000).estimateScanCost());
+  }
+
+  private Tuple tuple(int id) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField("new", Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Test that pages written back, including new ones, are read back from a
+   * new HeapFile, and that compressing the file again drops the old copies
+   * of the rewritten pages
+   */
+  @Test public void updates() throws Exception {
+    int pages = compressed.numPages();
+    DbFileIterator it = compressed.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    Database.getBufferPool().deleteTuple(tid, first);
+    // fill the free slot, and then a new page
+    for (int i = 0; i < 200; i++)
+      Database.getBufferPool().insertTuple(tid, compressed.getId(),
+          tuple(ROWS + i));
+    Database.getBufferPool().flushAllPages();
+    assertTrue(compressed.numPages() > pages);
+
+    Database.reset();
+    HeapFile reread = new HeapFile(compressedFile, td, true);
+    Database.getCatalog().addTable(reread, "c");
+    ArrayList<String> l = contents(reread);
+    assertEquals(ROWS - 1 + 200, l.size());
+    assertFalse(l.contains(first.toString()));
+    assertTrue(l.contains(tuple(ROWS).toString()));
+
+    long before = compressedFile.length();
+    CompressedPages.compress(compressedFile);
+    assertTrue(compressedFile.length() < before);
+    Database.reset();
+    reread = new HeapFile(compressedFile, td, true);
+    Database.getCatalog().addTable(reread, "c");
+    assertEquals(l, contents(reread));
+  }
+
+  /**
+   * Test that rewriting a page over and over leaves the file within twice
+   * the bytes its pages and directory take, and reads back the last copy
+   */
+  @Test public void rewrites() throws Exception {
+    File f = File.createTempFile("rewrites", ".dat");
+    f.deleteOnExit();
+    CompressedPages pages = new CompressedPages(f);
+    byte[] data = new byte[BufferPool.getPageSize()];
+    for (int p = 0; p < 4; p++)
+      pages.write(p, data);
+    for (int i = 0; i < 1000; i++) {
+      data[0] = (byte) i;
+      pages.write(1, data);
+    }
+    assertTrue(f.length() <= 2 * (16 + pages.compressedSize() + 8 * 4));
+    CompressedPages reread = new CompressedPages(f);
+    assertEquals(4, reread.numPages());
+    assertTrue(Arrays.equals(data, reread.read(1)));
+    f.delete();
+  }
+
+  /**
+   * Test that a page cut short on disk fails to read rather than hanging
+   */
+  @Test(timeout = 10000) public void truncated() throws Exception {
+    File f = File.createTempFile("truncated", ".dat");
+    f.deleteOnExit();
+    new CompressedPages(f).write(0, HeapPage.createEmptyPageData());
+    // halve the length of page 0 in the directory the header points at
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.seek(8);
+    int directory = raf.readInt();
+    raf.seek(directory + 4);
+    int length = raf.readInt();
+    raf.seek(directory + 4);
+    raf.writeInt(length / 2);
+    raf.close();
+    try {
+      new CompressedPages(f).read(0);
+      fail("a truncated page was read");
+    } catch (IOException e) {
+      // expected
+    }
+    f.delete();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedPagesTest.class);
+  }
+}
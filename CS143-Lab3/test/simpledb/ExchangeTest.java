@@ -0,0 +1,312 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static final int N = 3;
+
+  private TransactionId tid;
+  private HeapFile a;
+  private HeapFile b;
+
+  /**
+   * Initialize each unit test with two tables of random tuples that join on
+   * some of their values
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    HeapFile[] tables = TestUtil.createJoinTables(null);
+    a = tables[0];
+    b = tables[1];
+  }
+
+  private DbIterator scan(HeapFile f) {
+    return new SeqScan(tid, f.getId());
+  }
+
+  /** @return the number of tuples of it */
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /** @return the threads of exchanges still running */
+  private static int exchangeThreads() {
+    Thread[] threads = new Thread[Thread.activeCount() + 16];
+    int n = Thread.enumerate(threads);
+    int running = 0;
+    for (int i = 0; i < n; i++) {
+      String name = threads[i].getName();
+      if (name.startsWith("gather") || name.startsWith("repartition")
+          || name.startsWith("broadcast"))
+        running++;
+    }
+    return running;
+  }
+
+  /**
+   * Test that a repartition splits its input by the hash of a field, and
+   * that a broadcast sends all of it to every consumer
+   */
+  @Test public void partitions() throws Exception {
+    ArrayList<String> all = TestUtil.sortedTupleStrings(scan(a));
+    DbIterator[] parts = Exchange.repartition(scan(a), 1, N, false);
+    ArrayList<String> union = new ArrayList<String>();
+    for (DbIterator p : parts)
+      p.open();
+    // read the partitions in turn, as the queues only hold a few batches
+    boolean more = true;
+    while (more) {
+      more = false;
+      for (int i = 0; i < N; i++) {
+        for (int k = 0; k < 100 && parts[i].hasNext(); k++) {
+          Tuple t = parts[i].next();
+          assertEquals(i, RepartitionProducer.partition(t.getField(1), N));
+          union.add(t.toString());
+        }
+        more |= parts[i].hasNext();
+      }
+    }
+    for (DbIterator p : parts)
+      p.close();
+    Collections.sort(union);
+    assertEquals(all, union);
+
+    DbIterator[] copies = Exchange.broadcast(scan(b), N, false);
+    ArrayList<String> expected = TestUtil.sortedTupleStrings(scan(b));
+    for (DbIterator c : copies)
+      c.open();
+    for (DbIterator c : copies) {
+      ArrayList<String> l = new ArrayList<String>();
+      while (c.hasNext())
+        l.add(c.next().toString());
+      Collections.sort(l);
+      assertEquals(expected, l);
+    }
+    for (DbIterator c : copies)
+      c.close();
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * Test that partitioned hash joins and aggregates return the tuples of
+   * the serial operators, and can be rewound
+   */
+  @Test public void parallelize() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.sortedTupleStrings(new HashEquiJoin(
+        p, scan(b), scan(a)));
+    assertFalse(expected.isEmpty());
+    DbIterator join = Exchange.parallelize(new HashEquiJoin(p, scan(b),
+        scan(a)), N);
+    assertTrue(join instanceof GatherConsumer);
+    assertEquals(N, ((Operator) join).getChildren().length);
+    assertEquals(expected, TestUtil.sortedTupleStrings(join));
+
+    join.open();
+    join.next();
+    join.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (join.hasNext())
+      again.add(join.next().toString());
+    join.close();
+    Collections.sort(again);
+    assertEquals(expected, again);
+
+    int[] g = { 1 };
+    int[] f = { 0, 0 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.COUNT };
+    expected = TestUtil.sortedTupleStrings(new Aggregate(scan(a), f, g, ops));
+    DbIterator agg = Exchange.parallelize(new Aggregate(scan(a), f, g, ops),
+        N);
+    assertTrue(agg instanceof GatherConsumer);
+    assertEquals(expected, TestUtil.sortedTupleStrings(agg));
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * Test that a run stops once the consumers that opened it have closed it,
+   * even if others never opened it, and that a consumer opened after that
+   * reads a new run of the child
+   */
+  @Test public void lateConsumer() throws Exception {
+    final int[] opens = { 0 };
+    DbIterator child = new SeqScan(tid, b.getId()) {
+      private static final long serialVersionUID = 1L;
+
+      public void open() throws DbException, TransactionAbortedException {
+        opens[0]++;
+        super.open();
+      }
+    };
+    DbIterator[] parts = Exchange.repartition(child, 1, N, false);
+    ArrayList<String> union = new ArrayList<String>();
+    // each partition fits in its queue, so each is read whole in turn
+    for (DbIterator p : parts) {
+      p.open();
+      while (p.hasNext())
+        union.add(p.next().toString());
+      p.close();
+    }
+    Collections.sort(union);
+    assertEquals(TestUtil.sortedTupleStrings(scan(b)), union);
+    assertEquals(N, opens[0]);
+    assertEquals(0, exchangeThreads());
+
+    // a consumer that stops early while its siblings never open
+    parts = Exchange.repartition(scan(a), 1, N, false);
+    parts[0].open();
+    assertTrue(parts[0].hasNext());
+    parts[0].next();
+    parts[0].close();
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * Test that partitioned joins finish when the first input of one has more
+   * tuples on one key than its hash table holds, so that it stops reading
+   * that input while its producer still has tuples for it
+   */
+  @Test(timeout = 120000) public void skewedBuild() throws Exception {
+    HashMap<Integer, Integer> hot = new HashMap<Integer, Integer>();
+    hot.put(0, 7);
+    HeapFile left = SystemTestUtil.createRandomHeapFile(2, 50000, 1000, hot,
+        null, "c");
+    Database.getCatalog().addTable(left, "l");
+    HeapFile right = SystemTestUtil.createRandomHeapFile(2, 20000, 20000,
+        null, null, "c");
+    Database.getCatalog().addTable(right, "r");
+
+    // every tuple of left falls in the partition of key 7
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertEquals(count(new HashEquiJoin(p, scan(left), scan(right))),
+        count(Exchange.parallelize(new HashEquiJoin(p, scan(left),
+            scan(right)), N)));
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * Test that a consumer keeps the tuples it reads only once asked to, and
+   * can then be rewound while the other consumers of its producer read on
+   */
+  @Test public void spool() throws Exception {
+    DbIterator[] parts = Exchange.broadcast(scan(a), 2, false);
+    parts[0].open();
+    parts[1].open();
+    ((PartitionConsumer) parts[0]).spool();
+    ArrayList<String> first = new ArrayList<String>();
+    // read the copies in turn, as the queues only hold a few batches
+    while (parts[0].hasNext() || parts[1].hasNext()) {
+      for (int k = 0; k < 100 && parts[0].hasNext(); k++)
+        first.add(parts[0].next().toString());
+      for (int k = 0; k < 100 && parts[1].hasNext(); k++)
+        parts[1].next();
+    }
+    assertEquals(4000, first.size());
+    parts[0].rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (parts[0].hasNext())
+      again.add(parts[0].next().toString());
+    assertEquals(first, again);
+    try {
+      parts[1].rewind();
+      fail("a consumer that kept nothing was rewound");
+    } catch (DbException e) {
+      // expected
+    }
+    parts[0].close();
+    parts[1].close();
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * Test that a plan drawn with a producer shared by two consumers draws
+   * the producer's child once
+   */
+  @Test public void sharedProducer() throws Exception {
+    DbIterator[] parts = Exchange.repartition(scan(a), 1, 2, false);
+    DbIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        parts[0], parts[1]);
+    String tree = new QueryPlanVisualizer().getQueryPlanTree(join);
+    assertEquals(tree.indexOf("scan("), tree.lastIndexOf("scan("));
+    assertTrue(tree.indexOf("scan(") >= 0);
+  }
+
+  /**
+   * Test that a tuple buffer returns the batches added, in order, when some
+   * are held in memory and the rest on disk
+   */
+  @Test public void tupleBuffer() throws Exception {
+    DbIterator it = scan(b);
+    TupleBuffer buf = new TupleBuffer(it.getTupleDesc(), 300);
+    ArrayList<String> expected = new ArrayList<String>();
+    it.open();
+    ArrayList<Tuple> batch = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      expected.add(t.toString());
+      batch.add(t);
+      if (batch.size() == 128 || !it.hasNext()) {
+        buf.add(batch);
+        batch = new ArrayList<Tuple>();
+      }
+    }
+    it.close();
+    assertTrue(buf.hasSpilled());
+    assertNull(buf.next());
+    for (int pass = 0; pass < 2; pass++) {
+      buf.rewind();
+      ArrayList<String> actual = new ArrayList<String>();
+      for (List<Tuple> l = buf.next(); l != null; l = buf.next())
+        for (Tuple t : l)
+          actual.add(t.toString());
+      assertEquals(expected, actual);
+    }
+    buf.close();
+  }
+
+  /**
+   * Test that closing a gather before its end stops its producers
+   */
+  @Test public void earlyClose() throws Exception {
+    DbIterator join = Exchange.parallelize(new HashEquiJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan(b), scan(a)), N);
+    join.open();
+    assertTrue(join.hasNext());
+    join.next();
+    join.close();
+    assertEquals(0, exchangeThreads());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
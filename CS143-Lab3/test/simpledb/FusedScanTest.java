@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FusedScanTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HashMap<String, TableStats> stats;
+
+  /**
+   * Initialize each unit test with two tables of random tuples that join on
+   * some of their values
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    stats = new HashMap<String, TableStats>();
+    TestUtil.createJoinTables(stats);
+  }
+
+  private static ArrayList<Integer> fields(int... f) {
+    ArrayList<Integer> l = new ArrayList<Integer>();
+    for (int i : f)
+      l.add(i);
+    return l;
+  }
+
+  /** @return the number of Filters and FusedScans in plan, in that order */
+  private static int[] count(DbIterator plan) {
+    int[] n = new int[2];
+    if (plan instanceof Filter)
+      n[0]++;
+    if (plan instanceof FusedScan)
+      n[1]++;
+    if (plan instanceof Operator)
+      for (DbIterator child : ((Operator) plan).getChildren()) {
+        int[] c = count(child);
+        n[0] += c[0];
+        n[1] += c[1];
+      }
+    return n;
+  }
+
+  /**
+   * Test that the filters and projection of a query over one table are
+   * fused into its scan, which returns the tuples of the unfused plan
+   */
+  @Test public void singleTable() throws Exception {
+    DbIterator plan = TestUtil.plan(tid,
+        "SELECT a.c2, a.c0 FROM a WHERE a.c1 < 50 AND a.c2 > 20;", stats);
+    assertTrue(plan instanceof FusedScan);
+    FusedScan fs = (FusedScan) plan;
+    assertEquals(2, fs.getPredicates().length);
+    assertArrayEquals(new int[] { 2, 0 }, fs.getOutFields());
+    assertEquals(2, fs.getTupleDesc().numFields());
+    assertEquals("a.c2", fs.getTupleDesc().getFieldName(0));
+    assertEquals(3, fs.getScanTupleDesc().numFields());
+
+    int table = Database.getCatalog().getTableId("a");
+    DbIterator unfused = new Project(fields(2, 0), new Type[] {
+        Type.INT_TYPE, Type.INT_TYPE }, new Filter(new Predicate(2,
+        Predicate.Op.GREATER_THAN, new IntField(20)), new Filter(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+        new SeqScan(tid, table, "a"))));
+    ArrayList<String> expected = TestUtil.tupleStrings(unfused);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, TestUtil.tupleStrings(plan));
+
+    // rewinding returns the same tuples again
+    plan.open();
+    plan.next();
+    plan.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (plan.hasNext())
+      again.add(plan.next().toString());
+    plan.close();
+    assertEquals(expected, again);
+  }
+
+  /**
+   * Test that the filters under a join are fused into the scans of the
+   * joined tables, and that the join returns the tuples of the unfused plan
+   */
+  @Test public void joins() throws Exception {
+    DbIterator plan = TestUtil.plan(tid,
+        "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND b.c1 < 20;", stats);
+    assertTrue(plan instanceof Project);
+    assertArrayEquals(new int[] { 0, 2 }, count(plan));
+
+    int a = Database.getCatalog().getTableId("a");
+    int b = Database.getCatalog().getTableId("b");
+    DbIterator unfused = new Project(fields(0, 4), new Type[] {
+        Type.INT_TYPE, Type.INT_TYPE }, new Join(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 0), new SeqScan(tid, a, "a"), new Filter(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)),
+        new SeqScan(tid, b, "b"))));
+    ArrayList<String> expected = TestUtil.tupleStrings(unfused);
+    ArrayList<String> actual = TestUtil.tupleStrings(plan);
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FusedScanTest.class);
+  }
+}
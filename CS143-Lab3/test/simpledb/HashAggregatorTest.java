@@ -0,0 +1,278 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  DbIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+  }
+
+  private HashAggregator aggregate(DbIterator scan, Aggregator.Op op,
+      int maxGroups) throws Exception {
+    TupleDesc td = scan.getTupleDesc();
+    HashAggregator agg = new HashAggregator(0, td.getFieldType(0), 1,
+        td.getFieldType(1), op, maxGroups);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+    return agg;
+  }
+
+  /**
+   * Checks that agg produces exactly the (group, value) pairs in expected,
+   * both before and after a rewind
+   */
+  private void checkResult(HashAggregator agg, int[] expected) throws Exception {
+    HashMap<Integer, Integer> want = new HashMap<Integer, Integer>();
+    for (int i = 0; i < expected.length; i += width1)
+      want.put(expected[i], expected[i + 1]);
+    DbIterator it = agg.iterator();
+    it.open();
+    for (int pass = 0; pass < 2; pass++) {
+      HashMap<Integer, Integer> got = new HashMap<Integer, Integer>();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        assertEquals(null, got.put(((IntField) t.getField(0)).getValue(),
+            ((IntField) t.getField(1)).getValue()));
+      }
+      assertEquals(want, got);
+      it.rewind();
+    }
+    it.close();
+  }
+
+  /**
+   * Test HashAggregator over each aggregate operator, all in memory
+   */
+  @Test public void mergeInMemory() throws Exception {
+    checkResult(aggregate(scan1, Aggregator.Op.SUM, 100),
+        new int[] { 1, 12, 3, 12, 5, 7 });
+    checkResult(aggregate(scan1, Aggregator.Op.MIN, 100),
+        new int[] { 1, 2, 3, 2, 5, 7 });
+    checkResult(aggregate(scan1, Aggregator.Op.MAX, 100),
+        new int[] { 1, 6, 3, 6, 5, 7 });
+    checkResult(aggregate(scan1, Aggregator.Op.AVG, 100),
+        new int[] { 1, 4, 3, 4, 5, 7 });
+    checkResult(aggregate(scan1, Aggregator.Op.COUNT, 100),
+        new int[] { 1, 3, 3, 3, 5, 1 });
+  }
+
+  /**
+   * Test that an aggregate whose value does not fit in an int field fails
+   * rather than returning a wrapped value
+   */
+  @Test public void overflow() throws Exception {
+    HashAggregator agg = aggregate(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE, 1, 1, 2, Integer.MIN_VALUE, 2, -1 }),
+        Aggregator.Op.SUM, 100);
+    DbIterator it = agg.iterator();
+    it.open();
+    try {
+      while (it.hasNext())
+        it.next();
+      fail("a SUM past the range of an int was returned");
+    } catch (DbException e) {
+      // expected
+    }
+    it.close();
+  }
+
+  /**
+   * Test HashAggregator without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    HashAggregator agg = new HashAggregator(Aggregator.NO_GROUPING, null, 1,
+        Type.INT_TYPE, Aggregator.Op.SUM, 1);
+    scan1.open();
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    assertFalse(agg.hasSpilled());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 31 }), it);
+    it.close();
+  }
+
+  /**
+   * Test that groups beyond the memory budget are spilled and still
+   * aggregated correctly
+   */
+  @Test public void spill() throws Exception {
+    int groups = 1000;
+    int[] data = new int[groups * 3 * width1];
+    for (int i = 0; i < groups * 3; i++) {
+      data[i * width1] = i % groups;
+      data[i * width1 + 1] = i;
+    }
+    HashAggregator agg = aggregate(TestUtil.createTupleList(width1, data),
+        Aggregator.Op.SUM, 8);
+    assertTrue(agg.hasSpilled());
+    assertEquals(8, agg.numGroupsInMemory());
+
+    int[] expected = new int[groups * width1];
+    for (int g = 0; g < groups; g++) {
+      expected[g * width1] = g;
+      expected[g * width1 + 1] = 3 * g + 3 * groups;
+    }
+    checkResult(agg, expected);
+    agg.close();
+  }
+
+  /**
+   * Test that merging aggregators, one of which has spilled, gives the
+   * groups of one aggregator given all of their tuples, and that the merged
+   * groups beyond the memory budget are spilled in turn
+   */
+  @Test public void merge() throws Exception {
+    HashAggregator left = aggregate(TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 3, 2 }), Aggregator.Op.AVG, 100);
+    HashAggregator right = aggregate(TestUtil.createTupleList(width1,
+        new int[] { 1, 6, 3, 4, 3, 6, 5, 7 }), Aggregator.Op.AVG, 100);
+    HashAggregator merged = new HashAggregator(0, Type.INT_TYPE, 1,
+        Type.INT_TYPE, Aggregator.Op.AVG, 100);
+    merged.merge(left);
+    merged.merge(right);
+    checkResult(merged, new int[] { 1, 4, 3, 4, 5, 7 });
+
+    int groups = 1000;
+    int[] data = new int[groups * width1];
+    for (int i = 0; i < groups; i++) {
+      data[i * width1] = i;
+      data[i * width1 + 1] = i;
+    }
+    left = aggregate(TestUtil.createTupleList(width1, data),
+        Aggregator.Op.MAX, 8);
+    assertTrue(left.hasSpilled());
+    for (int i = 0; i < groups; i++)
+      data[i * width1 + 1] = groups - i;
+    right = aggregate(TestUtil.createTupleList(width1, data),
+        Aggregator.Op.MAX, 100);
+    merged = new HashAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE,
+        Aggregator.Op.MAX, 100);
+    merged.merge(left);
+    merged.merge(right);
+    assertTrue(merged.hasSpilled());
+    assertEquals(100, merged.numGroupsInMemory());
+    int[] expected = new int[groups * width1];
+    for (int g = 0; g < groups; g++) {
+      expected[g * width1] = g;
+      expected[g * width1 + 1] = Math.max(g, groups - g);
+    }
+    checkResult(merged, expected);
+    merged.close();
+    left.close();
+    right.close();
+  }
+
+  /**
+   * Test a COUNT over a string field, grouped by a string field, that spills
+   */
+  @Test public void spillStrings() throws Exception {
+    int groups = 200;
+    Object[] data = new Object[groups * 2 * width1];
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < groups * 2; i++) {
+      String g = "g" + (i % groups);
+      data[i * width1] = g;
+      data[i * width1 + 1] = "v" + i;
+      counts.put(g, counts.containsKey(g) ? counts.get(g) + 1 : 1);
+    }
+    HashAggregator agg = aggregate(TestUtil.createTupleList(width1, data),
+        Aggregator.Op.COUNT, 4);
+    assertTrue(agg.hasSpilled());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int seen = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      String g = ((StringField) t.getField(0)).getValue();
+      assertEquals((int) counts.get(g), ((IntField) t.getField(1)).getValue());
+      seen++;
+    }
+    assertEquals(groups, seen);
+    it.close();
+    agg.close();
+  }
+
+  /**
+   * Test several aggregates over a two-field grouping that spills
+   */
+  @Test public void spillMultipleAggregates() throws Exception {
+    int groups = 300;
+    int[] data = new int[groups * 2 * 3];
+    for (int i = 0; i < groups * 2; i++) {
+      data[i * 3] = i % groups;
+      data[i * 3 + 1] = (i % groups) % 7;
+      data[i * 3 + 2] = i;
+    }
+    DbIterator scan = TestUtil.createTupleList(3, data);
+    HashAggregator agg = new HashAggregator(new int[] { 0, 1 },
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new int[] { 2, 2, 2 },
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.COUNT,
+                              Aggregator.Op.AVG }, 10);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+    assertTrue(agg.hasSpilled());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int seen = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int g = ((IntField) t.getField(0)).getValue();
+      assertEquals(g % 7, ((IntField) t.getField(1)).getValue());
+      assertEquals(g, ((IntField) t.getField(2)).getValue());
+      assertEquals(2, ((IntField) t.getField(3)).getValue());
+      assertEquals((2 * g + groups) / 2, ((IntField) t.getField(4)).getValue());
+      seen++;
+    }
+    assertEquals(groups, seen);
+    it.close();
+    agg.close();
+  }
+
+  /**
+   * Test that unsupported aggregates are rejected
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void sumOverString() {
+    new HashAggregator(0, Type.INT_TYPE, 1, Type.STRING_TYPE,
+        Aggregator.Op.SUM);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregatorTest.class);
+  }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  private static final int IO_COST = 71;
+
+  private TransactionId tid;
+  private HeapFile small;
+  private HeapFile big;
+
+  /**
+   * Initialize each unit test with a small table whose keys cover few of the
+   * values of a big one
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    small = SystemTestUtil.createRandomHeapFile(2, 20, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(small, "s");
+    big = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(big, "b");
+  }
+
+  private ArrayList<ArrayList<Integer>> collect(DbIterator it)
+      throws Exception {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext())
+      l.add(SystemTestUtil.tupleToList(it.next()));
+    it.close();
+    return l;
+  }
+
+  private ArrayList<ArrayList<Integer>> nestedLoops(JoinPredicate p)
+      throws Exception {
+    return collect(new Join(p, new SeqScan(tid, small.getId(), "s"),
+        new SeqScan(tid, big.getId(), "b")));
+  }
+
+  /**
+   * Test that a Bloom filter never drops a field that was added, and drops
+   * most of those that were not
+   */
+  @Test public void bloomFilter() {
+    BloomFilter f = new BloomFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++)
+      f.add(new IntField(2 * i));
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(f.mightContain(new IntField(2 * i)));
+      if (f.mightContain(new IntField(2 * i + 1)))
+        falsePositives++;
+    }
+    assertTrue(falsePositives < 50);
+  }
+
+  /**
+   * Test a hash join, with and without a Bloom filter over a filtered scan,
+   * against a nested loops join
+   */
+  @Test public void join() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    ArrayList<ArrayList<Integer>> expected = nestedLoops(p);
+    SystemTestUtil.matchTuples(new HashEquiJoin(p, new SeqScan(tid,
+        small.getId(), "s"), new SeqScan(tid, big.getId(), "b")), expected);
+
+    SeqScan probe = new SeqScan(tid, big.getId(), "b");
+    Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(0));
+    HashEquiJoin j = new HashEquiJoin(p, new SeqScan(tid, small.getId(), "s"),
+        new Filter(all, probe), true);
+    assertTrue(j.usesBloomFilter());
+    SystemTestUtil.matchTuples(j, expected);
+
+    // rewinding joins the same tuples again
+    j.open();
+    while (j.hasNext())
+      j.next();
+    j.rewind();
+    ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+    while (j.hasNext())
+      again.add(SystemTestUtil.tupleToList(j.next()));
+    j.close();
+    assertEquals(expected.size(), again.size());
+    assertNull(probe.getRuntimeFilter());
+  }
+
+  /**
+   * Test that the scan under a Bloom filter only returns the tuples whose
+   * keys may be in it
+   */
+  @Test public void dropsProbeTuples() throws Exception {
+    BloomFilter f = new BloomFilter(20, 0.01);
+    for (int i = 0; i < 20; i++)
+      f.add(new IntField(i));
+    SeqScan scan = new SeqScan(tid, big.getId(), "b");
+    scan.setRuntimeFilter(1, f);
+    ArrayList<ArrayList<Integer>> kept = collect(scan);
+    int matches = 0;
+    for (ArrayList<Integer> t : collect(new SeqScan(tid, big.getId(), "b")))
+      if (t.get(1) < 20)
+        matches++;
+    assertTrue(kept.size() >= matches);
+    assertTrue(kept.size() < 3000 / 4);
+    for (ArrayList<Integer> t : kept)
+      assertTrue(f.mightContain(new IntField(t.get(1))));
+  }
+
+  /**
+   * Test that the optimizer hashes the small table and pushes a Bloom
+   * filter into the scan of the big one, and that the plan returns the
+   * right tuples
+   */
+  @Test public void optimizerChoosesBloomFilter() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("s", new TableStats(small.getId(), IO_COST));
+    stats.put("b", new TableStats(big.getId(), IO_COST));
+    HashMap<String, Double> selectivities = new HashMap<String, Double>();
+    selectivities.put("s", 1.0);
+    selectivities.put("b", 1.0);
+
+    Parser parser = new Parser();
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM s, b WHERE s.c0 = b.c1;");
+    Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+    nodes.add(new LogicalJoinNode("b", "s", "c1", "c0", Predicate.Op.EQUALS));
+    Vector<LogicalJoinNode> order = new JoinOptimizer(lp, nodes).orderJoins(
+        stats, selectivities, false);
+    assertEquals(1, order.size());
+    assertEquals("s", order.get(0).t1Alias);
+    assertTrue(order.get(0).hashJoin);
+    assertTrue(order.get(0).bloomFilter);
+
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    DbIterator join = ((Operator) plan).getChildren()[0];
+    assertTrue(join instanceof HashEquiJoin);
+    assertTrue(((HashEquiJoin) join).usesBloomFilter());
+    SystemTestUtil.matchTuples(plan, nestedLoops(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 1)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
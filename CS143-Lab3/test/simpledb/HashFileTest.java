@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private File file;
+  private HashFile hf;
+
+  /**
+   * Set up an empty hash file on small pages, so that a few thousand tuples
+   * split buckets and double the directory several times
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BufferPool.setPageSize(256);
+    tid = new TransactionId();
+    file = File.createTempFile("hash", ".dat");
+    file.deleteOnExit();
+    file.delete();
+    hf = new HashFile(file, 0, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(hf);
+  }
+
+  @After public void tearDown() {
+    BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    file.delete();
+  }
+
+  private ArrayList<Integer> insertRandom(int n, int maxKey) throws Exception {
+    Random rand = new Random(6830);
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      int k = rand.nextInt(maxKey);
+      keys.add(k);
+      Database.getBufferPool().insertTuple(tid, hf.getId(),
+          Utility.getHeapTuple(new int[] { k, i }));
+    }
+    Collections.sort(keys);
+    return keys;
+  }
+
+  /** @return the sorted keys returned by it */
+  private ArrayList<Integer> scanKeys(DbFileIterator it) throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext())
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    Collections.sort(keys);
+    return keys;
+  }
+
+  private ArrayList<Integer> lookup(int k) throws Exception {
+    return scanKeys(hf.lookupIterator(tid, new IntField(k)));
+  }
+
+  /**
+   * Test that inserts split buckets and a full scan returns every tuple
+   */
+  @Test public void insertAndScan() throws Exception {
+    ArrayList<Integer> keys = insertRandom(3000, 100000);
+    assertEquals(keys, scanKeys(hf.iterator(tid)));
+    HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool()
+        .getPage(tid, new HashPageId(hf.getId(), 0), Permissions.READ_ONLY);
+    assertTrue(dir.getGlobalDepth() > 0);
+  }
+
+  /**
+   * Test that a lookup returns exactly the tuples with its key
+   */
+  @Test public void lookups() throws Exception {
+    ArrayList<Integer> keys = insertRandom(3000, 500);
+    for (int v : new int[] { -1, 0, 17, 250, 499, 500 }) {
+      ArrayList<Integer> got = lookup(v);
+      assertEquals(Collections.frequency(keys, v), got.size());
+      for (int k : got)
+        assertEquals(v, k);
+    }
+  }
+
+  /**
+   * Test a key with more copies than fit in one page, which no split can
+   * separate and so needs overflow pages
+   */
+  @Test public void duplicates() throws Exception {
+    ArrayList<Integer> keys = insertRandom(300, 1000);
+    for (int i = 0; i < 200; i++)
+      Database.getBufferPool().insertTuple(tid, hf.getId(),
+          Utility.getHeapTuple(new int[] { 7, i }));
+    assertEquals(Collections.frequency(keys, 7) + 200, lookup(7).size());
+    assertEquals(keys.size() + 200, scanKeys(hf.iterator(tid)).size());
+  }
+
+  /**
+   * Test that deleting every tuple while scanning, as Delete does, empties
+   * the file, and that the freed overflow pages are reused
+   */
+  @Test public void deleteAll() throws Exception {
+    for (int i = 0; i < 500; i++)
+      Database.getBufferPool().insertTuple(tid, hf.getId(),
+          Utility.getHeapTuple(new int[] { 3, i }));
+    int pages = hf.numPages();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    int deleted = 0;
+    while (it.hasNext()) {
+      Database.getBufferPool().deleteTuple(tid, it.next());
+      deleted++;
+    }
+    it.close();
+    assertEquals(500, deleted);
+    assertTrue(scanKeys(hf.iterator(tid)).isEmpty());
+
+    for (int i = 0; i < 500; i++)
+      Database.getBufferPool().insertTuple(tid, hf.getId(),
+          Utility.getHeapTuple(new int[] { 3, i }));
+    assertEquals(500, lookup(3).size());
+    assertEquals(pages, hf.numPages());
+  }
+
+  /**
+   * Test that deleting the tuples found by a lookup leaves the rest
+   */
+  @Test public void deleteLookup() throws Exception {
+    ArrayList<Integer> keys = insertRandom(2000, 100);
+    DbFileIterator it = hf.lookupIterator(tid, new IntField(42));
+    it.open();
+    while (it.hasNext())
+      Database.getBufferPool().deleteTuple(tid, it.next());
+    it.close();
+    assertTrue(lookup(42).isEmpty());
+    keys.removeAll(Collections.singleton(42));
+    assertEquals(keys, scanKeys(hf.iterator(tid)));
+  }
+
+  /**
+   * Test that a flushed file can be read back from disk
+   */
+  @Test public void flushAndReopen() throws Exception {
+    ArrayList<Integer> keys = insertRandom(2000, 300);
+    Database.getBufferPool().flushAllPages();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(keys, scanKeys(hf.iterator(tid)));
+    assertEquals(Collections.frequency(keys, 5), lookup(5).size());
+  }
+
+  /**
+   * Test that tuples of the wrong type are rejected
+   */
+  @Test(expected = DbException.class)
+  public void insertWrongType() throws Exception {
+    hf.insertTuple(tid, Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashFileTest.class);
+  }
+}
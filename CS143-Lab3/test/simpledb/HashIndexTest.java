@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 500;
+  private static final int VALUES = 50;
+
+  private TransactionId tid;
+  private HeapFile table;
+  private ArrayList<ArrayList<Integer>> tuples;
+  private File file;
+  private HashIndex index;
+
+  /**
+   * Initialize each unit test with a table of random tuples, hashed on its
+   * second field
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, VALUES, null, tuples);
+    file = File.createTempFile("hashindex", ".hash");
+    file.deleteOnExit();
+    file.delete();
+    index = new HashIndex(file, table.getId(), 1);
+    Database.getCatalog().addIndex(index);
+    index.build(tid);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Returns the tuples of the table whose second field equals v
+   */
+  private ArrayList<ArrayList<Integer>> matching(int v) {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(1) == v)
+        l.add(t);
+    return l;
+  }
+
+  private IndexScan scan(int v) {
+    return new IndexScan(tid, index, "t", new IndexPredicate(
+        Predicate.Op.EQUALS, new IntField(v)));
+  }
+
+  /**
+   * Test equality lookups and a full scan against the contents of the table
+   */
+  @Test public void lookups() throws Exception {
+    for (int v : new int[] { -1, 0, 7, VALUES - 1 })
+      SystemTestUtil.matchTuples(scan(v), matching(v));
+    SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", null), tuples);
+  }
+
+  /**
+   * Test that only equality is supported
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void rangeUnsupported() throws Exception {
+    assertFalse(index.supports(Predicate.Op.LESS_THAN));
+    assertFalse(index.isOrdered());
+    new IndexScan(tid, index, "t", new IndexPredicate(Predicate.Op.LESS_THAN,
+        new IntField(3)));
+  }
+
+  /**
+   * Test that inserts and deletes through the BufferPool maintain the index
+   */
+  @Test public void maintenance() throws Exception {
+    Tuple t = Utility.getHeapTuple(new int[] { 1, VALUES + 1 });
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    ArrayList<Integer> row = new ArrayList<Integer>();
+    row.add(1);
+    row.add(VALUES + 1);
+    tuples.add(row);
+    SystemTestUtil.matchTuples(scan(VALUES + 1), matching(VALUES + 1));
+
+    // delete every tuple with the value 3, as found through the index
+    IndexScan s = scan(3);
+    s.open();
+    while (s.hasNext())
+      Database.getBufferPool().deleteTuple(tid, s.next());
+    s.close();
+    s.open();
+    assertTrue(TestUtil.checkExhausted(s));
+    s.close();
+    tuples.removeAll(matching(3));
+    SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", null), tuples);
+  }
+
+  /**
+   * Test that the catalog prefers the hash index for equality and a B+ tree
+   * index on the same field for ranges
+   */
+  @Test public void catalog() throws Exception {
+    File btreeFile = File.createTempFile("hashindex", ".idx");
+    btreeFile.deleteOnExit();
+    btreeFile.delete();
+    BTreeIndex btree = new BTreeIndex(btreeFile, table.getId(), 1);
+    Database.getCatalog().addIndex(btree);
+    btree.build(tid);
+
+    Catalog c = Database.getCatalog();
+    assertEquals(2, c.getIndexes(table.getId()).size());
+    assertSame(index, c.getIndex(table.getId(), 1, Predicate.Op.EQUALS));
+    assertSame(btree, c.getIndex(table.getId(), 1, Predicate.Op.LESS_THAN));
+    btreeFile.delete();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexTest.class);
+  }
+}
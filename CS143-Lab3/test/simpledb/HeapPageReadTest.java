@@ -120,6 +120,32 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.readInto(), decoding the page's bytes and,
+     * once a delete has needed them, copying its tuples
+     */
+    @Test public void readInto() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 7);
+        int slot = 0;
+        int row = 0;
+        while (slot >= 0) {
+            batch.clear();
+            slot = page.readInto(slot, batch);
+            for (int i = 0; i < batch.size(); i++, row++) {
+                assertEquals(EXAMPLE_VALUES[row][0], batch.getInts(0)[i]);
+                assertEquals(EXAMPLE_VALUES[row][1], batch.getInts(1)[i]);
+            }
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        page.deleteTuple(page.iterator().next());
+        batch = new TupleBatch(Utility.getTupleDesc(2), 100);
+        assertEquals(-1, page.readInto(0, batch));
+        assertEquals(EXAMPLE_VALUES.length - 1, batch.size());
+        assertEquals(EXAMPLE_VALUES[1][0], batch.getInts(0)[0]);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private static final int IO_COST = 71;
+
+  private TransactionId tid;
+  private HeapFile outer;
+  private HeapFile inner;
+  private File file;
+  private BTreeIndex index;
+
+  /**
+   * Initialize each unit test with a small outer table and a larger inner
+   * table indexed on its first field
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    outer = SystemTestUtil.createRandomHeapFile(2, 2, 500, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(outer, "o");
+    inner = SystemTestUtil.createRandomHeapFile(2, 5000, 500, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(inner, "i", "c0");
+    file = File.createTempFile("indexjoin", ".idx");
+    file.deleteOnExit();
+    file.delete();
+    index = new BTreeIndex(file, inner.getId(), 0);
+    Database.getCatalog().addIndex(index);
+    index.build(tid);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Returns the tuples of a nested loops join of the tables, filtered by
+   * innerFilter if it is not null
+   */
+  private ArrayList<ArrayList<Integer>> nestedLoops(JoinPredicate p,
+      Predicate innerFilter) throws Exception {
+    DbIterator in = new SeqScan(tid, inner.getId(), "i");
+    if (innerFilter != null)
+      in = new Filter(innerFilter, in);
+    Join j = new Join(p, new SeqScan(tid, outer.getId(), "o"), in);
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    j.open();
+    while (j.hasNext())
+      l.add(SystemTestUtil.tupleToList(j.next()));
+    j.close();
+    return l;
+  }
+
+  private IndexNestedLoopJoin indexJoin(JoinPredicate p,
+      Predicate[] innerFilters) {
+    return new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"),
+        tid, index, "i", innerFilters);
+  }
+
+  /**
+   * Test an equality join against a nested loops join
+   */
+  @Test public void equiJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin j = indexJoin(p, new Predicate[0]);
+    assertEquals("o.c0", j.getJoinField1Name());
+    assertEquals("i.c0", j.getJoinField2Name());
+    assertEquals(4, j.getTupleDesc().numFields());
+    SystemTestUtil.matchTuples(j, nestedLoops(p, null));
+  }
+
+  /**
+   * Test a range join with a filter over the inner table
+   */
+  @Test public void rangeJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Predicate f = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20));
+    SystemTestUtil.matchTuples(indexJoin(p, new Predicate[] { f }),
+        nestedLoops(p, f));
+  }
+
+  /**
+   * Test that the optimizer probes the index on the inner table's key when
+   * the outer table is small, and that the plan returns the right tuples
+   */
+  @Test public void optimizerChoosesIndexJoin() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("o", new TableStats(outer.getId(), IO_COST));
+    stats.put("i", new TableStats(inner.getId(), IO_COST));
+    HashMap<String, Double> selectivities = new HashMap<String, Double>();
+    selectivities.put("o", 1.0);
+    selectivities.put("i", 1.0);
+
+    Parser parser = new Parser();
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM o, i WHERE o.c0 = i.c0;");
+    Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+    nodes.add(new LogicalJoinNode("i", "o", "c0", "c0", Predicate.Op.EQUALS));
+    Vector<LogicalJoinNode> order = new JoinOptimizer(lp, nodes).orderJoins(
+        stats, selectivities, false);
+    assertEquals(1, order.size());
+    assertEquals("i", order.get(0).t2Alias);
+    assertNotNull(order.get(0).innerIndex);
+
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(((Operator) plan).getChildren()[0]
+        instanceof IndexNestedLoopJoin);
+    SystemTestUtil.matchTuples(plan, nestedLoops(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 0), null));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
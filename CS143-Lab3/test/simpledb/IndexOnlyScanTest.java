@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 2000;
+  private static final int VALUES = 200;
+
+  private TransactionId tid;
+  private HeapFile table;
+  private ArrayList<ArrayList<Integer>> tuples;
+  private File file;
+  private BTreeIndex index;
+
+  /**
+   * Initialize each unit test with a table of random tuples, indexed on its
+   * second field with its third field included in the entries
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(4, ROWS, VALUES, null,
+        tuples, "c");
+    Database.getCatalog().addTable(table, "t");
+    file = File.createTempFile("covering", ".idx");
+    file.deleteOnExit();
+    file.delete();
+    index = new BTreeIndex(file, table.getId(), 1, new int[] { 2 });
+    Database.getCatalog().addIndex(index);
+    index.build(tid);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Returns the second and third fields of the tuples of the table whose
+   * second field satisfies op v
+   */
+  private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int v) {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (new IntField(t.get(1)).compare(op, new IntField(v)))
+        l.add(new ArrayList<Integer>(Arrays.asList(t.get(1), t.get(2))));
+    return l;
+  }
+
+  private IndexOnlyScan scan(Predicate.Op op, int v) {
+    return new IndexOnlyScan(tid, index, "t", new IndexPredicate(op,
+        new IntField(v)));
+  }
+
+  /**
+   * Test that the scan returns the covered fields of the matching tuples,
+   * in order of the key, without reading the table
+   */
+  @Test public void lookups() throws Exception {
+    assertTrue(index.covers(Arrays.asList(1, 2)));
+    assertFalse(index.covers(Arrays.asList(0, 1)));
+    assertEquals("t.c1", scan(Predicate.Op.EQUALS, 0).getTupleDesc()
+        .getFieldName(0));
+    assertEquals(2, scan(Predicate.Op.EQUALS, 0).getTableField(1));
+
+    SystemTestUtil.matchTuples(scan(Predicate.Op.EQUALS, 7),
+        matching(Predicate.Op.EQUALS, 7));
+    IndexOnlyScan range = scan(Predicate.Op.LESS_THAN, 20);
+    SystemTestUtil.matchTuples(range, matching(Predicate.Op.LESS_THAN, 20));
+    range.open();
+    int last = Integer.MIN_VALUE;
+    while (range.hasNext()) {
+      int key = ((IntField) range.next().getField(0)).getValue();
+      assertTrue(key >= last);
+      last = key;
+    }
+    range.close();
+    SystemTestUtil.matchTuples(new IndexOnlyScan(tid, index, "t", null),
+        matching(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE));
+
+    for (int pg = 0; pg < table.numPages(); pg++)
+      assertFalse(Database.getBufferPool().holdsLock(tid,
+          new HeapPageId(table.getId(), pg)));
+  }
+
+  /**
+   * Test that the included fields of inserted and deleted tuples are kept
+   * up to date
+   */
+  @Test public void maintenance() throws Exception {
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(1));
+    t.setField(1, new IntField(VALUES + 1));
+    t.setField(2, new IntField(42));
+    t.setField(3, new IntField(3));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    expected.add(new ArrayList<Integer>(Arrays.asList(VALUES + 1, 42)));
+    SystemTestUtil.matchTuples(scan(Predicate.Op.EQUALS, VALUES + 1), expected);
+
+    Database.getBufferPool().deleteTuple(tid, t);
+    SystemTestUtil.matchTuples(scan(Predicate.Op.EQUALS, VALUES + 1),
+        new ArrayList<ArrayList<Integer>>());
+  }
+
+  /** @return the access method at the bottom of a plan over one table */
+  private static DbIterator leaf(DbIterator plan) {
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    return plan;
+  }
+
+  /**
+   * Test that the planner only reads the index when it covers every field
+   * the query refers to
+   */
+  @Test public void planner() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(table.getId(), 1000));
+    Parser parser = new Parser();
+
+    DbIterator plan = parser.generateLogicalPlan(tid,
+        "SELECT t.c2 FROM t WHERE t.c1 = 7;").physicalPlan(tid, stats, false);
+    assertTrue(leaf(plan) instanceof IndexOnlyScan);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> m : matching(Predicate.Op.EQUALS, 7))
+      expected.add(new ArrayList<Integer>(Arrays.asList(m.get(1))));
+    SystemTestUtil.matchTuples(plan, expected);
+
+    plan = parser.generateLogicalPlan(tid,
+        "SELECT COUNT(*) FROM t WHERE t.c1 = 7;").physicalPlan(tid, stats,
+        false);
+    assertTrue(leaf(plan) instanceof IndexOnlyScan);
+    plan.open();
+    assertEquals(matching(Predicate.Op.EQUALS, 7).size(),
+        ((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+
+    plan = parser.generateLogicalPlan(tid,
+        "SELECT t.c3 FROM t WHERE t.c1 = 7;").physicalPlan(tid, stats, false);
+    assertFalse(leaf(plan) instanceof IndexOnlyScan);
+    plan = parser.generateLogicalPlan(tid,
+        "SELECT * FROM t WHERE t.c1 = 7;").physicalPlan(tid, stats, false);
+    assertFalse(leaf(plan) instanceof IndexOnlyScan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+  }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private File file;
+  private int tableId;
+
+  /**
+   * Initialize each unit test with a tree holding keys 0..99
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    file = File.createTempFile("indexscan", ".dat");
+    file.deleteOnExit();
+    file.delete();
+    BTreeFile bf = new BTreeFile(file, 1, Utility.getTupleDesc(2, "f"));
+    Database.getCatalog().addTable(bf, "t");
+    tableId = bf.getId();
+    for (int i = 99; i >= 0; i--)
+      Database.getBufferPool().insertTuple(tid, tableId,
+          Utility.getHeapTuple(new int[] { -i, i }));
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Test that the scan prefixes the field names with the alias
+   */
+  @Test public void getTupleDesc() {
+    IndexScan scan = new IndexScan(tid, tableId, "a", null);
+    assertEquals("a.f0", scan.getTupleDesc().getFieldName(0));
+    assertEquals("a.f1", scan.getTupleDesc().getFieldName(1));
+    assertEquals(1, scan.getKeyField());
+  }
+
+  /**
+   * Test a range scan, including a rewind
+   */
+  @Test public void rangeScan() throws Exception {
+    IndexScan scan = new IndexScan(tid, tableId, "a", new IndexPredicate(
+        Predicate.Op.GREATER_THAN_OR_EQ, new IntField(95)));
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { -95, 95, -96, 96, -97, 97, -98, 98, -99, 99 });
+    scan.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, scan);
+    scan.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, scan);
+    scan.close();
+  }
+
+  /**
+   * Test a point lookup
+   */
+  @Test public void lookup() throws Exception {
+    IndexScan scan = new IndexScan(tid, tableId, "a", new IndexPredicate(
+        Predicate.Op.EQUALS, new IntField(42)));
+    scan.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new int[] { -42, 42 }), scan);
+    scan.close();
+  }
+
+  /**
+   * Test that only tables stored in a BTreeFile can be index scanned
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void heapFile() throws Exception {
+    HeapFile hf = Utility.createEmptyHeapFile(
+        File.createTempFile("heap", ".dat").getAbsolutePath(), 2);
+    new IndexScan(tid, hf.getId(), "h", null);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new TestUtil.MockScan(-5, 5, testWidth);
+  }
+
+  /**
+   * Unit test for Limit.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Limit op = new Limit(3, scan);
+    TupleDesc expected = Utility.getTupleDesc(testWidth);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit smaller than its input
+   */
+  @Test public void limitSome() throws Exception {
+    Limit op = new Limit(3, scan);
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-5, -2, testWidth);
+    op.open();
+    TestUtil.compareDbIterators(expectedOut, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit larger than its input
+   */
+  @Test public void limitAll() throws Exception {
+    Limit op = new Limit(100, scan);
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-5, 5, testWidth);
+    op.open();
+    TestUtil.compareDbIterators(expectedOut, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit of zero
+   */
+  @Test public void limitZero() throws Exception {
+    Limit op = new Limit(0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Limit op = new Limit(2, scan);
+    op.open();
+    assertTrue(op.hasNext());
+    op.next();
+    op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    Tuple expected = Utility.getHeapTuple(-5, testWidth);
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MorselSchedulerTest extends SimpleDbTestBase {
+
+  /**
+   * Test that the outputs of the morsels are read in order, however long
+   * each takes to run
+   */
+  @Test public void ordered() throws Exception {
+    MorselScheduler.Run<Integer> run = MorselScheduler.dispatch(
+        new MorselScheduler.Pipeline<Integer>() {
+          public Integer run(int morsel) {
+            // skew: every fifth morsel is much slower than the others
+            if (morsel % 5 == 0)
+              sleep(5);
+            return morsel * morsel;
+          }
+        }, 40, 4);
+    for (int i = 0; i < 40; i++)
+      assertEquals(Integer.valueOf(i * i), run.next());
+    assertNull(run.next());
+    run.stop();
+  }
+
+  /**
+   * Test that no more than the window of morsels is run ahead of the
+   * reader, and that none runs once the run is stopped
+   */
+  @Test public void window() throws Exception {
+    final AtomicInteger started = new AtomicInteger();
+    final AtomicInteger running = new AtomicInteger();
+    MorselScheduler.Run<Integer> run = MorselScheduler.dispatch(
+        new MorselScheduler.Pipeline<Integer>() {
+          public Integer run(int morsel) {
+            started.incrementAndGet();
+            running.incrementAndGet();
+            sleep(2);
+            running.decrementAndGet();
+            return morsel;
+          }
+        }, 100, 3);
+    assertEquals(Integer.valueOf(0), run.next());
+    sleep(20);
+    assertTrue(started.get() <= 4);
+    run.stop();
+    assertEquals(0, running.get());
+    int after = started.get();
+    sleep(20);
+    assertEquals(after, started.get());
+    assertNull(run.next());
+  }
+
+  /**
+   * Test that an exception thrown on a morsel reaches the reader
+   */
+  @Test public void error() throws Exception {
+    MorselScheduler.Run<Integer> run = MorselScheduler.dispatch(
+        new MorselScheduler.Pipeline<Integer>() {
+          public Integer run(int morsel) throws DbException {
+            if (morsel == 2)
+              throw new DbException("bad morsel");
+            return morsel;
+          }
+        }, 10, 2);
+    run.next();
+    run.next();
+    try {
+      run.next();
+      fail("expected the exception of morsel 2");
+    } catch (DbException e) {
+      assertEquals("bad morsel", e.getMessage());
+    }
+    run.stop();
+  }
+
+  private static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MorselSchedulerTest.class);
+  }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int testWidth = 2;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(testWidth,
+        new int[] { 3, 1,
+                    1, 2,
+                    3, 3,
+                    1, 1,
+                    2, 5 });
+  }
+
+  /**
+   * Unit test for OrderBy.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    OrderBy op = new OrderBy(0, true, scan);
+    TupleDesc expected = Utility.getTupleDesc(testWidth);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on a single descending field
+   */
+  @Test public void singleField() throws Exception {
+    OrderBy op = new OrderBy(1, false, scan);
+    op.open();
+    int[] expected = new int[] { 5, 3, 2, 1, 1 };
+    for (int i = 0; i < expected.length; i++) {
+      assertTrue(op.hasNext());
+      assertEquals(expected[i], ((IntField) op.next().getField(1)).getValue());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on two fields with mixed directions
+   */
+  @Test public void multipleFields() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 1, 2,
+                    1, 1,
+                    2, 5,
+                    3, 3,
+                    3, 1 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() with a string field breaking ties
+   */
+  @Test public void stringField() throws Exception {
+    scan = TestUtil.createTupleList(testWidth,
+        new Object[] { 1, "pear",
+                       0, "fig",
+                       1, "apple",
+                       0, "plum" });
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+        scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new Object[] { 1, "apple",
+                       1, "pear",
+                       0, "fig",
+                       0, "plum" });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, true },
+        scan);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 1, 1,
+                    1, 2,
+                    2, 5,
+                    3, 1,
+                    3, 3 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
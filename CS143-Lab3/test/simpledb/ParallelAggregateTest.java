@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HeapFile a;
+
+  /**
+   * Initialize each unit test with a table of random tuples on more pages
+   * than one morsel
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    a = SystemTestUtil.createRandomHeapFile(3, 20000, 500, null, null, "c");
+    Database.getCatalog().addTable(a, "a");
+    assertTrue(a.numPages() > 4 * ParallelScan.PAGES_PER_RANGE);
+  }
+
+  /** @return a scan of a keeping c1 < 400 */
+  private FusedScan scan() {
+    return new FusedScan(tid, a.getId(), "a", new Predicate[] {
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(400)) });
+  }
+
+  private void check(int[] g, int partitions) throws Exception {
+    check(g, partitions, HashAggregator.DEFAULT_MAX_GROUPS);
+  }
+
+  private void check(int[] g, int partitions, int maxGroups)
+      throws Exception {
+    int[] f = { 2, 2, 2, 0, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    ArrayList<String> expected = TestUtil.sortedTupleStrings(new Aggregate(
+        scan(), f, g, ops));
+    assertFalse(expected.isEmpty());
+    ParallelAggregate pa = new ParallelAggregate(new ParallelScan(tid,
+        scan(), 4), f, g, ops, partitions, maxGroups);
+    assertEquals(new Aggregate(scan(), f, g, ops).getTupleDesc(),
+        pa.getTupleDesc());
+    assertEquals(expected, TestUtil.sortedTupleStrings(pa));
+  }
+
+  /**
+   * Test that grouped aggregates merged across workers and partitions are
+   * those of Aggregate
+   */
+  @Test public void grouped() throws Exception {
+    check(new int[] { 0 }, 1);
+    check(new int[] { 0 }, 5);
+    check(new int[] { 0, 1 }, 3);
+  }
+
+  /**
+   * Test that aggregates without grouping are those of Aggregate
+   */
+  @Test public void noGrouping() throws Exception {
+    check(new int[0], 4);
+  }
+
+  /**
+   * Test that aggregates whose groups do not fit in memory, either in the
+   * tables of the workers or once merged, are those of Aggregate
+   */
+  @Test public void spill() throws Exception {
+    check(new int[] { 0 }, 4, 8);
+    check(new int[] { 0, 1 }, 3, 60);
+  }
+
+  /** @return the names of the spill files in the temporary directory */
+  private static HashSet<String> spillFiles() {
+    HashSet<String> names = new HashSet<String>();
+    String[] files = new File(System.getProperty("java.io.tmpdir")).list();
+    if (files != null)
+      for (String f : files)
+        if (f.startsWith("agg") && f.endsWith(".spill"))
+          names.add(f);
+    return names;
+  }
+
+  /**
+   * Test that the spill files of merged partitions are deleted when the
+   * aggregate is closed, whether or not it was read to the end
+   */
+  @Test public void spillFilesDeleted() throws Exception {
+    HashSet<String> before = spillFiles();
+    int[] f = { 2 };
+    int[] g = { 0, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM };
+    ParallelAggregate pa = new ParallelAggregate(new ParallelScan(tid,
+        scan(), 2), f, g, ops, 3, 60);
+    pa.open();
+    assertTrue(pa.hasNext());
+    HashSet<String> during = spillFiles();
+    during.removeAll(before);
+    assertFalse(during.isEmpty());
+    pa.close();
+    HashSet<String> after = spillFiles();
+    after.removeAll(before);
+    assertTrue(after.toString(), after.isEmpty());
+
+    pa.open();
+    pa.open();
+    while (pa.hasNext())
+      pa.next();
+    pa.close();
+    after = spillFiles();
+    after.removeAll(before);
+    assertTrue(after.toString(), after.isEmpty());
+  }
+
+  /**
+   * Test that the result can be rewound, and that aggregates over scans of
+   * a plan are run in parallel
+   */
+  @Test public void rewindAndParallelize() throws Exception {
+    int[] f = { 2 };
+    int[] g = { 0 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM };
+    ParallelAggregate pa = new ParallelAggregate(new ParallelScan(tid,
+        scan(), 2), f, g, ops, 3);
+    ArrayList<String> expected = TestUtil.sortedTupleStrings(pa);
+    pa.open();
+    pa.next();
+    pa.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (pa.hasNext())
+      again.add(pa.next().toString());
+    pa.close();
+    Collections.sort(again);
+    assertEquals(expected, again);
+
+    DbIterator plan = ParallelAggregate.parallelize(tid, new Aggregate(scan(),
+        f, g, ops), 3);
+    assertTrue(plan instanceof ParallelAggregate);
+    assertEquals(3, ((ParallelAggregate) plan).numPartitions());
+    assertEquals(expected, TestUtil.sortedTupleStrings(plan));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelAggregateTest.class);
+  }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HeapFile a;
+
+  /**
+   * Initialize each unit test with a table of random tuples on more pages
+   * than the buffer pool holds
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    a = SystemTestUtil.createRandomHeapFile(3, 30000, 200, null, null, "c");
+    Database.getCatalog().addTable(a, "a");
+    assertTrue(a.numPages() > BufferPool.DEFAULT_PAGES);
+  }
+
+  /** @return a scan of a keeping c1 < 100, projected on c2 and c0 */
+  private FusedScan scan() {
+    FusedScan fs = new FusedScan(tid, a.getId(), "a", new Predicate[] {
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)) });
+    fs.setOutFields(new int[] { 2, 0 }, new Type[] { Type.INT_TYPE,
+        Type.INT_TYPE });
+    return fs;
+  }
+
+  /**
+   * Test that a parallel scan returns the tuples of the scan it runs, in
+   * the same order, whatever the number of workers, and again when rewound
+   */
+  @Test public void sameTuples() throws Exception {
+    ArrayList<String> expected = TestUtil.tupleStrings(scan());
+    assertFalse(expected.isEmpty());
+    for (int workers : new int[] { 1, 2, 4, 7 })
+      assertEquals(expected, TestUtil.tupleStrings(new ParallelScan(tid,
+          scan(), workers)));
+
+    ParallelScan ps = new ParallelScan(tid, scan(), 4);
+    assertEquals(2, ps.getTupleDesc().numFields());
+    ps.open();
+    for (int i = 0; i < 10; i++)
+      ps.next();
+    ps.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (ps.hasNext())
+      again.add(ps.next().toString());
+    ps.close();
+    assertEquals(expected, again);
+  }
+
+  /**
+   * Test that closing a scan before its end stops its workers
+   */
+  @Test public void earlyClose() throws Exception {
+    ParallelScan ps = new ParallelScan(tid, scan(), 4);
+    ps.open();
+    assertTrue(ps.hasNext());
+    ps.next();
+    ps.close();
+    for (Thread t : allThreads())
+      assertFalse(t.getName(), t.getName().startsWith("ParallelScan"));
+  }
+
+  private static Thread[] allThreads() {
+    Thread[] threads = new Thread[Thread.activeCount() + 16];
+    int n = Thread.enumerate(threads);
+    Thread[] l = new Thread[n];
+    System.arraycopy(threads, 0, l, 0, n);
+    return l;
+  }
+
+  /**
+   * Test that the scans of a plan are run in parallel, except the inner
+   * scan of a nested loops join
+   */
+  @Test public void parallelize() throws Exception {
+    DbIterator plan = ParallelScan.parallelize(tid, scan(), 4);
+    assertTrue(plan instanceof ParallelScan);
+    assertEquals(4, ((ParallelScan) plan).numWorkers());
+
+    Join j = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        scan(), scan());
+    assertTrue(ParallelScan.parallelize(tid, j, 4) == j);
+    assertTrue(j.getChildren()[0] instanceof ParallelScan);
+    assertTrue(j.getChildren()[1] instanceof FusedScan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelScanTest.class);
+  }
+}
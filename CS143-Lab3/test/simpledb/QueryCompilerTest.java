@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private TupleDesc td;
+  private HashMap<String, TableStats> stats;
+
+  /**
+   * Initialize each unit test with a table of random tuples, when there is
+   * a compiler to compile queries with
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    assumeTrue(QueryCompiler.isAvailable());
+    tid = new TransactionId();
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    stats = new HashMap<String, TableStats>();
+    HeapFile a = SystemTestUtil.createRandomHeapFile(3, 2000, 200, null,
+        null, "c");
+    Database.getCatalog().addTable(a, "a");
+    stats.put("a", new TableStats(a.getId(), 1000));
+  }
+
+  private Tuple tuple(int i, String s) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Test that compiled predicates agree with Predicate.filter for every
+   * operator over int and string fields
+   */
+  @Test public void predicates() throws Exception {
+    Tuple[] tuples = { tuple(1, "ab"), tuple(5, "b"), tuple(9, "cab") };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate pi = new Predicate(0, op, new IntField(5));
+      Predicate ps = new Predicate(1, op, new StringField("b",
+          Type.STRING_LEN));
+      QueryCompiler.CompiledPredicate ci = QueryCompiler.predicate(
+          new Predicate[] { pi }, td);
+      QueryCompiler.CompiledPredicate cs = QueryCompiler.predicate(
+          new Predicate[] { ps }, td);
+      QueryCompiler.CompiledPredicate both = QueryCompiler.predicate(
+          new Predicate[] { pi, ps }, td);
+      for (Tuple t : tuples) {
+        assertEquals(op + " " + t, pi.filter(t), ci.filter(t));
+        assertEquals(op + " " + t, ps.filter(t), cs.filter(t));
+        assertEquals(op + " " + t, pi.filter(t) && ps.filter(t),
+            both.filter(t));
+      }
+    }
+    // an operand of the wrong type is left to Predicate.filter
+    assertNull(QueryCompiler.predicate(new Predicate[] { new Predicate(0,
+        Predicate.Op.EQUALS, new StringField("1", Type.STRING_LEN)) }, td));
+  }
+
+  /**
+   * Test that a class is compiled once per shape of predicate, whatever its
+   * constants
+   */
+  @Test public void reuse() throws Exception {
+    QueryCompiler.CompiledPredicate c1 = QueryCompiler.predicate(
+        new Predicate[] { new Predicate(0, Predicate.Op.LESS_THAN,
+            new IntField(3)) }, td);
+    QueryCompiler.CompiledPredicate c2 = QueryCompiler.predicate(
+        new Predicate[] { new Predicate(0, Predicate.Op.LESS_THAN,
+            new IntField(7)) }, td);
+    assertTrue(c1.getClass() == c2.getClass());
+    assertTrue(c1.filter(tuple(2, "")) && !c1.filter(tuple(5, "")));
+    assertTrue(c2.filter(tuple(5, "")) && !c2.filter(tuple(7, "")));
+  }
+
+  /**
+   * Test that a compiled plan returns the tuples of the plan it is made
+   * from, with its filters and projection compiled, whether they are
+   * operators of their own or fused into the scan
+   */
+  @Test public void plans() throws Exception {
+    String q = "SELECT a.c2, a.c0 FROM a WHERE a.c1 < 50 AND a.c2 > 20;";
+    Parser parser = new Parser();
+    ArrayList<String> expected = TestUtil.tupleStrings(TestUtil.plan(tid, q,
+        stats));
+    DbIterator fused = QueryCompiler.compile(parser.generateLogicalPlan(
+        tid, q).physicalPlan(tid, stats, false));
+    assertEquals(expected, TestUtil.tupleStrings(fused));
+    assertTrue(fused instanceof FusedScan);
+    assertTrue(((FusedScan) fused).isCompiled());
+
+    int table = Database.getCatalog().getTableId("a");
+    ArrayList<Integer> out = new ArrayList<Integer>();
+    out.add(2);
+    out.add(0);
+    DbIterator plan = new Project(out, new Type[] { Type.INT_TYPE,
+        Type.INT_TYPE }, new Filter(new Predicate(2,
+        Predicate.Op.GREATER_THAN, new IntField(20)), new Filter(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+        new SeqScan(tid, table, "a"))));
+    DbIterator compiled = QueryCompiler.compile(plan);
+    assertEquals(expected, TestUtil.tupleStrings(compiled));
+    assertTrue(compiled instanceof CompiledProject);
+    DbIterator filter = ((Operator) compiled).getChildren()[0];
+    assertNotNull(filter);
+    assertTrue(filter instanceof CompiledFilter);
+    assertEquals(2, ((CompiledFilter) filter).getPredicates().length);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryCompilerTest.class);
+  }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1000;
+  private static final String[] NAMES = { "Tom", "Meryl", "Denzel", "Cate",
+      "Bo", "" };
+  private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE,
+      Type.STRING_TYPE };
+
+  private TransactionId tid;
+  private File text;
+  private File heapFile;
+  private File slottedFile;
+  private HeapFile heap;
+  private SlottedFile slotted;
+
+  /**
+   * Initialize each unit test with the same table of (id, fname, lname)
+   * rows stored as a HeapFile and as a SlottedFile
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    text = File.createTempFile("slotted", ".txt");
+    text.deleteOnExit();
+    BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++)
+      bw.write(i + "," + NAMES[i % NAMES.length] + ","
+          + NAMES[(i / NAMES.length) % NAMES.length] + "\n");
+    bw.close();
+    TupleDesc td = new TupleDesc(TYPES, new String[] { "id", "fname",
+        "lname" });
+
+    heapFile = File.createTempFile("slotted", ".dat");
+    heapFile.deleteOnExit();
+    HeapFileEncoder.convert(text, heapFile, BufferPool.getPageSize(), 3,
+        TYPES);
+    heap = new HeapFile(heapFile, td);
+    Database.getCatalog().addTable(heap, "h");
+
+    slottedFile = File.createTempFile("slotted", ".dat");
+    slottedFile.deleteOnExit();
+    HeapFileEncoder.convertSlotted(text, slottedFile, BufferPool.getPageSize(),
+        TYPES, ',');
+    slotted = new SlottedFile(slottedFile, td);
+    Database.getCatalog().addTable(slotted, "s");
+  }
+
+  @After public void tearDown() {
+    heap.getZoneMap().getFile().delete();
+    heapFile.delete();
+    slottedFile.delete();
+  }
+
+  /** @return the tuples of f, as strings, in the order they are read */
+  private ArrayList<String> contents(DbFile f) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    it.close();
+    return l;
+  }
+
+  /**
+   * Test that the slotted file holds the same tuples in far fewer pages
+   */
+  @Test public void density() throws Exception {
+    assertEquals(contents(heap), contents(slotted));
+    assertTrue(slotted.numPages() * 10 <= heap.numPages());
+    assertTrue(new TableStats(slotted.getId(), 1000).estimateScanCost()
+        * 10 <= new TableStats(heap.getId(), 1000).estimateScanCost());
+  }
+
+  /**
+   * Test that a page written out reads back the same, with its tuples in
+   * the same slots
+   */
+  @Test public void pageRoundTrip() throws Exception {
+    HeapPageId pid = new HeapPageId(slotted.getId(), 0);
+    SlottedPage page = (SlottedPage) slotted.readPage(pid);
+    assertTrue(page.getNumTuples() > 0);
+    SlottedPage copy = new SlottedPage(pid, page.getPageData());
+    assertEquals(page.getNumTuples(), copy.getNumTuples());
+    Iterator<Tuple> a = page.iterator(), b = copy.iterator();
+    while (a.hasNext()) {
+      Tuple x = a.next(), y = b.next();
+      assertEquals(x.toString(), y.toString());
+      assertEquals(x.getRecordId(), y.getRecordId());
+    }
+    assertFalse(b.hasNext());
+  }
+
+  private Tuple tuple(int id, String name) {
+    Tuple t = new Tuple(slotted.getTupleDesc());
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField(name, Type.STRING_LEN));
+    t.setField(2, new StringField(name, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Test that the space freed by deletes is reused by an insert of a
+   * longer record, and that the other tuples keep their slots
+   */
+  @Test public void insertDelete() throws Exception {
+    HeapPageId pid = new HeapPageId(slotted.getId(), 0);
+    SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid,
+        Permissions.READ_WRITE);
+    int free = page.getFreeSpace();
+    assertFalse(page.fits(tuple(-1, "Maximilian")));
+
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    Iterator<Tuple> it = page.iterator();
+    while (it.hasNext())
+      tuples.add(it.next());
+    Tuple kept = tuples.get(tuples.size() - 1);
+    RecordId keptRid = kept.getRecordId();
+    for (int i = 0; i < 4; i++)
+      Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+    assertTrue(page.getFreeSpace() > free);
+
+    Tuple big = tuple(-1, "Maximilian");
+    Database.getBufferPool().insertTuple(tid, slotted.getId(), big);
+    assertEquals(pid, big.getRecordId().getPageId());
+    assertEquals(0, big.getRecordId().tupleno());
+    assertEquals(keptRid, kept.getRecordId());
+
+    Database.getBufferPool().flushAllPages();
+    Database.getBufferPool().discardPage(pid);
+    ArrayList<String> l = contents(slotted);
+    assertEquals(ROWS - 3, l.size());
+    assertTrue(l.contains(big.toString()));
+  }
+
+  /**
+   * Test that queries run over slotted tables as over heap files
+   */
+  @Test public void query() throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("h", new TableStats(heap.getId(), 1000));
+    stats.put("s", new TableStats(slotted.getId(), 1000));
+    Parser parser = new Parser();
+    String[] queries = {
+        "SELECT s.fname, COUNT(s.id) FROM s WHERE s.lname = 'Cate' GROUP BY s.fname;",
+        "SELECT h.fname, COUNT(h.id) FROM h WHERE h.lname = 'Cate' GROUP BY h.fname;" };
+    ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+    for (String q : queries) {
+      DbIterator plan = parser.generateLogicalPlan(tid, q).physicalPlan(tid,
+          stats, false);
+      ArrayList<String> l = new ArrayList<String>();
+      plan.open();
+      while (plan.hasNext())
+        l.add(plan.next().toString());
+      plan.close();
+      Collections.sort(l);
+      results.add(l);
+    }
+    assertEquals(NAMES.length, results.get(0).size());
+    assertEquals(results.get(1), results.get(0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedFileTest.class);
+  }
+}
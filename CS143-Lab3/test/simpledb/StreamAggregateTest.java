@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  DbIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+  }
+
+  /**
+   * Unit test for StreamAggregate.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    StreamAggregate op = new StreamAggregate(scan1, new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+    Aggregate hashOp = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM);
+    assertEquals(hashOp.getTupleDesc(), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for StreamAggregate.getNext() over grouped input, checking
+   * that groups come out in the order of the child
+   */
+  @Test public void groupedInput() throws Exception {
+    StreamAggregate op = new StreamAggregate(scan1, new int[] { 1, 1, 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM,
+            Aggregator.Op.MIN, Aggregator.Op.AVG });
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 12, 2, 4,
+                    3, 12, 2, 4,
+                    5, 7, 7, 7 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for StreamAggregate.getNext() without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    StreamAggregate op = new StreamAggregate(scan1, new int[] { 1, 0 },
+        new int[0], new Aggregator.Op[] { Aggregator.Op.MAX,
+            Aggregator.Op.COUNT });
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(2, new int[] { 7, 7 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Test that a SUM past the range of an int fails rather than wrapping
+   */
+  @Test public void overflow() throws Exception {
+    StreamAggregate op = new StreamAggregate(TestUtil.createTupleList(2,
+        new int[] { 1, Integer.MAX_VALUE, 1, 1 }), new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+    op.open();
+    try {
+      op.next();
+      fail("a SUM past the range of an int was returned");
+    } catch (DbException e) {
+      // expected
+    }
+    op.close();
+  }
+
+  /**
+   * Unit test for StreamAggregate.getNext() over empty input
+   */
+  @Test public void emptyInput() throws Exception {
+    DbIterator empty = TestUtil.createTupleList(width1, new int[0]);
+    StreamAggregate op = new StreamAggregate(empty, new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT });
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for StreamAggregate over the output of an OrderBy on the group
+   * field, and for StreamAggregate.rewind()
+   */
+  @Test public void sortedInput() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 3, 1,
+                    1, 1,
+                    3, 5,
+                    2, 2,
+                    1, 3 });
+    OrderBy sorted = new OrderBy(0, false, scan);
+    StreamAggregate op = new StreamAggregate(sorted, new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 3, 6,
+                    2, 2,
+                    1, 4 });
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for LogicalPlan.isGroupedOn(), which decides when the planner
+   * can use a StreamAggregate
+   */
+  @Test public void isGroupedOn() throws Exception {
+    OrderBy sorted = new OrderBy(new int[] { 1, 0 },
+        new boolean[] { true, false }, scan1);
+    assertTrue(LogicalPlan.isGroupedOn(sorted, new int[] { 1 }));
+    assertTrue(LogicalPlan.isGroupedOn(sorted, new int[] { 0, 1 }));
+    assertFalse(LogicalPlan.isGroupedOn(sorted, new int[] { 0 }));
+    assertFalse(LogicalPlan.isGroupedOn(scan1, new int[] { 0 }));
+    Filter f = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN,
+        TestUtil.getField(0)), sorted);
+    assertTrue(LogicalPlan.isGroupedOn(f, new int[] { 1 }));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamAggregateTest.class);
+  }
+}
@@ -190,6 +190,68 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * Creates two tables of random tuples that join on some of their values,
+     * whose fields are named c0, c1, ... and hold values under 200: "a", of
+     * 3 fields and 4000 tuples, and "b", of 2 fields and 500 tuples. Both are
+     * added to the catalog.
+     *
+     * @param stats
+     *            if not null, the TableStats of each table are put in it
+     *            under the table's name
+     * @return the files of a and b
+     */
+    public static HeapFile[] createJoinTables(Map<String, TableStats> stats)
+            throws Exception {
+        HeapFile a = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(
+                3, 4000, 200, null, null, "c");
+        Database.getCatalog().addTable(a, "a");
+        HeapFile b = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(
+                2, 500, 200, null, null, "c");
+        Database.getCatalog().addTable(b, "b");
+        if (stats != null) {
+            stats.put("a", new TableStats(a.getId(), 1000));
+            stats.put("b", new TableStats(b.getId(), 1000));
+        }
+        return new HeapFile[] { a, b };
+    }
+
+    /**
+     * @return the physical plan the optimizer chooses for a query, over the
+     *         tables of stats
+     */
+    public static DbIterator plan(TransactionId tid, String query,
+            Map<String, TableStats> stats) throws Exception {
+        return new Parser().generateLogicalPlan(tid, query).physicalPlan(tid,
+                stats, false);
+    }
+
+    /**
+     * Opens it, and reads all of its tuples before closing it.
+     *
+     * @return the tuples, as strings, in the order they are read
+     */
+    public static ArrayList<String> tupleStrings(DbIterator it)
+            throws Exception {
+        ArrayList<String> l = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        return l;
+    }
+
+    /**
+     * @return the tuples of it, as strings, sorted
+     * @see #tupleStrings
+     */
+    public static ArrayList<String> sortedTupleStrings(DbIterator it)
+            throws Exception {
+        ArrayList<String> l = tupleStrings(it);
+        Collections.sort(l);
+        return l;
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
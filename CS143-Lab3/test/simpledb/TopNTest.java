@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int testWidth = 2;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(testWidth,
+        new int[] { 5, 1,
+                    2, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    2, 6 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan);
+    TupleDesc expected = Utility.getTupleDesc(testWidth);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for TopN.getNext() in ascending order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    op.open();
+    int[] firstField = new int[3];
+    for (int i = 0; i < 3; i++) {
+      assertTrue(op.hasNext());
+      firstField[i] = ((IntField) op.next().getField(0)).getValue();
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    assertEquals(1, firstField[0]);
+    assertEquals(2, firstField[1]);
+    assertEquals(2, firstField[2]);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() in descending order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(1, false, 2, scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 2, 6,
+                    7, 5 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() on two fields, where the second breaks
+   * ties on the first
+   */
+  @Test public void multipleFields() throws Exception {
+    TopN op = new TopN(new int[] { 0, 1 }, new boolean[] { true, false }, 3,
+        scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 1, 4,
+                    2, 6,
+                    2, 2 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit larger than its input
+   */
+  @Test public void limitLargerThanInput() throws Exception {
+    TopN op = new TopN(1, true, 100, scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 5, 1,
+                    2, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    2, 6 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit far larger than its input,
+   * which must not be allocated up front
+   */
+  @Test public void hugeLimit() throws Exception {
+    TopN op = new TopN(1, false, 999999999, scan);
+    op.open();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 2, 6,
+                    7, 5,
+                    1, 4,
+                    9, 3,
+                    2, 2,
+                    5, 1 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit of zero
+   */
+  @Test public void limitZero() throws Exception {
+    TopN op = new TopN(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(1, false, 2, scan);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    TupleIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 2, 6,
+                    7, 5 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -29,6 +29,21 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.getString()
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE,
+                Type.STRING_TYPE });
+
+        Tuple tup = new Tuple(td);
+        tup.setField(0, new IntField(42));
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+
+        assertEquals(42, tup.getInt(0));
+        assertEquals("abc", tup.getString(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
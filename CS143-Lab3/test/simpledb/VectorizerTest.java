@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class VectorizerTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HashMap<String, TableStats> stats;
+
+  /**
+   * Initialize each unit test with two tables of random tuples that join on
+   * some of their values
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    stats = new HashMap<String, TableStats>();
+    TestUtil.createJoinTables(stats);
+  }
+
+  /**
+   * Test that vectorized plans return the tuples of the plans they are
+   * made from, in the same order where the order is defined
+   */
+  @Test public void sameResults() throws Exception {
+    String[] queries = {
+        "SELECT a.c2, a.c0 FROM a WHERE a.c1 < 50;",
+        "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND b.c1 < 20;",
+        "SELECT a.c1, SUM(a.c2), COUNT(a.c0) FROM a GROUP BY a.c1;",
+        "SELECT a.c0 FROM a WHERE a.c2 > 150 ORDER BY a.c0;" };
+    for (String q : queries) {
+      ArrayList<String> expected = TestUtil.tupleStrings(TestUtil.plan(tid,
+          q, stats));
+      ArrayList<String> actual = TestUtil.tupleStrings(Vectorizer.vectorize(
+          TestUtil.plan(tid, q, stats)));
+      if (!q.contains("ORDER BY")) {
+        java.util.Collections.sort(expected);
+        java.util.Collections.sort(actual);
+      }
+      assertTrue(expected.size() > 0);
+      assertEquals(q, expected, actual);
+    }
+  }
+
+  /**
+   * Test that operators with a batch form are replaced, and that others
+   * are fed from batch plans through a Batcher
+   */
+  @Test public void shape() throws Exception {
+    DbIterator p = Vectorizer.vectorize(TestUtil.plan(tid,
+        "SELECT a.c0 FROM a WHERE a.c2 > 150;", stats));
+    assertTrue(p instanceof Unbatcher);
+    assertTrue(((Unbatcher) p).getBatchChild() instanceof BatchProject);
+
+    DbIterator sorted = new OrderBy(0, true, new Filter(new Predicate(2,
+        Predicate.Op.GREATER_THAN, new IntField(150)), new SeqScan(tid,
+        Database.getCatalog().getTableId("a"), "a")));
+    p = Vectorizer.vectorize(sorted);
+    assertTrue(p == sorted);
+    assertTrue(((OrderBy) p).getChildren()[0] instanceof Unbatcher);
+  }
+
+  /**
+   * Test that a vectorized plan is estimated and drawn with its batch
+   * operators, as -explain shows it
+   */
+  @Test public void explain() throws Exception {
+    String q = "SELECT a.c0, b.c1 FROM a, b WHERE a.c1 = b.c0 AND a.c2 > 50;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, q);
+    Operator tuples = (Operator) lp.physicalPlan(tid, stats, false);
+    OperatorCardinality.updateOperatorCardinality(tuples,
+        lp.getTableAliasToIdMapping(), stats);
+
+    lp = new Parser().generateLogicalPlan(tid, q);
+    Operator p = (Operator) Vectorizer.vectorize(lp.physicalPlan(tid, stats,
+        false));
+    OperatorCardinality.updateOperatorCardinality(p,
+        lp.getTableAliasToIdMapping(), stats);
+    assertTrue(p instanceof Unbatcher);
+    assertEquals(tuples.getEstimatedCardinality(),
+        p.getEstimatedCardinality(), 1);
+
+    String tree = new QueryPlanVisualizer().getQueryPlanTree(p);
+    assertTrue(tree, tree.contains(QueryPlanVisualizer.UNBATCH));
+    assertTrue(tree, tree.contains(QueryPlanVisualizer.BATCH_HASH_JOIN
+        + "(a.c1=b.c0)"));
+    assertTrue(tree, tree.contains(QueryPlanVisualizer.BATCH_SCAN + "(b)"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(VectorizerTest.class);
+  }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+
+  private TransactionId tid;
+  private File file;
+  private HeapFile hf;
+  private ArrayList<ArrayList<Integer>> tuples;
+
+  /**
+   * Initialize each unit test with a table loaded in order of its first
+   * field, with random values in its second
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tid = new TransactionId();
+    Random rand = new Random(6830);
+    tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      t.add(i);
+      t.add(rand.nextInt(100));
+      tuples.add(t);
+    }
+    file = File.createTempFile("zonemap", ".dat");
+    file.deleteOnExit();
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    hf = Utility.openHeapFile(2, "c", file);
+  }
+
+  @After public void tearDown() {
+    hf.getZoneMap().getFile().delete();
+    file.delete();
+  }
+
+  private ArrayList<ArrayList<Integer>> matching(Predicate p) {
+    ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) })))
+        l.add(t);
+    return l;
+  }
+
+  private int pagesToRead(Predicate... preds) {
+    int n = 0;
+    for (int i = 0; i < hf.numPages(); i++)
+      if (hf.getZoneMap().mayMatch(i, preds))
+        n++;
+    return n;
+  }
+
+  private DbIterator filteredScan(Predicate p) {
+    SeqScan ss = new SeqScan(tid, hf.getId(), "z");
+    ss.setPageFilters(new Predicate[] { p });
+    return new Filter(p, ss);
+  }
+
+  /**
+   * Test that a range over the sorted field reads only the pages that hold
+   * it, and that the filtered scan still returns the right tuples
+   */
+  @Test public void skipsPages() throws Exception {
+    Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN,
+        new IntField(ROWS - 10));
+    assertEquals(1, pagesToRead(gt));
+    SystemTestUtil.matchTuples(filteredScan(gt), matching(gt));
+
+    Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS));
+    assertEquals(0, pagesToRead(eq));
+    SystemTestUtil.matchTuples(filteredScan(eq), matching(eq));
+
+    // the random field rules out nothing, so every page is read
+    Predicate lt = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50));
+    assertEquals(hf.numPages(), pagesToRead(lt));
+    assertEquals(1, pagesToRead(gt, lt));
+    SystemTestUtil.matchTuples(filteredScan(lt), matching(lt));
+  }
+
+  /**
+   * Test that an insert widens the range of its page before it is flushed,
+   * and that the ranges are read back from the side file
+   */
+  @Test public void insertAndReopen() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(2 * ROWS));
+    assertEquals(0, pagesToRead(p));
+    Database.getBufferPool().insertTuple(tid, hf.getId(),
+        Utility.getHeapTuple(new int[] { 2 * ROWS, 7 }));
+    ArrayList<Integer> row = new ArrayList<Integer>();
+    row.add(2 * ROWS);
+    row.add(7);
+    tuples.add(row);
+    assertEquals(1, pagesToRead(p));
+    SystemTestUtil.matchTuples(filteredScan(p), matching(p));
+
+    Database.getBufferPool().flushAllPages();
+    assertTrue(hf.getZoneMap().getFile().exists());
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    hf = new HeapFile(file, hf.getTupleDesc());
+    Database.getCatalog().addTable(hf, "z");
+    assertEquals(1, pagesToRead(p));
+    SystemTestUtil.matchTuples(filteredScan(p), matching(p));
+  }
+
+  /**
+   * Test that writing a page back after deletes narrows its range
+   */
+  @Test public void deleteNarrows() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(ROWS - 5));
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (p.filter(t))
+        Database.getBufferPool().deleteTuple(tid, t);
+    }
+    it.close();
+    assertEquals(1, pagesToRead(p));
+    Database.getBufferPool().flushAllPages();
+    assertEquals(0, pagesToRead(p));
+  }
+
+  /**
+   * Test that the planner passes the filters of a scanned table down to its
+   * scan
+   */
+  @Test public void planner() throws Exception {
+    Database.getCatalog().addTable(hf, "z");
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("z", new TableStats(hf.getId(), 1000));
+    Parser parser = new Parser();
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM z WHERE z.c0 > 10 AND z.c1 < 3;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    while (!(plan instanceof SeqScan)) {
+      assertFalse(plan instanceof IndexScan);
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    assertEquals(2, ((SeqScan) plan).getPageFilters().length);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}